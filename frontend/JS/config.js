@@ -3,7 +3,11 @@ const CONFIG = {
     isProduction: true, 
     
     // Backend URLs
+    // Trang do chính Java server phục vụ (meta api-origin) thì gọi API cùng origin, không preflight CORS
     get API_BASE_URL() {
+        if (document.querySelector('meta[name="api-origin"][content="same"]')) {
+            return window.location.origin;
+        }
         return 'https://web-production-1107a3.up.railway.app';
     },
     
@@ -59,6 +59,10 @@ DELAY_BETWEEN_REQUESTS = CONFIG.getint('SCRAPER', 'delay_between_requests', fall
 REQUEST_TIMEOUT = CONFIG.getint('SCRAPER', 'request_timeout', fallback=10)
 MAX_RETRIES = CONFIG.getint('SCRAPER', 'max_retries', fallback=3)
 RETRY_DELAY = CONFIG.getint('SCRAPER', 'retry_delay', fallback=60)
+# Đổi được để chạy với stub cục bộ (server/.../tools/TikiStubServer.java)
+API_BASE = CONFIG.get('SCRAPER', 'api_base', fallback='https://tiki.vn/api/v2/products').rstrip('/')
+# Số sản phẩm lấy giá trong một request listing (/api/v2/products?ids=...); 1 = tắt batch
+BATCH_SIZE = CONFIG.getint('SCRAPER', 'batch_size', fallback=40)
 
 # ===== CẤU HÌNH LOGGING =====
 LOG_DIR = Path(__file__).parent / CONFIG.get('LOGGING', 'log_dir', fallback='logs')
@@ -86,8 +90,11 @@ class TikiScraper:
             'total': 0,
             'success': 0,
             'failed': 0,
-            'skipped': 0
+            'skipped': 0,
+            'requests': 0
         }
+        # Tiki không lọc listing theo ids thì chuyển hẳn sang gọi lẻ cho lượt chạy này
+        self.batch_available = BATCH_SIZE > 1
         logger.info("="*60)
         logger.info("TIKI PRICE SCRAPER - Tầng 1 Giai đoạn 2")
         logger.info("="*60)
@@ -123,12 +130,21 @@ class TikiScraper:
         logger.info("✓ Đã đóng kết nối database")
     
     def get_all_products(self):
-        """Lấy tất cả sản phẩm từ database"""
+        """
+        Lấy các sản phẩm đã tới lịch cào (next_scrape_at do server xếp theo độ biến động / lượt xem)
+        Sản phẩm chưa có lịch luôn được cào; DB chưa có cột next_scrape_at thì lấy tất cả
+        """
         try:
-            query = "SELECT product_id, name, url, source FROM product"
-            self.cursor.execute(query)
+            query = ("SELECT product_id, name, url, source FROM product "
+                     "WHERE next_scrape_at IS NULL OR next_scrape_at <= NOW()")
+            try:
+                self.cursor.execute(query)
+            except mysql.connector.Error as err:
+                if err.errno != 1054:  # ER_BAD_FIELD_ERROR: server chưa chạy migration
+                    raise
+                self.cursor.execute("SELECT product_id, name, url, source FROM product")
             products = self.cursor.fetchall()
-            logger.info(f"✓ Tìm thấy {len(products)} sản phẩm trong database")
+            logger.info(f"✓ Tìm thấy {len(products)} sản phẩm tới lịch cào trong database")
             return products
         except mysql.connector.Error as err:
             logger.error(f"✗ Lỗi truy vấn database: {err}")
@@ -156,44 +172,13 @@ class TikiScraper:
         for attempt in range(MAX_RETRIES):
             try:
                 # Thử API endpoint chính thức
-                api_url = f"https://tiki.vn/api/v2/products/{tiki_product_id}"
+                api_url = f"{API_BASE}/{tiki_product_id}"
                 
+                self.stats['requests'] += 1
                 response = requests.get(api_url, headers=HEADERS, timeout=REQUEST_TIMEOUT)
                 
                 if response.status_code == 200:
-                    data = response.json()
-                    
-                    # Lấy thông tin giá
-                    price = data.get('price')
-                    original_price = data.get('original_price', price)
-                    
-                    # Xác định deal_type
-                    deal_type = 'NORMAL'
-                    badges = data.get('badges_new', [])
-                    for badge in badges:
-                        badge_code = badge.get('code', '').upper()
-                        if 'FLASH' in badge_code:
-                            deal_type = 'FLASH_SALE'
-                            break
-                        elif 'HOT' in badge_code or 'DEAL' in badge_code:
-                            deal_type = 'HOT_DEAL'
-                            break
-                        elif 'TREND' in badge_code:
-                            deal_type = 'TRENDING'
-                            break
-                    
-                    # Kiểm tra discount
-                    if original_price and price and price < original_price:
-                        discount_percent = ((original_price - price) / original_price) * 100
-                        if discount_percent >= 30 and deal_type == 'NORMAL':
-                            deal_type = 'HOT_DEAL'
-                    
-                    return {
-                        'price': price,
-                        'original_price': original_price,
-                        'currency': 'VND',
-                        'deal_type': deal_type
-                    }
+                    return self._parse_price_data(response.json())
                 
                 elif response.status_code == 404:
                     logger.warning(f"  ! Sản phẩm không tồn tại (404)")
@@ -230,9 +215,123 @@ class TikiScraper:
         
         return None
     
+    def scrape_tiki_batch(self, tiki_product_ids):
+        """
+        Lấy giá nhiều sản phẩm trong MỘT request listing: /api/v2/products?ids=1,2,3
+        Returns: dict tiki_id (str) -> price_data; ID listing không trả về thì caller gọi lẻ
+        """
+        if not self.batch_available or len(tiki_product_ids) < 2:
+            return {}
+        
+        for attempt in range(MAX_RETRIES):
+            try:
+                self.stats['requests'] += 1
+                response = requests.get(
+                    API_BASE,
+                    params={'ids': ','.join(tiki_product_ids), 'limit': len(tiki_product_ids)},
+                    headers=HEADERS,
+                    timeout=REQUEST_TIMEOUT
+                )
+                
+                if response.status_code == 429 or response.status_code >= 500:
+                    logger.warning(f"  ! Listing API trả về status code: {response.status_code}")
+                    if attempt < MAX_RETRIES - 1:
+                        logger.warning(f"  Đợi {RETRY_DELAY}s trước khi thử lại...")
+                        time.sleep(RETRY_DELAY)
+                        continue
+                    return {}
+                
+                items = response.json().get('data') if response.status_code == 200 else None
+                if not isinstance(items, list):
+                    logger.warning(f"  ! Listing API không lọc được theo ids (status {response.status_code}), chuyển sang gọi lẻ")
+                    self.batch_available = False
+                    return {}
+                
+                wanted = set(tiki_product_ids)
+                results = {}
+                for item in items:
+                    item_id = str(item.get('id'))
+                    if item_id in wanted and item.get('price') is not None:
+                        results[item_id] = self._parse_price_data(item)
+                
+                if not results and items:
+                    # Tiki bỏ qua tham số ids và trả listing mặc định
+                    logger.warning("  ! Listing API bỏ qua tham số ids, chuyển sang gọi lẻ")
+                    self.batch_available = False
+                return results
+                
+            except (requests.exceptions.RequestException, ValueError) as e:
+                logger.warning(f"  ! Lỗi listing request (lần {attempt + 1}/{MAX_RETRIES}): {e}")
+                if attempt < MAX_RETRIES - 1:
+                    logger.warning(f"  Đợi {RETRY_DELAY}s trước khi thử lại...")
+                    time.sleep(RETRY_DELAY)
+        
+        return {}
+    
+    @staticmethod
+    def _parse_price_data(data):
+        """price / original_price / deal_type từ JSON sản phẩm (chi tiết hoặc item listing)"""
+        # Lấy thông tin giá
+        price = data.get('price')
+        original_price = data.get('original_price', price)
+        
+        # Xác định deal_type
+        deal_type = 'NORMAL'
+        badges = data.get('badges_new', [])
+        for badge in badges:
+            badge_code = badge.get('code', '').upper()
+            if 'FLASH' in badge_code:
+                deal_type = 'FLASH_SALE'
+                break
+            elif 'HOT' in badge_code or 'DEAL' in badge_code:
+                deal_type = 'HOT_DEAL'
+                break
+            elif 'TREND' in badge_code:
+                deal_type = 'TRENDING'
+                break
+        
+        # Kiểm tra discount
+        if original_price and price and price < original_price:
+            discount_percent = ((original_price - price) / original_price) * 100
+            if discount_percent >= 30 and deal_type == 'NORMAL':
+                deal_type = 'HOT_DEAL'
+        
+        return {
+            'price': price,
+            'original_price': original_price,
+            'currency': 'VND',
+            'deal_type': deal_type
+        }
+    
     def save_price_history(self, product_id, price_data):
-        """Lưu thông tin giá vào bảng price_history"""
+        """Lưu thông tin giá vào bảng price_history
+        
+        Change-only: nếu (price, original_price, deal_type) giống dòng mới nhất của sản phẩm
+        thì chỉ cập nhật last_seen_at của dòng đó, không thêm dòng mới
+        """
         try:
+            now = datetime.now()
+            
+            self.cursor.execute("""
+                SELECT price_id, price, original_price, currency, deal_type
+                FROM price_history WHERE product_id = %s
+                ORDER BY price_id DESC LIMIT 1
+            """, (product_id,))
+            latest = self.cursor.fetchone()
+            
+            if latest and self._same_price_tuple(latest, price_data):
+                try:
+                    self.cursor.execute(
+                        "UPDATE price_history SET last_seen_at = %s WHERE price_id = %s",
+                        (now, latest['price_id'])
+                    )
+                    self.db_connection.commit()
+                    return True
+                except mysql.connector.Error as err:
+                    # DB chưa được server migrate (chưa có last_seen_at) → ghi dòng mới như cũ
+                    if err.errno != 1054:
+                        raise
+            
             query = """
                 INSERT INTO price_history 
                 (product_id, price, original_price, currency, deal_type, recorded_at)
@@ -244,7 +343,7 @@ class TikiScraper:
                 price_data['original_price'],
                 price_data['currency'],
                 price_data['deal_type'],
-                datetime.now()
+                now
             )
             
             self.cursor.execute(query, values)
@@ -255,6 +354,19 @@ class TikiScraper:
             logger.error(f"  ✗ Lỗi lưu database: {err}")
             return False
     
+    @staticmethod
+    def _same_price_tuple(row, price_data):
+        """So sánh dòng price_history (DECIMAL) với giá vừa cào"""
+        def same(a, b):
+            if a is None or b is None:
+                return a is None and b is None
+            return abs(float(a) - float(b)) < 0.005
+        
+        return (same(row['price'], price_data['price'])
+                and same(row['original_price'], price_data['original_price'])
+                and row['currency'] == price_data['currency']
+                and row['deal_type'] == price_data['deal_type'])
+    
     def log_scrape_session(self):
         """Ghi log vào bảng scrape_log"""
         try:
@@ -303,42 +415,57 @@ class TikiScraper:
         logger.info(f"Bắt đầu cào {len(products)} sản phẩm...")
         logger.info("─"*60)
         
-        # Cào từng sản phẩm
-        for idx, product in enumerate(products, 1):
-            product_id = product['product_id']
-            product_name = product['name']
-            product_url = product['url']
-            
-            logger.info(f"[{idx}/{len(products)}] {product_name[:50]}...")
-            
-            # Trích xuất Tiki product ID từ URL
-            tiki_id = self.extract_product_id_from_url(product_url)
+        # Cào theo lô: mỗi lô BATCH_SIZE sản phẩm = 1 request listing, ID listing không trả về thì gọi lẻ
+        # (delay giữ nguyên giữa các request, nên tốc độ request không đổi mà số request giảm)
+        for start in range(0, len(products), BATCH_SIZE):
+            chunk = products[start:start + BATCH_SIZE]
+            tiki_ids = {}
+            for product in chunk:
+                tiki_ids[product['product_id']] = self.extract_product_id_from_url(product['url'])
             
-            if not tiki_id:
-                logger.warning(f"  ! Không thể trích xuất Tiki ID từ URL")
-                self.stats['skipped'] += 1
-                continue
-            
-            # Cào dữ liệu từ Tiki
-            price_data = self.scrape_tiki_product(tiki_id)
+            batch_ids = list(dict.fromkeys(i for i in tiki_ids.values() if i))
+            batch_prices = {}
+            if self.batch_available and len(batch_ids) > 1:
+                batch_prices = self.scrape_tiki_batch(batch_ids)
+                logger.info(f"📦 Listing: {len(batch_prices)}/{len(batch_ids)} sản phẩm có giá trong 1 request")
+                time.sleep(DELAY_BETWEEN_REQUESTS)
             
-            if price_data:
-                # Lưu vào database
-                if self.save_price_history(product_id, price_data):
-                    price_str = f"{price_data['price']:,.0f}đ"
-                    if price_data['original_price'] != price_data['price']:
-                        price_str += f" (gốc: {price_data['original_price']:,.0f}đ)"
-                    logger.info(f"  ✓ Giá: {price_str} | Deal: {price_data['deal_type']}")
-                    self.stats['success'] += 1
+            for offset, product in enumerate(chunk):
+                idx = start + offset + 1
+                product_id = product['product_id']
+                product_name = product['name']
+                
+                logger.info(f"[{idx}/{len(products)}] {product_name[:50]}...")
+                
+                # Trích xuất Tiki product ID từ URL
+                tiki_id = tiki_ids[product_id]
+                
+                if not tiki_id:
+                    logger.warning(f"  ! Không thể trích xuất Tiki ID từ URL")
+                    self.stats['skipped'] += 1
+                    continue
+                
+                # Giá từ listing, không có thì cào lẻ từ Tiki
+                price_data = batch_prices.get(tiki_id)
+                if price_data is None:
+                    price_data = self.scrape_tiki_product(tiki_id)
+                    # Delay để tránh bị block
+                    if idx < len(products):
+                        time.sleep(DELAY_BETWEEN_REQUESTS)
+                
+                if price_data:
+                    # Lưu vào database
+                    if self.save_price_history(product_id, price_data):
+                        price_str = f"{price_data['price']:,.0f}đ"
+                        if price_data['original_price'] != price_data['price']:
+                            price_str += f" (gốc: {price_data['original_price']:,.0f}đ)"
+                        logger.info(f"  ✓ Giá: {price_str} | Deal: {price_data['deal_type']}")
+                        self.stats['success'] += 1
+                    else:
+                        self.stats['failed'] += 1
                 else:
+                    logger.warning(f"  ✗ Không cào được dữ liệu")
                     self.stats['failed'] += 1
-            else:
-                logger.warning(f"  ✗ Không cào được dữ liệu")
-                self.stats['failed'] += 1
-            
-            # Delay để tránh bị block
-            if idx < len(products):
-                time.sleep(DELAY_BETWEEN_REQUESTS)
         
         # Ghi log
         self.log_scrape_session()
@@ -354,6 +481,7 @@ class TikiScraper:
         logger.info(f"  ✓ Thành công:          {self.stats['success']} ({self.stats['success']/self.stats['total']*100:.1f}%)")
         logger.info(f"  ✗ Thất bại:            {self.stats['failed']}")
         logger.info(f"  ! Bỏ qua:              {self.stats['skipped']}")
+        logger.info(f"  🌐 Request tới Tiki:    {self.stats['requests']}")
         logger.info(f"  ⏱ Thời gian:           {duration:.1f}s ({duration/60:.1f} phút)")
         logger.info("="*60)
         
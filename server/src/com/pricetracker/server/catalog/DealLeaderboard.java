@@ -0,0 +1,503 @@
+package com.pricetracker.server.catalog;
+
+import com.pricetracker.models.PriceHistory;
+import com.pricetracker.models.Product;
+import com.pricetracker.server.db.PriceHistoryDAO;
+import com.pricetracker.server.db.ProductDAO;
+import com.pricetracker.server.db.ProductGroupDAO;
+import com.pricetracker.server.utils.PageCursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DealLeaderboard - Bảng xếp hạng giảm giá in-memory cho /deals
+ *
+ * - Mỗi deal type (và ALL) có một TreeSet sắp theo % giảm giá, thêm một bảng riêng cho từng group
+ * - Giá mới từ addCompletePriceRecord cập nhật bảng xếp hạng trong O(log n), không chờ TTL cache
+ * - Cùng ngữ nghĩa với ProductDAO.getProductsByDealType: mỗi (sản phẩm, deal type) xếp theo dòng
+ *   giảm giá mới nhất của type đó; ALL xếp theo dòng giảm giá mới nhất trong cả ba type
+ * - Scraper Python ghi thẳng vào DB nên bảng được dựng lại định kỳ từ DB (deals.reloadMinutes)
+ * - Nguồn sự kiện đổi giá duy nhất của server: listener được báo cả giá ghi qua server lẫn giá
+ *   scraper ghi vào DB (phát hiện khi reload)
+ */
+public final class DealLeaderboard {
+    private static final Logger log = LoggerFactory.getLogger(DealLeaderboard.class);
+
+    private static final DealLeaderboard instance = new DealLeaderboard();
+
+    private static final long RELOAD_MINUTES = Long.parseLong(System.getProperty("deals.reloadMinutes", "5"));
+
+    /** Cùng ngưỡng so sánh giá với PriceWriteBuffer (decimal(15,2)) */
+    private static final double PRICE_EPSILON = 0.005;
+
+    /**
+     * Các bảng xếp hạng; topK là kích thước trang mặc định (đúng LIMIT của query SQL cũ),
+     * trang sau lấy bằng cursor
+     */
+    public enum Board {
+        ALL(200),
+        FLASH_SALE(100),
+        HOT_DEAL(100),
+        TRENDING(20);
+
+        private final int topK;
+
+        Board(int topK) {
+            this.topK = topK;
+        }
+
+        public int getTopK() {
+            return topK;
+        }
+
+        /**
+         * Tên thứ tự trong PageCursor: cursor của board này không dùng được cho board khác
+         */
+        public String cursorSort() {
+            return "deals:" + name();
+        }
+
+        /**
+         * Board theo tham số deal_type của /deals ("ALL", "FLASH_SALE", ...), null nếu không hỗ trợ
+         */
+        public static Board of(String dealType) {
+            if (dealType == null) {
+                return null;
+            }
+            try {
+                return valueOf(dealType.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Board của một dòng price_history (deal_type đã chuẩn hóa), null với NORMAL
+         */
+        static Board forDealType(String normalizedDealType) {
+            Board board = of(normalizedDealType);
+            return board == ALL ? null : board;
+        }
+    }
+
+    /**
+     * Một sản phẩm trong bảng xếp hạng; immutable, so sánh theo (discount DESC, productId DESC)
+     * - cùng thứ tự với keyset SQL "(discount, product_id) < (?, ?)" nên cursor dùng chung được
+     */
+    private static final class Entry {
+        final int productId;
+        final double discount;
+
+        Entry(int productId, double discount) {
+            this.productId = productId;
+            this.discount = discount;
+        }
+    }
+
+    private static final Comparator<Entry> RANKING = Comparator
+            .comparingDouble((Entry e) -> -e.discount)
+            .thenComparingInt(e -> -e.productId);
+
+    /**
+     * Một dòng kết quả của page()
+     */
+    public static final class Item {
+        public final Product product;
+        public final PriceHistory price;
+        public final String groupName;
+
+        Item(Product product, PriceHistory price, String groupName) {
+            this.product = product;
+            this.price = price;
+            this.groupName = groupName;
+        }
+    }
+
+    /**
+     * Một trang của bảng xếp hạng; total = số sản phẩm trên cả board
+     */
+    public static final class Page {
+        public final List<Item> items;
+        public final int total;
+        /** null nếu đây là trang cuối */
+        public final String nextCursor;
+
+        Page(List<Item> items, int total, String nextCursor) {
+            this.items = items;
+            this.total = total;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    /**
+     * Toàn bộ dữ liệu của một lần dựng bảng; reload dựng State mới rồi thay cả khối
+     */
+    private static final class State {
+        final Map<Integer, Product> products = new HashMap<>();
+        final Map<Integer, String> groupNames = new HashMap<>();
+        final Map<Integer, PriceHistory> currentPrices = new HashMap<>();
+        /** productId → entry hiện tại trên từng board (index = Board.ordinal()) */
+        final Map<Integer, Entry[]> entries = new HashMap<>();
+        final Map<Board, TreeSet<Entry>> boards = new EnumMap<>(Board.class);
+        final Map<Board, Map<Integer, TreeSet<Entry>>> groupBoards = new EnumMap<>(Board.class);
+
+        State() {
+            for (Board board : Board.values()) {
+                boards.put(board, new TreeSet<>(RANKING));
+                groupBoards.put(board, new HashMap<>());
+            }
+        }
+
+        /**
+         * Áp dụng một dòng giá mới nhất của sản phẩm - O(log n)
+         */
+        void apply(PriceHistory ph) {
+            int productId = ph.getProductId();
+            Product product = products.get(productId);
+            if (product == null) {
+                return;
+            }
+            currentPrices.put(productId, ph);
+
+            Board board = Board.forDealType(ph.getDealType());
+            if (board == null || ph.getOriginalPrice() <= ph.getPrice()) {
+                // Giống SQL: dòng không giảm giá không thay thế dòng giảm giá cũ hơn của cùng type
+                return;
+            }
+
+            Entry entry = new Entry(productId, (ph.getOriginalPrice() - ph.getPrice()) / ph.getOriginalPrice());
+            Entry[] current = entries.computeIfAbsent(productId, id -> new Entry[Board.values().length]);
+            replace(board, current, entry, product.getGroupId());
+            // Dòng vừa áp dụng là dòng giảm giá mới nhất của sản phẩm → cũng là entry của ALL
+            replace(Board.ALL, current, entry, product.getGroupId());
+        }
+
+        private void replace(Board board, Entry[] current, Entry entry, int groupId) {
+            TreeSet<Entry> groupBoard = groupBoards.get(board).computeIfAbsent(groupId, id -> new TreeSet<>(RANKING));
+            Entry old = current[board.ordinal()];
+            if (old != null) {
+                boards.get(board).remove(old);
+                groupBoard.remove(old);
+            }
+            current[board.ordinal()] = entry;
+            boards.get(board).add(entry);
+            groupBoard.add(entry);
+        }
+    }
+
+    private final ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "deal-leaderboard-reload");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Guarded by this */
+    private State state;
+    /** Giá đến trong lúc reload, áp dụng lại lên State mới trước khi thay; guarded by this */
+    private List<Item> replay;
+    private volatile long lastReloadMillis;
+    private final List<PriceChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private DealLeaderboard() {
+    }
+
+    public static DealLeaderboard getInstance() {
+        return instance;
+    }
+
+    /**
+     * Dựng bảng lần đầu (nền) và lên lịch dựng lại định kỳ
+     * Trong lúc chưa dựng xong, /deals dùng query SQL
+     */
+    public void start() {
+        reloader.scheduleWithFixedDelay(() -> {
+            try {
+                reload();
+            } catch (Exception e) {
+                log.warn("⚠️  Deal leaderboard reload failed: {}", e.getMessage());
+            }
+        }, 0, RELOAD_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Dựng lại toàn bộ bảng từ DB (Pool.BACKGROUND)
+     */
+    public void reload() throws SQLException {
+        long started = System.currentTimeMillis();
+        synchronized (this) {
+            replay = new ArrayList<>();
+        }
+
+        State fresh = new State();
+        try {
+            for (Product product : ProductDAO.getInstance().getCatalogProducts()) {
+                fresh.products.put(product.getProductId(), product);
+            }
+            fresh.groupNames.putAll(ProductGroupDAO.getInstance().getAllGroups());
+
+            PriceHistoryDAO priceDAO = PriceHistoryDAO.getInstance();
+            // Dòng giảm giá theo price_id tăng dần: dòng áp dụng sau luôn mới hơn → ALL đúng ngữ nghĩa
+            for (PriceHistory row : priceDAO.getLatestDealRows()) {
+                fresh.apply(row);
+            }
+            // Giá hiện tại để hiển thị (giống getCurrentPrice), ghi đè sau cùng
+            for (PriceHistory row : priceDAO.getAllCurrentPrices()) {
+                if (fresh.products.containsKey(row.getProductId())) {
+                    fresh.currentPrices.put(row.getProductId(), row);
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            synchronized (this) {
+                replay = null;
+            }
+            throw e;
+        }
+
+        List<Integer> changedPrices = new ArrayList<>();
+        List<Product> addedProducts = new ArrayList<>();
+        synchronized (this) {
+            for (Item event : replay) {
+                if (event.product != null) {
+                    fresh.products.putIfAbsent(event.product.getProductId(), event.product);
+                }
+                fresh.apply(event.price);
+            }
+            replay = null;
+
+            // Thay đổi do scraper Python ghi thẳng vào DB: chỉ phát hiện được khi so với lần dựng trước
+            if (state != null) {
+                for (Product product : fresh.products.values()) {
+                    int productId = product.getProductId();
+                    if (!state.products.containsKey(productId)) {
+                        addedProducts.add(product);
+                    } else if (!samePrice(state.currentPrices.get(productId), fresh.currentPrices.get(productId))) {
+                        changedPrices.add(productId);
+                    }
+                }
+            }
+            state = fresh;
+        }
+        for (Product product : addedProducts) {
+            notifyProductAdded(product.getProductId(), product.getGroupId());
+        }
+        for (int productId : changedPrices) {
+            notifyPriceChanged(productId);
+        }
+        for (PriceChangeListener listener : listeners) {
+            try {
+                listener.catalogReloaded();
+            } catch (RuntimeException e) {
+                log.warn("Price change listener failed: {}", e.getMessage());
+            }
+        }
+        lastReloadMillis = System.currentTimeMillis();
+        log.info("✓ Deal leaderboard loaded: {} products, {} on ALL board ({} ms)",
+                fresh.products.size(), fresh.boards.get(Board.ALL).size(), lastReloadMillis - started);
+    }
+
+    /**
+     * Giá mới của sản phẩm (gọi từ PriceHistoryDAO.addCompletePriceRecord)
+     */
+    public void onPrice(int productId, double price, double originalPrice, String dealType) {
+        PriceHistory ph = new PriceHistory(productId, price, new Timestamp(System.currentTimeMillis()));
+        ph.setOriginalPrice(originalPrice);
+        ph.setCurrency("VND");
+        ph.setDealType(PriceHistoryDAO.normalizeDealType(dealType));
+
+        boolean known;
+        synchronized (this) {
+            if (state == null && replay == null) {
+                // Chưa dựng bảng: không so được với giá cũ, coi như đã đổi
+                known = true;
+            } else {
+                known = state != null && state.products.containsKey(productId);
+            }
+        }
+        Product product = null;
+        if (!known) {
+            // Sản phẩm thêm sau lần reload cuối: lấy thông tin ngoài lock
+            product = ProductDAO.getInstance().getProductById(productId);
+            if (product == null) {
+                return;
+            }
+        }
+        if (apply(product, ph)) {
+            notifyPriceChanged(productId);
+        }
+    }
+
+    /**
+     * Sản phẩm mới onboard cùng giá đầu tiên
+     */
+    public void onProduct(Product product, PriceHistory price) {
+        if (price == null) {
+            return;
+        }
+        PriceHistory ph = new PriceHistory(product.getProductId(), price.getPrice(), price.getCapturedAt());
+        ph.setOriginalPrice(price.getOriginalPrice());
+        ph.setCurrency(price.getCurrency());
+        ph.setDealType(PriceHistoryDAO.normalizeDealType(price.getDealType()));
+        boolean added;
+        synchronized (this) {
+            added = state == null || !state.products.containsKey(product.getProductId());
+        }
+        boolean changed = apply(product, ph);
+        if (added) {
+            notifyProductAdded(product.getProductId(), product.getGroupId());
+        } else if (changed) {
+            notifyPriceChanged(product.getProductId());
+        }
+    }
+
+    /**
+     * Đăng ký nhận thông báo đổi giá / sản phẩm mới (vd. để invalidate cache response)
+     */
+    public void addListener(PriceChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return true nếu giá hiển thị của sản phẩm thay đổi (hoặc không biết giá cũ)
+     */
+    private synchronized boolean apply(Product product, PriceHistory ph) {
+        if (replay != null) {
+            replay.add(new Item(product, ph, null));
+        }
+        if (state == null) {
+            return true;
+        }
+        if (product != null) {
+            state.products.putIfAbsent(product.getProductId(), product);
+        }
+        PriceHistory before = state.currentPrices.get(ph.getProductId());
+        state.apply(ph);
+        return !samePrice(before, ph);
+    }
+
+    private static boolean samePrice(PriceHistory a, PriceHistory b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return Math.abs(a.getPrice() - b.getPrice()) < PRICE_EPSILON
+                && Math.abs(a.getOriginalPrice() - b.getOriginalPrice()) < PRICE_EPSILON
+                && PriceHistoryDAO.normalizeDealType(a.getDealType())
+                        .equals(PriceHistoryDAO.normalizeDealType(b.getDealType()));
+    }
+
+    private void notifyPriceChanged(int productId) {
+        for (PriceChangeListener listener : listeners) {
+            try {
+                listener.priceChanged(productId);
+            } catch (RuntimeException e) {
+                log.warn("Price change listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void notifyProductAdded(int productId, int groupId) {
+        for (PriceChangeListener listener : listeners) {
+            try {
+                listener.productAdded(productId, groupId);
+            } catch (RuntimeException e) {
+                log.warn("Price change listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Một trang của bảng xếp hạng, không chạm DB
+     * - Có cursor: tailSet bắt đầu ngay sau (discount, productId) của cursor, O(log n + limit)
+     * @param groupId null = mọi group
+     * @param after cursor của trang trước (board.cursorSort()), null = từ đầu bảng
+     * @return Page, hoặc null nếu bảng chưa dựng xong
+     * @throws IllegalArgumentException nếu cursor có sort key không hợp lệ
+     */
+    public synchronized Page page(Board board, Integer groupId, PageCursor after, int offset, int limit) {
+        if (state == null) {
+            return null;
+        }
+        TreeSet<Entry> ranking = groupId == null
+                ? state.boards.get(board)
+                : state.groupBoards.get(board).getOrDefault(groupId, new TreeSet<>(RANKING));
+        Iterable<Entry> from = after != null
+                ? ranking.tailSet(new Entry(after.productId, after.numericKey()), false)
+                : ranking;
+
+        List<Item> items = new ArrayList<>(Math.min(Math.max(0, limit), 256));
+        Iterator<Entry> it = from.iterator();
+        for (int skipped = 0; skipped < offset && it.hasNext(); skipped++) {
+            it.next();
+        }
+        Entry last = null;
+        while (items.size() < limit && it.hasNext()) {
+            last = it.next();
+            Product product = state.products.get(last.productId);
+            items.add(new Item(product, state.currentPrices.get(last.productId),
+                    state.groupNames.get(product.getGroupId())));
+        }
+        String nextCursor = last != null && it.hasNext()
+                ? new PageCursor(board.cursorSort(), last.discount, last.productId).encode()
+                : null;
+        return new Page(items, ranking.size(), nextCursor);
+    }
+
+    /**
+     * Sản phẩm cùng giá hiện tại, null nếu không có (hoặc bảng chưa dựng xong)
+     */
+    public synchronized Item getItem(int productId) {
+        if (state == null) {
+            return null;
+        }
+        Product product = state.products.get(productId);
+        return product != null
+                ? new Item(product, state.currentPrices.get(productId), state.groupNames.get(product.getGroupId()))
+                : null;
+    }
+
+    /**
+     * Toàn bộ catalog in-memory (sản phẩm + giá hiện tại), rỗng nếu bảng chưa dựng xong
+     */
+    public synchronized List<Item> snapshot() {
+        if (state == null) {
+            return List.of();
+        }
+        List<Item> items = new ArrayList<>(state.products.size());
+        for (Product product : state.products.values()) {
+            items.add(new Item(product, state.currentPrices.get(product.getProductId()),
+                    state.groupNames.get(product.getGroupId())));
+        }
+        return items;
+    }
+
+    /**
+     * Kích thước các bảng cho /metrics
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("loaded", state != null);
+        if (state != null) {
+            stats.put("products", state.products.size());
+            for (Board board : Board.values()) {
+                stats.put(board.name().toLowerCase() + "_size", state.boards.get(board).size());
+            }
+        }
+        stats.put("last_reload_ms", lastReloadMillis);
+        return stats;
+    }
+}
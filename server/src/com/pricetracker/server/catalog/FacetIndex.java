@@ -0,0 +1,555 @@
+package com.pricetracker.server.catalog;
+
+import com.pricetracker.models.PriceHistory;
+import com.pricetracker.models.Product;
+import com.pricetracker.server.db.PriceHistoryDAO;
+import com.pricetracker.server.utils.PageCursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * FacetIndex - Lọc, đếm facet và sắp xếp catalog in-memory bằng bitmap index
+ *
+ * - Mỗi giá trị facet (group, brand, source, deal type, khoảng giá, mức giảm giá) là một BitSet
+ *   đánh theo product_id; lọc = AND các bitmap, đếm facet = cardinality của phép AND
+ * - Đếm facet kiểu "disjunctive": facet của một chiều tính với mọi filter TRỪ filter của chính chiều đó,
+ *   để UI hiện được số lượng cho các lựa chọn khác trong cùng chiều
+ * - Dữ liệu lấy từ DealLeaderboard (catalog + giá hiện tại), cập nhật qua PriceChangeListener
+ * - Thứ tự luôn là (sort key ASC, product_id DESC) nên phân trang keyset được: trang sau chỉ lấy
+ *   các sản phẩm đứng sau cursor, chọn top-K bằng heap thay vì sort cả tập khớp
+ */
+public final class FacetIndex implements PriceChangeListener {
+
+    /** Cận dưới của các khoảng giá (VND); khoảng cuối không có cận trên */
+    private static final long[] PRICE_BUCKETS = {0, 100_000, 200_000, 500_000, 1_000_000, 2_000_000, 5_000_000,
+            10_000_000};
+
+    /** Các mốc "giảm từ X%" */
+    private static final int[] DISCOUNT_THRESHOLDS = {10, 20, 30, 40, 50};
+
+    /** Số giá trị brand tối đa trả về trong facet */
+    private static final int MAX_BRAND_FACETS = 20;
+
+    public static final String SORT_NEWEST = "newest";
+    public static final String SORT_PRICE_ASC = "price_asc";
+    public static final String SORT_PRICE_DESC = "price_desc";
+    public static final String SORT_DISCOUNT = "discount_desc";
+    public static final String SORT_NAME = "name";
+
+    // Khai báo sau các hằng số: constructor dùng PRICE_BUCKETS / DISCOUNT_THRESHOLDS
+    private static final FacetIndex instance = new FacetIndex();
+
+    /**
+     * Điều kiện tìm kiếm; field null / rỗng = không lọc theo chiều đó
+     */
+    public static final class Query {
+        public Integer groupId;
+        public String text;
+        public Double minPrice;
+        public Double maxPrice;
+        public Set<String> brands;
+        public Set<String> sources;
+        public Set<String> dealTypes;
+        public int minDiscount;
+        public String sort = SORT_NEWEST;
+        /** Cursor của trang trước (cùng sort), null = trang đầu */
+        public PageCursor after;
+        public int offset;
+        public int limit = 50;
+
+        boolean hasFilters() {
+            return minPrice != null || maxPrice != null || notEmpty(brands) || notEmpty(sources)
+                    || notEmpty(dealTypes) || minDiscount > 0;
+        }
+    }
+
+    /**
+     * Một giá trị facet và số sản phẩm khớp
+     */
+    public static final class FacetValue {
+        public final String value;
+        public final String label;
+        public final int count;
+
+        FacetValue(String value, String label, int count) {
+            this.value = value;
+            this.label = label;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Kết quả: một trang sản phẩm, tổng số khớp, facet theo từng chiều và cursor của trang sau
+     */
+    public static final class Result {
+        public final List<DealLeaderboard.Item> items;
+        public final int total;
+        public final Map<String, List<FacetValue>> facets;
+        public final boolean filtered;
+        /** null nếu đây là trang cuối */
+        public final String nextCursor;
+
+        Result(List<DealLeaderboard.Item> items, int total, Map<String, List<FacetValue>> facets, boolean filtered,
+               String nextCursor) {
+            this.items = items;
+            this.total = total;
+            this.facets = facets;
+            this.filtered = filtered;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    // Tất cả field bên dưới guarded by this; mảng đánh theo product_id
+    private boolean loaded;
+    private DealLeaderboard.Item[] items = new DealLeaderboard.Item[0];
+    private double[] prices = new double[0];
+    private int[] discounts = new int[0];
+    private String[] searchText = new String[0];
+    private String[] brandKeys = new String[0];
+    private String[] sourceKeys = new String[0];
+    private String[] dealKeys = new String[0];
+
+    private final BitSet all = new BitSet();
+    private final Map<Integer, BitSet> byGroup = new HashMap<>();
+    private final Map<String, BitSet> byBrand = new HashMap<>();
+    private final Map<String, String> brandLabels = new HashMap<>();
+    private final Map<String, BitSet> bySource = new HashMap<>();
+    private final Map<String, BitSet> byDealType = new HashMap<>();
+    private final BitSet[] byPriceBucket = newBitSets(PRICE_BUCKETS.length);
+    /** byDiscount[i] = sản phẩm giảm từ DISCOUNT_THRESHOLDS[i]% trở lên (cộng dồn) */
+    private final BitSet[] byDiscount = newBitSets(DISCOUNT_THRESHOLDS.length);
+
+    private FacetIndex() {
+    }
+
+    public static FacetIndex getInstance() {
+        return instance;
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    @Override
+    public void priceChanged(int productId) {
+        reindex(productId);
+    }
+
+    @Override
+    public void productAdded(int productId, int groupId) {
+        reindex(productId);
+    }
+
+    @Override
+    public void catalogReloaded() {
+        List<DealLeaderboard.Item> snapshot = DealLeaderboard.getInstance().snapshot();
+        synchronized (this) {
+            for (int productId = all.nextSetBit(0); productId >= 0; productId = all.nextSetBit(productId + 1)) {
+                unindex(productId);
+            }
+            for (DealLeaderboard.Item item : snapshot) {
+                index(item);
+            }
+            loaded = true;
+        }
+    }
+
+    private void reindex(int productId) {
+        DealLeaderboard.Item item = DealLeaderboard.getInstance().getItem(productId);
+        if (item == null) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                index(item);
+            }
+        }
+    }
+
+    /**
+     * Lọc + facet + sắp xếp + cắt trang, không chạm DB
+     * @return Result, hoặc null nếu index chưa dựng xong
+     * @throws IllegalArgumentException nếu cursor có sort key không hợp lệ
+     */
+    public synchronized Result search(Query query) {
+        if (!loaded) {
+            return null;
+        }
+
+        BitSet base = baseSet(query);
+        BitSet price = priceFilter(query);
+        BitSet brand = keyFilter(byBrand, query.brands, FacetIndex::key);
+        BitSet source = keyFilter(bySource, query.sources, FacetIndex::key);
+        BitSet deal = keyFilter(byDealType, query.dealTypes, PriceHistoryDAO::normalizeDealType);
+        BitSet discount = discountFilter(query.minDiscount);
+
+        BitSet matches = intersect(base, price, brand, source, deal, discount);
+
+        Map<String, List<FacetValue>> facets = new LinkedHashMap<>();
+        facets.put("brand", topBrands(intersect(base, price, source, deal, discount)));
+        facets.put("source", keyFacet(bySource, null, intersect(base, price, brand, deal, discount)));
+        facets.put("deal_type", keyFacet(byDealType, null, intersect(base, price, brand, source, discount)));
+        facets.put("price_range", priceFacet(intersect(base, brand, source, deal, discount)));
+        facets.put("discount", discountFacet(intersect(base, price, brand, source, deal)));
+
+        int offset = Math.max(0, query.offset);
+        int limit = Math.max(0, query.limit);
+        // Lấy dư một dòng để biết còn trang sau không (long: offset + limit lớn không tràn thành âm)
+        List<Integer> ids = pageIds(matches, query.sort, query.after,
+                (int) Math.min(Integer.MAX_VALUE, (long) offset + limit + 1));
+        int from = Math.min(offset, ids.size());
+        int to = Math.min(ids.size(), from + limit);
+        List<DealLeaderboard.Item> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            page.add(items[ids.get(i)]);
+        }
+        String nextCursor = ids.size() > to && to > from
+                ? cursorFor(ids.get(to - 1), query.sort).encode()
+                : null;
+        return new Result(page, matches.cardinality(), facets, query.hasFilters(), nextCursor);
+    }
+
+    // ==================== Index maintenance ====================
+
+    private void index(DealLeaderboard.Item item) {
+        Product product = item.product;
+        int id = product.getProductId();
+        unindex(id);
+        ensureCapacity(id + 1);
+
+        PriceHistory ph = item.price;
+        double price = ph != null && ph.getPrice() > 0 ? ph.getPrice() : Double.NaN;
+        int discount = 0;
+        if (ph != null && ph.getOriginalPrice() > ph.getPrice() && ph.getOriginalPrice() > 0) {
+            discount = (int) Math.round((ph.getOriginalPrice() - ph.getPrice()) / ph.getOriginalPrice() * 100);
+        }
+
+        items[id] = item;
+        prices[id] = price;
+        discounts[id] = discount;
+        searchText[id] = lower(product.getName()) + "\n" + lower(product.getBrand()) + "\n" + lower(item.groupName);
+        brandKeys[id] = key(product.getBrand());
+        sourceKeys[id] = key(product.getSource());
+        dealKeys[id] = PriceHistoryDAO.normalizeDealType(ph != null ? ph.getDealType() : null);
+
+        all.set(id);
+        byGroup.computeIfAbsent(product.getGroupId(), g -> new BitSet()).set(id);
+        if (brandKeys[id] != null) {
+            byBrand.computeIfAbsent(brandKeys[id], b -> new BitSet()).set(id);
+            brandLabels.putIfAbsent(brandKeys[id], product.getBrand().trim());
+        }
+        if (sourceKeys[id] != null) {
+            bySource.computeIfAbsent(sourceKeys[id], s -> new BitSet()).set(id);
+        }
+        byDealType.computeIfAbsent(dealKeys[id], d -> new BitSet()).set(id);
+        if (!Double.isNaN(price)) {
+            byPriceBucket[priceBucket(price)].set(id);
+        }
+        for (int i = 0; i < DISCOUNT_THRESHOLDS.length && discount >= DISCOUNT_THRESHOLDS[i]; i++) {
+            byDiscount[i].set(id);
+        }
+    }
+
+    private void unindex(int id) {
+        if (id >= items.length || items[id] == null) {
+            return;
+        }
+        all.clear(id);
+        clear(byGroup.get(items[id].product.getGroupId()), id);
+        if (brandKeys[id] != null) {
+            clear(byBrand.get(brandKeys[id]), id);
+        }
+        if (sourceKeys[id] != null) {
+            clear(bySource.get(sourceKeys[id]), id);
+        }
+        clear(byDealType.get(dealKeys[id]), id);
+        for (BitSet bucket : byPriceBucket) {
+            bucket.clear(id);
+        }
+        for (BitSet threshold : byDiscount) {
+            threshold.clear(id);
+        }
+        items[id] = null;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= items.length) {
+            return;
+        }
+        int capacity = Math.max(size, items.length * 2);
+        items = Arrays.copyOf(items, capacity);
+        prices = Arrays.copyOf(prices, capacity);
+        discounts = Arrays.copyOf(discounts, capacity);
+        searchText = Arrays.copyOf(searchText, capacity);
+        brandKeys = Arrays.copyOf(brandKeys, capacity);
+        sourceKeys = Arrays.copyOf(sourceKeys, capacity);
+        dealKeys = Arrays.copyOf(dealKeys, capacity);
+    }
+
+    // ==================== Filters ====================
+
+    private BitSet baseSet(Query query) {
+        BitSet base = query.groupId != null
+                ? (BitSet) byGroup.getOrDefault(query.groupId, new BitSet()).clone()
+                : (BitSet) all.clone();
+        String text = lower(query.text).trim();
+        if (!text.isEmpty()) {
+            // Giống LIKE '%keyword%' trên name, brand, group_name (không phân biệt hoa thường)
+            for (int id = base.nextSetBit(0); id >= 0; id = base.nextSetBit(id + 1)) {
+                if (!searchText[id].contains(text)) {
+                    base.clear(id);
+                }
+            }
+        }
+        return base;
+    }
+
+    private BitSet priceFilter(Query query) {
+        if (query.minPrice == null && query.maxPrice == null) {
+            return null;
+        }
+        double min = query.minPrice != null ? query.minPrice : 0;
+        double max = query.maxPrice != null ? query.maxPrice : Double.MAX_VALUE;
+
+        // OR các khoảng giá giao với [min, max], rồi lọc chính xác trên các sản phẩm đó
+        BitSet result = new BitSet();
+        for (int b = 0; b < PRICE_BUCKETS.length; b++) {
+            double lower = PRICE_BUCKETS[b];
+            double upper = b + 1 < PRICE_BUCKETS.length ? PRICE_BUCKETS[b + 1] : Double.MAX_VALUE;
+            if (upper > min && lower <= max) {
+                result.or(byPriceBucket[b]);
+            }
+        }
+        for (int id = result.nextSetBit(0); id >= 0; id = result.nextSetBit(id + 1)) {
+            if (prices[id] < min || prices[id] > max) {
+                result.clear(id);
+            }
+        }
+        return result;
+    }
+
+    private BitSet discountFilter(int minDiscount) {
+        if (minDiscount <= 0) {
+            return null;
+        }
+        BitSet result = null;
+        for (int i = DISCOUNT_THRESHOLDS.length - 1; i >= 0; i--) {
+            if (DISCOUNT_THRESHOLDS[i] <= minDiscount) {
+                result = (BitSet) byDiscount[i].clone();
+                break;
+            }
+        }
+        if (result == null) {
+            result = (BitSet) all.clone();
+        }
+        for (int id = result.nextSetBit(0); id >= 0; id = result.nextSetBit(id + 1)) {
+            if (discounts[id] < minDiscount) {
+                result.clear(id);
+            }
+        }
+        return result;
+    }
+
+    private static BitSet keyFilter(Map<String, BitSet> bitmaps, Set<String> values, UnaryOperator<String> normalize) {
+        if (!notEmpty(values)) {
+            return null;
+        }
+        BitSet result = new BitSet();
+        for (String value : values) {
+            String key = normalize.apply(value);
+            BitSet bitmap = key != null ? bitmaps.get(key) : null;
+            if (bitmap != null) {
+                result.or(bitmap);
+            }
+        }
+        return result;
+    }
+
+    // ==================== Facets ====================
+
+    private List<FacetValue> topBrands(BitSet scope) {
+        List<FacetValue> values = keyFacet(byBrand, brandLabels, scope);
+        return values.size() > MAX_BRAND_FACETS ? values.subList(0, MAX_BRAND_FACETS) : values;
+    }
+
+    private static List<FacetValue> keyFacet(Map<String, BitSet> bitmaps, Map<String, String> labels, BitSet scope) {
+        List<FacetValue> values = new ArrayList<>();
+        for (Map.Entry<String, BitSet> entry : bitmaps.entrySet()) {
+            int count = countAnd(entry.getValue(), scope);
+            if (count > 0) {
+                String label = labels != null ? labels.getOrDefault(entry.getKey(), entry.getKey()) : entry.getKey();
+                values.add(new FacetValue(entry.getKey(), label, count));
+            }
+        }
+        values.sort(Comparator.comparingInt((FacetValue v) -> -v.count).thenComparing(v -> v.value));
+        return values;
+    }
+
+    private List<FacetValue> priceFacet(BitSet scope) {
+        List<FacetValue> values = new ArrayList<>(PRICE_BUCKETS.length);
+        for (int b = 0; b < PRICE_BUCKETS.length; b++) {
+            String value = b + 1 < PRICE_BUCKETS.length
+                    ? PRICE_BUCKETS[b] + "-" + PRICE_BUCKETS[b + 1]
+                    : PRICE_BUCKETS[b] + "+";
+            values.add(new FacetValue(value, value, countAnd(byPriceBucket[b], scope)));
+        }
+        return values;
+    }
+
+    private List<FacetValue> discountFacet(BitSet scope) {
+        List<FacetValue> values = new ArrayList<>(DISCOUNT_THRESHOLDS.length);
+        for (int i = 0; i < DISCOUNT_THRESHOLDS.length; i++) {
+            String value = String.valueOf(DISCOUNT_THRESHOLDS[i]);
+            values.add(new FacetValue(value, DISCOUNT_THRESHOLDS[i] + "%+", countAnd(byDiscount[i], scope)));
+        }
+        return values;
+    }
+
+    // ==================== Sorting ====================
+
+    /**
+     * Tối đa want sản phẩm đứng sau cursor theo thứ tự (sort key ASC, product_id DESC)
+     * - newest: duyệt bitmap ngược từ ngay trước cursor, O(want)
+     * - còn lại: heap giữ want phần tử nhỏ nhất, O(n log want) dù trang sâu đến đâu
+     */
+    private List<Integer> pageIds(BitSet matches, String sort, PageCursor after, int want) {
+        if (!SORT_PRICE_ASC.equals(sort) && !SORT_PRICE_DESC.equals(sort)
+                && !SORT_DISCOUNT.equals(sort) && !SORT_NAME.equals(sort)) {
+            List<Integer> ids = new ArrayList<>(Math.min(want, matches.cardinality()));
+            int start = matches.length() - 1;
+            if (after != null) {
+                start = Math.max(-1, Math.min(after.productId - 1, start));
+            }
+            for (int id = matches.previousSetBit(start); id >= 0 && ids.size() < want; id = matches.previousSetBit(id - 1)) {
+                ids.add(id);
+            }
+            return ids;
+        }
+
+        double afterKey = after != null && !SORT_NAME.equals(sort) ? after.numericKey() : 0;
+        Comparator<Integer> order = order(sort);
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.min(want, 1024) + 1, order.reversed());
+        for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+            if (after != null && !isAfter(id, sort, after, afterKey)) {
+                continue;
+            }
+            heap.offer(id);
+            if (heap.size() > want) {
+                heap.poll();
+            }
+        }
+        List<Integer> ids = new ArrayList<>(heap);
+        ids.sort(order);
+        return ids;
+    }
+
+    private Comparator<Integer> order(String sort) {
+        Comparator<Integer> byKey = SORT_NAME.equals(sort)
+                ? Comparator.comparing(this::nameKey)
+                : Comparator.comparingDouble(id -> numericKey(id, sort));
+        // Cùng sort key thì sản phẩm mới hơn (product_id lớn hơn) đứng trước
+        return byKey.thenComparing(Comparator.<Integer>reverseOrder());
+    }
+
+    private boolean isAfter(int id, String sort, PageCursor after, double afterKey) {
+        int c = SORT_NAME.equals(sort)
+                ? nameKey(id).compareTo(after.key)
+                : Double.compare(numericKey(id, sort), afterKey);
+        return c > 0 || (c == 0 && id < after.productId);
+    }
+
+    private PageCursor cursorFor(int id, String sort) {
+        return SORT_NAME.equals(sort)
+                ? new PageCursor(sort, nameKey(id), id)
+                : new PageCursor(sort, numericKey(id, sort), id);
+    }
+
+    /**
+     * Sort key dạng số, luôn tăng dần; sản phẩm chưa có giá xếp cuối
+     */
+    private double numericKey(int id, String sort) {
+        if (SORT_PRICE_ASC.equals(sort)) {
+            return Double.isNaN(prices[id]) ? Double.MAX_VALUE : prices[id];
+        }
+        if (SORT_PRICE_DESC.equals(sort)) {
+            return Double.isNaN(prices[id]) ? 0 : -prices[id];
+        }
+        if (SORT_DISCOUNT.equals(sort)) {
+            return -discounts[id];
+        }
+        return 0;
+    }
+
+    private String nameKey(int id) {
+        return lower(items[id].product.getName());
+    }
+
+    // ==================== Helpers ====================
+
+    private static BitSet intersect(BitSet base, BitSet... filters) {
+        BitSet result = (BitSet) base.clone();
+        for (BitSet filter : filters) {
+            if (filter != null) {
+                result.and(filter);
+            }
+        }
+        return result;
+    }
+
+    private static int countAnd(BitSet a, BitSet b) {
+        BitSet copy = (BitSet) a.clone();
+        copy.and(b);
+        return copy.cardinality();
+    }
+
+    private static int priceBucket(double price) {
+        int bucket = 0;
+        while (bucket + 1 < PRICE_BUCKETS.length && price >= PRICE_BUCKETS[bucket + 1]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    private static void clear(BitSet bitmap, int id) {
+        if (bitmap != null) {
+            bitmap.clear(id);
+        }
+    }
+
+    private static BitSet[] newBitSets(int count) {
+        BitSet[] bitmaps = new BitSet[count];
+        for (int i = 0; i < count; i++) {
+            bitmaps[i] = new BitSet();
+        }
+        return bitmaps;
+    }
+
+    /**
+     * Key chuẩn hóa cho brand/source/deal type, null nếu rỗng
+     */
+    private static String key(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String lower(String value) {
+        return value != null ? value.toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static boolean notEmpty(Set<String> values) {
+        return values != null && !values.isEmpty();
+    }
+}
@@ -0,0 +1,135 @@
+package com.pricetracker.server.catalog;
+
+import java.util.Arrays;
+
+/**
+ * LongIntHashMap - Map long → int không boxing (open addressing, linear probing)
+ *
+ * - Key 0 được dùng làm ô trống nên không được phép làm key
+ * - get() trả về giá trị "missing" do caller chọn khi không có key
+ * - KHÔNG thread-safe: ProductIdentityIndex publish bản copy qua volatile (copy-on-write)
+ */
+public final class LongIntHashMap {
+
+    private static final long EMPTY = 0L;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2) - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    private LongIntHashMap(LongIntHashMap other) {
+        this.keys = Arrays.copyOf(other.keys, other.keys.length);
+        this.values = Arrays.copyOf(other.values, other.values.length);
+        this.mask = other.mask;
+        this.size = other.size;
+    }
+
+    /**
+     * @return giá trị của key, hoặc missing nếu không có
+     */
+    public int get(long key, int missing) {
+        checkKey(key);
+        int i = slot(key);
+        while (true) {
+            long k = keys[i];
+            if (k == key) {
+                return values[i];
+            }
+            if (k == EMPTY) {
+                return missing;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        checkKey(key);
+        int i = slot(key);
+        while (true) {
+            long k = keys[i];
+            if (k == key) {
+                return true;
+            }
+            if (k == EMPTY) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Thêm hoặc ghi đè
+     */
+    public void put(long key, int value) {
+        checkKey(key);
+        // Load factor tối đa 0.5 để chuỗi probe ngắn
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        int i = slot(key);
+        while (true) {
+            long k = keys[i];
+            if (k == key) {
+                values[i] = value;
+                return;
+            }
+            if (k == EMPTY) {
+                keys[i] = key;
+                values[i] = value;
+                size++;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Bản copy độc lập (cho copy-on-write)
+     */
+    public LongIntHashMap copy() {
+        return new LongIntHashMap(this);
+    }
+
+    private void resize(int newCapacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[newCapacity];
+        values = new int[newCapacity];
+        mask = newCapacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long k = oldKeys[j];
+            if (k != EMPTY) {
+                int i = slot(k);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private int slot(long key) {
+        // Fibonacci hashing: trộn bit cao xuống để ID liên tiếp không dồn cụm
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static void checkKey(long key) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Key 0 is reserved");
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.pricetracker.server.catalog;
+
+import com.pricetracker.server.utils.LazadaScraperUtil;
+import com.pricetracker.server.utils.TikiScraperUtil;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+
+/**
+ * Marketplace - Sàn thương mại điện tử mà sản phẩm thuộc về
+ *
+ * Định danh chuẩn của sản phẩm là (source, external_id): ID sản phẩm trên sàn,
+ * không phụ thuộc query string, tracking params hay http/https của URL.
+ */
+public enum Marketplace {
+    TIKI("tiki", "tiki.vn"),
+    LAZADA("lazada", "lazada.vn");
+
+    /** external_id chiếm 48 bit thấp, sàn nằm ở các bit cao của key */
+    private static final int SOURCE_SHIFT = 48;
+    private static final long EXTERNAL_ID_MASK = (1L << SOURCE_SHIFT) - 1;
+
+    private final String source;
+    private final String host;
+
+    Marketplace(String source, String host) {
+        this.source = source;
+        this.host = host;
+    }
+
+    /**
+     * Giá trị cột product.source
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * ID sản phẩm trên sàn lấy từ URL, -1 nếu URL không hợp lệ
+     */
+    public long extractExternalId(String url) {
+        try {
+            switch (this) {
+                case TIKI:
+                    return TikiScraperUtil.extractProductId(url);
+                case LAZADA:
+                    return LazadaScraperUtil.extractProductId(url);
+                default:
+                    return -1;
+            }
+        } catch (NumberFormatException e) {
+            // ID vượt quá int
+            return -1;
+        }
+    }
+
+    /**
+     * Key long duy nhất cho (sàn, external_id), luôn khác 0
+     */
+    public long key(long externalId) {
+        return ((long) (ordinal() + 1) << SOURCE_SHIFT) | (externalId & EXTERNAL_ID_MASK);
+    }
+
+    /**
+     * Sàn của URL theo host (đúng host hoặc subdomain của nó), null nếu không hỗ trợ / URL hỏng
+     * - Chỉ xét host: "https://evil.example/?r=tiki.vn" hay "nottiki.vn" không phải Tiki
+     * - URL thiếu scheme ("tiki.vn/...") được coi như https
+     */
+    public static Marketplace fromUrl(String url) {
+        if (url == null) {
+            return null;
+        }
+        String trimmed = url.trim();
+        String host;
+        try {
+            host = new URI(trimmed.contains("://") ? trimmed : "https://" + trimmed).getHost();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        if (host == null) {
+            return null;
+        }
+        host = host.toLowerCase(Locale.ROOT);
+        for (Marketplace m : values()) {
+            if (host.equals(m.host) || host.endsWith("." + m.host)) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sàn theo giá trị cột source ("tiki", "Tiki", ...), null nếu không hỗ trợ
+     */
+    public static Marketplace fromSource(String source) {
+        if (source == null) {
+            return null;
+        }
+        for (Marketplace m : values()) {
+            if (m.source.equalsIgnoreCase(source.trim())) {
+                return m;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,290 @@
+package com.pricetracker.server.catalog;
+
+import com.pricetracker.server.db.ProductStatsDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PopularityTracker - Đếm lượt xem chi tiết sản phẩm (nhu cầu thật) với chi phí thấp trên đường request
+ *
+ * - recordView() chỉ tăng một LongAdder của sản phẩm (striped, không khóa); mọi việc khác chạy trên
+ *   một thread nền mỗi FLUSH_SECONDS
+ * - Mỗi tick: gom lượt xem mới vào điểm suy giảm theo hàm mũ (xấp xỉ lượt xem trong WINDOW gần nhất),
+ *   dựng lại top-N in-memory, báo ScrapeScheduler và các listener (trending, làm nóng cache), rồi ghi
+ *   lượt xem mới xuống bảng product_stats theo một batch
+ * - Điểm được nạp lại từ product_stats lúc khởi động, nên bảng xếp hạng không trắng sau restart
+ * - Số sản phẩm đang đếm có trần (MAX_PENDING): product_id rác không làm phình bộ nhớ
+ */
+public final class PopularityTracker {
+    private static final Logger log = LoggerFactory.getLogger(PopularityTracker.class);
+
+    private static final long WINDOW_MILLIS = TimeUnit.HOURS.toMillis(Long.getLong("popularity.windowHours", 24));
+    private static final long FLUSH_SECONDS = Long.getLong("popularity.flushSeconds", 60);
+    private static final int TOP_N = Integer.getInteger("popularity.topN", 100);
+    private static final int MAX_PENDING = 100_000;
+    /** Điểm dưới mức này (≈ 1 lượt xem từ vài WINDOW trước) thì thôi theo dõi */
+    private static final double MIN_SCORE = 0.01;
+
+    private static final PopularityTracker instance = new PopularityTracker();
+
+    /**
+     * Một sản phẩm trong top-N; immutable
+     */
+    public static final class Ranked {
+        public final int productId;
+        /** Điểm lượt xem đã suy giảm tới lúc dựng top */
+        public final double score;
+
+        Ranked(int productId, double score) {
+            this.productId = productId;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Điểm của một sản phẩm; chỉ thread tick đọc / ghi
+     */
+    private static final class Score {
+        double score;
+        long scoreAt;
+        long lastViewedMillis;
+    }
+
+    /** Lượt xem chưa gom của từng sản phẩm */
+    private final ConcurrentHashMap<Integer, LongAdder> pending = new ConcurrentHashMap<>();
+    private final LongAdder views = new LongAdder();
+    private final LongAdder droppedViews = new LongAdder();
+
+    /** Chỉ thread tick */
+    private final Map<Integer, Score> scores = new HashMap<>();
+    /** Lượt xem đã gom nhưng chưa ghi được xuống product_stats (giữ lại khi DB lỗi) */
+    private final Map<Integer, Long> unsaved = new HashMap<>();
+
+    private volatile List<Ranked> top = List.of();
+    private volatile long flushes;
+    private volatile long flushFailures;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "popularity-tracker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private PopularityTracker() {
+    }
+
+    public static PopularityTracker getInstance() {
+        return instance;
+    }
+
+    /**
+     * Nạp điểm đã lưu rồi gom / ghi lượt xem mỗi FLUSH_SECONDS
+     */
+    public void start() {
+        ticker.execute(this::load);
+        ticker.scheduleWithFixedDelay(() -> {
+            try {
+                tick();
+            } catch (Exception e) {
+                log.warn("⚠️  Popularity tick failed: {}", e.getMessage());
+            }
+        }, FLUSH_SECONDS, FLUSH_SECONDS, TimeUnit.SECONDS);
+        log.info("📈 Popularity tracker started (window {}h, flush every {}s)",
+                TimeUnit.MILLISECONDS.toHours(WINDOW_MILLIS), FLUSH_SECONDS);
+    }
+
+    /**
+     * Được báo (trên thread tick) mỗi khi top-N dựng lại có thứ tự khác trước
+     */
+    public void addListener(Runnable onTopChanged) {
+        listeners.add(onTopChanged);
+    }
+
+    /**
+     * Một lượt xem chi tiết sản phẩm (/product-detail, /api/products/{id}, VIEW_PRODUCT_DETAIL);
+     * chỉ gọi sau khi đã biết sản phẩm tồn tại
+     */
+    public void recordView(int productId) {
+        if (productId <= 0) {
+            return;
+        }
+        LongAdder counter = pending.get(productId);
+        if (counter == null) {
+            if (pending.size() >= MAX_PENDING) {
+                droppedViews.increment();
+                return;
+            }
+            counter = pending.computeIfAbsent(productId, id -> new LongAdder());
+        }
+        counter.increment();
+        views.increment();
+    }
+
+    /**
+     * Các sản phẩm được xem nhiều nhất gần đây, điểm giảm dần (tối đa TOP_N)
+     */
+    public List<Ranked> top(int limit) {
+        List<Ranked> current = top;
+        return current.subList(0, Math.max(0, Math.min(limit, current.size())));
+    }
+
+    public Map<String, Object> getStats() {
+        List<Ranked> current = top;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("views", views.sum());
+        stats.put("dropped_views", droppedViews.sum());
+        stats.put("pending_products", pending.size());
+        stats.put("top_size", current.size());
+        stats.put("top_product", current.isEmpty() ? null : current.get(0).productId);
+        stats.put("top_score", current.isEmpty() ? 0 : String.format("%.1f", current.get(0).score));
+        stats.put("flushes", flushes);
+        stats.put("flush_failures", flushFailures);
+        return stats;
+    }
+
+    private void load() {
+        try {
+            long now = System.currentTimeMillis();
+            List<ProductStatsDAO.ViewStats> saved = ProductStatsDAO.getInstance().loadScores(MIN_SCORE);
+            for (ProductStatsDAO.ViewStats row : saved) {
+                Score score = scores.computeIfAbsent(row.productId, id -> new Score());
+                long scoreAt = row.scoreAt != null ? row.scoreAt.getTime() : now;
+                score.score += decay(row.score, now - scoreAt);
+                score.scoreAt = now;
+                score.lastViewedMillis = row.lastViewedAt != null ? row.lastViewedAt.getTime() : 0;
+            }
+            rebuildTop(now);
+            log.info("📈 Loaded view scores for {} products", saved.size());
+        } catch (SQLException e) {
+            log.warn("⚠️  Could not load product_stats, popularity starts empty: {}", e.getMessage());
+        }
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        Map<Integer, Long> fresh = drain();
+        for (Map.Entry<Integer, Long> entry : fresh.entrySet()) {
+            Score score = scores.computeIfAbsent(entry.getKey(), id -> new Score());
+            score.score = decay(score.score, now - score.scoreAt) + entry.getValue();
+            score.scoreAt = now;
+            score.lastViewedMillis = now;
+            unsaved.merge(entry.getKey(), entry.getValue(), Long::sum);
+        }
+        if (!fresh.isEmpty()) {
+            ScrapeScheduler.getInstance().recordViews(fresh);
+        }
+
+        if (rebuildTop(now)) {
+            for (Runnable listener : listeners) {
+                try {
+                    listener.run();
+                } catch (RuntimeException e) {
+                    log.warn("⚠️  Popularity listener failed: {}", e.getMessage());
+                }
+            }
+        }
+        flush(now);
+    }
+
+    /**
+     * Lấy và reset lượt xem chưa gom. Sản phẩm không có lượt xem mới cả một tick thì bỏ counter;
+     * một lượt xem chen đúng lúc bỏ counter có thể mất (chấp nhận được với số liệu thống kê)
+     */
+    private Map<Integer, Long> drain() {
+        Map<Integer, Long> fresh = new HashMap<>();
+        for (Iterator<Map.Entry<Integer, LongAdder>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, LongAdder> entry = it.next();
+            long count = entry.getValue().sumThenReset();
+            if (count > 0) {
+                fresh.put(entry.getKey(), count);
+            } else {
+                it.remove();
+            }
+        }
+        return fresh;
+    }
+
+    /**
+     * Dựng lại top-N theo điểm suy giảm tới now, bỏ sản phẩm đã nguội
+     * @return true nếu thứ tự sản phẩm trong top-N đổi
+     */
+    private boolean rebuildTop(long now) {
+        PriorityQueue<Ranked> heap = new PriorityQueue<>(TOP_N + 1, Comparator.comparingDouble((Ranked r) -> r.score));
+        for (Iterator<Map.Entry<Integer, Score>> it = scores.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Score> entry = it.next();
+            double current = decay(entry.getValue().score, now - entry.getValue().scoreAt);
+            if (current < MIN_SCORE && !unsaved.containsKey(entry.getKey())) {
+                it.remove();
+                continue;
+            }
+            if (heap.size() < TOP_N) {
+                heap.add(new Ranked(entry.getKey(), current));
+            } else if (current > heap.peek().score) {
+                heap.poll();
+                heap.add(new Ranked(entry.getKey(), current));
+            }
+        }
+
+        List<Ranked> ranked = new ArrayList<>(heap);
+        ranked.sort(Comparator.comparingDouble((Ranked r) -> -r.score).thenComparingInt(r -> r.productId));
+        List<Ranked> previous = top;
+        top = List.copyOf(ranked);
+
+        if (previous.size() != ranked.size()) {
+            return true;
+        }
+        for (int i = 0; i < ranked.size(); i++) {
+            if (previous.get(i).productId != ranked.get(i).productId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ghi lượt xem mới (và điểm hiện tại) của các sản phẩm vừa được xem xuống product_stats, một batch
+     */
+    private void flush(long now) {
+        if (unsaved.isEmpty()) {
+            return;
+        }
+        Timestamp scoreAt = new Timestamp(now);
+        List<ProductStatsDAO.ViewStats> rows = new ArrayList<>(unsaved.size());
+        for (Map.Entry<Integer, Long> entry : unsaved.entrySet()) {
+            Score score = scores.get(entry.getKey());
+            double current = score != null ? decay(score.score, now - score.scoreAt) : 0;
+            Timestamp lastViewed = score != null && score.lastViewedMillis > 0 ? new Timestamp(score.lastViewedMillis) : null;
+            rows.add(new ProductStatsDAO.ViewStats(entry.getKey(), entry.getValue(), current, scoreAt, lastViewed));
+        }
+        try {
+            ProductStatsDAO.getInstance().upsertViews(rows);
+            unsaved.clear();
+            flushes++;
+        } catch (SQLException e) {
+            flushFailures++;
+            log.warn("⚠️  Could not save views for {} products (retry next tick): {}", rows.size(), e.getMessage());
+        }
+    }
+
+    private static double decay(double score, long elapsedMillis) {
+        return elapsedMillis <= 0 ? score : score * Math.exp(-(double) elapsedMillis / WINDOW_MILLIS);
+    }
+}
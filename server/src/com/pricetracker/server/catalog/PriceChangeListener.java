@@ -0,0 +1,26 @@
+package com.pricetracker.server.catalog;
+
+/**
+ * PriceChangeListener - Nhận thông báo từ DealLeaderboard khi giá hiển thị của sản phẩm đổi
+ * hoặc có sản phẩm mới trong catalog
+ *
+ * Được gọi trên thread ghi giá (request hoặc reload), phải xử lý nhanh và không chặn
+ */
+public interface PriceChangeListener {
+
+    /**
+     * Giá hiện tại (price, original_price hoặc deal_type) của sản phẩm đã đổi
+     */
+    void priceChanged(int productId);
+
+    /**
+     * Sản phẩm mới xuất hiện trong catalog
+     */
+    void productAdded(int productId, int groupId);
+
+    /**
+     * DealLeaderboard vừa dựng lại toàn bộ catalog từ DB (sau các priceChanged/productAdded của lần đó)
+     */
+    default void catalogReloaded() {
+    }
+}
@@ -0,0 +1,136 @@
+package com.pricetracker.server.catalog;
+
+import com.pricetracker.server.db.ProductDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ProductIdentityIndex - (source, external_id) → product_id trong bộ nhớ
+ *
+ * - Lookup O(1) không boxing qua LongIntHashMap, không chạm DB
+ * - Đã load xong thì "không có trong index" = chưa có trong catalog: bỏ qua round trip DB
+ * - Copy-on-write: đọc không khóa, ghi (onboarding sản phẩm mới) hiếm nên copy cả bảng
+ */
+public final class ProductIdentityIndex {
+    private static final Logger log = LoggerFactory.getLogger(ProductIdentityIndex.class);
+
+    private static final ProductIdentityIndex instance = new ProductIdentityIndex();
+
+    /** URL không thuộc sàn hỗ trợ hoặc không có ID sản phẩm */
+    public static final int INVALID_URL = -2;
+    /** URL hợp lệ nhưng sản phẩm chưa có trong catalog */
+    public static final int NOT_FOUND = -1;
+
+    private volatile LongIntHashMap ids = new LongIntHashMap(16);
+    private volatile boolean loaded;
+
+    private ProductIdentityIndex() {
+    }
+
+    public static ProductIdentityIndex getInstance() {
+        return instance;
+    }
+
+    /**
+     * Nạp toàn bộ định danh từ DB, backfill external_id cho product cũ chưa có
+     * Gọi lúc khởi động, sau SchemaMigrator.migrate()
+     */
+    public synchronized void load() throws SQLException {
+        ProductDAO dao = ProductDAO.getInstance();
+        List<ProductDAO.Identity> identities = dao.getAllIdentities();
+
+        LongIntHashMap fresh = new LongIntHashMap(identities.size());
+        Map<Integer, Long> backfill = new HashMap<>();
+        int unsupported = 0;
+
+        for (ProductDAO.Identity identity : identities) {
+            Marketplace marketplace = Marketplace.fromSource(identity.source);
+            if (marketplace == null) {
+                marketplace = Marketplace.fromUrl(identity.url);
+            }
+            if (marketplace == null) {
+                unsupported++;
+                continue;
+            }
+
+            long externalId = identity.externalId != null
+                    ? identity.externalId
+                    : marketplace.extractExternalId(identity.url);
+            if (externalId <= 0) {
+                unsupported++;
+                continue;
+            }
+            if (identity.externalId == null) {
+                backfill.put(identity.productId, externalId);
+            }
+
+            long key = marketplace.key(externalId);
+            int existing = fresh.get(key, NOT_FOUND);
+            if (existing != NOT_FOUND) {
+                // Cùng một sản phẩm trên sàn nhưng hai dòng product (URL khác nhau): giữ dòng cũ nhất
+                int keep = Math.min(existing, identity.productId);
+                int drop = Math.max(existing, identity.productId);
+                log.warn("Duplicate product for {}:{} (IDs {} and {}), keeping {}", marketplace.getSource(),
+                        externalId, existing, identity.productId, keep);
+                backfill.remove(drop);
+                fresh.put(key, keep);
+                continue;
+            }
+            fresh.put(key, identity.productId);
+        }
+
+        int backfilled = dao.backfillExternalIds(backfill);
+
+        ids = fresh;
+        loaded = true;
+        log.info("✓ Product identity index loaded: {} products ({} external_id backfilled, {} unsupported)",
+                fresh.size(), backfilled, unsupported);
+    }
+
+    /**
+     * Index đã nạp từ DB chưa; chưa nạp thì NOT_FOUND không đáng tin, caller phải hỏi DB
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * product_id của URL, NOT_FOUND, hoặc INVALID_URL - O(1), không chạm DB
+     */
+    public int resolve(String url) {
+        Marketplace marketplace = Marketplace.fromUrl(url);
+        if (marketplace == null) {
+            return INVALID_URL;
+        }
+        long externalId = marketplace.extractExternalId(url);
+        if (externalId <= 0) {
+            return INVALID_URL;
+        }
+        return lookup(marketplace, externalId);
+    }
+
+    /**
+     * product_id của (sàn, external_id), hoặc NOT_FOUND
+     */
+    public int lookup(Marketplace marketplace, long externalId) {
+        return ids.get(marketplace.key(externalId), NOT_FOUND);
+    }
+
+    /**
+     * Ghi nhận product mới (sau khi onboarding commit)
+     */
+    public synchronized void register(Marketplace marketplace, long externalId, int productId) {
+        LongIntHashMap copy = ids.copy();
+        copy.put(marketplace.key(externalId), productId);
+        ids = copy;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}
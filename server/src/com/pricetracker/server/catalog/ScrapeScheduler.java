@@ -0,0 +1,442 @@
+package com.pricetracker.server.catalog;
+
+import com.pricetracker.models.PriceHistory;
+import com.pricetracker.models.Product;
+import com.pricetracker.server.db.PriceHistoryDAO;
+import com.pricetracker.server.db.ProductDAO;
+import com.pricetracker.server.utils.LazadaScraperUtil;
+import com.pricetracker.server.utils.TikiScraperUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ScrapeScheduler - Lịch cào riêng cho từng sản phẩm thay cho luật cố định "giá cũ hơn 1 giờ"
+ *
+ * - Khoảng cào = BASE / ((1 + số lần đổi giá/ngày) × (1 + log2(1 + lượt xem/ngày))), kẹp trong [MIN, MAX];
+ *   đang Flash Sale thì tối đa FLASH_SALE_INTERVAL
+ * - Số lần đổi giá và lượt xem là bộ đếm suy giảm theo hàm mũ (xấp xỉ 7 ngày / 1 ngày gần nhất), đếm
+ *   đổi giá khởi tạo từ price_history lúc catalog dựng lần đầu
+ * - Hạn cào nằm trong min-heap (xóa lười: entry cũ bị bỏ khi nổi lên đỉnh), mỗi phút lấy các sản phẩm
+ *   tới hạn ra cào (Tiki theo lô qua listing endpoint)
+ * - next_scrape_at được ghi xuống bảng product để scraper Python chỉ cào sản phẩm đã tới hạn
+ * - BASE mặc định bằng MAX: sản phẩm không ai xem và giá đứng yên chỉ cào mỗi 24h (1 lần đổi giá/ngày → 12h,
+ *   vài chục lượt xem/ngày → ~4h); sản phẩm đổi giá liên tục và đang hot được cào dày hơn 1 giờ
+ */
+public final class ScrapeScheduler implements PriceChangeListener {
+    private static final Logger log = LoggerFactory.getLogger(ScrapeScheduler.class);
+
+    private static final long BASE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong("scraper.schedule.baseMinutes", 1440));
+    private static final long MIN_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long MAX_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(24);
+    private static final long FLASH_SALE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    /** Sản phẩm chưa có trong lịch (catalog chưa dựng xong): giữ luật cũ */
+    private static final long FALLBACK_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    /** Cào lỗi thì thử lại sau chừng này (hoặc sớm hơn nếu khoảng cào ngắn hơn) */
+    private static final long RETRY_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /** Hằng số thời gian của bộ đếm đổi giá / lượt xem */
+    private static final long CHANGE_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final long VIEW_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("scraper.schedule.enabled", "true"));
+    private static final int MAX_PER_TICK = Integer.getInteger("scraper.schedule.maxPerTick", 200);
+    private static final long TICK_SECONDS = 60;
+
+    private static final ScrapeScheduler instance = new ScrapeScheduler();
+
+    /**
+     * Trạng thái lịch của một sản phẩm; guarded by ScrapeScheduler.this
+     */
+    private static final class Slot {
+        final int productId;
+        double changeScore;
+        long changeScoreAt;
+        double viewScore;
+        long viewScoreAt;
+        boolean flashSale;
+        long lastScrapedMillis;
+        long dueMillis;
+
+        Slot(int productId, long now) {
+            this.productId = productId;
+            this.changeScoreAt = now;
+            this.viewScoreAt = now;
+        }
+    }
+
+    /**
+     * Entry của heap; hết hiệu lực nếu slot đã được xếp lịch lại (dueMillis khác)
+     */
+    private static final class Due {
+        final Slot slot;
+        final long dueMillis;
+
+        Due(Slot slot, long dueMillis) {
+            this.slot = slot;
+            this.dueMillis = dueMillis;
+        }
+    }
+
+    /** Guarded by this */
+    private final Map<Integer, Slot> slots = new HashMap<>();
+    private final PriorityQueue<Due> heap = new PriorityQueue<>(Comparator.comparingLong((Due d) -> d.dueMillis));
+    /** Lịch đã đổi nhưng chưa ghi next_scrape_at */
+    private Map<Integer, Long> dirty = new HashMap<>();
+    private boolean seeded;
+    private long scheduledScrapes;
+    private long scrapeFailures;
+
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "scrape-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private ScrapeScheduler() {
+    }
+
+    public static ScrapeScheduler getInstance() {
+        return instance;
+    }
+
+    /**
+     * Mỗi phút: cào các sản phẩm tới hạn (nếu bật) và ghi next_scrape_at đã đổi
+     */
+    public void start() {
+        ticker.scheduleWithFixedDelay(() -> {
+            try {
+                tick();
+            } catch (Exception e) {
+                log.warn("⚠️  Scrape scheduler tick failed: {}", e.getMessage());
+            }
+        }, TICK_SECONDS, TICK_SECONDS, TimeUnit.SECONDS);
+        log.info("🗓️  Scrape scheduler started (scheduled scraping {})", ENABLED ? "on" : "off, next_scrape_at only");
+    }
+
+    /**
+     * Giá hiện tại đã cũ tới mức cần cào lại chưa (thay cho "cũ hơn 1 giờ")
+     * @param lastCaptured lần cuối thấy giá (null = chưa có giá)
+     */
+    public boolean isDue(int productId, Timestamp lastCaptured) {
+        if (lastCaptured == null) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        long interval;
+        synchronized (this) {
+            Slot slot = slots.get(productId);
+            interval = slot != null ? interval(slot, now) : FALLBACK_INTERVAL_MILLIS;
+        }
+        return now - lastCaptured.getTime() >= interval;
+    }
+
+    /**
+     * Lượt xem chi tiết sản phẩm từ lần báo trước (PopularityTracker gom theo lô); sản phẩm được xem
+     * nhiều thì cào dày hơn
+     * @param views productId → số lượt xem mới
+     */
+    public synchronized void recordViews(Map<Integer, Long> views) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Integer, Long> entry : views.entrySet()) {
+            Slot slot = slots.get(entry.getKey());
+            if (slot == null) {
+                continue;
+            }
+            slot.viewScore = decay(slot.viewScore, now - slot.viewScoreAt, VIEW_WINDOW_MILLIS) + entry.getValue();
+            slot.viewScoreAt = now;
+            reschedule(slot, now);
+        }
+    }
+
+    /**
+     * Server vừa nhận giá mới của sản phẩm (gọi từ PriceHistoryDAO.addCompletePriceRecord)
+     */
+    public synchronized void onScraped(int productId, String dealType) {
+        long now = System.currentTimeMillis();
+        Slot slot = slots.computeIfAbsent(productId, id -> new Slot(id, now));
+        slot.lastScrapedMillis = now;
+        slot.flashSale = "FLASH_SALE".equals(PriceHistoryDAO.normalizeDealType(dealType));
+        reschedule(slot, now);
+    }
+
+    @Override
+    public void priceChanged(int productId) {
+        DealLeaderboard.Item item = DealLeaderboard.getInstance().getItem(productId);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Slot slot = slots.computeIfAbsent(productId, id -> new Slot(id, now));
+            slot.changeScore = decay(slot.changeScore, now - slot.changeScoreAt, CHANGE_WINDOW_MILLIS) + 1;
+            slot.changeScoreAt = now;
+            if (item != null) {
+                observe(slot, item.price);
+            }
+            reschedule(slot, now);
+        }
+    }
+
+    @Override
+    public void productAdded(int productId, int groupId) {
+        DealLeaderboard.Item item = DealLeaderboard.getInstance().getItem(productId);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Slot slot = slots.computeIfAbsent(productId, id -> new Slot(id, now));
+            if (item != null) {
+                observe(slot, item.price);
+            }
+            reschedule(slot, now);
+        }
+    }
+
+    /**
+     * Đồng bộ với catalog vừa dựng lại: sản phẩm mới, giá scraper Python vừa ghi; lần đầu nạp số lần đổi giá
+     */
+    @Override
+    public void catalogReloaded() {
+        long now = System.currentTimeMillis();
+        Map<Integer, Integer> changeCounts = null;
+        synchronized (this) {
+            if (!seeded) {
+                try {
+                    changeCounts = PriceHistoryDAO.getInstance().getChangeCounts(new Timestamp(now - CHANGE_WINDOW_MILLIS));
+                } catch (SQLException e) {
+                    log.warn("⚠️  Could not load price change counts, scheduling without volatility: {}", e.getMessage());
+                    changeCounts = Map.of();
+                }
+            }
+        }
+
+        List<DealLeaderboard.Item> catalog = DealLeaderboard.getInstance().snapshot();
+        synchronized (this) {
+            for (DealLeaderboard.Item item : catalog) {
+                int productId = item.product.getProductId();
+                Slot slot = slots.get(productId);
+                if (slot == null) {
+                    slot = new Slot(productId, now);
+                    slots.put(productId, slot);
+                }
+                if (changeCounts != null) {
+                    // Dòng đầu tiên của sản phẩm là lần thấy đầu, không phải lần đổi
+                    slot.changeScore = Math.max(0, changeCounts.getOrDefault(productId, 0) - 1);
+                    slot.changeScoreAt = now;
+                }
+                boolean newer = observe(slot, item.price);
+                if (changeCounts != null || newer || slot.dueMillis == 0) {
+                    reschedule(slot, now);
+                }
+            }
+            if (changeCounts != null) {
+                seeded = true;
+                log.info("🗓️  Scrape schedule seeded for {} products", slots.size());
+            }
+            // Entry cũ tích tụ (mỗi lần xếp lịch lại thêm một entry): dựng lại heap khi quá lớn
+            if (heap.size() > slots.size() * 2 + 1024) {
+                heap.clear();
+                for (Slot slot : slots.values()) {
+                    heap.add(new Due(slot, slot.dueMillis));
+                }
+            }
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        long now = System.currentTimeMillis();
+        int due = 0;
+        int under1h = 0;
+        int under6h = 0;
+        int over6h = 0;
+        for (Slot slot : slots.values()) {
+            if (slot.dueMillis <= now) {
+                due++;
+            }
+            long interval = interval(slot, now);
+            if (interval < TimeUnit.HOURS.toMillis(1)) {
+                under1h++;
+            } else if (interval < TimeUnit.HOURS.toMillis(6)) {
+                under6h++;
+            } else {
+                over6h++;
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", ENABLED);
+        stats.put("products", slots.size());
+        stats.put("due", due);
+        stats.put("interval_under_1h", under1h);
+        stats.put("interval_1h_to_6h", under6h);
+        stats.put("interval_over_6h", over6h);
+        stats.put("scheduled_scrapes", scheduledScrapes);
+        stats.put("scrape_failures", scrapeFailures);
+        return stats;
+    }
+
+    private void tick() {
+        if (ENABLED) {
+            List<Integer> due = pollDue(MAX_PER_TICK);
+            if (!due.isEmpty()) {
+                scrape(due);
+            }
+        }
+        flushNextScrapeTimes();
+    }
+
+    /**
+     * Cào các sản phẩm tới hạn: Tiki theo lô, Lazada từng sản phẩm
+     * Giá ghi qua addCompletePriceRecord → onScraped xếp lịch lần sau; lỗi thì thử lại sau RETRY
+     */
+    private void scrape(List<Integer> productIds) {
+        Map<Integer, Integer> tikiProducts = new HashMap<>();
+        List<Integer> failed = new ArrayList<>();
+        PriceHistoryDAO priceDAO = PriceHistoryDAO.getInstance();
+        int scraped = 0;
+
+        for (int productId : productIds) {
+            DealLeaderboard.Item item = DealLeaderboard.getInstance().getItem(productId);
+            Product product = item != null ? item.product : null;
+            Marketplace marketplace = product != null ? Marketplace.fromUrl(product.getUrl()) : null;
+            if (marketplace == Marketplace.TIKI) {
+                int tikiId = TikiScraperUtil.extractProductId(product.getUrl());
+                if (tikiId != -1) {
+                    tikiProducts.put(tikiId, productId);
+                    continue;
+                }
+            } else if (marketplace == Marketplace.LAZADA) {
+                Object[] priceData = LazadaScraperUtil.scrapePriceData(product.getUrl());
+                if (priceData != null && record(priceDAO, productId, priceData)) {
+                    scraped++;
+                    continue;
+                }
+            }
+            failed.add(productId);
+        }
+
+        if (!tikiProducts.isEmpty()) {
+            Map<Integer, Object[]> prices = TikiScraperUtil.scrapePriceDataBatch(tikiProducts.keySet());
+            for (Map.Entry<Integer, Integer> entry : tikiProducts.entrySet()) {
+                Object[] priceData = prices.get(entry.getKey());
+                if (priceData != null && record(priceDAO, entry.getValue(), priceData)) {
+                    scraped++;
+                } else {
+                    failed.add(entry.getValue());
+                }
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            scheduledScrapes += scraped;
+            scrapeFailures += failed.size();
+            for (int productId : failed) {
+                Slot slot = slots.get(productId);
+                if (slot != null) {
+                    setDue(slot, now + Math.min(RETRY_INTERVAL_MILLIS, interval(slot, now)));
+                }
+            }
+        }
+        log.info("🗓️  Scheduled scrape: {} products refreshed, {} failed", scraped, failed.size());
+    }
+
+    private static boolean record(PriceHistoryDAO priceDAO, int productId, Object[] priceData) {
+        return priceDAO.addCompletePriceRecord(productId, (Double) priceData[0], (Double) priceData[1], (String) priceData[2]);
+    }
+
+    /**
+     * Lấy tối đa max sản phẩm đã tới hạn ra khỏi heap
+     */
+    private synchronized List<Integer> pollDue(int max) {
+        long now = System.currentTimeMillis();
+        List<Integer> due = new ArrayList<>();
+        while (due.size() < max && !heap.isEmpty() && heap.peek().dueMillis <= now) {
+            Due entry = heap.poll();
+            if (entry.slot.dueMillis != entry.dueMillis) {
+                continue;
+            }
+            due.add(entry.slot.productId);
+            // Chưa có kết quả thì không lấy lại ở tick sau; onScraped sẽ xếp lịch đúng
+            setDue(entry.slot, now + RETRY_INTERVAL_MILLIS);
+        }
+        return due;
+    }
+
+    private void flushNextScrapeTimes() {
+        Map<Integer, Long> pending;
+        synchronized (this) {
+            if (dirty.isEmpty()) {
+                return;
+            }
+            pending = dirty;
+            dirty = new HashMap<>();
+        }
+        Map<Integer, Timestamp> times = new HashMap<>(pending.size() * 2);
+        for (Map.Entry<Integer, Long> entry : pending.entrySet()) {
+            times.put(entry.getKey(), new Timestamp(entry.getValue()));
+        }
+        try {
+            ProductDAO.getInstance().updateNextScrapeTimes(times);
+        } catch (SQLException e) {
+            log.warn("⚠️  Could not save next_scrape_at for {} products: {}", times.size(), e.getMessage());
+            synchronized (this) {
+                for (Map.Entry<Integer, Long> entry : pending.entrySet()) {
+                    dirty.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Cập nhật lần cào cuối / Flash Sale từ giá hiện tại trong catalog
+     * @return true nếu giá này mới hơn lần cào cuối đã biết
+     */
+    private static boolean observe(Slot slot, PriceHistory price) {
+        if (price == null) {
+            return false;
+        }
+        slot.flashSale = "FLASH_SALE".equals(PriceHistoryDAO.normalizeDealType(price.getDealType()));
+        long captured = price.getCapturedAt() != null ? price.getCapturedAt().getTime() : 0;
+        if (captured > slot.lastScrapedMillis) {
+            slot.lastScrapedMillis = captured;
+            return true;
+        }
+        return false;
+    }
+
+    private void reschedule(Slot slot, long now) {
+        setDue(slot, slot.lastScrapedMillis + interval(slot, now));
+    }
+
+    private void setDue(Slot slot, long dueMillis) {
+        if (slot.dueMillis == dueMillis) {
+            return;
+        }
+        slot.dueMillis = dueMillis;
+        heap.add(new Due(slot, dueMillis));
+        dirty.put(slot.productId, dueMillis);
+    }
+
+    private static long interval(Slot slot, long now) {
+        double changesPerDay = decay(slot.changeScore, now - slot.changeScoreAt, CHANGE_WINDOW_MILLIS)
+                * TimeUnit.DAYS.toMillis(1) / CHANGE_WINDOW_MILLIS;
+        double viewsPerDay = decay(slot.viewScore, now - slot.viewScoreAt, VIEW_WINDOW_MILLIS)
+                * TimeUnit.DAYS.toMillis(1) / VIEW_WINDOW_MILLIS;
+        double popularity = 1 + Math.log1p(viewsPerDay) / Math.log(2);
+        long interval = (long) (BASE_INTERVAL_MILLIS / ((1 + changesPerDay) * popularity));
+        interval = Math.max(MIN_INTERVAL_MILLIS, Math.min(MAX_INTERVAL_MILLIS, interval));
+        return slot.flashSale ? Math.min(interval, FLASH_SALE_INTERVAL_MILLIS) : interval;
+    }
+
+    private static double decay(double score, long elapsedMillis, long windowMillis) {
+        return elapsedMillis <= 0 ? score : score * Math.exp(-(double) elapsedMillis / windowMillis);
+    }
+}
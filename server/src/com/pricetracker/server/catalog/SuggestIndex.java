@@ -0,0 +1,305 @@
+package com.pricetracker.server.catalog;
+
+import com.pricetracker.models.Product;
+import com.pricetracker.server.db.ReviewDAO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * SuggestIndex - Gợi ý khi gõ (/suggest) từ prefix trie in-memory, không chạm MySQL lúc phục vụ
+ *
+ * - Khóa là tên sản phẩm, brand và tên danh mục đã bỏ dấu tiếng Việt ("điện thoại" → "dien thoai"),
+ *   chèn từ mỗi đầu từ nên gõ "galaxy" vẫn ra "Samsung Galaxy S23"
+ * - Mỗi node giữ sẵn top-K gợi ý theo độ phổ biến: tra cứu = đi theo prefix rồi copy mảng, O(độ dài query)
+ * - Độ phổ biến: sản phẩm = 1 + số review; brand / danh mục = tổng độ phổ biến các sản phẩm của nó
+ * - Đọc không khóa (mảng copy-on-write, field volatile); ghi (sản phẩm mới, dựng lại) tuần tự hóa
+ */
+public final class SuggestIndex implements PriceChangeListener {
+    private static final Logger log = LoggerFactory.getLogger(SuggestIndex.class);
+
+    /** Số gợi ý tối đa giữ ở mỗi node (cũng là limit tối đa của /suggest) */
+    public static final int MAX_SUGGESTIONS = 10;
+
+    /** Chỉ chèn từ N đầu từ đầu tiên của mỗi khóa */
+    private static final int MAX_WORDS = 8;
+
+    /** Độ sâu tối đa của trie; query dài hơn được lọc lại trên text đã bỏ dấu */
+    private static final int MAX_DEPTH = 24;
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_ALNUM = Pattern.compile("[^a-z0-9]+");
+
+    private static final SuggestIndex instance = new SuggestIndex();
+
+    /**
+     * Loại gợi ý
+     */
+    public enum Kind {
+        PRODUCT("product"),
+        BRAND("brand"),
+        CATEGORY("category");
+
+        private final String key;
+
+        Kind(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * Một gợi ý; refId = product_id (PRODUCT), group_id (CATEGORY) hoặc 0 (BRAND)
+     */
+    public static final class Suggestion {
+        public final String text;
+        public final Kind kind;
+        public final int refId;
+        final String folded;
+        /** Guarded by SuggestIndex.this */
+        long weight;
+
+        Suggestion(String text, Kind kind, int refId, long weight) {
+            this.text = text;
+            this.kind = kind;
+            this.refId = refId;
+            this.folded = fold(text);
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Cạnh ra của một node: mảng char đã sắp xếp + node con cùng index (gọn hơn HashMap mỗi node)
+     * Immutable, thay cả khối để reader không bao giờ thấy keys và children lệch nhau
+     */
+    private static final class Edges {
+        static final Edges EMPTY = new Edges(new char[0], new Node[0]);
+
+        final char[] keys;
+        final Node[] children;
+
+        Edges(char[] keys, Node[] children) {
+            this.keys = keys;
+            this.children = children;
+        }
+    }
+
+    /**
+     * Node của trie
+     */
+    private static final class Node {
+        volatile Edges edges = Edges.EMPTY;
+        volatile Suggestion[] top = new Suggestion[0];
+
+        Node child(char c) {
+            Edges e = edges;
+            int i = Arrays.binarySearch(e.keys, c);
+            return i >= 0 ? e.children[i] : null;
+        }
+
+        /**
+         * Node con theo c, tạo mới nếu chưa có (gọi khi giữ lock ghi)
+         */
+        Node addChild(char c) {
+            Edges e = edges;
+            int at = -Arrays.binarySearch(e.keys, c) - 1;
+            Node node = new Node();
+            char[] k = new char[e.keys.length + 1];
+            Node[] ch = new Node[e.children.length + 1];
+            System.arraycopy(e.keys, 0, k, 0, at);
+            System.arraycopy(e.children, 0, ch, 0, at);
+            k[at] = c;
+            ch[at] = node;
+            System.arraycopy(e.keys, at, k, at + 1, e.keys.length - at);
+            System.arraycopy(e.children, at, ch, at + 1, e.children.length - at);
+            edges = new Edges(k, ch);
+            return node;
+        }
+
+        /**
+         * Đưa s vào top-K (hoặc xếp lại nếu weight của s đã đổi)
+         */
+        void offer(Suggestion s) {
+            List<Suggestion> list = new ArrayList<>(Arrays.asList(top));
+            list.remove(s);
+            int at = 0;
+            while (at < list.size() && list.get(at).weight >= s.weight) {
+                at++;
+            }
+            if (at >= MAX_SUGGESTIONS) {
+                if (list.size() != top.length) {
+                    top = list.toArray(new Suggestion[0]);
+                }
+                return;
+            }
+            list.add(at, s);
+            if (list.size() > MAX_SUGGESTIONS) {
+                list.remove(list.size() - 1);
+            }
+            top = list.toArray(new Suggestion[0]);
+        }
+    }
+
+    private volatile Node root = new Node();
+    /** Ghi khi giữ lock, đọc cho /metrics */
+    private volatile int nodeCount;
+
+    /** Guarded by this */
+    private final Map<String, Suggestion> brands = new HashMap<>();
+    private final Map<Integer, Suggestion> categories = new HashMap<>();
+
+    private SuggestIndex() {
+    }
+
+    public static SuggestIndex getInstance() {
+        return instance;
+    }
+
+    /**
+     * Bỏ dấu tiếng Việt, chữ thường, gộp ký tự không phải chữ/số thành một khoảng trắng
+     */
+    public static String fold(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        String stripped = COMBINING_MARKS.matcher(decomposed).replaceAll("")
+                .replace('đ', 'd').replace('Đ', 'D')
+                .toLowerCase(Locale.ROOT);
+        return NON_ALNUM.matcher(stripped).replaceAll(" ").trim();
+    }
+
+    /**
+     * Top gợi ý cho prefix q, không khóa, không chạm DB
+     */
+    public List<Suggestion> suggest(String q, int limit) {
+        String folded = fold(q);
+        if (folded.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+
+        Node node = root;
+        int depth = Math.min(folded.length(), MAX_DEPTH);
+        for (int i = 0; i < depth && node != null; i++) {
+            node = node.child(folded.charAt(i));
+        }
+        if (node == null) {
+            return List.of();
+        }
+
+        Suggestion[] top = node.top;
+        List<Suggestion> result = new ArrayList<>(Math.min(limit, top.length));
+        for (Suggestion s : top) {
+            if (result.size() >= limit) {
+                break;
+            }
+            // Query dài hơn độ sâu trie: kiểm tra phần còn lại trên text đã bỏ dấu
+            if (folded.length() <= MAX_DEPTH || s.folded.startsWith(folded) || s.folded.contains(" " + folded)) {
+                result.add(s);
+            }
+        }
+        return result;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public void priceChanged(int productId) {
+        // Giá không ảnh hưởng gợi ý
+    }
+
+    @Override
+    public void productAdded(int productId, int groupId) {
+        DealLeaderboard.Item item = DealLeaderboard.getInstance().getItem(productId);
+        if (item == null) {
+            return;
+        }
+        synchronized (this) {
+            add(root, item, 1);
+        }
+    }
+
+    @Override
+    public void catalogReloaded() {
+        List<DealLeaderboard.Item> snapshot = DealLeaderboard.getInstance().snapshot();
+        Map<Integer, Integer> reviewCounts;
+        try {
+            reviewCounts = ReviewDAO.getInstance().countReviewsPerProduct();
+        } catch (SQLException e) {
+            log.warn("⚠️  Suggest index: review counts unavailable ({}), ranking by catalog only", e.getMessage());
+            reviewCounts = Map.of();
+        }
+
+        long started = System.currentTimeMillis();
+        synchronized (this) {
+            brands.clear();
+            categories.clear();
+            nodeCount = 0;
+            Node fresh = new Node();
+            for (DealLeaderboard.Item item : snapshot) {
+                add(fresh, item, 1 + reviewCounts.getOrDefault(item.product.getProductId(), 0));
+            }
+            root = fresh;
+        }
+        log.info("✓ Suggest index built: {} products, {} brands, {} categories, {} nodes ({} ms)",
+                snapshot.size(), brands.size(), categories.size(), nodeCount, System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Chèn sản phẩm và cộng weight cho brand / danh mục của nó; gọi khi giữ lock
+     */
+    private void add(Node target, DealLeaderboard.Item item, long weight) {
+        Product product = item.product;
+        insert(target, new Suggestion(product.getName(), Kind.PRODUCT, product.getProductId(), weight));
+
+        String brand = product.getBrand();
+        if (brand != null && !fold(brand).isEmpty()) {
+            Suggestion s = brands.computeIfAbsent(fold(brand), b -> new Suggestion(brand.trim(), Kind.BRAND, 0, 0));
+            s.weight += weight;
+            insert(target, s);
+        }
+
+        if (item.groupName != null) {
+            Suggestion s = categories.computeIfAbsent(product.getGroupId(),
+                    g -> new Suggestion(item.groupName, Kind.CATEGORY, g, 0));
+            s.weight += weight;
+            insert(target, s);
+        }
+    }
+
+    private void insert(Node target, Suggestion s) {
+        String[] words = s.folded.split(" ");
+        int start = 0;
+        for (int w = 0; w < words.length && w < MAX_WORDS; w++) {
+            if (!words[w].isEmpty()) {
+                String key = s.folded.substring(start);
+                Node node = target;
+                for (int i = 0; i < key.length() && i < MAX_DEPTH; i++) {
+                    char c = key.charAt(i);
+                    Node next = node.child(c);
+                    if (next == null) {
+                        next = node.addChild(c);
+                        nodeCount++;
+                    }
+                    node = next;
+                    node.offer(s);
+                }
+            }
+            start += words[w].length() + 1;
+        }
+    }
+}
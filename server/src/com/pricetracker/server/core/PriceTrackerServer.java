@@ -11,6 +11,8 @@ import javax.net.ssl.SSLServerSocket;
 
 import com.pricetracker.server.crypto.SSLManager;
 import com.pricetracker.server.handler.ClientHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * PriceTrackerServer - Lớp Server chính
@@ -22,6 +24,7 @@ import com.pricetracker.server.handler.ClientHandler;
  * - Quản lý thread pool để tối ưu hiệu suất
  */
 public class PriceTrackerServer {
+    private static final Logger log = LoggerFactory.getLogger(PriceTrackerServer.class);
     
     private final int port;
     private ServerSocket serverSocket;
@@ -125,8 +128,7 @@ public class PriceTrackerServer {
                     String clientAddress = clientSocket.getInetAddress().getHostAddress();
                     int clientPort = clientSocket.getPort();
                     
-                    System.out.println(">>> [Client #" + clientId + "] Kết nối mới từ " 
-                                     + clientAddress + ":" + clientPort);
+                    log.debug("[Client #{}] Kết nối mới từ {}:{}", clientId, clientAddress, clientPort);
                     
                     // Tạo ClientHandler mới để xử lý client này
                     // Đây là "nhân viên" sẽ phục vụ "khách hàng" này
@@ -222,6 +224,17 @@ public class PriceTrackerServer {
         try {
             System.out.println("🔧 Initializing HikariCP Connection Pool...");
             com.pricetracker.server.db.DatabaseConnectionManager.getInstance();
+            com.pricetracker.server.db.SchemaMigrator.migrate();
+            com.pricetracker.server.catalog.ProductIdentityIndex.getInstance().load();
+            com.pricetracker.server.catalog.DealLeaderboard.getInstance()
+                    .addListener(com.pricetracker.server.catalog.FacetIndex.getInstance());
+            com.pricetracker.server.catalog.DealLeaderboard.getInstance()
+                    .addListener(com.pricetracker.server.catalog.SuggestIndex.getInstance());
+            com.pricetracker.server.catalog.DealLeaderboard.getInstance()
+                    .addListener(com.pricetracker.server.catalog.ScrapeScheduler.getInstance());
+            com.pricetracker.server.catalog.DealLeaderboard.getInstance().start();
+            com.pricetracker.server.catalog.ScrapeScheduler.getInstance().start();
+            com.pricetracker.server.catalog.PopularityTracker.getInstance().start();
             System.out.println();
         } catch (Exception e) {
             System.err.println("✗ Failed to initialize database connection pool!");
@@ -350,6 +363,10 @@ public class PriceTrackerServer {
             // System.out.println("⏸️  Stopping SSL Server...");
             // sslServer.shutdown();
             
+            // Drain write-behind buffer trước khi đóng pool, để không mất giá đang chờ ghi
+            System.out.println("⏸️  Flushing pending price writes...");
+            com.pricetracker.server.db.PriceWriteBuffer.getInstance().shutdown(10_000);
+            
             // Đóng HikariCP pool
             try {
                 com.pricetracker.server.db.HikariCPConfig.shutdown();
@@ -1,7 +1,20 @@
 package com.pricetracker.server.db;
 
+import com.pricetracker.server.utils.AdaptiveLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * DatabaseConnectionManager - Quản lý kết nối database với HikariCP
@@ -18,15 +31,21 @@ import java.sql.SQLException;
  * Usage:
  * Connection conn = DatabaseConnectionManager.getConnection();
  * try {
- *     // Use connection
+ *     // Use connection (getReadConnection() cho SELECT phục vụ user)
  * } finally {
  *     conn.close(); // Trả lại pool, KHÔNG đóng thật sự
  * }
  */
 public class DatabaseConnectionManager {
+    private static final Logger log = LoggerFactory.getLogger(DatabaseConnectionManager.class);
     private static DatabaseConnectionManager instance;
     private static boolean initialized = false;
 
+    // 📉 Limit thích nghi theo độ trễ cho pool phục vụ request (READ / WRITE); BACKGROUND không giới hạn,
+    // job nền chấp nhận chờ. Tối đa bằng kích thước pool: limiter chỉ học được khi connection được trả,
+    // nên không cấp permit cho nhiều caller hơn số connection (phần dư sẽ xếp hàng trong Hikari khi DB treo)
+    private static final Map<HikariCPConfig.Pool, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+
     // Private constructor cho Singleton
     private DatabaseConnectionManager() {
         if (!initialized) {
@@ -41,10 +60,9 @@ public class DatabaseConnectionManager {
     private void initializePool() {
         try {
             HikariCPConfig.initialize();
-            System.out.println("✓ DatabaseConnectionManager initialized with HikariCP");
+            log.info("✓ DatabaseConnectionManager initialized with HikariCP");
         } catch (Exception e) {
-            System.err.println("✗ Failed to initialize connection pool!");
-            e.printStackTrace();
+            log.error("✗ Failed to initialize connection pool!", e);
             throw new RuntimeException("Cannot start server without database connection pool", e);
         }
     }
@@ -70,28 +88,115 @@ public class DatabaseConnectionManager {
      * }
      */
     public static Connection getConnection() throws SQLException {
+        return getConnection(HikariCPConfig.Pool.WRITE);
+    }
+
+    /**
+     * Lấy connection từ pool theo loại workload
+     * - READ: truy vấn phục vụ user (có thể trỏ tới read-replica)
+     * - WRITE: insert/update
+     * - BACKGROUND: poller, batch jobs
+     */
+    public static Connection getConnection(HikariCPConfig.Pool pool) throws SQLException {
+        AdaptiveLimiter.Permit permit = null;
+        if (pool != HikariCPConfig.Pool.BACKGROUND) {
+            AdaptiveLimiter limiter = limiters.computeIfAbsent(pool, p -> {
+                int poolSize = HikariCPConfig.getDataSource(p).getMaximumPoolSize();
+                return new AdaptiveLimiter("db_" + p.getKey(), poolSize, Math.min(2, poolSize), poolSize);
+            });
+            permit = limiter.tryAcquire();
+            if (permit == null) {
+                throw new SQLTransientConnectionException(
+                        "Database busy: adaptive limit reached for pool " + pool.getKey());
+            }
+        }
+
         try {
-            Connection conn = HikariCPConfig.getDataSource().getConnection();
+            Connection conn = HikariCPConfig.getDataSource(pool).getConnection();
             
-            // Log để debug (có thể tắt trong production)
-            if (System.getProperty("db.debug", "false").equals("true")) {
-                System.out.println("✓ Connection acquired from pool");
-            }
+            // Log để debug (bật bằng -Dlog.level=TRACE)
+            log.trace("✓ Connection acquired from pool {}", pool.getKey());
             
-            return conn;
+            return permit != null ? releasingOnClose(conn, permit) : conn;
         } catch (SQLException e) {
-            System.err.println("✗ Failed to get connection from pool: " + e.getMessage());
+            if (permit != null) {
+                permit.release(true);
+            }
+            log.warn("✗ Failed to get connection from pool {}: {}", pool.getKey(), e.getMessage());
             throw e;
         }
     }
 
+    /**
+     * Bọc connection để close() trả permit: độ trễ đo được = chờ pool + thời gian giữ connection
+     * - SQLException ném ra từ connection hoặc statement của nó (query timeout, lock wait, mất kết nối)
+     *   được báo là drop → limit giảm; vi phạm ràng buộc (trùng khóa) là kết quả nghiệp vụ, không tính
+     */
+    private static Connection releasingOnClose(Connection conn, AdaptiveLimiter.Permit permit) {
+        AtomicBoolean failed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    try {
+                        Object result = invokeTracked(conn, method, args, failed);
+                        return result instanceof Statement ? trackingStatement((Statement) result, method.getReturnType(), failed) : result;
+                    } finally {
+                        if ("close".equals(method.getName())) {
+                            permit.release(failed.get());
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Bọc Statement / PreparedStatement / CallableStatement để lỗi khi thực thi cũng được ghi nhận
+     */
+    private static Statement trackingStatement(Statement stmt, Class<?> type, AtomicBoolean failed) {
+        Class<?> iface = Statement.class.isAssignableFrom(type) && type.isInterface() ? type : Statement.class;
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] { iface },
+                (proxy, method, args) -> invokeTracked(stmt, method, args, failed));
+    }
+
+    private static Object invokeTracked(Object target, Method method, Object[] args, AtomicBoolean failed)
+            throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException && !(cause instanceof SQLIntegrityConstraintViolationException)) {
+                failed.set(true);
+            }
+            throw cause;
+        }
+    }
+
+    /**
+     * Connection cho truy vấn đọc phục vụ user
+     */
+    public static Connection getReadConnection() throws SQLException {
+        return getConnection(HikariCPConfig.Pool.READ);
+    }
+
+    /**
+     * Connection cho ghi dữ liệu (primary)
+     */
+    public static Connection getWriteConnection() throws SQLException {
+        return getConnection(HikariCPConfig.Pool.WRITE);
+    }
+
+    /**
+     * Connection cho tác vụ nền, không tranh chấp với request của user
+     */
+    public static Connection getBackgroundConnection() throws SQLException {
+        return getConnection(HikariCPConfig.Pool.BACKGROUND);
+    }
+
     /**
      * Đóng connection pool (gọi khi shutdown server)
      * Không gọi method này trong business logic!
      */
     public void shutdown() {
         HikariCPConfig.shutdown();
-        System.out.println("✓ DatabaseConnectionManager shut down");
+        log.info("✓ DatabaseConnectionManager shut down");
     }
 
     /**
@@ -114,7 +219,7 @@ public class DatabaseConnectionManager {
      */
     @Deprecated
     public void closeConnection() {
-        System.out.println("⚠ closeConnection() is deprecated. Use shutdown() for pool cleanup.");
-        System.out.println("⚠ Individual connections will be returned to pool automatically when closed.");
+        log.warn("⚠ closeConnection() is deprecated. Use shutdown() for pool cleanup.");
+        log.warn("⚠ Individual connections will be returned to pool automatically when closed.");
     }
 }
@@ -2,9 +2,15 @@ package com.pricetracker.server.db;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * HikariCPConfig - Cấu hình HikariCP Connection Pool
@@ -15,111 +21,189 @@ import java.util.Properties;
  * - Connection leak detection
  * - Performance monitoring
  * - Configurable pool size
+ * - Pool riêng cho từng loại workload (read / write / background)
+ *   để một đợt refresh ghi giá không làm nghẽn việc load trang
+ *
+ * Config (env var hoặc system property):
+ * - db.pool.read.maxSize / db.pool.read.minIdle           (mặc định 20 / 8)
+ * - db.pool.write.maxSize / db.pool.write.minIdle         (mặc định 8 / 2)
+ * - db.pool.background.maxSize / db.pool.background.minIdle (mặc định 4 / 1)
+ * - DB_READ_URL / db.read.url: JDBC URL của read-replica (tùy chọn, chỉ dùng cho pool read)
  */
 public class HikariCPConfig {
-    private static HikariDataSource dataSource;
+    private static final Logger log = LoggerFactory.getLogger(HikariCPConfig.class);
+
+    /**
+     * Các pool theo loại workload
+     */
+    public enum Pool {
+        /** Đọc phục vụ user (search, deals, product detail) */
+        READ("read", 20, 8),
+        /** Ghi do user/scrape trigger (insert product, price record) */
+        WRITE("write", 8, 2),
+        /** Tác vụ nền (PriceUpdateService poller, batch jobs) */
+        BACKGROUND("background", 4, 1);
+
+        private final String key;
+        private final int defaultMaxSize;
+        private final int defaultMinIdle;
+
+        Pool(String key, int defaultMaxSize, int defaultMinIdle) {
+            this.key = key;
+            this.defaultMaxSize = defaultMaxSize;
+            this.defaultMinIdle = defaultMinIdle;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getPoolName() {
+            return "PriceTracker-" + key;
+        }
+    }
+
+    private static final Map<Pool, HikariDataSource> dataSources = new ConcurrentHashMap<>();
 
     /**
      * Khởi tạo HikariCP với cấu hình tối ưu
      */
-    public static void initialize() {
-        if (dataSource != null && !dataSource.isClosed()) {
+    public static synchronized void initialize() {
+        if (isInitialized()) {
             return; // Đã khởi tạo rồi
         }
 
         try {
-            HikariConfig config = new HikariConfig();
-            
             // === Database Connection Settings ===
             // Ưu tiên 1: DATABASE_URL từ Railway/Render
             // Ưu tiên 2: DB_HOST, DB_USER, DB_PASSWORD riêng lẻ
             // Ưu tiên 3: Local defaults
             String databaseUrl = getDatabaseUrl();
-            String dbUser = getEnvOrProperty("DB_USER", "db.user", "root");
-            String dbPassword = getEnvOrProperty("DB_PASSWORD", "db.password", "");
-            
-            config.setJdbcUrl(databaseUrl);
-            config.setUsername(dbUser);
-            config.setPassword(dbPassword);
-            config.setDriverClassName("com.mysql.cj.jdbc.Driver");
-
-            // === Pool Size Configuration ===
-            // Maximum connections trong pool
-            // ⚡ Tăng từ 10 → 30 để support 50 concurrent users
-            // Formula: (50 users / 2) + buffer = ~30 connections
-            config.setMaximumPoolSize(Integer.parseInt(getProperty("db.pool.maxSize", "30")));
-            
-            // Minimum idle connections (connections sẵn sàng chờ)
-            // ⚡ Tăng từ 5 → 15 để có đủ connections sẵn sàng
-            config.setMinimumIdle(Integer.parseInt(getProperty("db.pool.minIdle", "15")));
-
-            // === Connection Timeout Settings ===
-            // Thời gian chờ để lấy connection từ pool (milliseconds)
-            config.setConnectionTimeout(30000); // 30 seconds
-            
-            // Thời gian tối đa một connection có thể idle (milliseconds)
-            config.setIdleTimeout(600000); // 10 minutes
-            
-            // Thời gian tối đa một connection tồn tại (milliseconds)
-            config.setMaxLifetime(1800000); // 30 minutes
+            String readUrl = getReadReplicaUrl();
 
-            // === Performance Tuning ===
-            // Connection test query
-            config.setConnectionTestQuery("SELECT 1");
-            
-            // Tên pool để dễ identify trong logs
-            config.setPoolName("PriceTrackerPool");
-            
-            // Auto-commit (recommended: true)
-            config.setAutoCommit(true);
-
-            // === Leak Detection ===
-            // Cảnh báo khi connection bị leak (không trả lại pool)
-            config.setLeakDetectionThreshold(60000); // 60 seconds
-
-            // === MySQL Specific Optimizations ===
-            config.addDataSourceProperty("cachePrepStmts", "true");
-            config.addDataSourceProperty("prepStmtCacheSize", "250");
-            config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
-            config.addDataSourceProperty("useServerPrepStmts", "true");
-            config.addDataSourceProperty("useLocalSessionState", "true");
-            config.addDataSourceProperty("rewriteBatchedStatements", "true");
-            config.addDataSourceProperty("cacheResultSetMetadata", "true");
-            config.addDataSourceProperty("cacheServerConfiguration", "true");
-            config.addDataSourceProperty("elideSetAutoCommits", "true");
-            config.addDataSourceProperty("maintainTimeStats", "false");
-
-            dataSource = new HikariDataSource(config);
-            System.out.println("✓ HikariCP Connection Pool initialized successfully");
-            System.out.println("  ├─ Pool Name: " + config.getPoolName());
-            System.out.println("  ├─ Max Pool Size: " + config.getMaximumPoolSize());
-            System.out.println("  ├─ Min Idle: " + config.getMinimumIdle());
-            System.out.println("  └─ Database: " + config.getJdbcUrl());
+            for (Pool pool : Pool.values()) {
+                HikariDataSource existing = dataSources.get(pool);
+                if (existing != null && !existing.isClosed()) {
+                    continue;
+                }
+                String jdbcUrl = (pool == Pool.READ && readUrl != null) ? readUrl : databaseUrl;
+                HikariConfig config = buildConfig(pool, jdbcUrl);
+                dataSources.put(pool, new HikariDataSource(config));
+                log.info("✓ HikariCP pool '{}' initialized (max={}, minIdle={}, url={})",
+                        config.getPoolName(), config.getMaximumPoolSize(), config.getMinimumIdle(),
+                        pool == Pool.READ && readUrl != null ? "read-replica" : "primary");
+            }
             
         } catch (Exception e) {
-            System.err.println("✗ Failed to initialize HikariCP: " + e.getMessage());
-            e.printStackTrace();
+            log.error("✗ Failed to initialize HikariCP", e);
+            shutdown();
             throw new RuntimeException("Cannot initialize database connection pool", e);
         }
     }
 
     /**
-     * Lấy DataSource để get connections
+     * Cấu hình cho một pool
+     */
+    private static HikariConfig buildConfig(Pool pool, String jdbcUrl) {
+        HikariConfig config = new HikariConfig();
+
+        String dbUser = getEnvOrProperty("DB_USER", "db.user", "root");
+        String dbPassword = getEnvOrProperty("DB_PASSWORD", "db.password", "");
+        config.setJdbcUrl(jdbcUrl);
+        config.setUsername(dbUser);
+        config.setPassword(dbPassword);
+        config.setDriverClassName("com.mysql.cj.jdbc.Driver");
+
+        // === Pool Size Configuration ===
+        // Tổng mặc định (20 + 8 + 4) ≈ pool cũ (30), nhưng chia theo workload
+        String prefix = "db.pool." + pool.getKey() + ".";
+        config.setMaximumPoolSize(Integer.parseInt(
+                getProperty(prefix + "maxSize", String.valueOf(pool.defaultMaxSize))));
+        config.setMinimumIdle(Integer.parseInt(
+                getProperty(prefix + "minIdle", String.valueOf(pool.defaultMinIdle))));
+
+        // === Connection Timeout Settings ===
+        // Thời gian chờ để lấy connection từ pool (milliseconds). Pool phục vụ user chờ ngắn: DB treo thì
+        // request fail fast (và AdaptiveLimiter thấy lỗi) thay vì giữ thread 30s; job nền vẫn chờ 30s
+        String defaultTimeout = pool == Pool.BACKGROUND ? "30000" : "2000";
+        config.setConnectionTimeout(Long.parseLong(getProperty(prefix + "connectionTimeout", defaultTimeout)));
+
+        // Thời gian tối đa một connection có thể idle (milliseconds)
+        config.setIdleTimeout(600000); // 10 minutes
+
+        // Thời gian tối đa một connection tồn tại (milliseconds)
+        config.setMaxLifetime(1800000); // 30 minutes
+
+        // === Performance Tuning ===
+        // Connection test query
+        config.setConnectionTestQuery("SELECT 1");
+
+        // Tên pool để dễ identify trong logs
+        config.setPoolName(pool.getPoolName());
+
+        // Auto-commit (recommended: true)
+        config.setAutoCommit(true);
+
+        // === Leak Detection ===
+        // Cảnh báo khi connection bị leak (không trả lại pool)
+        config.setLeakDetectionThreshold(60000); // 60 seconds
+
+        // === MySQL Specific Optimizations ===
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.addDataSourceProperty("useServerPrepStmts", "true");
+        config.addDataSourceProperty("useLocalSessionState", "true");
+        config.addDataSourceProperty("rewriteBatchedStatements", "true");
+        config.addDataSourceProperty("cacheResultSetMetadata", "true");
+        config.addDataSourceProperty("cacheServerConfiguration", "true");
+        config.addDataSourceProperty("elideSetAutoCommits", "true");
+        config.addDataSourceProperty("maintainTimeStats", "false");
+
+        return config;
+    }
+
+    private static boolean isInitialized() {
+        if (dataSources.size() < Pool.values().length) {
+            return false;
+        }
+        for (HikariDataSource ds : dataSources.values()) {
+            if (ds == null || ds.isClosed()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lấy DataSource để get connections (pool write - primary)
      */
     public static HikariDataSource getDataSource() {
-        if (dataSource == null || dataSource.isClosed()) {
+        return getDataSource(Pool.WRITE);
+    }
+
+    /**
+     * Lấy DataSource của một pool cụ thể
+     */
+    public static HikariDataSource getDataSource(Pool pool) {
+        HikariDataSource ds = dataSources.get(pool);
+        if (ds == null || ds.isClosed()) {
             initialize();
+            ds = dataSources.get(pool);
         }
-        return dataSource;
+        return ds;
     }
 
     /**
      * Đóng connection pool (gọi khi shutdown server)
      */
-    public static void shutdown() {
-        if (dataSource != null && !dataSource.isClosed()) {
-            dataSource.close();
-            System.out.println("✓ HikariCP Connection Pool closed");
+    public static synchronized void shutdown() {
+        for (Pool pool : Pool.values()) {
+            HikariDataSource ds = dataSources.remove(pool);
+            if (ds != null && !ds.isClosed()) {
+                ds.close();
+                log.info("✓ HikariCP pool '{}' closed", pool.getPoolName());
+            }
         }
     }
 
@@ -127,13 +211,83 @@ public class HikariCPConfig {
      * Lấy thông tin monitoring của pool
      */
     public static void printPoolStats() {
-        if (dataSource != null && !dataSource.isClosed()) {
-            System.out.println("\n=== HikariCP Pool Statistics ===");
-            System.out.println("Active Connections: " + dataSource.getHikariPoolMXBean().getActiveConnections());
-            System.out.println("Idle Connections: " + dataSource.getHikariPoolMXBean().getIdleConnections());
-            System.out.println("Total Connections: " + dataSource.getHikariPoolMXBean().getTotalConnections());
-            System.out.println("Threads Awaiting: " + dataSource.getHikariPoolMXBean().getThreadsAwaitingConnection());
-            System.out.println("================================\n");
+        for (Pool pool : Pool.values()) {
+            HikariDataSource ds = dataSources.get(pool);
+            if (ds != null && !ds.isClosed()) {
+                HikariPoolMXBean mx = ds.getHikariPoolMXBean();
+                log.info("=== HikariCP Pool Statistics [{}] === active={}, idle={}, total={}, awaiting={}",
+                        pool.getKey(), mx.getActiveConnections(), mx.getIdleConnections(),
+                        mx.getTotalConnections(), mx.getThreadsAwaitingConnection());
+            }
+        }
+    }
+
+    /**
+     * Stats của tất cả pools cho /metrics (pool chưa khởi tạo sẽ bị bỏ qua)
+     */
+    public static Map<Pool, PoolStats> getPoolStats() {
+        Map<Pool, PoolStats> stats = new EnumMap<>(Pool.class);
+        for (Pool pool : Pool.values()) {
+            HikariDataSource ds = dataSources.get(pool);
+            if (ds == null || ds.isClosed()) {
+                continue;
+            }
+            HikariPoolMXBean mx = ds.getHikariPoolMXBean();
+            if (mx == null) {
+                continue;
+            }
+            stats.put(pool, new PoolStats(
+                    ds.getPoolName(),
+                    ds.getMaximumPoolSize(),
+                    ds.getMinimumIdle(),
+                    mx.getActiveConnections(),
+                    mx.getIdleConnections(),
+                    mx.getTotalConnections(),
+                    mx.getThreadsAwaitingConnection()));
+        }
+        return stats;
+    }
+
+    /**
+     * Số thread đang chờ connection trên các pool phục vụ user (READ + WRITE) - tín hiệu quá tải cho
+     * admission control; job nền chờ pool BACKGROUND không được làm shed request của user
+     */
+    public static int getThreadsAwaitingConnection() {
+        return getThreadsAwaitingConnection(Pool.READ) + getThreadsAwaitingConnection(Pool.WRITE);
+    }
+
+    /**
+     * Số thread đang chờ connection trên một pool (0 nếu pool chưa khởi tạo / đã đóng)
+     */
+    public static int getThreadsAwaitingConnection(Pool pool) {
+        HikariDataSource ds = dataSources.get(pool);
+        if (ds == null || ds.isClosed() || ds.getHikariPoolMXBean() == null) {
+            return 0;
+        }
+        return ds.getHikariPoolMXBean().getThreadsAwaitingConnection();
+    }
+
+    /**
+     * Snapshot stats của một pool
+     */
+    public static class PoolStats {
+        public final String poolName;
+        public final int maxPoolSize;
+        public final int minIdle;
+        public final int activeConnections;
+        public final int idleConnections;
+        public final int totalConnections;
+        public final int threadsAwaitingConnection;
+
+        PoolStats(String poolName, int maxPoolSize, int minIdle, int activeConnections,
+                  int idleConnections, int totalConnections, int threadsAwaitingConnection) {
+            this.poolName = poolName;
+            this.maxPoolSize = maxPoolSize;
+            this.minIdle = minIdle;
+            this.activeConnections = activeConnections;
+            this.idleConnections = idleConnections;
+            this.totalConnections = totalConnections;
+            this.threadsAwaitingConnection = threadsAwaitingConnection;
         }
     }
 
@@ -145,17 +299,8 @@ public class HikariCPConfig {
         String databaseUrl = System.getenv("DATABASE_URL");
         
         if (databaseUrl != null && !databaseUrl.isEmpty()) {
-            // Chuyển đổi mysql:// thành jdbc:mysql://
-            if (databaseUrl.startsWith("mysql://")) {
-                databaseUrl = "jdbc:" + databaseUrl;
-            }
-            // Thêm timezone và SSL params nếu chưa có
-            if (!databaseUrl.contains("serverTimezone")) {
-                String separator = databaseUrl.contains("?") ? "&" : "?";
-                databaseUrl += separator + "serverTimezone=UTC&useSSL=true&requireSSL=true";
-            }
-            System.out.println("✓ Using DATABASE_URL from environment");
-            return databaseUrl;
+            log.info("✓ Using DATABASE_URL from environment");
+            return normalizeJdbcUrl(databaseUrl);
         }
         
         // Fallback: Đọc từ DB_HOST, DB_PORT, DB_NAME riêng lẻ
@@ -165,14 +310,42 @@ public class HikariCPConfig {
         
         String jdbcUrl = String.format("jdbc:mysql://%s:%s/%s?serverTimezone=UTC&useSSL=false", 
                                        host, port, dbName);
-        System.out.println("✓ Using local database: " + jdbcUrl);
+        log.info("✓ Using local database: {}", jdbcUrl);
         return jdbcUrl;
     }
 
+    /**
+     * Lấy URL read-replica (tùy chọn). Null nếu không cấu hình → pool read dùng primary
+     */
+    private static String getReadReplicaUrl() {
+        String readUrl = getEnvOrProperty("DB_READ_URL", "db.read.url", "");
+        if (readUrl.isEmpty()) {
+            return null;
+        }
+        log.info("✓ Using read-replica for read pool");
+        return normalizeJdbcUrl(readUrl);
+    }
+
+    /**
+     * Chuyển URL dạng Railway/Render (mysql://...) thành JDBC URL
+     */
+    private static String normalizeJdbcUrl(String databaseUrl) {
+        // Chuyển đổi mysql:// thành jdbc:mysql://
+        if (databaseUrl.startsWith("mysql://")) {
+            databaseUrl = "jdbc:" + databaseUrl;
+        }
+        // Thêm timezone và SSL params nếu chưa có
+        if (!databaseUrl.contains("serverTimezone")) {
+            String separator = databaseUrl.contains("?") ? "&" : "?";
+            databaseUrl += separator + "serverTimezone=UTC&useSSL=true&requireSSL=true";
+        }
+        return databaseUrl;
+    }
+
     /**
      * Helper method để đọc từ env var trước, rồi mới tới system property và config file
      */
-    private static String getEnvOrProperty(String envKey, String propKey, String defaultValue) {
+    static String getEnvOrProperty(String envKey, String propKey, String defaultValue) {
         // Ưu tiên 1: Environment variable (Railway/Render)
         String value = System.getenv(envKey);
         if (value != null && !value.isEmpty()) {
@@ -217,7 +390,7 @@ public class HikariCPConfig {
             conn.close(); // Trả lại pool
             return isValid;
         } catch (Exception e) {
-            System.err.println("✗ Connection test failed: " + e.getMessage());
+            log.warn("✗ Connection test failed: {}", e.getMessage());
             return false;
         }
     }
@@ -0,0 +1,69 @@
+package com.pricetracker.server.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JdbcHelper - Chạy PreparedStatement với try-with-resources cho cả Connection,
+ * Statement và ResultSet, để không DAO nào để ResultSet mở.
+ */
+final class JdbcHelper {
+
+    /**
+     * Gán tham số cho PreparedStatement
+     */
+    @FunctionalInterface
+    interface StatementBinder {
+        void bind(PreparedStatement stmt) throws SQLException;
+    }
+
+    static final StatementBinder NO_PARAMS = stmt -> { };
+
+    private JdbcHelper() {
+    }
+
+    /**
+     * Query trả về nhiều dòng
+     * @param fetchSize Số dòng dự kiến (hint cho driver; capacity ban đầu của list tối đa 256)
+     */
+    static <T> List<T> queryList(HikariCPConfig.Pool pool, String sql, StatementBinder binder,
+                                 RowMapper<T> mapper, int fetchSize) throws SQLException {
+        try (Connection conn = DatabaseConnectionManager.getConnection(pool);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            binder.bind(stmt);
+            if (fetchSize > 0) {
+                stmt.setFetchSize(fetchSize);
+            }
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                List<T> results = new ArrayList<>(fetchSize > 0 ? Math.min(fetchSize, 256) : 16);
+                while (rs.next()) {
+                    results.add(mapper.map(rs));
+                }
+                return results;
+            }
+        }
+    }
+
+    /**
+     * Query trả về tối đa một dòng, null nếu không có
+     */
+    static <T> T queryOne(HikariCPConfig.Pool pool, String sql, StatementBinder binder,
+                          RowMapper<T> mapper) throws SQLException {
+        try (Connection conn = DatabaseConnectionManager.getConnection(pool);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            binder.bind(stmt);
+            stmt.setMaxRows(1);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? mapper.map(rs) : null;
+            }
+        }
+    }
+}
@@ -2,87 +2,157 @@ package com.pricetracker.server.db;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.pricetracker.models.PriceHistory;
+import com.pricetracker.server.catalog.DealLeaderboard;
+import com.pricetracker.server.catalog.ScrapeScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * PriceHistoryDAO - Lớp truy vấn bảng 'price_history'
  * Đồng bộ với cấu trúc bảng thực tế trong MySQL
+ * Singleton: dùng PriceHistoryDAO.getInstance()
+ *
+ * Change-only storage: mỗi dòng là một "run" giá không đổi, từ recorded_at (lần đầu thấy)
+ * tới last_seen_at (lần cuối thấy). getPriceHistoryByProductId tự bung run thành điểm
+ * đầu/cuối nên biểu đồ không cần biết về cách lưu.
  */
 public class PriceHistoryDAO {
+    private static final Logger log = LoggerFactory.getLogger(PriceHistoryDAO.class);
+
+    private static final PriceHistoryDAO instance = new PriceHistoryDAO();
+
+    /** Cột đọc từ price_history, thứ tự khớp với MAPPER */
+    static final String COLUMNS =
+            "price_id, product_id, price, original_price, currency, deal_type, recorded_at, last_seen_at";
+
+    /** Đọc COLUMNS theo index, capturedAt = đầu run (recorded_at) */
+    static final RowMapper<PriceHistory> MAPPER = rs -> {
+        PriceHistory ph = new PriceHistory();
+        ph.setPriceId(rs.getInt(1));
+        ph.setProductId(rs.getInt(2));
+        ph.setPrice(rs.getDouble(3));
+        ph.setOriginalPrice(rs.getDouble(4));
+        ph.setCurrency(rs.getString(5));
+        ph.setDealType(rs.getString(6));
+        ph.setCapturedAt(rs.getTimestamp(7)); // vẫn dùng capturedAt trong object, nhưng đọc từ recorded_at
+        return ph;
+    };
+
+    /** Giá hiện tại: capturedAt = lần cuối thấy giá này (last_seen_at, rơi về recorded_at) */
+    static final RowMapper<PriceHistory> CURRENT_MAPPER = rs -> {
+        PriceHistory ph = MAPPER.map(rs);
+        Timestamp lastSeenAt = rs.getTimestamp(8);
+        if (lastSeenAt != null) {
+            ph.setCapturedAt(lastSeenAt);
+        }
+        return ph;
+    };
+
+    /** Một run giá: điểm đầu + thời điểm cuối cùng còn thấy */
+    private static final class Run {
+        final PriceHistory start;
+        final Timestamp lastSeenAt;
+
+        Run(PriceHistory start, Timestamp lastSeenAt) {
+            this.start = start;
+            this.lastSeenAt = lastSeenAt;
+        }
+    }
+
+    private static final RowMapper<Run> RUN_MAPPER = rs -> new Run(MAPPER.map(rs), rs.getTimestamp(8));
+
+    private PriceHistoryDAO() {
+    }
+
+    public static PriceHistoryDAO getInstance() {
+        return instance;
+    }
 
     /**
      * Lấy danh sách lịch sử giá của 1 sản phẩm (sắp xếp theo thời gian tăng dần)
      */
     public List<PriceHistory> getPriceHistoryByProductId(int productId) {
-        List<PriceHistory> list = new ArrayList<>();
-        String sql = "SELECT * FROM price_history WHERE product_id = ? ORDER BY recorded_at ASC";
+        String sql = "SELECT " + COLUMNS + " FROM price_history WHERE product_id = ? ORDER BY recorded_at ASC";
 
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try {
+            List<Run> runs = JdbcHelper.queryList(HikariCPConfig.Pool.READ, sql,
+                    stmt -> stmt.setInt(1, productId), RUN_MAPPER, 256);
 
-            stmt.setInt(1, productId);
-            ResultSet rs = stmt.executeQuery();
-
-            while (rs.next()) {
-                PriceHistory ph = new PriceHistory();
-                ph.setPriceId(rs.getInt("price_id"));
-                ph.setProductId(rs.getInt("product_id"));
-                ph.setPrice(rs.getDouble("price"));
-                ph.setCapturedAt(rs.getTimestamp("recorded_at")); // vẫn dùng capturedAt trong object, nhưng đọc từ recorded_at
-                list.add(ph);
+            // Bung mỗi run thành điểm đầu + điểm cuối (nếu run kéo dài) để biểu đồ vẽ đoạn giá phẳng
+            List<PriceHistory> list = new ArrayList<>(runs.size() * 2 + 1);
+            for (Run run : runs) {
+                list.add(run.start);
+                Timestamp startAt = run.start.getCapturedAt();
+                if (run.lastSeenAt != null && startAt != null && run.lastSeenAt.after(startAt)) {
+                    PriceHistory end = new PriceHistory();
+                    end.setPriceId(run.start.getPriceId());
+                    end.setProductId(run.start.getProductId());
+                    end.setPrice(run.start.getPrice());
+                    end.setOriginalPrice(run.start.getOriginalPrice());
+                    end.setCurrency(run.start.getCurrency());
+                    end.setDealType(run.start.getDealType());
+                    end.setCapturedAt(run.lastSeenAt);
+                    list.add(end);
+                }
             }
-
+            // Điểm giá còn trong write-behind buffer (chưa flush) nằm cuối chuỗi thời gian
+            PriceHistory pending = PriceWriteBuffer.getInstance().getPending(productId);
+            if (pending != null) {
+                list.add(pending);
+            }
+            return list;
         } catch (SQLException e) {
-            System.err.println("❌ Lỗi khi truy vấn bảng price_history");
-            e.printStackTrace();
+            log.error("❌ Lỗi khi truy vấn bảng price_history", e);
         }
 
-        return list;
+        return new ArrayList<>();
     }
 
     /**
-     * Thêm một bản ghi giá mới cho sản phẩm
+     * Số lần giá đổi của từng sản phẩm từ since (change-only: mỗi dòng là một lần đổi) - pool background
+     * @return productId → số dòng price_history bắt đầu từ since
      */
-    public boolean addPriceRecord(int productId, double price) {
-        String sql = "INSERT INTO price_history (product_id, price, recorded_at, deal_type, currency) " +
-                     "VALUES (?, ?, NOW(), 'NORMAL', 'VND')";
-
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setInt(1, productId);
-            stmt.setDouble(2, price);
-
-            int rows = stmt.executeUpdate();
-            return rows > 0;
-
-        } catch (SQLException e) {
-            System.err.println("❌ Lỗi khi thêm bản ghi giá mới");
-            e.printStackTrace();
-            return false;
+    public Map<Integer, Integer> getChangeCounts(Timestamp since) throws SQLException {
+        String sql = "SELECT product_id, COUNT(*) FROM price_history WHERE recorded_at >= ? GROUP BY product_id";
+        List<int[]> rows = JdbcHelper.queryList(HikariCPConfig.Pool.BACKGROUND, sql,
+                stmt -> stmt.setTimestamp(1, since), rs -> new int[]{rs.getInt(1), rs.getInt(2)}, 1024);
+        Map<Integer, Integer> counts = new HashMap<>(rows.size() * 2);
+        for (int[] row : rows) {
+            counts.put(row[0], row[1]);
         }
+        return counts;
+    }
+
+    /**
+     * Thêm một bản ghi giá mới cho sản phẩm (qua PriceWriteBuffer, ghi xuống DB theo batch)
+     */
+    public boolean addPriceRecord(int productId, double price) {
+        return addCompletePriceRecord(productId, price, price, "NORMAL");
     }
 
     /**
      * Lấy giá mới nhất của sản phẩm
      */
     public Double getLatestPrice(int productId) {
-        String sql = "SELECT price FROM price_history WHERE product_id = ? ORDER BY recorded_at DESC LIMIT 1";
-
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        PriceHistory pending = PriceWriteBuffer.getInstance().getPending(productId);
+        if (pending != null) {
+            return pending.getPrice();
+        }
 
-            stmt.setInt(1, productId);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getDouble("price");
-            }
+        String sql = "SELECT price FROM price_history WHERE product_id = ? ORDER BY recorded_at DESC LIMIT 1";
 
+        try {
+            return JdbcHelper.queryOne(HikariCPConfig.Pool.READ, sql,
+                    stmt -> stmt.setInt(1, productId), rs -> rs.getDouble(1));
         } catch (SQLException e) {
-            System.err.println("❌ Lỗi khi lấy giá mới nhất");
-            e.printStackTrace();
+            log.error("❌ Lỗi khi lấy giá mới nhất", e);
         }
         return null;
     }
@@ -94,61 +164,201 @@ public class PriceHistoryDAO {
      * @return PriceHistory with current price data, or null if not found
      */
     public PriceHistory getCurrentPrice(int productId) {
-        String sql = "SELECT * FROM price_history WHERE product_id = ? ORDER BY recorded_at DESC LIMIT 1";
+        return getCurrentPrice(productId, HikariCPConfig.Pool.READ);
+    }
+
+    /**
+     * Get current price from a specific pool
+     * Dùng Pool.WRITE (primary) ngay sau khi ghi để tránh đọc dữ liệu cũ từ read-replica
+     * @param productId The product ID
+     * @param pool Pool để đọc
+     * @return PriceHistory with current price data, or null if not found
+     */
+    public PriceHistory getCurrentPrice(int productId, HikariCPConfig.Pool pool) {
+        // Bản ghi còn nằm trong write-behind buffer luôn mới hơn DB
+        PriceHistory pending = PriceWriteBuffer.getInstance().getPending(productId);
+        if (pending != null) {
+            return pending;
+        }
+
+        String sql = "SELECT " + COLUMNS + " FROM price_history WHERE product_id = ? ORDER BY recorded_at DESC LIMIT 1";
         
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, productId);
-            ResultSet rs = stmt.executeQuery();
-            
-            if (rs.next()) {
-                PriceHistory ph = new PriceHistory();
-                ph.setPriceId(rs.getInt("price_id"));
-                ph.setProductId(rs.getInt("product_id"));
-                ph.setPrice(rs.getDouble("price"));
-                ph.setOriginalPrice(rs.getDouble("original_price"));
-                ph.setCurrency(rs.getString("currency"));
-                ph.setDealType(rs.getString("deal_type"));
-                ph.setCapturedAt(rs.getTimestamp("recorded_at"));
-                return ph;
-            }
-            
+        try {
+            return JdbcHelper.queryOne(pool, sql, stmt -> stmt.setInt(1, productId), CURRENT_MAPPER);
         } catch (SQLException e) {
-            System.err.println("Error getting current price: " + e.getMessage());
+            log.warn("Error getting current price: {}", e.getMessage());
         }
         
         return null;
     }
     
     /**
-     * Add complete price record with original_price and deal_type
-     * Used for real-time scraping
-     * @param productId Product ID
-     * @param price Current price
-     * @param originalPrice Original price (before discount)
-     * @param dealType Deal type (NORMAL, FLASH_SALE, HOT_DEAL, etc.)
-     * @return true if successful
+     * Giá hiện tại của nhiều sản phẩm trong MỘT query (thay cho N lần getCurrentPrice)
+     * Bản ghi còn trong write-behind buffer được ưu tiên như getCurrentPrice
+     * @return productId → PriceHistory; sản phẩm chưa có giá không có trong map
      */
-    public boolean addCompletePriceRecord(int productId, double price, double originalPrice, String dealType) {
-        String sql = "INSERT INTO price_history (product_id, price, original_price, currency, deal_type, recorded_at) " +
-                     "VALUES (?, ?, ?, 'VND', ?, NOW())";
+    public Map<Integer, PriceHistory> getCurrentPrices(Collection<Integer> productIds) {
+        Map<Integer, PriceHistory> prices = new HashMap<>();
+        List<Integer> missing = new ArrayList<>(productIds.size());
+        PriceWriteBuffer buffer = PriceWriteBuffer.getInstance();
+        for (Integer productId : productIds) {
+            PriceHistory pending = buffer.getPending(productId);
+            if (pending != null) {
+                prices.put(productId, pending);
+            } else {
+                missing.add(productId);
+            }
+        }
+        if (missing.isEmpty()) {
+            return prices;
+        }
 
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        String placeholders = String.join(",", Collections.nCopies(missing.size(), "?"));
+        String sql = "SELECT " + COLUMNS + " FROM price_history ph " +
+                     "JOIN (SELECT MAX(price_id) AS max_id FROM price_history " +
+                     "      WHERE product_id IN (" + placeholders + ") GROUP BY product_id) latest " +
+                     "ON ph.price_id = latest.max_id";
+
+        try {
+            List<PriceHistory> rows = JdbcHelper.queryList(HikariCPConfig.Pool.READ, sql, stmt -> {
+                for (int i = 0; i < missing.size(); i++) {
+                    stmt.setInt(i + 1, missing.get(i));
+                }
+            }, CURRENT_MAPPER, missing.size());
+            for (PriceHistory ph : rows) {
+                prices.put(ph.getProductId(), ph);
+            }
+        } catch (SQLException e) {
+            log.warn("Error getting current prices for {} products: {}", missing.size(), e.getMessage());
+        }
+
+        return prices;
+    }
 
+    /**
+     * Giá hiện tại (dòng mới nhất) của mọi sản phẩm, để dựng dữ liệu in-memory lúc khởi động
+     * Chạy trên Pool.BACKGROUND, không tranh connection với request
+     */
+    public List<PriceHistory> getAllCurrentPrices() throws SQLException {
+        String sql = "SELECT " + COLUMNS + " FROM price_history ph " +
+                     "JOIN (SELECT MAX(price_id) AS max_id FROM price_history GROUP BY product_id) latest " +
+                     "ON ph.price_id = latest.max_id";
+        return JdbcHelper.queryList(HikariCPConfig.Pool.BACKGROUND, sql, JdbcHelper.NO_PARAMS, CURRENT_MAPPER, 1024);
+    }
+
+    /**
+     * Dòng giảm giá mới nhất của mỗi (sản phẩm, deal_type) - cùng điều kiện với ProductDAO.getProductsByDealType
+     * Sắp xếp theo price_id tăng dần (cũ → mới)
+     */
+    public List<PriceHistory> getLatestDealRows() throws SQLException {
+        String sql = "SELECT " + COLUMNS + " FROM price_history ph " +
+                     "JOIN (SELECT MAX(price_id) AS max_id FROM price_history " +
+                     "      WHERE deal_type IN ('FLASH_SALE', 'HOT_DEAL', 'TRENDING') AND original_price > price " +
+                     "      GROUP BY product_id, deal_type) latest " +
+                     "ON ph.price_id = latest.max_id ORDER BY ph.price_id";
+        return JdbcHelper.queryList(HikariCPConfig.Pool.BACKGROUND, sql, JdbcHelper.NO_PARAMS, MAPPER, 1024);
+    }
+
+    /**
+     * Ghi một observation giá theo change-only trong transaction của caller
+     * (dùng khi giá phải commit cùng với thay đổi khác, vd. onboarding product mới)
+     * @return PriceHistory của dòng hiện tại sau khi ghi
+     */
+    PriceHistory recordInTransaction(Connection conn, int productId, double price, double originalPrice,
+                                     String dealType) throws SQLException {
+        String normalizedDeal = normalizeDealType(dealType);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        PriceHistory current = null;
+        String selectSql = "SELECT " + COLUMNS + " FROM price_history WHERE product_id = ? " +
+                           "ORDER BY price_id DESC LIMIT 1 FOR UPDATE";
+        try (PreparedStatement stmt = conn.prepareStatement(selectSql)) {
+            stmt.setInt(1, productId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    current = MAPPER.map(rs);
+                }
+            }
+        }
+
+        if (current != null
+                && Math.abs(current.getPrice() - price) < 0.005
+                && Math.abs(current.getOriginalPrice() - originalPrice) < 0.005
+                && normalizedDeal.equals(current.getDealType())) {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "UPDATE price_history SET last_seen_at = ? WHERE price_id = ?")) {
+                stmt.setTimestamp(1, now);
+                stmt.setInt(2, current.getPriceId());
+                stmt.executeUpdate();
+            }
+            current.setCapturedAt(now);
+            return current;
+        }
+
+        String insertSql = "INSERT INTO price_history " +
+                           "(product_id, price, original_price, currency, deal_type, recorded_at, last_seen_at) " +
+                           "VALUES (?, ?, ?, 'VND', ?, ?, ?)";
+        PriceHistory inserted = new PriceHistory(productId, price, now);
+        inserted.setOriginalPrice(originalPrice);
+        inserted.setCurrency("VND");
+        inserted.setDealType(normalizedDeal);
+        try (PreparedStatement stmt = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setInt(1, productId);
             stmt.setDouble(2, price);
             stmt.setDouble(3, originalPrice);
-            stmt.setString(4, dealType);
+            stmt.setString(4, normalizedDeal);
+            stmt.setTimestamp(5, now);
+            stmt.setTimestamp(6, now);
+            stmt.executeUpdate();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                if (keys.next()) {
+                    inserted.setPriceId(keys.getInt(1));
+                }
+            }
+        }
+        return inserted;
+    }
 
-            int rows = stmt.executeUpdate();
-            return rows > 0;
+    /**
+     * Chuẩn hóa deal_type về enum của bảng price_history ('NORMAL','FLASH_SALE','HOT_DEAL','TRENDING')
+     * TikiScraperUtil trả nhãn hiển thị ("Flash Sale", "Deal HOT", "Freeship", "Normal")
+     */
+    public static String normalizeDealType(String dealType) {
+        if (dealType == null) {
+            return "NORMAL";
+        }
+        switch (dealType.trim().toUpperCase().replace(' ', '_')) {
+            case "FLASH_SALE":
+                return "FLASH_SALE";
+            case "HOT_DEAL":
+            case "DEAL_HOT":
+                return "HOT_DEAL";
+            case "TRENDING":
+                return "TRENDING";
+            default:
+                return "NORMAL";
+        }
+    }
 
-        } catch (SQLException e) {
-            System.err.println("❌ Lỗi khi thêm bản ghi giá đầy đủ: " + e.getMessage());
-            e.printStackTrace();
-            return false;
+    /**
+     * Add complete price record with original_price and deal_type
+     * Used for real-time scraping
+     * Ghi qua PriceWriteBuffer: gộp thành INSERT nhiều dòng, trùng giá liên tiếp không tạo dòng mới
+     * Giá được nhận cũng cập nhật DealLeaderboard
+     * @param productId Product ID
+     * @param price Current price
+     * @param originalPrice Original price (before discount)
+     * @param dealType Deal type (NORMAL, FLASH_SALE, HOT_DEAL, etc.)
+     * @return true if the record was accepted
+     */
+    public boolean addCompletePriceRecord(int productId, double price, double originalPrice, String dealType) {
+        boolean accepted = PriceWriteBuffer.getInstance().record(productId, price, originalPrice, dealType);
+        if (accepted) {
+            // Cập nhật bảng xếp hạng /deals ngay, không chờ flush hay TTL cache
+            DealLeaderboard.getInstance().onPrice(productId, price, originalPrice, dealType);
+            // Vừa cào xong: tính lại lịch cào tiếp theo của sản phẩm
+            ScrapeScheduler.getInstance().onScraped(productId, dealType);
         }
+        return accepted;
     }
 }
@@ -0,0 +1,638 @@
+package com.pricetracker.server.db;
+
+import com.pricetracker.models.PriceHistory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PriceWriteBuffer - Write-behind cho bảng price_history
+ *
+ * Thay vì mỗi observation giá = 1 connection + 1 INSERT + 1 commit:
+ * - Observation được đưa vào hàng đợi bounded
+ * - Thread flusher gom thành INSERT nhiều dòng, flush khi đủ batchSize hoặc sau flushMs
+ * - Hàng đợi đầy: caller chờ tối đa offerTimeoutMs, sau đó tự ghi trực tiếp (backpressure)
+ * - Dedup: observation trùng (price, original_price, deal_type) với bản đang chờ
+ *   của cùng sản phẩm chỉ cập nhật recorded_at, không tạo dòng mới
+ * - Change-only: mỗi dòng price_history là một "run" giá không đổi từ recorded_at tới
+ *   last_seen_at. Observation trùng tuple với dòng hiện tại trong DB chỉ kéo dài
+ *   last_seen_at; dòng mới chỉ được INSERT khi tuple thay đổi
+ * - Không lấy được connection (adaptive limiter của pool WRITE từ chối / pool hết chỗ): DB đang quá tải,
+ *   batch được giữ nguyên và thử lại cả batch với backoff thay vì ghi từng dòng rồi bỏ
+ * - shutdown() drain toàn bộ hàng đợi trước khi đóng HikariCP
+ *
+ * Cấu hình (env / system property):
+ * - DB_WRITE_BATCH_SIZE / db.write.batchSize (mặc định 200)
+ * - DB_WRITE_FLUSH_MS / db.write.flushMs (mặc định 1000)
+ * - DB_WRITE_QUEUE_CAPACITY / db.write.queueCapacity (mặc định 10000)
+ */
+public final class PriceWriteBuffer {
+    private static final Logger log = LoggerFactory.getLogger(PriceWriteBuffer.class);
+
+    private static final PriceWriteBuffer instance = new PriceWriteBuffer();
+
+    private static final String INSERT_PREFIX =
+            "INSERT INTO price_history (product_id, price, original_price, currency, deal_type, recorded_at, last_seen_at) VALUES ";
+    private static final String ROW_PLACEHOLDER = "(?, ?, ?, ?, ?, ?, ?)";
+
+    /** price_history.price là DECIMAL(15,2): so sánh với sai số nửa đơn vị cuối */
+    private static final double PRICE_EPSILON = 0.005;
+
+    /** Backoff khi DB từ chối cấp connection: 50ms nhân đôi tới tối đa 5s */
+    private static final long RETRY_BACKOFF_MIN_MS = 50;
+    private static final long RETRY_BACKOFF_MAX_MS = 5_000;
+    /** Lúc shutdown không chờ mãi: thử lại tối đa chừng này lần rồi bỏ batch */
+    private static final int SHUTDOWN_RETRIES = 5;
+
+    private final int batchSize;
+    private final long flushMs;
+    private final long offerTimeoutMs;
+    private final BlockingQueue<Observation> queue;
+
+    /** Observation mới nhất chưa flush của mỗi sản phẩm (dedup + read-your-writes) */
+    private final Map<Integer, Observation> latestPending = new ConcurrentHashMap<>();
+
+    /**
+     * Dòng hiện tại (MAX(price_id)) của mỗi sản phẩm trong DB, nạp lười khi flush. Scraper Python ghi
+     * thẳng vào price_history nên cache có thể cũ: mỗi lần flush kiểm tra lại price_id mới nhất trong
+     * transaction trước khi quyết định UPDATE hay INSERT
+     */
+    private final Map<Integer, StoredRow> currentRows = new ConcurrentHashMap<>();
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong rowsInserted = new AtomicLong();
+    private final AtomicLong runsExtended = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong directWrites = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batchRetries = new AtomicLong();
+
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    /**
+     * Một lần quan sát giá, đang chờ ghi xuống DB
+     */
+    static final class Observation {
+        final int productId;
+        final double price;
+        final double originalPrice;
+        final String currency;
+        final String dealType;
+        private Timestamp recordedAt;
+        private boolean taken;
+
+        Observation(int productId, double price, double originalPrice, String currency, String dealType) {
+            this.productId = productId;
+            this.price = price;
+            this.originalPrice = originalPrice;
+            this.currency = currency;
+            this.dealType = dealType;
+            this.recordedAt = new Timestamp(System.currentTimeMillis());
+        }
+
+        boolean sameTuple(Observation other) {
+            return sameTuple(other.price, other.originalPrice, other.currency, other.dealType);
+        }
+
+        boolean sameTuple(double otherPrice, double otherOriginalPrice, String otherCurrency, String otherDealType) {
+            return Math.abs(price - otherPrice) < PRICE_EPSILON
+                    && Math.abs(originalPrice - otherOriginalPrice) < PRICE_EPSILON
+                    && Objects.equals(currency, otherCurrency)
+                    && Objects.equals(dealType, otherDealType);
+        }
+
+        /**
+         * Gộp observation trùng vào bản đang chờ, false nếu flusher đã lấy bản này
+         */
+        synchronized boolean touch(Timestamp seenAt) {
+            if (taken) {
+                return false;
+            }
+            recordedAt = seenAt;
+            return true;
+        }
+
+        /**
+         * Flusher đánh dấu đã lấy, trả về recorded_at cuối cùng
+         */
+        synchronized Timestamp take() {
+            taken = true;
+            return recordedAt;
+        }
+
+        synchronized PriceHistory toPriceHistory() {
+            PriceHistory ph = new PriceHistory();
+            ph.setProductId(productId);
+            ph.setPrice(price);
+            ph.setOriginalPrice(originalPrice);
+            ph.setCurrency(currency);
+            ph.setDealType(dealType);
+            ph.setCapturedAt(recordedAt);
+            return ph;
+        }
+    }
+
+    /**
+     * Dòng price_history hiện tại của một sản phẩm (đã commit)
+     */
+    private static final class StoredRow {
+        final long priceId;
+        final double price;
+        final double originalPrice;
+        final String currency;
+        final String dealType;
+
+        StoredRow(long priceId, double price, double originalPrice, String currency, String dealType) {
+            this.priceId = priceId;
+            this.price = price;
+            this.originalPrice = originalPrice;
+            this.currency = currency;
+            this.dealType = dealType;
+        }
+
+        StoredRow(long priceId, Observation obs) {
+            this(priceId, obs.price, obs.originalPrice, obs.currency, obs.dealType);
+        }
+
+        boolean matches(Observation obs) {
+            return obs.sameTuple(price, originalPrice, currency, dealType);
+        }
+    }
+
+    /**
+     * Dòng sẽ INSERT trong lần flush hiện tại
+     */
+    private static final class NewRow {
+        final Observation obs;
+        final Timestamp recordedAt;
+        Timestamp lastSeenAt;
+        long priceId;
+
+        NewRow(Observation obs, Timestamp seenAt) {
+            this.obs = obs;
+            this.recordedAt = seenAt;
+            this.lastSeenAt = seenAt;
+        }
+    }
+
+    private PriceWriteBuffer() {
+        this.batchSize = Math.max(1, Integer.parseInt(
+                HikariCPConfig.getEnvOrProperty("DB_WRITE_BATCH_SIZE", "db.write.batchSize", "200")));
+        this.flushMs = Math.max(10, Long.parseLong(
+                HikariCPConfig.getEnvOrProperty("DB_WRITE_FLUSH_MS", "db.write.flushMs", "1000")));
+        int capacity = Math.max(batchSize, Integer.parseInt(
+                HikariCPConfig.getEnvOrProperty("DB_WRITE_QUEUE_CAPACITY", "db.write.queueCapacity", "10000")));
+        this.offerTimeoutMs = 500;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        this.flusher = new Thread(this::runFlusher, "PriceWriteBuffer-Flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public static PriceWriteBuffer getInstance() {
+        return instance;
+    }
+
+    /**
+     * Ghi nhận một observation giá
+     * @return true nếu observation đã được nhận (đưa vào buffer, gộp, hoặc ghi trực tiếp thành công)
+     */
+    public boolean record(int productId, double price, double originalPrice, String dealType) {
+        Observation obs = new Observation(productId, price, originalPrice, "VND",
+                PriceHistoryDAO.normalizeDealType(dealType));
+
+        // Dedup: trùng với bản đang chờ → chỉ cập nhật recorded_at
+        Observation prev = latestPending.get(productId);
+        if (prev != null && prev.sameTuple(obs) && prev.touch(obs.recordedAt)) {
+            merged.incrementAndGet();
+            return true;
+        }
+
+        if (!running) {
+            return writeDirect(obs);
+        }
+
+        latestPending.put(productId, obs);
+        try {
+            if (queue.offer(obs, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                enqueued.incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Backpressure: hàng đợi đầy quá lâu → caller tự ghi
+        log.warn("⚠️  Price write buffer full ({} pending), writing product {} directly", queue.size(), productId);
+        obs.take();
+        latestPending.remove(productId, obs);
+        return writeDirect(obs);
+    }
+
+    /**
+     * Observation mới nhất chưa flush của sản phẩm, null nếu không có
+     * Dùng để getCurrentPrice không trả giá cũ trong lúc bản mới còn nằm trong buffer
+     */
+    public PriceHistory getPending(int productId) {
+        Observation obs = latestPending.get(productId);
+        return obs != null ? obs.toPriceHistory() : null;
+    }
+
+    /**
+     * Bỏ dòng hiện tại đã cache của sản phẩm (sau khi ghi price_history ngoài buffer)
+     */
+    void forgetCurrentRow(int productId) {
+        currentRows.remove(productId);
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Counters cho /metrics
+     */
+    public Map<String, Long> getStats() {
+        return Map.of(
+                "queue_depth", (long) queue.size(),
+                "enqueued", enqueued.get(),
+                "merged_duplicates", merged.get(),
+                "rows_inserted", rowsInserted.get(),
+                "runs_extended", runsExtended.get(),
+                "batches", batches.get(),
+                "direct_writes", directWrites.get(),
+                "batch_retries", batchRetries.get(),
+                "failed_rows", failed.get());
+    }
+
+    /**
+     * Dừng nhận observation mới vào hàng đợi và drain hết phần còn lại
+     * Gọi trong shutdown hook, TRƯỚC HikariCPConfig.shutdown()
+     */
+    public void shutdown(long timeoutMs) {
+        if (!running) {
+            return;
+        }
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) {
+            log.warn("⚠️  Price write buffer did not drain within {} ms, {} rows left", timeoutMs, queue.size());
+        } else {
+            log.info("✅ Price write buffer drained: {} rows inserted, {} runs extended",
+                    rowsInserted.get(), runsExtended.get());
+        }
+    }
+
+    private void runFlusher() {
+        List<Observation> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Observation first = running ? queue.poll(flushMs, TimeUnit.MILLISECONDS) : queue.poll();
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Gom thêm cho tới khi đủ batchSize hoặc hết cửa sổ flushMs
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long waitNanos = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || waitNanos <= 0 || !running) {
+                        break;
+                    }
+                    Observation next = queue.poll(waitNanos, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // shutdown() interrupt để flush ngay, vòng lặp tiếp tục drain khi running=false
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Observation> batch) {
+        Timestamp[] seenAt = new Timestamp[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            seenAt[i] = batch.get(i).take();
+        }
+
+        try {
+            writeWithBackoff(batch, seenAt);
+            batches.incrementAndGet();
+            log.debug("💾 Flushed {} price observations", batch.size());
+        } catch (SQLTransientConnectionException e) {
+            failed.addAndGet(batch.size());
+            log.error("❌ Database still busy at shutdown, dropping {} price observations: {}", batch.size(), e.getMessage());
+        } catch (SQLException e) {
+            // Một dòng lỗi không được kéo cả batch theo → ghi lại từng dòng
+            log.warn("Batch write of {} price observations failed ({}), retrying one by one", batch.size(), e.getMessage());
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    writeWithBackoff(List.of(batch.get(i)), new Timestamp[] { seenAt[i] });
+                } catch (SQLException rowError) {
+                    failed.incrementAndGet();
+                    log.error("❌ Lỗi khi ghi giá cho product {}: {}", batch.get(i).productId, rowError.getMessage());
+                }
+            }
+        } finally {
+            for (Observation obs : batch) {
+                latestPending.remove(obs.productId, obs);
+            }
+        }
+    }
+
+    /**
+     * Ghi cả batch; connection bị từ chối (limiter / pool timeout) thì chờ backoff rồi thử lại cả batch,
+     * observation vẫn nằm trong latestPending nên getCurrentPrice không thấy giá cũ trong lúc chờ
+     * @throws SQLTransientConnectionException chỉ khi đang shutdown và đã hết số lần thử
+     */
+    private void writeWithBackoff(List<Observation> batch, Timestamp[] seenAt) throws SQLException {
+        long backoffMs = RETRY_BACKOFF_MIN_MS;
+        int shutdownAttempts = 0;
+        while (true) {
+            try {
+                writeChangeOnly(batch, seenAt);
+                return;
+            } catch (SQLTransientConnectionException e) {
+                if (!running && ++shutdownAttempts > SHUTDOWN_RETRIES) {
+                    throw e;
+                }
+                batchRetries.incrementAndGet();
+                log.warn("⏳ Database busy ({}), retrying batch of {} price observations in {} ms",
+                        e.getMessage(), batch.size(), backoffMs);
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException interrupted) {
+                    // shutdown() interrupt: running đã false, lần thử sau tính vào SHUTDOWN_RETRIES
+                }
+                backoffMs = Math.min(backoffMs * 2, RETRY_BACKOFF_MAX_MS);
+            }
+        }
+    }
+
+    private boolean writeDirect(Observation obs) {
+        try {
+            writeChangeOnly(List.of(obs), new Timestamp[] { obs.take() });
+            directWrites.incrementAndGet();
+            return true;
+        } catch (SQLException e) {
+            failed.incrementAndGet();
+            log.error("❌ Lỗi khi ghi giá cho product {}", obs.productId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Ghi một nhóm observation theo kiểu change-only, trong một transaction:
+     * - Tuple khác dòng hiện tại → INSERT dòng mới (một câu INSERT nhiều dòng)
+     * - Tuple giống dòng hiện tại → chỉ UPDATE last_seen_at của dòng đó
+     */
+    private void writeChangeOnly(List<Observation> rows, Timestamp[] seenAt) throws SQLException {
+        try (Connection conn = DatabaseConnectionManager.getWriteConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                syncCurrentRows(conn, rows);
+
+                Map<Integer, NewRow> inserted = new HashMap<>();
+                List<NewRow> inserts = new ArrayList<>();
+                Map<Long, Timestamp> touches = new LinkedHashMap<>();
+                Map<Long, Integer> touchedProducts = new HashMap<>();
+
+                for (int i = 0; i < rows.size(); i++) {
+                    Observation obs = rows.get(i);
+                    NewRow pendingRow = inserted.get(obs.productId);
+                    StoredRow current = currentRows.get(obs.productId);
+
+                    if (pendingRow != null) {
+                        if (pendingRow.obs.sameTuple(obs)) {
+                            pendingRow.lastSeenAt = seenAt[i];
+                            continue;
+                        }
+                    } else if (current != null && current.matches(obs)) {
+                        touches.merge(current.priceId, seenAt[i], (a, b) -> a.after(b) ? a : b);
+                        touchedProducts.put(current.priceId, obs.productId);
+                        continue;
+                    }
+
+                    NewRow row = new NewRow(obs, seenAt[i]);
+                    inserts.add(row);
+                    inserted.put(obs.productId, row);
+                }
+
+                insertRows(conn, inserts);
+                touchRows(conn, touches);
+                // Batch UPDATE (rewriteBatchedStatements) không trả số dòng thật: kiểm tra trực tiếp
+                // các dòng vừa kéo dài còn tồn tại, dòng đã bị xóa/gộp (PriceHistoryCompactor) → nạp lại lần sau
+                List<Long> gone = missingRows(conn, touches.keySet());
+                conn.commit();
+
+                inserted.forEach((productId, row) -> currentRows.put(productId, new StoredRow(row.priceId, row.obs)));
+                rowsInserted.addAndGet(inserts.size());
+                runsExtended.addAndGet(touches.size() - gone.size());
+                for (Long priceId : gone) {
+                    currentRows.remove(touchedProducts.get(priceId));
+                }
+            } catch (SQLException e) {
+                conn.rollback();
+                for (Observation obs : rows) {
+                    currentRows.remove(obs.productId);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Đối chiếu currentRows với DB cho các sản phẩm trong batch:
+     * - Khóa (FOR UPDATE) và đọc MAX(price_id) của từng sản phẩm: scraper ghi dòng mới cho các sản phẩm
+     *   này phải chờ transaction xong
+     * - Dòng cache không còn là MAX (scraper đã INSERT, compactor đã xóa) hoặc chưa có → nạp lại
+     */
+    private void syncCurrentRows(Connection conn, List<Observation> rows) throws SQLException {
+        List<Integer> productIds = new ArrayList<>();
+        for (Observation obs : rows) {
+            if (!productIds.contains(obs.productId)) {
+                productIds.add(obs.productId);
+            }
+        }
+
+        String maxSql = "SELECT product_id, MAX(price_id) FROM price_history " +
+                        "WHERE product_id IN (" + placeholders(productIds.size()) + ") GROUP BY product_id FOR UPDATE";
+        Map<Integer, Long> latestIds = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(maxSql)) {
+            for (int i = 0; i < productIds.size(); i++) {
+                stmt.setInt(i + 1, productIds.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    latestIds.put(rs.getInt(1), rs.getLong(2));
+                }
+            }
+        }
+
+        List<Integer> stale = new ArrayList<>();
+        for (Integer productId : productIds) {
+            Long latestId = latestIds.get(productId);
+            StoredRow cached = currentRows.get(productId);
+            if (latestId == null) {
+                currentRows.remove(productId);
+            } else if (cached == null || cached.priceId != latestId) {
+                currentRows.remove(productId);
+                stale.add(productId);
+            }
+        }
+        loadCurrentRows(conn, stale);
+    }
+
+    /**
+     * Nạp dòng mới nhất (MAX(price_id)) của các sản phẩm
+     */
+    private void loadCurrentRows(Connection conn, List<Integer> missing) throws SQLException {
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        String sql = "SELECT ph.price_id, ph.product_id, ph.price, ph.original_price, ph.currency, ph.deal_type " +
+                     "FROM price_history ph INNER JOIN ( " +
+                     "  SELECT MAX(price_id) AS max_price_id FROM price_history " +
+                     "  WHERE product_id IN (" + placeholders(missing.size()) + ") GROUP BY product_id " +
+                     ") latest ON ph.price_id = latest.max_price_id";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < missing.size(); i++) {
+                stmt.setInt(i + 1, missing.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    currentRows.put(rs.getInt(2), new StoredRow(rs.getLong(1), rs.getDouble(3),
+                            rs.getDouble(4), rs.getString(5), rs.getString(6)));
+                }
+            }
+        }
+    }
+
+    private static void insertRows(Connection conn, List<NewRow> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + rows.size() * (ROW_PLACEHOLDER.length() + 2));
+        sql.append(INSERT_PREFIX);
+        for (int i = 0; i < rows.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(ROW_PLACEHOLDER);
+        }
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS)) {
+            int idx = 1;
+            for (NewRow row : rows) {
+                stmt.setInt(idx++, row.obs.productId);
+                stmt.setDouble(idx++, row.obs.price);
+                stmt.setDouble(idx++, row.obs.originalPrice);
+                stmt.setString(idx++, row.obs.currency);
+                stmt.setString(idx++, row.obs.dealType);
+                stmt.setTimestamp(idx++, row.recordedAt);
+                stmt.setTimestamp(idx++, row.lastSeenAt);
+            }
+            stmt.executeUpdate();
+
+            // INSERT nhiều dòng: MySQL trả generated keys theo đúng thứ tự VALUES
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                for (NewRow row : rows) {
+                    if (!keys.next()) {
+                        throw new SQLException("Missing generated key for price_history insert");
+                    }
+                    row.priceId = keys.getLong(1);
+                }
+            }
+        }
+    }
+
+    private static void touchRows(Connection conn, Map<Long, Timestamp> touches) throws SQLException {
+        if (touches.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE price_history SET last_seen_at = GREATEST(COALESCE(last_seen_at, ?), ?) " +
+                     "WHERE price_id = ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (Map.Entry<Long, Timestamp> entry : touches.entrySet()) {
+                stmt.setTimestamp(1, entry.getValue());
+                stmt.setTimestamp(2, entry.getValue());
+                stmt.setLong(3, entry.getKey());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    /**
+     * Các price_id trong danh sách không còn trong price_history
+     */
+    private static List<Long> missingRows(Connection conn, Collection<Long> priceIds) throws SQLException {
+        if (priceIds.isEmpty()) {
+            return List.of();
+        }
+        List<Long> ids = new ArrayList<>(priceIds);
+        Set<Long> found = new HashSet<>();
+        String sql = "SELECT price_id FROM price_history WHERE price_id IN (" + placeholders(ids.size()) + ")";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < ids.size(); i++) {
+                stmt.setLong(i + 1, ids.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    found.add(rs.getLong(1));
+                }
+            }
+        }
+        ids.removeIf(found::contains);
+        return ids;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 3);
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+}
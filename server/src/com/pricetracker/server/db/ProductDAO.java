@@ -1,58 +1,98 @@
 package com.pricetracker.server.db;
 
+import com.pricetracker.models.PriceHistory;
 import com.pricetracker.models.Product;
-import com.pricetracker.server.utils.TikiScraperUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * ProductDAO - Lớp truy vấn bảng 'product'
+ *
+ * - Singleton: dùng ProductDAO.getInstance(), DAO không giữ state
+ * - SELECT liệt kê cột tường minh; list view bỏ cột description (TEXT)
+ * - Mapper đọc cột theo index, khớp với LIST_COLUMNS / DETAIL_COLUMNS
+ * - List query phân trang keyset: WHERE (sort_key, product_id) < (?, ?) ORDER BY ... DESC,
+ *   trang sâu tốn như trang đầu (không OFFSET)
+ */
 public class ProductDAO {
+    private static final Logger log = LoggerFactory.getLogger(ProductDAO.class);
 
-    public List<Product> getAllProducts() {
-        List<Product> list = new ArrayList<>();
-        String sql = "SELECT * FROM product LIMIT 10";
+    private static final ProductDAO instance = new ProductDAO();
 
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql);
-             ResultSet rs = stmt.executeQuery()) {
+    /** Cột cho list view (search, deals, category, similar) - không có description */
+    static final String LIST_COLUMNS =
+            "p.product_id, p.group_id, p.name, p.brand, p.url, p.image_url, p.source, p.is_featured, p.created_at";
 
-            while (rs.next()) {
-                Product p = new Product();
-                p.setProductId(rs.getInt("product_id"));
-                p.setName(rs.getString("name"));
-                p.setBrand(rs.getString("brand"));
-                p.setUrl(rs.getString("url"));
-                p.setImageUrl(rs.getString("image_url"));
-                list.add(p);
-            }
+    /** Cột cho detail view = LIST_COLUMNS + description */
+    static final String DETAIL_COLUMNS = LIST_COLUMNS + ", p.description";
 
+    /** Đọc LIST_COLUMNS theo index */
+    static final RowMapper<Product> LIST_MAPPER = rs -> {
+        Product p = new Product();
+        p.setProductId(rs.getInt(1));
+        p.setGroupId(rs.getInt(2));
+        p.setName(rs.getString(3));
+        p.setBrand(rs.getString(4));
+        p.setUrl(rs.getString(5));
+        p.setImageUrl(rs.getString(6));
+        p.setSource(rs.getString(7));
+        p.setFeatured(rs.getBoolean(8));
+        p.setCreatedAt(rs.getTimestamp(9));
+        return p;
+    };
+
+    /** Đọc DETAIL_COLUMNS theo index */
+    static final RowMapper<Product> DETAIL_MAPPER = rs -> {
+        Product p = LIST_MAPPER.map(rs);
+        p.setDescription(rs.getString(10));
+        return p;
+    };
+
+    private ProductDAO() {
+    }
+
+    public static ProductDAO getInstance() {
+        return instance;
+    }
+
+    public List<Product> getAllProducts() {
+        String sql = "SELECT " + LIST_COLUMNS + " FROM product p LIMIT 10";
+
+        try {
+            return JdbcHelper.queryList(HikariCPConfig.Pool.READ, sql, JdbcHelper.NO_PARAMS, LIST_MAPPER, 10);
         } catch (SQLException e) {
-            e.printStackTrace();
+            log.error("Error getting all products", e);
         }
 
-        return list;
+        return List.of();
     }
     
+    /**
+     * Toàn bộ catalog (cột list), để dựng dữ liệu in-memory; chạy trên Pool.BACKGROUND
+     */
+    public List<Product> getCatalogProducts() throws SQLException {
+        String sql = "SELECT " + LIST_COLUMNS + " FROM product p ORDER BY p.product_id";
+        return JdbcHelper.queryList(HikariCPConfig.Pool.BACKGROUND, sql, JdbcHelper.NO_PARAMS, LIST_MAPPER, 1024);
+    }
+
     /**
      * Get product by ID
      * @param productId The product ID
      * @return Product if found, null otherwise
      */
     public Product getProductById(int productId) {
-        String sql = "SELECT * FROM product WHERE product_id = ?";
+        String sql = "SELECT " + DETAIL_COLUMNS + " FROM product p WHERE p.product_id = ?";
         
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, productId);
-            ResultSet rs = stmt.executeQuery();
-            
-            if (rs.next()) {
-                return mapResultSetToProduct(rs);
-            }
-            
+        try {
+            return JdbcHelper.queryOne(HikariCPConfig.Pool.READ, sql,
+                    stmt -> stmt.setInt(1, productId), DETAIL_MAPPER);
         } catch (SQLException e) {
-            System.err.println("Error getting product by ID: " + e.getMessage());
+            log.warn("Error getting product by ID: {}", e.getMessage());
         }
         
         return null;
@@ -64,23 +104,126 @@ public class ProductDAO {
      * @return Product if found, null otherwise
      */
     public Product searchByUrl(String tikiUrl) {
-        String sql = "SELECT * FROM product WHERE url = ?";
+        String sql = "SELECT " + DETAIL_COLUMNS + " FROM product p WHERE p.url = ?";
+        
+        try {
+            return JdbcHelper.queryOne(HikariCPConfig.Pool.READ, sql,
+                    stmt -> stmt.setString(1, tikiUrl), DETAIL_MAPPER);
+        } catch (SQLException e) {
+            log.warn("Error searching by URL: {}", e.getMessage());
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Tìm product theo định danh chuẩn (source, external_id) - dùng unique key uk_product_source_external
+     * @param source Giá trị cột source ("tiki", "lazada")
+     * @param externalId ID sản phẩm trên sàn
+     * @return Product if found, null otherwise
+     */
+    public Product findBySourceAndExternalId(String source, long externalId) {
+        String sql = "SELECT " + DETAIL_COLUMNS + " FROM product p WHERE p.source = ? AND p.external_id = ?";
+        
+        try {
+            return JdbcHelper.queryOne(HikariCPConfig.Pool.READ, sql, stmt -> {
+                stmt.setString(1, source);
+                stmt.setLong(2, externalId);
+            }, DETAIL_MAPPER);
+        } catch (SQLException e) {
+            log.warn("Error finding product {}:{}: {}", source, externalId, e.getMessage());
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Định danh của một product: dùng để dựng ProductIdentityIndex
+     */
+    public static final class Identity {
+        public final int productId;
+        public final String source;
+        public final String url;
+        /** null nếu chưa backfill */
+        public final Long externalId;
+
+        Identity(int productId, String source, String url, Long externalId) {
+            this.productId = productId;
+            this.source = source;
+            this.url = url;
+            this.externalId = externalId;
+        }
+    }
+    
+    /**
+     * Toàn bộ (product_id, source, url, external_id) - đọc bằng pool background lúc khởi động
+     */
+    public List<Identity> getAllIdentities() throws SQLException {
+        String sql = "SELECT product_id, source, url, external_id FROM product";
+        return JdbcHelper.queryList(HikariCPConfig.Pool.BACKGROUND, sql, JdbcHelper.NO_PARAMS, rs -> {
+            long externalId = rs.getLong(4);
+            return new Identity(rs.getInt(1), rs.getString(2), rs.getString(3), rs.wasNull() ? null : externalId);
+        }, 1024);
+    }
+    
+    /**
+     * Ghi external_id cho các product cũ (product_id → external_id)
+     * Dòng trùng (source, external_id) với product khác bị unique key từ chối và giữ NULL
+     * @return Số dòng cập nhật thành công
+     */
+    public int backfillExternalIds(Map<Integer, Long> externalIds) throws SQLException {
+        if (externalIds.isEmpty()) {
+            return 0;
+        }
+        String sql = "UPDATE product SET external_id = ? WHERE product_id = ? AND external_id IS NULL";
         
-        try (Connection conn = DatabaseConnectionManager.getConnection();
+        try (Connection conn = DatabaseConnectionManager.getBackgroundConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
-            stmt.setString(1, tikiUrl);
-            ResultSet rs = stmt.executeQuery();
+            for (Map.Entry<Integer, Long> entry : externalIds.entrySet()) {
+                stmt.setLong(1, entry.getValue());
+                stmt.setInt(2, entry.getKey());
+                stmt.addBatch();
+            }
             
-            if (rs.next()) {
-                return mapResultSetToProduct(rs);
+            int[] counts;
+            try {
+                counts = stmt.executeBatch();
+            } catch (BatchUpdateException e) {
+                // Connector/J tiếp tục các dòng còn lại khi một dòng lỗi (continueBatchOnError)
+                log.warn("Some products share (source, external_id) with another row: {}", e.getMessage());
+                counts = e.getUpdateCounts();
             }
             
-        } catch (SQLException e) {
-            System.err.println("Error searching by URL: " + e.getMessage());
+            int updated = 0;
+            for (int count : counts) {
+                if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                    updated++;
+                }
+            }
+            return updated;
+        }
+    }
+    
+    /**
+     * Ghi lịch cào tiếp theo (product_id → next_scrape_at) do ScrapeScheduler tính
+     */
+    public void updateNextScrapeTimes(Map<Integer, Timestamp> nextScrapeTimes) throws SQLException {
+        if (nextScrapeTimes.isEmpty()) {
+            return;
         }
+        String sql = "UPDATE product SET next_scrape_at = ? WHERE product_id = ?";
         
-        return null;
+        try (Connection conn = DatabaseConnectionManager.getBackgroundConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            for (Map.Entry<Integer, Timestamp> entry : nextScrapeTimes.entrySet()) {
+                stmt.setTimestamp(1, entry.getValue());
+                stmt.setInt(2, entry.getKey());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
     }
     
     /**
@@ -91,261 +234,275 @@ public class ProductDAO {
      * @return List of similar products
      */
     public List<Product> getSimilarProducts(int groupId, int excludeProductId, int limit) {
-        List<Product> results = new ArrayList<>();
-        
-        String sql = "SELECT * FROM product " +
-                     "WHERE group_id = ? AND product_id != ? " +
-                     "ORDER BY product_id DESC " +
+        String sql = "SELECT " + LIST_COLUMNS + " FROM product p " +
+                     "WHERE p.group_id = ? AND p.product_id != ? " +
+                     "ORDER BY p.product_id DESC " +
                      "LIMIT ?";
         
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, groupId);
-            stmt.setInt(2, excludeProductId);
-            stmt.setInt(3, limit);
-            
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                results.add(mapResultSetToProduct(rs));
-            }
-            
+        try {
+            return JdbcHelper.queryList(HikariCPConfig.Pool.READ, sql, stmt -> {
+                stmt.setInt(1, groupId);
+                stmt.setInt(2, excludeProductId);
+                stmt.setInt(3, limit);
+            }, LIST_MAPPER, limit);
         } catch (SQLException e) {
-            System.err.println("Error getting similar products: " + e.getMessage());
+            log.warn("Error getting similar products: {}", e.getMessage());
         }
         
-        return results;
+        return List.of();
     }
     
     /**
      * Search products by name (LIKE search)
      * Case-insensitive search using LOWER() function
      * @param keyword Search keyword
-     * @return List of matching products
+     * @return List of matching products (trang đầu, 50 sản phẩm mới nhất)
      */
     public List<Product> searchByNameLike(String keyword) {
-        List<Product> results = new ArrayList<>();
-        
-        System.out.println("🔍 Searching for keyword: " + keyword);
-        
+        return searchByNameLike(keyword, null, 50);
+    }
+
+    /**
+     * Search products by name, phân trang keyset theo product_id giảm dần
+     * @param beforeProductId product_id cuối trang trước, null = trang đầu
+     * @param limit Số sản phẩm tối đa
+     */
+    public List<Product> searchByNameLike(String keyword, Integer beforeProductId, int limit) {
         // Use LOWER() for case-insensitive search
         // This will match "Samsung", "samsung", "SAMSUNG" all the same
-        String sql = "SELECT DISTINCT p.* FROM product p " +
+        // product_group.group_id là PK nên LEFT JOIN không nhân bản dòng, không cần DISTINCT
+        String sql = "SELECT " + LIST_COLUMNS + " FROM product p " +
                      "LEFT JOIN product_group pg ON p.group_id = pg.group_id " +
-                     "WHERE " +
+                     "WHERE (" +
                      "LOWER(p.name) LIKE LOWER(?) OR " +
                      "LOWER(p.brand) LIKE LOWER(?) OR " +
-                     "LOWER(pg.group_name) LIKE LOWER(?) " +
-                     "LIMIT 50";
+                     "LOWER(pg.group_name) LIKE LOWER(?)) " +
+                     (beforeProductId != null ? "AND p.product_id < ? " : "") +
+                     "ORDER BY p.product_id DESC LIMIT ?";
         
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            String pattern = "%" + keyword + "%";
-            System.out.println("📝 Search pattern: " + pattern);
-            
-            stmt.setString(1, pattern);  // Search in product name
-            stmt.setString(2, pattern);  // Search in brand
-            stmt.setString(3, pattern);  // Search in group name
-            
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                results.add(mapResultSetToProduct(rs));
-            }
-            
-            System.out.println("✅ Found " + results.size() + " products");
+        String pattern = "%" + keyword + "%";
+        log.debug("🔍 Searching for keyword: {}", keyword);
+        
+        try {
+            List<Product> results = JdbcHelper.queryList(HikariCPConfig.Pool.READ, sql, stmt -> {
+                int i = 1;
+                stmt.setString(i++, pattern);  // Search in product name
+                stmt.setString(i++, pattern);  // Search in brand
+                stmt.setString(i++, pattern);  // Search in group name
+                if (beforeProductId != null) {
+                    stmt.setInt(i++, beforeProductId);
+                }
+                stmt.setInt(i, limit);
+            }, LIST_MAPPER, limit);
+            log.debug("✅ Found {} products", results.size());
+            return results;
             
         } catch (SQLException e) {
-            System.err.println("Error searching by name: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error searching by name", e);
         }
         
-        return results;
+        return List.of();
     }
     
     /**
-     * Insert product from Tiki scraping
-     * First scrapes the product data, then inserts into database
-     * @param tikiUrl The Tiki product URL
-     * @return The inserted Product with product_id, or null if failed
+     * Kết quả upsert: product (đã có product_id) + product có được tạo mới không
      */
-    public Product insertProductFromTiki(String tikiUrl) {
-        // Scrape product data from Tiki
-        Product product = TikiScraperUtil.scrapeProductFromUrl(tikiUrl);
-        if (product == null) {
-            System.err.println("Failed to scrape product from Tiki");
-            return null;
+    public static final class UpsertResult {
+        public final Product product;
+        public final PriceHistory price;
+        public final boolean created;
+
+        UpsertResult(Product product, PriceHistory price, boolean created) {
+            this.product = product;
+            this.price = price;
+            this.created = created;
         }
+    }
+    
+    /**
+     * Ghi product + giá đầu tiên trong MỘT transaction trên pool write
+     * - Upsert theo định danh (source, external_id): sản phẩm đã có (vd. request khác vừa thêm,
+     *   hoặc cùng sản phẩm với URL khác) thì dùng lại dòng đó
+     * - Giá ghi theo change-only giống PriceWriteBuffer (trùng giá hiện tại chỉ kéo dài last_seen_at)
+     * @param product Product đã scrape (chưa có product_id), source đã chuẩn hóa
+     * @param externalId ID sản phẩm trên sàn
+     * @return UpsertResult, or null if failed
+     */
+    public UpsertResult upsertWithPrice(Product product, long externalId,
+                                        double price, double originalPrice, String dealType) {
+        String selectSql = "SELECT " + DETAIL_COLUMNS + " FROM product p " +
+                           "WHERE p.source = ? AND p.external_id = ? FOR UPDATE";
+        String insertSql = "INSERT INTO product (group_id, name, brand, url, image_url, description, source, external_id) " +
+                           "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        // Dòng đã có làm INSERT trùng khóa (cùng URL, hoặc request khác vừa thêm cùng external_id)
+        String duplicateSql = "SELECT " + DETAIL_COLUMNS + " FROM product p " +
+                              "WHERE p.url = ? OR (p.source = ? AND p.external_id = ?) LIMIT 1 FOR UPDATE";
         
-        // IMPORTANT: Force group_id = 9 for user-added products
-        product.setGroupId(9);
-        System.out.println("🆕 User-added product, setting group_id = 9 (Sản phẩm mới)");
-        
-        // Insert into database
-        String sql = "INSERT INTO product (group_id, name, brand, url, image_url, description, source) " +
-                     "VALUES (?, ?, ?, ?, ?, ?, ?)";
-        
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            
-            stmt.setInt(1, product.getGroupId());
-            stmt.setString(2, product.getName());
-            stmt.setString(3, product.getBrand());
-            stmt.setString(4, product.getUrl());
-            stmt.setString(5, product.getImageUrl());
-            stmt.setString(6, product.getDescription());
-            stmt.setString(7, product.getSource());
-            
-            int rowsAffected = stmt.executeUpdate();
-            
-            if (rowsAffected > 0) {
-                ResultSet generatedKeys = stmt.getGeneratedKeys();
-                if (generatedKeys.next()) {
-                    product.setProductId(generatedKeys.getInt(1));
-                    System.out.println("✅ Inserted new product: " + product.getName() + " (ID: " + product.getProductId() + ")");
-                    
-                    // Also scrape and insert initial price data
-                    insertInitialPriceData(product.getProductId(), tikiUrl);
-                    
-                    return product;
+        try (Connection conn = DatabaseConnectionManager.getWriteConnection()) {
+            conn.setAutoCommit(false);
+            Product stored = null;
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(selectSql)) {
+                    stmt.setString(1, product.getSource());
+                    stmt.setLong(2, externalId);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            stored = DETAIL_MAPPER.map(rs);
+                        }
+                    }
+                }
+                
+                boolean created = false;
+                if (stored == null) {
+                    try (PreparedStatement stmt = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS)) {
+                        stmt.setInt(1, product.getGroupId());
+                        stmt.setString(2, product.getName());
+                        stmt.setString(3, product.getBrand());
+                        stmt.setString(4, product.getUrl());
+                        stmt.setString(5, product.getImageUrl());
+                        stmt.setString(6, product.getDescription());
+                        stmt.setString(7, product.getSource());
+                        stmt.setLong(8, externalId);
+                        stmt.executeUpdate();
+                        
+                        try (ResultSet keys = stmt.getGeneratedKeys()) {
+                            if (!keys.next()) {
+                                throw new SQLException("No product_id returned for " + product.getUrl());
+                            }
+                            product.setProductId(keys.getInt(1));
+                        }
+                        stored = product;
+                        created = true;
+                    } catch (SQLIntegrityConstraintViolationException duplicate) {
+                        // MySQL chỉ rollback câu INSERT lỗi, transaction vẫn dùng tiếp được: dùng lại dòng đã có
+                        stored = queryDuplicate(conn, duplicateSql, product, externalId);
+                        if (stored == null) {
+                            throw duplicate;
+                        }
+                    }
+                }
+                
+                PriceHistory current = PriceHistoryDAO.getInstance().recordInTransaction(
+                        conn, stored.getProductId(), price, originalPrice, dealType);
+                conn.commit();
+                
+                log.debug("✅ {} product {} (ID: {}) with price {} VND", created ? "Inserted" : "Reused",
+                        stored.getName(), stored.getProductId(), price);
+                return new UpsertResult(stored, current, created);
+                
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                // currentRows của write buffer có thể đã cũ sau khi ghi trực tiếp
+                if (stored != null) {
+                    PriceWriteBuffer.getInstance().forgetCurrentRow(stored.getProductId());
                 }
             }
             
         } catch (SQLException e) {
-            System.err.println("Error inserting product: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error upserting product {}", product.getUrl(), e);
         }
         
         return null;
     }
     
-    /**
-     * Insert initial price data after adding new product
-     */
-    private void insertInitialPriceData(int productId, String tikiUrl) {
-        Object[] priceData = TikiScraperUtil.scrapePriceData(tikiUrl);
-        if (priceData == null) {
-            return;
-        }
-        
-        double price = (double) priceData[0];
-        double originalPrice = (double) priceData[1];
-        String dealType = (String) priceData[2];
-        
-        String sql = "INSERT INTO price_history (product_id, price, original_price, currency, deal_type) " +
-                     "VALUES (?, ?, ?, 'VND', ?)";
-        
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, productId);
-            stmt.setDouble(2, price);
-            stmt.setDouble(3, originalPrice);
-            stmt.setString(4, dealType);
-            
-            stmt.executeUpdate();
-            System.out.println("✅ Inserted initial price: " + price + " VND");
-            
-        } catch (SQLException e) {
-            System.err.println("Error inserting initial price: " + e.getMessage());
+    private static Product queryDuplicate(Connection conn, String sql, Product product, long externalId)
+            throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, product.getUrl());
+            stmt.setString(2, product.getSource());
+            stmt.setLong(3, externalId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? DETAIL_MAPPER.map(rs) : null;
+            }
         }
     }
     
-    /**
-     * Map ResultSet to Product object
-     */
-    private Product mapResultSetToProduct(ResultSet rs) throws SQLException {
-        Product p = new Product();
-        p.setProductId(rs.getInt("product_id"));
-        p.setGroupId(rs.getInt("group_id"));
-        p.setName(rs.getString("name"));
-        p.setBrand(rs.getString("brand"));
-        p.setUrl(rs.getString("url"));
-        p.setImageUrl(rs.getString("image_url"));
-        p.setDescription(rs.getString("description"));
-        p.setSource(rs.getString("source"));
-        p.setFeatured(rs.getBoolean("is_featured"));
-        p.setCreatedAt(rs.getTimestamp("created_at"));
-        return p;
-    }
-    
     /**
      * Get products by deal type 
      * Đơn giản: Chỉ query dựa trên deal_type có sẵn trong price_history
      * (deal_type đã được Python scraper xác định khi cào dữ liệu)
      * 
      * @param dealType "FLASH_SALE", "HOT_DEAL", "TRENDING", or "ALL" for all deals
-     * @return List of products with the specified deal type
+     * @return Trang đầu của getDealPage (ALL 200, TRENDING 20, còn lại 100 sản phẩm)
      */
     public List<Product> getProductsByDealType(String dealType) {
-        List<Product> results = new ArrayList<>();
-        String sql;
-        
-        if ("ALL".equals(dealType)) {
-            // ALL: Lấy bản ghi mới nhất có deal-type hợp lệ cho mỗi sản phẩm
-            sql = "SELECT p.* FROM product p " +
-                  "INNER JOIN ( " +
-                  "  SELECT ph1.* FROM price_history ph1 " +
-                  "  INNER JOIN ( " +
-                  "    SELECT product_id, MAX(price_id) AS max_price_id " +
-                  "    FROM price_history WHERE deal_type IN ('FLASH_SALE', 'HOT_DEAL', 'TRENDING') AND original_price > price " +
-                  "    GROUP BY product_id " +
-                  "  ) ph2 ON ph1.product_id = ph2.product_id AND ph1.price_id = ph2.max_price_id " +
-                  ") ph ON p.product_id = ph.product_id " +
-                  "ORDER BY ((ph.original_price - ph.price) / ph.original_price) DESC " +
-                  "LIMIT 200";
-        } else if ("TRENDING".equals(dealType)) {
-            // TRENDING: Lấy bản ghi mới nhất có deal_type TRENDING cho mỗi sản phẩm
-            sql = "SELECT p.* FROM product p " +
-                  "INNER JOIN ( " +
-                  "  SELECT ph1.* FROM price_history ph1 " +
-                  "  INNER JOIN ( " +
-                  "    SELECT product_id, MAX(price_id) AS max_price_id " +
-                  "    FROM price_history WHERE deal_type = 'TRENDING' AND original_price > price " +
-                  "    GROUP BY product_id " +
-                  "  ) ph2 ON ph1.product_id = ph2.product_id AND ph1.price_id = ph2.max_price_id " +
-                  ") ph ON p.product_id = ph.product_id " +
-                  "ORDER BY ((ph.original_price - ph.price) / ph.original_price) DESC " +
-                  "LIMIT 20";
-        } else {
-            // FLASH_SALE hoặc HOT_DEAL: Lấy bản ghi mới nhất có deal_type tương ứng cho mỗi sản phẩm
-            sql = "SELECT p.* FROM product p " +
-                  "INNER JOIN ( " +
-                  "  SELECT ph1.* FROM price_history ph1 " +
-                  "  INNER JOIN ( " +
-                  "    SELECT product_id, MAX(price_id) AS max_price_id " +
-                  "    FROM price_history WHERE deal_type = ? AND original_price > price " +
-                  "    GROUP BY product_id " +
-                  "  ) ph2 ON ph1.product_id = ph2.product_id AND ph1.price_id = ph2.max_price_id " +
-                  ") ph ON p.product_id = ph.product_id " +
-                  "ORDER BY ((ph.original_price - ph.price) / ph.original_price) DESC " +
-                  "LIMIT 100";
+        int limit = "ALL".equals(dealType) ? 200 : "TRENDING".equals(dealType) ? 20 : 100;
+        List<DealRow> rows = getDealPage(dealType, null, null, 0, limit);
+        List<Product> results = new ArrayList<>(rows.size());
+        for (DealRow row : rows) {
+            results.add(row.product);
         }
-        
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            // Set parameter nếu không phải ALL hoặc TRENDING
-            if (!"ALL".equals(dealType) && !"TRENDING".equals(dealType)) {
-                stmt.setString(1, dealType);
-            }
-            
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                results.add(mapResultSetToProduct(rs));
-            }
-            
-            System.out.println("✓ Found " + results.size() + " products with deal type: " + dealType);
+        return results;
+    }
+
+    /**
+     * Một dòng deal: sản phẩm + tỷ lệ giảm giá (sort key của keyset)
+     */
+    public static final class DealRow {
+        public final Product product;
+        public final double discount;
+
+        DealRow(Product product, double discount) {
+            this.product = product;
+            this.discount = discount;
+        }
+    }
+
+    /**
+     * Một trang deals theo (discount DESC, product_id DESC), phân trang keyset
+     * - Cùng thứ tự với DealLeaderboard nên cursor của hai nguồn dùng thay nhau được
+     * @param dealType "FLASH_SALE", "HOT_DEAL", "TRENDING", or "ALL"
+     * @param groupId null = mọi group
+     * @param beforeDiscount discount của dòng cuối trang trước, null = trang đầu
+     * @param beforeProductId product_id của dòng cuối trang trước
+     * @param limit Số dòng tối đa
+     */
+    public List<DealRow> getDealPage(String dealType, Integer groupId, Double beforeDiscount,
+                                     int beforeProductId, int limit) {
+        // ALL: bản ghi mới nhất có deal-type hợp lệ cho mỗi sản phẩm; còn lại: bản ghi mới nhất của type đó
+        boolean all = "ALL".equals(dealType);
+        String sql = "SELECT " + LIST_COLUMNS + ", ph.discount FROM product p " +
+                     "INNER JOIN ( " +
+                     "  SELECT ph1.product_id, (ph1.original_price - ph1.price) / ph1.original_price AS discount " +
+                     "  FROM price_history ph1 " +
+                     "  INNER JOIN ( " +
+                     "    SELECT product_id, MAX(price_id) AS max_price_id " +
+                     "    FROM price_history WHERE " +
+                     (all ? "deal_type IN ('FLASH_SALE', 'HOT_DEAL', 'TRENDING') " : "deal_type = ? ") +
+                     "    AND original_price > price " +
+                     "    GROUP BY product_id " +
+                     "  ) ph2 ON ph1.product_id = ph2.product_id AND ph1.price_id = ph2.max_price_id " +
+                     ") ph ON p.product_id = ph.product_id " +
+                     "WHERE 1 = 1 " +
+                     (groupId != null ? "AND p.group_id = ? " : "") +
+                     (beforeDiscount != null ? "AND (ph.discount, p.product_id) < (?, ?) " : "") +
+                     "ORDER BY ph.discount DESC, p.product_id DESC LIMIT ?";
+
+        try {
+            List<DealRow> results = JdbcHelper.queryList(HikariCPConfig.Pool.READ, sql, stmt -> {
+                int i = 1;
+                if (!all) {
+                    stmt.setString(i++, dealType);
+                }
+                if (groupId != null) {
+                    stmt.setInt(i++, groupId);
+                }
+                if (beforeDiscount != null) {
+                    stmt.setDouble(i++, beforeDiscount);
+                    stmt.setInt(i++, beforeProductId);
+                }
+                stmt.setInt(i, limit);
+            }, rs -> new DealRow(LIST_MAPPER.map(rs), rs.getDouble(10)), limit);
+            log.debug("✓ Found {} products with deal type: {}", results.size(), dealType);
+            return results;
             
         } catch (SQLException e) {
-            System.err.println("Error getting products by deal type: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error getting products by deal type", e);
         }
         
-        return results; 
+        return List.of();
     }
     
     /**
@@ -354,46 +511,56 @@ public class ProductDAO {
      * @return List of products in that group
      */
     public List<Product> getProductsByGroupId(int groupId) {
-        List<Product> results = new ArrayList<>();
-        String sql = "SELECT * FROM product WHERE group_id = ? ORDER BY product_id DESC LIMIT 100";
+        return getProductsByGroupId(groupId, null, 100);
+    }
+
+    /**
+     * Products of a group, phân trang keyset theo product_id giảm dần
+     * @param beforeProductId product_id cuối trang trước, null = trang đầu
+     * @param limit Số sản phẩm tối đa
+     */
+    public List<Product> getProductsByGroupId(int groupId, Integer beforeProductId, int limit) {
+        String sql = "SELECT " + LIST_COLUMNS + " FROM product p WHERE p.group_id = ? " +
+                     (beforeProductId != null ? "AND p.product_id < ? " : "") +
+                     "ORDER BY p.product_id DESC LIMIT ?";
         
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, groupId);
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                results.add(mapResultSetToProduct(rs));
-            }
-            
-            System.out.println("✓ Found " + results.size() + " products in group " + groupId);
+        try {
+            List<Product> results = JdbcHelper.queryList(HikariCPConfig.Pool.READ, sql, stmt -> {
+                int i = 1;
+                stmt.setInt(i++, groupId);
+                if (beforeProductId != null) {
+                    stmt.setInt(i++, beforeProductId);
+                }
+                stmt.setInt(i, limit);
+            }, LIST_MAPPER, limit);
+            log.debug("✓ Found {} products in group {}", results.size(), groupId);
+            return results;
             
         } catch (SQLException e) {
-            System.err.println("Error getting products by group: " + e.getMessage());
+            log.warn("Error getting products by group: {}", e.getMessage());
         }
         
-        return results;
+        return List.of();
     }
     
     /**
      * Count products in each group
      * @return Map of group_id to product count
      */
-    public java.util.Map<Integer, Integer> countProductsByGroup() {
-        java.util.Map<Integer, Integer> counts = new java.util.HashMap<>();
-        String sql = "SELECT group_id, COUNT(*) as count FROM product GROUP BY group_id";
+    public Map<Integer, Integer> countProductsByGroup() {
+        Map<Integer, Integer> counts = new HashMap<>();
+        String sql = "SELECT group_id, COUNT(*) FROM product GROUP BY group_id";
         
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        try (Connection conn = DatabaseConnectionManager.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
             
             while (rs.next()) {
-                counts.put(rs.getInt("group_id"), rs.getInt("count"));
+                counts.put(rs.getInt(1), rs.getInt(2));
             }
             
         } catch (SQLException e) {
-            System.err.println("Error counting products by group: " + e.getMessage());
+            log.warn("Error counting products by group: {}", e.getMessage());
         }
         
         return counts;
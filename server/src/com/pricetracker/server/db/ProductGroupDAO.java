@@ -1,5 +1,8 @@
 package com.pricetracker.server.db;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.sql.*;
 import java.util.HashMap;
 import java.util.Map;
@@ -9,6 +12,16 @@ import java.util.Map;
  * Handles retrieval of group names and group information
  */
 public class ProductGroupDAO {
+    private static final Logger log = LoggerFactory.getLogger(ProductGroupDAO.class);
+
+    private static final ProductGroupDAO instance = new ProductGroupDAO();
+
+    private ProductGroupDAO() {
+    }
+
+    public static ProductGroupDAO getInstance() {
+        return instance;
+    }
     
     /**
      * Get group name by group_id
@@ -18,18 +31,15 @@ public class ProductGroupDAO {
     public String getGroupNameById(int groupId) {
         String sql = "SELECT group_name FROM product_group WHERE group_id = ?";
         
-        try (Connection conn = DatabaseConnectionManager.getInstance().getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, groupId);
-            ResultSet rs = stmt.executeQuery();
-            
-            if (rs.next()) {
-                return rs.getString("group_name");
+        try {
+            String name = JdbcHelper.queryOne(HikariCPConfig.Pool.READ, sql,
+                    stmt -> stmt.setInt(1, groupId), rs -> rs.getString(1));
+            if (name != null) {
+                return name;
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting group name: " + e.getMessage());
+            log.warn("Error getting group name: {}", e.getMessage());
         }
         
         return "Sản phẩm mới"; // Default fallback
@@ -43,16 +53,16 @@ public class ProductGroupDAO {
         Map<Integer, String> groups = new HashMap<>();
         String sql = "SELECT group_id, group_name FROM product_group";
         
-        try (Connection conn = DatabaseConnectionManager.getInstance().getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        try (Connection conn = DatabaseConnectionManager.getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
             
             while (rs.next()) {
-                groups.put(rs.getInt("group_id"), rs.getString("group_name"));
+                groups.put(rs.getInt(1), rs.getString(2));
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting all groups: " + e.getMessage());
+            log.warn("Error getting all groups: {}", e.getMessage());
         }
         
         return groups;
@@ -66,18 +76,15 @@ public class ProductGroupDAO {
     public int getGroupIdByName(String groupName) {
         String sql = "SELECT group_id FROM product_group WHERE LOWER(group_name) = LOWER(?)";
         
-        try (Connection conn = DatabaseConnectionManager.getInstance().getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, groupName);
-            ResultSet rs = stmt.executeQuery();
-            
-            if (rs.next()) {
-                return rs.getInt("group_id");
+        try {
+            Integer groupId = JdbcHelper.queryOne(HikariCPConfig.Pool.READ, sql,
+                    stmt -> stmt.setString(1, groupName), rs -> rs.getInt(1));
+            if (groupId != null) {
+                return groupId;
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting group_id by name: " + e.getMessage());
+            log.warn("Error getting group_id by name: {}", e.getMessage());
         }
         
         return 9; // Default to "Sản phẩm mới" (group 9)
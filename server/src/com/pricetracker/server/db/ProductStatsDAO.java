@@ -0,0 +1,90 @@
+package com.pricetracker.server.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * ProductStatsDAO - Lớp truy vấn bảng 'product_stats' (lượt xem theo sản phẩm)
+ * Chỉ PopularityTracker ghi bảng này, theo lô trên pool background
+ * Singleton: dùng ProductStatsDAO.getInstance()
+ */
+public class ProductStatsDAO {
+    private static final Logger log = LoggerFactory.getLogger(ProductStatsDAO.class);
+
+    private static final ProductStatsDAO instance = new ProductStatsDAO();
+
+    /**
+     * Một dòng product_stats
+     * - upsertViews: views là số lượt xem MỚI cộng thêm vào view_count
+     * - loadScores: views là tổng view_count
+     */
+    public static final class ViewStats {
+        public final int productId;
+        public final long views;
+        /** Điểm lượt xem đã suy giảm, tính tại scoreAt */
+        public final double score;
+        public final Timestamp scoreAt;
+        public final Timestamp lastViewedAt;
+
+        public ViewStats(int productId, long views, double score, Timestamp scoreAt, Timestamp lastViewedAt) {
+            this.productId = productId;
+            this.views = views;
+            this.score = score;
+            this.scoreAt = scoreAt;
+            this.lastViewedAt = lastViewedAt;
+        }
+    }
+
+    private ProductStatsDAO() {
+    }
+
+    public static ProductStatsDAO getInstance() {
+        return instance;
+    }
+
+    /**
+     * Cộng lượt xem mới và ghi điểm hiện tại của các sản phẩm (một batch)
+     */
+    public void upsertViews(Collection<ViewStats> stats) throws SQLException {
+        if (stats.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO product_stats (product_id, view_count, view_score, score_at, last_viewed_at) " +
+                     "VALUES (?, ?, ?, ?, ?) " +
+                     "ON DUPLICATE KEY UPDATE view_count = view_count + VALUES(view_count), " +
+                     "view_score = VALUES(view_score), score_at = VALUES(score_at), " +
+                     "last_viewed_at = COALESCE(VALUES(last_viewed_at), last_viewed_at)";
+
+        try (Connection conn = DatabaseConnectionManager.getBackgroundConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            for (ViewStats s : stats) {
+                stmt.setInt(1, s.productId);
+                stmt.setLong(2, s.views);
+                stmt.setDouble(3, s.score);
+                stmt.setTimestamp(4, s.scoreAt);
+                stmt.setTimestamp(5, s.lastViewedAt);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        log.debug("📊 product_stats: {} rows upserted", stats.size());
+    }
+
+    /**
+     * Điểm lượt xem đã lưu (để dựng lại bảng xếp hạng sau restart) - pool background
+     * @param minScore bỏ các sản phẩm có điểm tại score_at nhỏ hơn mức này
+     */
+    public List<ViewStats> loadScores(double minScore) throws SQLException {
+        String sql = "SELECT product_id, view_count, view_score, score_at, last_viewed_at " +
+                     "FROM product_stats WHERE view_score >= ?";
+        return JdbcHelper.queryList(HikariCPConfig.Pool.BACKGROUND, sql,
+                stmt -> stmt.setDouble(1, minScore),
+                rs -> new ViewStats(rs.getInt(1), rs.getLong(2), rs.getDouble(3), rs.getTimestamp(4), rs.getTimestamp(5)),
+                1024);
+    }
+}
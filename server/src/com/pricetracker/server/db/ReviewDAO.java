@@ -2,46 +2,60 @@ package com.pricetracker.server.db;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.pricetracker.models.Review;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * ReviewDAO - Lớp truy vấn bảng 'review'
  * Phụ trách lấy, thêm và đếm đánh giá theo sản phẩm
+ * Singleton: dùng ReviewDAO.getInstance()
  */
 public class ReviewDAO {
+    private static final Logger log = LoggerFactory.getLogger(ReviewDAO.class);
+
+    private static final ReviewDAO instance = new ReviewDAO();
+
+    /** Cột đọc từ review, thứ tự khớp với MAPPER */
+    static final String COLUMNS = "review_id, product_id, reviewer_name, rating, review_text, review_date";
+
+    /** Đọc COLUMNS theo index */
+    static final RowMapper<Review> MAPPER = rs -> {
+        Review r = new Review();
+        r.setReviewId(rs.getInt(1));
+        r.setProductId(rs.getInt(2));
+        r.setReviewerName(rs.getString(3));
+        r.setRating(rs.getInt(4));
+        r.setReviewText(rs.getString(5));
+        r.setReviewDate(rs.getTimestamp(6));
+        return r;
+    };
+
+    private ReviewDAO() {
+    }
+
+    public static ReviewDAO getInstance() {
+        return instance;
+    }
 
     /**
      * Lấy danh sách review theo product_id (mới nhất trước)
      */
     public List<Review> getReviewsByProductId(int productId) {
-        List<Review> list = new ArrayList<>();
-        String sql = "SELECT * FROM review WHERE product_id = ? ORDER BY review_date DESC";
-
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setInt(1, productId);
-            ResultSet rs = stmt.executeQuery();
-
-            while (rs.next()) {
-                Review r = new Review();
-                r.setReviewId(rs.getInt("review_id"));
-                r.setProductId(rs.getInt("product_id"));
-                r.setReviewerName(rs.getString("reviewer_name"));
-                r.setRating(rs.getInt("rating"));
-                r.setReviewText(rs.getString("review_text"));
-                r.setReviewDate(rs.getTimestamp("review_date"));
-                list.add(r);
-            }
+        String sql = "SELECT " + COLUMNS + " FROM review WHERE product_id = ? ORDER BY review_date DESC";
 
+        try {
+            return JdbcHelper.queryList(HikariCPConfig.Pool.READ, sql,
+                    stmt -> stmt.setInt(1, productId), MAPPER, 64);
         } catch (SQLException e) {
-            System.err.println("❌ Lỗi khi truy vấn bảng review");
-            e.printStackTrace();
+            log.error("❌ Lỗi khi truy vấn bảng review", e);
         }
 
-        return list;
+        return new ArrayList<>();
     }
 
     /**
@@ -51,7 +65,7 @@ public class ReviewDAO {
         String sql = "INSERT INTO review (product_id, reviewer_name, rating, review_text, review_date) " +
                      "VALUES (?, ?, ?, ?, NOW())";
 
-        try (Connection conn = DatabaseConnectionManager.getConnection();
+        try (Connection conn = DatabaseConnectionManager.getWriteConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             stmt.setInt(1, review.getProductId());
@@ -63,8 +77,7 @@ public class ReviewDAO {
             return rows > 0;
 
         } catch (SQLException e) {
-            System.err.println("❌ Lỗi khi thêm review mới");
-            e.printStackTrace();
+            log.error("❌ Lỗi khi thêm review mới", e);
             return false;
         }
     }
@@ -74,19 +87,30 @@ public class ReviewDAO {
      */
     public int countReviewsByProductId(int productId) {
         String sql = "SELECT COUNT(*) FROM review WHERE product_id = ?";
-        try (Connection conn = DatabaseConnectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setInt(1, productId);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt(1);
+        try {
+            Integer count = JdbcHelper.queryOne(HikariCPConfig.Pool.READ, sql,
+                    stmt -> stmt.setInt(1, productId), rs -> rs.getInt(1));
+            if (count != null) {
+                return count;
             }
 
         } catch (SQLException e) {
-            System.err.println("❌ Lỗi khi đếm review");
-            e.printStackTrace();
+            log.error("❌ Lỗi khi đếm review", e);
         }
         return 0;
     }
+
+    /**
+     * Số review của mọi sản phẩm có review (product_id → count), chạy trên Pool.BACKGROUND
+     * Dùng làm độ phổ biến khi dựng dữ liệu in-memory
+     */
+    public Map<Integer, Integer> countReviewsPerProduct() throws SQLException {
+        String sql = "SELECT product_id, COUNT(*) FROM review GROUP BY product_id";
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int[] row : JdbcHelper.queryList(HikariCPConfig.Pool.BACKGROUND, sql, JdbcHelper.NO_PARAMS,
+                rs -> new int[] {rs.getInt(1), rs.getInt(2)}, 256)) {
+            counts.put(row[0], row[1]);
+        }
+        return counts;
+    }
 }
@@ -0,0 +1,15 @@
+package com.pricetracker.server.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * RowMapper - Chuyển một dòng ResultSet thành object
+ *
+ * Mapper đọc cột theo index (khớp với danh sách cột SELECT tường minh của từng DAO),
+ * không tra cứu theo tên cột trên mỗi dòng.
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+    T map(ResultSet rs) throws SQLException;
+}
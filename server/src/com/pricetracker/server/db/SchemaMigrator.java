@@ -0,0 +1,135 @@
+package com.pricetracker.server.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * SchemaMigrator - Bổ sung các thay đổi schema mà code server cần, chạy lúc khởi động
+ *
+ * Mỗi bước kiểm tra information_schema trước khi chạy DDL nên có thể gọi lại nhiều lần
+ * (idempotent). Không thay thế database dump, chỉ nâng cấp DB đang chạy lên schema mới.
+ */
+public final class SchemaMigrator {
+    private static final Logger log = LoggerFactory.getLogger(SchemaMigrator.class);
+
+    private enum Kind { TABLE, COLUMN, INDEX }
+
+    /**
+     * Một bước migration: chạy ddl nếu object (bảng/cột/index) chưa tồn tại
+     */
+    private static final class Step {
+        final Kind kind;
+        final String table;
+        final String name;
+        final String ddl;
+        final boolean required;
+
+        private Step(Kind kind, String table, String name, String ddl, boolean required) {
+            this.kind = kind;
+            this.table = table;
+            this.name = name;
+            this.ddl = ddl;
+            this.required = required;
+        }
+
+        static Step table(String table, String ddl) {
+            return new Step(Kind.TABLE, table, table, ddl, true);
+        }
+
+        static Step column(String table, String column, String ddl) {
+            return new Step(Kind.COLUMN, table, column, ddl, true);
+        }
+
+        /**
+         * Unique index có thể fail trên DB cũ đang có dữ liệu trùng → chỉ cảnh báo, không chặn khởi động
+         */
+        static Step uniqueIndex(String table, String indexName, String ddl) {
+            return new Step(Kind.INDEX, table, indexName, ddl, false);
+        }
+    }
+
+    private static final List<Step> STEPS = List.of(
+            // Change-only storage: dòng price_history là một "run" giá từ recorded_at tới last_seen_at
+            Step.column("price_history", "last_seen_at",
+                    "ALTER TABLE price_history ADD COLUMN last_seen_at DATETIME NULL AFTER recorded_at"),
+            // Onboarding upsert: mỗi URL chỉ có một product
+            Step.uniqueIndex("product", "uk_product_url",
+                    "ALTER TABLE product ADD UNIQUE KEY uk_product_url (url)"),
+            // Định danh chuẩn (source, external_id); giá trị được ProductIdentityIndex backfill từ url
+            Step.column("product", "external_id",
+                    "ALTER TABLE product ADD COLUMN external_id BIGINT NULL AFTER source"),
+            Step.uniqueIndex("product", "uk_product_source_external",
+                    "ALTER TABLE product ADD UNIQUE KEY uk_product_source_external (source, external_id)"),
+            // Lịch cào theo sản phẩm do ScrapeScheduler tính; scraper Python chỉ cào sản phẩm đã tới hạn
+            Step.column("product", "next_scrape_at",
+                    "ALTER TABLE product ADD COLUMN next_scrape_at DATETIME NULL"),
+            // Lượt xem theo sản phẩm do PopularityTracker ghi theo lô; view_score là điểm suy giảm tại score_at
+            Step.table("product_stats",
+                    "CREATE TABLE product_stats (" +
+                    "product_id INT NOT NULL PRIMARY KEY, " +
+                    "view_count BIGINT NOT NULL DEFAULT 0, " +
+                    "view_score DOUBLE NOT NULL DEFAULT 0, " +
+                    "score_at DATETIME NOT NULL, " +
+                    "last_viewed_at DATETIME NULL)")
+    );
+
+    private SchemaMigrator() {
+    }
+
+    /**
+     * Chạy tất cả các bước còn thiếu
+     * @throws SQLException nếu không kiểm tra/áp dụng được một bước bắt buộc
+     */
+    public static synchronized void migrate() throws SQLException {
+        try (Connection conn = DatabaseConnectionManager.getWriteConnection()) {
+            for (Step step : STEPS) {
+                if (exists(conn, step)) {
+                    continue;
+                }
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate(step.ddl);
+                    log.info("✓ Schema: added {}", step.kind == Kind.TABLE ? step.table : step.table + "." + step.name);
+                } catch (SQLException e) {
+                    if (step.required) {
+                        throw e;
+                    }
+                    log.warn("⚠️  Schema: could not add {}.{} ({}). Remove duplicate rows and restart to enable it.",
+                            step.table, step.name, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static boolean exists(Connection conn, Step step) throws SQLException {
+        String sql;
+        switch (step.kind) {
+            case TABLE:
+                sql = "SELECT 1 FROM information_schema.TABLES " +
+                      "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+                break;
+            case INDEX:
+                sql = "SELECT 1 FROM information_schema.STATISTICS " +
+                      "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = ? LIMIT 1";
+                break;
+            default:
+                sql = "SELECT 1 FROM information_schema.COLUMNS " +
+                      "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?";
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, step.table);
+            if (step.kind != Kind.TABLE) {
+                stmt.setString(2, step.name);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+}
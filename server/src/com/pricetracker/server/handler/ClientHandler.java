@@ -2,14 +2,21 @@ package com.pricetracker.server.handler;
 
 import com.pricetracker.models.PriceHistory;
 import com.pricetracker.models.Product;
+import com.pricetracker.server.catalog.PopularityTracker;
+import com.pricetracker.server.catalog.ScrapeScheduler;
 import com.pricetracker.server.db.PriceHistoryDAO;
 import com.pricetracker.server.db.ProductDAO;
 import com.pricetracker.server.db.ProductGroupDAO;
+import com.pricetracker.server.service.ProductOnboardingService;
+import com.pricetracker.server.utils.TikiPriceBatcher;
 import com.pricetracker.server.utils.TikiScraperUtil;
 import com.pricetracker.security.AESUtil;
 import com.pricetracker.security.KeyManager;
+import com.pricetracker.security.SecureLogger;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.crypto.SecretKey;
 import java.io.BufferedReader;
@@ -23,6 +30,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import static com.pricetracker.server.utils.RequestLogSampler.REQUEST;
+
 /**
  * ClientHandler - Xử lý yêu cầu từ một client cụ thể
  * Mỗi client sẽ có một ClientHandler riêng chạy trong thread riêng
@@ -36,6 +45,7 @@ import java.util.concurrent.Executors;
  * Updated: Added real-time scraping for product details
  */
 public class ClientHandler implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(ClientHandler.class);
     
     // Thread Pool for background scraping (shared across all clients)
     private static final ExecutorService scraperThreadPool = Executors.newFixedThreadPool(5);
@@ -65,9 +75,9 @@ public class ClientHandler implements Runnable {
         // Load encryption key từ environment variable
         try {
             this.encryptionKey = KeyManager.getKey();
-            System.out.println("    [Client #" + clientId + "] 🔐 Encryption enabled");
+            log.debug("[Client #{}] 🔐 Encryption enabled", clientId);
         } catch (Exception e) {
-            System.err.println("    [Client #" + clientId + "] ⚠️ Encryption disabled: " + e.getMessage());
+            log.warn("[Client #{}] ⚠️ Encryption disabled: {}", clientId, e.getMessage());
             this.encryptionKey = null;
         }
     }
@@ -78,7 +88,7 @@ public class ClientHandler implements Runnable {
      */
     @Override
     public void run() {
-        System.out.println("    [Client #" + clientId + "] Thread bắt đầu xử lý");
+        log.debug("[Client #{}] Thread bắt đầu xử lý", clientId);
         
         try {
             // Khởi tạo các luồng I/O
@@ -93,10 +103,11 @@ public class ClientHandler implements Runnable {
                     String request;
                     if (encryptionKey != null) {
                         request = AESUtil.decrypt(encryptedRequest, encryptionKey);
-                        System.out.println("    [Client #" + clientId + "] 🔓 Decrypted request: " + request);
                     } else {
                         request = encryptedRequest;
-                        System.out.println("    [Client #" + clientId + "] Nhận yêu cầu: " + request);
+                    }
+                    if (log.isDebugEnabled()) {
+                        log.debug("[Client #{}] Nhận yêu cầu: {}", clientId, SecureLogger.sanitize(request));
                     }
                     
                     // Bước 2: Xử lý yêu cầu
@@ -106,27 +117,26 @@ public class ClientHandler implements Runnable {
                     String responseToSend;
                     if (encryptionKey != null) {
                         responseToSend = AESUtil.encrypt(response, encryptionKey);
-                        System.out.println("    [Client #" + clientId + "] 🔒 Response encrypted");
                     } else {
                         responseToSend = response;
                     }
                     
                     // Bước 4: Gửi phản hồi cho client
                     sendResponse(responseToSend);
-                    System.out.println("    [Client #" + clientId + "] Đã gửi phản hồi");
+                    log.info(REQUEST, "[Client #{}] Đã gửi phản hồi ({} bytes)", clientId, responseToSend.length());
                     
                 } catch (Exception e) {
-                    System.err.println("    [Client #" + clientId + "] Lỗi xử lý yêu cầu: " + e.getMessage());
+                    log.warn("[Client #{}] Lỗi xử lý yêu cầu: {}", clientId, e.getMessage());
                     sendErrorResponse("ERROR|" + e.getMessage());
                 }
             }
             
         } catch (IOException e) {
-            System.err.println("    [Client #" + clientId + "] Lỗi I/O: " + e.getMessage());
+            log.warn("[Client #{}] Lỗi I/O: {}", clientId, e.getMessage());
         } finally {
             // Đóng kết nối và dọn dẹp tài nguyên
             cleanup();
-            System.out.println("<<< [Client #" + clientId + "] Thread kết thúc");
+            log.debug("<<< [Client #{}] Thread kết thúc", clientId);
         }
     }
     
@@ -221,30 +231,28 @@ public class ClientHandler implements Runnable {
      */
     private String handleSearchByUrl(String tikiUrl) {
         try {
-            ProductDAO productDAO = new ProductDAO();
-            
-            // Check if product exists in database
-            Product product = productDAO.searchByUrl(tikiUrl);
+            // Check if product exists (identity index: same item with another URL variant also matches)
+            Product product = ProductOnboardingService.getInstance().findExisting(tikiUrl);
             
             if (product != null) {
                 // Case 1: Product exists
-                System.out.println("✅ Found existing product: " + product.getName());
+                log.debug("✅ Found existing product: {}", product.getName());
                 return buildProductResponse(product, false);
             } else {
-                // Case 2: New product - scrape and insert
-                System.out.println("🔍 New product detected, scraping from Tiki...");
-                product = productDAO.insertProductFromTiki(tikiUrl);
+                // Case 2: New product - scrape once and insert (merged with concurrent requests for same URL)
+                log.info("🔍 New product detected, scraping from Tiki: {}", tikiUrl);
+                ProductOnboardingService.Result onboarded = ProductOnboardingService.getInstance().onboard(tikiUrl);
                 
-                if (product != null) {
-                    System.out.println("✅ Successfully added new product: " + product.getName());
-                    return buildProductResponse(product, true);
+                if (onboarded != null) {
+                    log.info("✅ Successfully added new product: {}", onboarded.product.getName());
+                    return buildProductResponse(onboarded.product, onboarded.created);
                 } else {
                     return buildErrorResponse("Failed to scrape product from Tiki. Please check URL.");
                 }
             }
             
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Error processing URL search", e);
             return buildErrorResponse("Error processing URL search: " + e.getMessage());
         }
     }
@@ -256,7 +264,7 @@ public class ClientHandler implements Runnable {
      */
     private String handleSearchByName(String keyword) {
         try {
-            ProductDAO productDAO = new ProductDAO();
+            ProductDAO productDAO = ProductDAO.getInstance();
             
             // Search for products matching keyword
             java.util.List<Product> products = productDAO.searchByNameLike(keyword);
@@ -266,12 +274,12 @@ public class ClientHandler implements Runnable {
                 return buildErrorResponse("Sản phẩm bạn tìm hiện chưa có trong dữ liệu của chúng tôi. Hãy thử sản phẩm khác nhé ^^");
             } else {
                 // Case 3: Matches found
-                System.out.println("✅ Found " + products.size() + " products matching: " + keyword);
+                log.debug("✅ Found {} products matching: {}", products.size(), keyword);
                 return buildMultipleProductsResponse(products);
             }
             
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Error processing name search", e);
             return buildErrorResponse("Error processing name search: " + e.getMessage());
         }
     }
@@ -279,18 +287,19 @@ public class ClientHandler implements Runnable {
     /**
      * Handle VIEW_PRODUCT_DETAIL request
      * 1. Return current price from DB immediately
-     * 2. Auto-scrape in background if price is older than 1 hour
+     * 2. Auto-scrape in background if the product is due (ScrapeScheduler)
      */
     private String handleViewProductDetail(String productIdStr) {
         try {
             int productId = Integer.parseInt(productIdStr);
             
-            ProductDAO productDAO = new ProductDAO();
+            ProductDAO productDAO = ProductDAO.getInstance();
             Product product = productDAO.getProductById(productId);
             
             if (product == null) {
                 return buildErrorResponse("Product not found");
             }
+            PopularityTracker.getInstance().recordView(productId);
             
             // STEP 1: Return current data immediately
             String response = buildProductResponse(product, false);
@@ -303,7 +312,7 @@ public class ClientHandler implements Runnable {
         } catch (NumberFormatException e) {
             return buildErrorResponse("Invalid product_id format");
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Error viewing product detail", e);
             return buildErrorResponse("Error viewing product detail: " + e.getMessage());
         }
     }
@@ -316,7 +325,7 @@ public class ClientHandler implements Runnable {
         try {
             int productId = Integer.parseInt(productIdStr);
             
-            PriceHistoryDAO priceDAO = new PriceHistoryDAO();
+            PriceHistoryDAO priceDAO = PriceHistoryDAO.getInstance();
             PriceHistory latestPrice = priceDAO.getCurrentPrice(productId);
             
             if (latestPrice == null) {
@@ -336,7 +345,7 @@ public class ClientHandler implements Runnable {
         } catch (NumberFormatException e) {
             return buildErrorResponse("Invalid product_id format");
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Error refreshing price", e);
             return buildErrorResponse("Error refreshing price: " + e.getMessage());
         }
     }
@@ -349,21 +358,21 @@ public class ClientHandler implements Runnable {
         scraperThreadPool.submit(() -> {
             try {
                 // Get latest price from DB
-                PriceHistoryDAO priceDAO = new PriceHistoryDAO();
+                PriceHistoryDAO priceDAO = PriceHistoryDAO.getInstance();
                 PriceHistory latestPrice = priceDAO.getCurrentPrice(productId);
                 
                 if (latestPrice == null) {
-                    System.out.println("⚠️  No price history for product " + productId + ", skipping auto-scrape");
+                    log.debug("⚠️  No price history for product {}, skipping auto-scrape", productId);
                     return;
                 }
                 
-                // Check if price is older than 1 hour
+                // Check if price is due for a scrape (lịch theo độ biến động / lượt xem của sản phẩm)
                 LocalDateTime recordedTime = latestPrice.getCapturedAt().toLocalDateTime();
                 LocalDateTime now = LocalDateTime.now();
                 long hoursSince = ChronoUnit.HOURS.between(recordedTime, now);
                 
-                if (hoursSince < 1) {
-                    System.out.println("⏱️  Product " + productId + " price is fresh (" + hoursSince + "h old), skip scraping");
+                if (!ScrapeScheduler.getInstance().isDue(productId, latestPrice.getCapturedAt())) {
+                    log.debug("⏱️  Product {} price is fresh ({}h old), skip scraping", productId, hoursSince);
                     return;
                 }
                 
@@ -372,7 +381,7 @@ public class ClientHandler implements Runnable {
                 if (lastScrape != null) {
                     long secondsSinceLastScrape = ChronoUnit.SECONDS.between(lastScrape, now);
                     if (secondsSinceLastScrape < 60) {
-                        System.out.println("🔄 Product " + productId + " is being scraped or just scraped, skip");
+                        log.debug("🔄 Product {} is being scraped or just scraped, skip", productId);
                         return;
                     }
                 }
@@ -380,17 +389,17 @@ public class ClientHandler implements Runnable {
                 // Mark as scraping
                 lastScrapeTime.put(productId, now);
                 
-                System.out.println("🔍 Auto-scraping product " + productId + " (price is " + hoursSince + "h old)...");
+                log.debug("🔍 Auto-scraping product {} (price is {}h old)...", productId, hoursSince);
                 
                 // Extract Tiki product ID from URL
                 int tikiProductId = TikiScraperUtil.extractProductId(productUrl);
                 if (tikiProductId == -1) {
-                    System.err.println("❌ Invalid Tiki URL for product " + productId);
+                    log.warn("❌ Invalid Tiki URL for product {}", productId);
                     return;
                 }
                 
-                // Scrape price data from Tiki API
-                Object[] priceData = TikiScraperUtil.scrapePriceData(productUrl);
+                // Scrape price data from Tiki API (gom lô với các lần auto-scrape đồng thời khác)
+                Object[] priceData = TikiPriceBatcher.getInstance().fetch(productUrl);
                 
                 if (priceData != null && priceData.length >= 3) {
                     double price = (Double) priceData[0];
@@ -401,18 +410,16 @@ public class ClientHandler implements Runnable {
                     boolean success = priceDAO.addCompletePriceRecord(productId, price, originalPrice, dealType);
                     
                     if (success) {
-                        System.out.println("✅ Auto-scraped product " + productId + ": " + 
-                                         String.format("%,.0f", price) + "đ (deal: " + dealType + ")");
+                        log.info("✅ Auto-scraped product {}: {}đ (deal: {})", productId, price, dealType);
                     } else {
-                        System.err.println("❌ Failed to save auto-scraped price for product " + productId);
+                        log.warn("❌ Failed to save auto-scraped price for product {}", productId);
                     }
                 } else {
-                    System.err.println("❌ Failed to scrape price for product " + productId);
+                    log.warn("❌ Failed to scrape price for product {}", productId);
                 }
                 
             } catch (Exception e) {
-                System.err.println("❌ Error in auto-scrape for product " + productId + ": " + e.getMessage());
-                e.printStackTrace();
+                log.error("❌ Error in auto-scrape for product {}", productId, e);
             }
         });
     }
@@ -431,7 +438,7 @@ public class ClientHandler implements Runnable {
             return response.toString();
             
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Error building response", e);
             return buildErrorResponse("Error building response");
         }
     }
@@ -455,7 +462,7 @@ public class ClientHandler implements Runnable {
             return response.toString();
             
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Error building response", e);
             return buildErrorResponse("Error building response");
         }
     }
@@ -478,12 +485,12 @@ public class ClientHandler implements Runnable {
         json.put("source", product.getSource());
         
         // Get group name
-        ProductGroupDAO groupDAO = new ProductGroupDAO();
+        ProductGroupDAO groupDAO = ProductGroupDAO.getInstance();
         String groupName = groupDAO.getGroupNameById(product.getGroupId());
         json.put("group_name", groupName);
         
         // Get current price data
-        PriceHistoryDAO priceDAO = new PriceHistoryDAO();
+        PriceHistoryDAO priceDAO = PriceHistoryDAO.getInstance();
         PriceHistory currentPrice = priceDAO.getCurrentPrice(product.getProductId());
         
         if (currentPrice != null) {
@@ -545,7 +552,7 @@ public class ClientHandler implements Runnable {
                 clientSocket.close();
             }
         } catch (IOException e) {
-            System.err.println("    [Client #" + clientId + "] Lỗi khi đóng kết nối: " + e.getMessage());
+            log.warn("[Client #{}] Lỗi khi đóng kết nối: {}", clientId, e.getMessage());
         }
     }
 }
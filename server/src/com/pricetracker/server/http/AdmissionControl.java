@@ -0,0 +1,236 @@
+package com.pricetracker.server.http;
+
+import com.pricetracker.server.db.HikariCPConfig;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * 🚦 AdmissionControl - Chặn request trước khi handler chạm cache / DB
+ *
+ * - Giới hạn theo IP: token bucket dạng GCRA, mỗi client chỉ là một AtomicLong cập nhật bằng CAS
+ *   trong ConcurrentHashMap (không khóa) → vượt quota trả 429 + Retry-After
+ * - Quá tải: hàng đợi của lane đích đã đầy quá SHED_QUEUE_FRACTION sức chứa, hoặc (chỉ với lane cần DB)
+ *   số thread chờ connection Hikari vượt ngưỡng → trả 503 + Retry-After ngay, không xếp hàng thêm vài giây
+ *   rồi timeout. Executor dispatch của HttpServer chỉ chạy filter rồi chuyển request sang lane nên hàng
+ *   đợi của nó gần như luôn trống, không dùng làm tín hiệu
+ * - Mỗi lane xét hàng đợi của chính nó: DB chậm hay /search dồn dập không làm /categories, /suggest
+ *   và /deals trúng cache bị shed
+ * - Filter chạy khi request đã ra khỏi hàng đợi: request bị loại chỉ tốn vài micro giây,
+ *   nên hàng đợi xả nhanh thay vì mỗi request đều đi hết đường DB
+ */
+final class AdmissionControl {
+    private static final Logger log = LoggerFactory.getLogger(AdmissionControl.class);
+
+    /** Tốc độ bền vững mỗi IP (request/giây) và số request dồn được một lúc */
+    private static final double RATE_PER_SECOND = Double.parseDouble(System.getProperty("http.rateLimit.rps", "20"));
+    private static final int BURST = Integer.getInteger("http.rateLimit.burst", 40);
+
+    /** Ngưỡng shed: phần sức chứa hàng đợi của lane đã dùng / số thread chờ connection DB */
+    private static final double SHED_QUEUE_FRACTION = Double.parseDouble(System.getProperty("http.shed.queueFraction", "0.8"));
+    private static final int MAX_DB_WAITERS = Integer.getInteger("http.shed.dbWaiters", 20);
+
+    /**
+     * Đằng sau proxy của Railway mọi request đến từ cùng một IP; IP thật nằm trong X-Forwarded-For.
+     * Chỉ bật khi chắc chắn có proxy phía trước (railway.json / Procfile): không có proxy thì client tự
+     * đổi header để lấy bucket mới mỗi request
+     */
+    private static final boolean TRUST_FORWARDED_FOR =
+            Boolean.parseBoolean(System.getProperty("http.trustForwardedFor", "false"));
+
+    /** Quá số client này thì dọn các bucket đã đầy lại (client im lặng) */
+    private static final int MAX_TRACKED_CLIENTS = 10_000;
+
+    /** Đọc pool Hikari tối đa mỗi 50ms, không phải mỗi request */
+    private static final long DB_SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static final long EMISSION_INTERVAL_NANOS = (long) (TimeUnit.SECONDS.toNanos(1) / RATE_PER_SECOND);
+    private static final long BURST_NANOS = EMISSION_INTERVAL_NANOS * BURST;
+
+    /**
+     * GCRA: tat = thời điểm "lý thuyết" bucket đầy trở lại; mỗi request đẩy tat thêm một interval
+     */
+    private static final class Bucket {
+        final AtomicLong tat;
+
+        Bucket(long now) {
+            this.tat = new AtomicLong(now);
+        }
+
+        /**
+         * @return 0 nếu được nhận, ngược lại số nanos phải chờ
+         */
+        long acquire(long now) {
+            while (true) {
+                long current = tat.get();
+                long next = Math.max(current, now) + EMISSION_INTERVAL_NANOS;
+                long excess = next - now - BURST_NANOS;
+                if (excess > 0) {
+                    return excess;
+                }
+                if (tat.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final ToIntFunction<Bulkhead.Lane> laneQueued;
+
+    private volatile long dbSampledAt;
+    private volatile int dbWaiters;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+
+    /**
+     * @param laneQueued số request đang chờ trong hàng đợi của một lane (Bulkhead.queued)
+     */
+    AdmissionControl(ToIntFunction<Bulkhead.Lane> laneQueued) {
+        this.laneQueued = laneQueued;
+        // nanoTime có thể âm: lần gọi đầu tiên luôn đọc pool
+        this.dbSampledAt = System.nanoTime() - DB_SAMPLE_INTERVAL_NANOS - 1;
+        log.info("🚦 Admission control: {} req/s per client (burst {}), shed at {}% of lane queue / DB waiters {}",
+                RATE_PER_SECOND, BURST, Math.round(SHED_QUEUE_FRACTION * 100), MAX_DB_WAITERS);
+    }
+
+    /**
+     * Filter cho các endpoint của một lane; quota theo client dùng chung mọi lane
+     */
+    Filter forLane(Bulkhead.Lane lane) {
+        int maxQueueDepth = Math.max(1, (int) (lane.queue * SHED_QUEUE_FRACTION));
+        return new Filter() {
+            @Override
+            public String description() {
+                return "Per-client rate limiting and overload shedding (" + lane.key + ")";
+            }
+
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                admit(exchange, chain, lane, maxQueueDepth);
+            }
+        };
+    }
+
+    private void admit(HttpExchange exchange, Filter.Chain chain, Bulkhead.Lane lane, int maxQueueDepth)
+            throws IOException {
+        // Preflight không tốn gì, không tính vào quota
+        if ("OPTIONS".equals(exchange.getRequestMethod())) {
+            chain.doFilter(exchange);
+            return;
+        }
+
+        // 1) Quá tải: ưu tiên, vì đây là lúc mọi client đều đang chậm; DB chỉ chặn lane cần DB
+        int depth = laneQueued.applyAsInt(lane);
+        if (depth >= maxQueueDepth || (lane.dbBound && sampleDbWaiters() > MAX_DB_WAITERS)) {
+            shed.increment();
+            log.debug("Shedding {} (lane={}, queue={}, db_waiters={})",
+                    exchange.getRequestURI().getPath(), lane.key, depth, dbWaiters);
+            reject(exchange, 503, 1, "Server is overloaded, please retry shortly");
+            return;
+        }
+
+        // 2) Quota theo client
+        long now = System.nanoTime();
+        String client = clientKey(exchange);
+        Bucket bucket = buckets.get(client);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(client, c -> new Bucket(now));
+            if (buckets.size() > MAX_TRACKED_CLIENTS) {
+                sweep(now);
+            }
+        }
+        long waitNanos = bucket.acquire(now);
+        if (waitNanos > 0) {
+            rateLimited.increment();
+            log.debug("Rate limited {} on {}", client, exchange.getRequestURI().getPath());
+            reject(exchange, 429, TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1, "Too many requests");
+            return;
+        }
+
+        admitted.increment();
+        chain.doFilter(exchange);
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("admitted", admitted.sum());
+        stats.put("rate_limited", rateLimited.sum());
+        stats.put("shed", shed.sum());
+        stats.put("tracked_clients", buckets.size());
+        stats.put("shed_queue_percent", Math.round(SHED_QUEUE_FRACTION * 100));
+        stats.put("db_waiters", dbWaiters);
+        return stats;
+    }
+
+    private int sampleDbWaiters() {
+        long now = System.nanoTime();
+        if (now - dbSampledAt > DB_SAMPLE_INTERVAL_NANOS) {
+            dbSampledAt = now;
+            dbWaiters = HikariCPConfig.getThreadsAwaitingConnection();
+        }
+        return dbWaiters;
+    }
+
+    /**
+     * Bỏ các bucket đã đầy lại (tat trong quá khứ): xóa đi không làm client nào mất quota
+     */
+    private void sweep(long now) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int before = buckets.size();
+            buckets.values().removeIf(b -> b.tat.get() <= now);
+            log.debug("Rate limiter swept {} idle clients", before - buckets.size());
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private static String clientKey(HttpExchange exchange) {
+        if (TRUST_FORWARDED_FOR) {
+            // Phần tử cuối là IP do proxy gần nhất thêm vào; các phần tử trước do client tự khai
+            String forwarded = exchange.getRequestHeaders().getFirst("X-Forwarded-For");
+            if (forwarded != null && !forwarded.isBlank()) {
+                return forwarded.substring(forwarded.lastIndexOf(',') + 1).trim();
+            }
+        }
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        return remote.getAddress() != null ? remote.getAddress().getHostAddress() : remote.getHostString();
+    }
+
+    private static void reject(HttpExchange exchange, int status, long retryAfterSeconds, String message)
+            throws IOException {
+        byte[] body = new JSONObject().put("success", false).put("error", message).toString()
+                .getBytes(StandardCharsets.UTF_8);
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Access-Control-Allow-Origin", "*");
+        headers.set("Content-Type", "application/json; charset=UTF-8");
+        headers.set("Retry-After", String.valueOf(retryAfterSeconds));
+        headers.set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.pricetracker.server.http;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 🚧 Bulkhead - Mỗi nhóm endpoint chạy trên pool riêng có giới hạn (thread + hàng đợi)
+ *
+ * - Thread của HttpServer chỉ phân luồng (và chạy admission filter), handler chạy trên pool của lane
+ * - /refresh-price chờ Tiki chỉ làm đầy lane SCRAPE; /categories, /deals trúng cache vẫn có thread riêng
+ * - Lane đầy (hết thread và hàng đợi) → 503 + Retry-After ngay, không lan sang lane khác
+ * - Kích thước chỉnh bằng -Dhttp.lane.<name>.threads / -Dhttp.lane.<name>.queue
+ */
+final class Bulkhead {
+    private static final Logger log = LoggerFactory.getLogger(Bulkhead.class);
+
+    /**
+     * Nhóm endpoint theo kiểu phụ thuộc
+     */
+    enum Lane {
+        /** Đọc gần như luôn trúng cache / index in-memory (/categories, /deals, /suggest, /api/deals...) */
+        CACHED_READ("cached_read", 16, 256, false),
+        /** Đọc cần MySQL (/search, /product-detail, /api/search, /api/products/{id} khi cache miss) */
+        DB_READ("db_read", 48, 200, true),
+        /** Ghi có gọi scraper bên ngoài (/refresh-price) */
+        SCRAPE("scrape", 16, 32, true),
+        /** Đăng ký client SSE (không giữ thread, chỉ cần tách khỏi lane khác) */
+        SSE("sse", 4, 64, false);
+
+        final String key;
+        final int threads;
+        final int queue;
+        /** Request của lane chờ connection DB: chỉ lane này bị shed khi pool DB nghẽn */
+        final boolean dbBound;
+
+        Lane(String key, int threads, int queue, boolean dbBound) {
+            this.key = key;
+            this.threads = Integer.getInteger("http.lane." + key + ".threads", threads);
+            this.queue = Integer.getInteger("http.lane." + key + ".queue", queue);
+            this.dbBound = dbBound;
+        }
+    }
+
+    private static final class LaneExecutor {
+        final ThreadPoolExecutor executor;
+        final LongAdder rejected = new LongAdder();
+
+        LaneExecutor(Lane lane) {
+            BlockingQueue<Runnable> queue = lane.queue > 0 ? new ArrayBlockingQueue<>(lane.queue) : new SynchronousQueue<>();
+            AtomicInteger threadId = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(lane.threads, lane.threads, 0L, TimeUnit.MILLISECONDS, queue, r -> {
+                Thread t = new Thread(r, "http-" + lane.key + "-" + threadId.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private final Map<Lane, LaneExecutor> lanes = new EnumMap<>(Lane.class);
+
+    Bulkhead() {
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new LaneExecutor(lane));
+            log.info("🚧 Lane {}: {} threads, queue {}", lane.key, lane.threads, lane.queue);
+        }
+    }
+
+    /**
+     * Handler chạy delegate trên pool của lane
+     */
+    HttpHandler handler(Lane lane, HttpHandler delegate) {
+        LaneExecutor laneExecutor = lanes.get(lane);
+        return exchange -> {
+            try {
+                laneExecutor.executor.execute(() -> run(delegate, exchange));
+            } catch (RejectedExecutionException e) {
+                laneExecutor.rejected.increment();
+                log.debug("Lane {} full, rejecting {}", lane.key, exchange.getRequestURI().getPath());
+                reject(exchange);
+            }
+        };
+    }
+
+    /**
+     * Chuyển request đang chạy sang lane khác (vd. cache miss từ CACHED_READ sang DB_READ);
+     * lane đích đầy → 503 như khi vào thẳng lane đó
+     */
+    void handOff(Lane lane, HttpExchange exchange, HttpHandler delegate) throws IOException {
+        LaneExecutor laneExecutor = lanes.get(lane);
+        try {
+            laneExecutor.executor.execute(() -> run(delegate, exchange));
+        } catch (RejectedExecutionException e) {
+            laneExecutor.rejected.increment();
+            log.debug("Lane {} full, rejecting hand-off of {}", lane.key, exchange.getRequestURI().getPath());
+            reject(exchange);
+        }
+    }
+
+    /**
+     * Số request đang chờ trong hàng đợi của một lane
+     */
+    int queued(Lane lane) {
+        return lanes.get(lane).executor.getQueue().size();
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Map.Entry<Lane, LaneExecutor> entry : lanes.entrySet()) {
+            Lane lane = entry.getKey();
+            ThreadPoolExecutor executor = entry.getValue().executor;
+            int active = executor.getActiveCount();
+            Map<String, Object> laneStats = new LinkedHashMap<>();
+            laneStats.put("threads", lane.threads);
+            laneStats.put("active", active);
+            laneStats.put("utilization_percent", String.format("%.1f", 100.0 * active / lane.threads));
+            laneStats.put("queued", executor.getQueue().size());
+            laneStats.put("queue_capacity", lane.queue);
+            laneStats.put("completed", executor.getCompletedTaskCount());
+            laneStats.put("rejected", entry.getValue().rejected.sum());
+            stats.put(lane.key, laneStats);
+        }
+        return stats;
+    }
+
+    /**
+     * Dừng nhận request mới, đợi request đang chạy tối đa timeout
+     */
+    void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        for (LaneExecutor laneExecutor : lanes.values()) {
+            laneExecutor.executor.shutdown();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (LaneExecutor laneExecutor : lanes.values()) {
+            if (!laneExecutor.executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                laneExecutor.executor.shutdownNow();
+            }
+        }
+    }
+
+    private static void run(HttpHandler delegate, HttpExchange exchange) {
+        try {
+            delegate.handle(exchange);
+        } catch (Exception e) {
+            // Ngoài thread của HttpServer: không ai khác đóng exchange cho handler lỗi
+            log.warn("Handler failed for {}: {}", exchange.getRequestURI().getPath(), e.toString());
+            exchange.close();
+        } catch (Error e) {
+            // OutOfMemoryError... vẫn đóng exchange để client không treo tới timeout
+            exchange.close();
+            throw e;
+        }
+    }
+
+    private static void reject(HttpExchange exchange) throws IOException {
+        byte[] body = new JSONObject().put("success", false).put("error", "Server is busy, please retry shortly")
+                .toString().getBytes(StandardCharsets.UTF_8);
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Access-Control-Allow-Origin", "*");
+        headers.set("Content-Type", "application/json; charset=UTF-8");
+        headers.set("Retry-After", "1");
+        headers.set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(503, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
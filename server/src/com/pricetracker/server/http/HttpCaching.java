@@ -0,0 +1,79 @@
+package com.pricetracker.server.http;
+
+import com.sun.net.httpserver.Headers;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * 🌐 HttpCaching - Header cache HTTP cho các GET /api/* (browser + CDN trước Railway)
+ *
+ * - ETag yếu W/"<boot>-<version>": version lấy từ ProductCache theo tag, boot đổi mỗi lần khởi động
+ *   nên ETag của process cũ không bao giờ khớp nhầm
+ * - If-None-Match ưu tiên hơn If-Modified-Since (RFC 9110); khớp thì trả 304 không body
+ */
+final class HttpCaching {
+
+    /** Response khác nhau theo nén; CORS dùng "*" nên không cần Vary: Origin */
+    static final String VARY = "Accept-Encoding";
+
+    private static final String BOOT_ID = Long.toString(System.currentTimeMillis(), 36);
+
+    private HttpCaching() {
+    }
+
+    static String etag(long version) {
+        return "W/\"" + BOOT_ID + "-" + version + "\"";
+    }
+
+    /**
+     * Request điều kiện của client có còn khớp bản hiện tại không (→ 304)
+     */
+    static boolean isNotModified(Headers requestHeaders, String etag, long lastModifiedMillis) {
+        String ifNoneMatch = requestHeaders.getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            String opaque = opaque(etag);
+            for (String candidate : ifNoneMatch.split(",")) {
+                String value = candidate.trim();
+                if ("*".equals(value) || opaque.equals(opaque(value))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String ifModifiedSince = requestHeaders.getFirst("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant().toEpochMilli();
+                // Header chỉ có độ chính xác giây
+                return lastModifiedMillis / 1000 <= since / 1000;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Header cache cho response 200 và 304
+     */
+    static void putValidators(Headers headers, String cacheControl, String etag, long lastModifiedMillis) {
+        headers.set("Cache-Control", cacheControl);
+        headers.set("ETag", etag);
+        headers.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME
+                .format(Instant.ofEpochMilli(lastModifiedMillis).atZone(ZoneOffset.UTC)));
+        headers.set("Vary", VARY);
+    }
+
+    /**
+     * So sánh yếu (weak comparison): bỏ tiền tố W/
+     */
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
@@ -0,0 +1,244 @@
+package com.pricetracker.server.http;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 🗄️ ProductCache - In-memory cache với TTL và invalidation theo tag
+ *
+ * - Mỗi response được cache kèm các tag nó phụ thuộc vào ("product:12", "group:3", "catalog", ...)
+ * - Reverse index tag → keys: một lần đổi giá chỉ xóa đúng các entry chứa sản phẩm đó
+ * - Ticket chống ghi đè dữ liệu cũ: response được tính TRƯỚC một lần invalidate tag
+ *   mà put SAU đó sẽ bị bỏ, không sống lại trong cache
+ * - Thời điểm invalidate của tag cũng là version của nó: ETag / Last-Modified của GET /api/*
+ *   lấy từ version các tag mà response phụ thuộc
+ */
+final class ProductCache {
+
+    /** Tag cho response phụ thuộc vào giá / thông tin của một sản phẩm */
+    static String productTag(int productId) {
+        return "product:" + productId;
+    }
+
+    /** Tag cho response phụ thuộc vào danh sách sản phẩm của một group */
+    static String groupTag(int groupId) {
+        return "group:" + groupId;
+    }
+
+    /** Tag cho response phụ thuộc vào toàn bộ catalog (tìm theo tên, đếm theo danh mục) */
+    static final String CATALOG_TAG = "catalog";
+
+    /** Tag cho danh sách deals (xếp hạng đổi theo giá của bất kỳ sản phẩm nào) */
+    static final String DEALS_TAG = "deals";
+
+    /** Tag cho danh sách trending theo lượt xem (đổi khi top-N của PopularityTracker đổi) */
+    static final String TRENDING_TAG = "trending";
+
+    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> keysByTag = new ConcurrentHashMap<>();
+    private final Map<String, Long> invalidatedAt = new ConcurrentHashMap<>();
+    private final Map<String, Long> invalidatedAtMillis = new ConcurrentHashMap<>();
+    /** Last-Modified cho tag chưa từng bị invalidate (dữ liệu được nạp lúc server khởi động) */
+    private final long createdAtMillis = System.currentTimeMillis();
+    private final AtomicLong clock = new AtomicLong();
+    private final long ttlMs;
+
+    // Cache statistics
+    private long hits = 0;
+    private long misses = 0;
+    private final AtomicLong tagEvictions = new AtomicLong();
+
+    ProductCache(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Get cached value, null nếu expired hoặc không tồn tại
+     */
+    String get(String key) {
+        CacheEntry entry = cache.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        // Check expiration
+        if (System.currentTimeMillis() - entry.timestamp > ttlMs) {
+            remove(key);
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Key đang có trong cache và chưa hết hạn (không tính vào hit rate)
+     */
+    boolean contains(String key) {
+        CacheEntry entry = cache.get(key);
+        return entry != null && System.currentTimeMillis() - entry.timestamp <= ttlMs;
+    }
+
+    /**
+     * Lấy ticket trước khi bắt đầu tính response (sau khi get() miss)
+     */
+    long ticket() {
+        return clock.incrementAndGet();
+    }
+
+    /**
+     * Put value vào cache kèm các tag phụ thuộc
+     * @param ticket ticket() lấy trước khi tính value; tag bị invalidate sau ticket thì không cache
+     */
+    void put(String key, String value, long ticket, Collection<String> tags) {
+        if (isStale(ticket, tags)) {
+            return;
+        }
+
+        CacheEntry entry = new CacheEntry(value, System.currentTimeMillis(), List.copyOf(tags));
+        for (String tag : entry.tags) {
+            keysByTag.computeIfAbsent(tag, t -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+        cache.put(key, entry);
+
+        // invalidateTag() chạy xen giữa lần kiểm tra đầu và lúc put: tự gỡ lại
+        if (isStale(ticket, tags)) {
+            cache.remove(key, entry);
+        }
+    }
+
+    /**
+     * Invalidate a specific cache entry
+     */
+    void invalidate(String key) {
+        remove(key);
+    }
+
+    /**
+     * Xóa mọi entry mang tag này
+     * @return số entry bị xóa
+     */
+    int invalidateTag(String tag) {
+        invalidatedAtMillis.put(tag, System.currentTimeMillis());
+        invalidatedAt.put(tag, clock.incrementAndGet());
+        Set<String> keys = keysByTag.remove(tag);
+        if (keys == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (String key : keys) {
+            if (remove(key)) {
+                removed++;
+            }
+        }
+        tagEvictions.addAndGet(removed);
+        return removed;
+    }
+
+    /**
+     * Clear toàn bộ cache
+     */
+    void clear() {
+        cache.clear();
+        keysByTag.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Get cache hit rate (%)
+     */
+    double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (hits * 100.0) / total;
+    }
+
+    /**
+     * Get cache size
+     */
+    int size() {
+        return cache.size();
+    }
+
+    /**
+     * Version của dữ liệu phụ thuộc các tag: tăng mỗi khi một trong các tag bị invalidate
+     * (lấy TRƯỚC khi tính response, để response tính xen với một lần invalidate mang version cũ)
+     */
+    long version(Collection<String> tags) {
+        long version = 0;
+        for (String tag : tags) {
+            version = Math.max(version, invalidatedAt.getOrDefault(tag, 0L));
+        }
+        return version;
+    }
+
+    /**
+     * Lần cuối một trong các tag bị invalidate (epoch millis)
+     */
+    long lastModified(Collection<String> tags) {
+        long lastModified = createdAtMillis;
+        for (String tag : tags) {
+            lastModified = Math.max(lastModified, invalidatedAtMillis.getOrDefault(tag, 0L));
+        }
+        return lastModified;
+    }
+
+    /**
+     * Số tag đang có entry phụ thuộc
+     */
+    int tagCount() {
+        return keysByTag.size();
+    }
+
+    /**
+     * Tổng số entry đã bị xóa qua invalidateTag()
+     */
+    long getTagEvictions() {
+        return tagEvictions.get();
+    }
+
+    private boolean isStale(long ticket, Collection<String> tags) {
+        for (String tag : tags) {
+            Long at = invalidatedAt.get(tag);
+            if (at != null && at > ticket) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean remove(String key) {
+        CacheEntry entry = cache.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        for (String tag : entry.tags) {
+            Set<String> keys = keysByTag.get(tag);
+            if (keys != null) {
+                keys.remove(key);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cache entry với timestamp và các tag phụ thuộc
+     */
+    private static class CacheEntry {
+        final String value;
+        final long timestamp;
+        final List<String> tags;
+
+        CacheEntry(String value, long timestamp, List<String> tags) {
+            this.value = value;
+            this.timestamp = timestamp;
+            this.tags = tags;
+        }
+    }
+}
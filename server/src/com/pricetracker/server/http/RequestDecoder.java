@@ -0,0 +1,306 @@
+package com.pricetracker.server.http;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.pricetracker.security.SecureLogger;
+import com.sun.net.httpserver.HttpExchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 📥 RequestDecoder - Đọc body POST có giới hạn và bind thẳng vào request có kiểu
+ *
+ * - Chặn theo Content-Length trước khi đọc, và chặn lại khi đọc (body chunked không có Content-Length)
+ * - Đọc vào buffer tái sử dụng theo thread (mỗi HTTP thread một buffer, lớn dần tới tối đa maxBodyBytes)
+ * - Parse bằng gson JsonReader (streaming): chỉ giữ các field handler cần, field lạ bị bỏ qua,
+ *   không dựng cây JSONObject
+ */
+final class RequestDecoder {
+    private static final Logger log = LoggerFactory.getLogger(RequestDecoder.class);
+
+    /** Body tối đa (bytes); request JSON của frontend chỉ vài trăm bytes */
+    static final int MAX_BODY_BYTES = Integer.getInteger("http.maxBodyBytes", 64 * 1024);
+
+    private static final int INITIAL_BUFFER_BYTES = 4 * 1024;
+
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_BYTES]);
+
+    /**
+     * Request không hợp lệ; status là mã HTTP trả về (400 / 413)
+     */
+    static final class BadRequestException extends Exception {
+        final int status;
+
+        BadRequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Body của POST /search
+     */
+    static final class SearchRequest {
+        String action;
+        String query;
+        Integer groupId;
+        String sort;
+        String cursor;
+        Integer offset;
+        Integer limit;
+        Double minPrice;
+        Double maxPrice;
+        Set<String> brands;
+        Set<String> sources;
+        Set<String> dealTypes;
+        Integer minDiscount;
+    }
+
+    /**
+     * Body của POST /deals (mọi field tùy chọn)
+     */
+    static final class DealsRequest {
+        String dealType;
+        Integer groupId;
+        String cursor;
+        Integer offset;
+        Integer limit;
+    }
+
+    /**
+     * Body của POST /product-detail và /refresh-price
+     */
+    static final class ProductRequest {
+        Integer productId;
+    }
+
+    /**
+     * Body thô đã đọc, chỉ dùng ngay trong thread hiện tại (buffer được tái sử dụng)
+     */
+    private static final class Body {
+        final byte[] bytes;
+        final int length;
+
+        Body(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        JsonReader reader() {
+            return new JsonReader(new InputStreamReader(new ByteArrayInputStream(bytes, 0, length),
+                    StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    private RequestDecoder() {
+    }
+
+    static SearchRequest decodeSearch(HttpExchange exchange) throws BadRequestException, IOException {
+        SearchRequest request = new SearchRequest();
+        Body body = read(exchange);
+        if (body.length == 0) {
+            return request;
+        }
+        parse(body, in -> {
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "action" -> request.action = nextString(in);
+                    case "query" -> request.query = nextString(in);
+                    case "group_id" -> request.groupId = nextInt(in);
+                    case "sort" -> request.sort = nextString(in);
+                    case "cursor" -> request.cursor = nextString(in);
+                    case "offset" -> request.offset = nextInt(in);
+                    case "limit" -> request.limit = nextInt(in);
+                    case "filters" -> readFilters(in, request);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+        });
+        return request;
+    }
+
+    static DealsRequest decodeDeals(HttpExchange exchange) throws BadRequestException, IOException {
+        DealsRequest request = new DealsRequest();
+        Body body = read(exchange);
+        if (body.length == 0) {
+            return request;
+        }
+        parse(body, in -> {
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "deal_type" -> request.dealType = nextString(in);
+                    case "group_id" -> request.groupId = nextInt(in);
+                    case "cursor" -> request.cursor = nextString(in);
+                    case "offset" -> request.offset = nextInt(in);
+                    case "limit" -> request.limit = nextInt(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+        });
+        return request;
+    }
+
+    static ProductRequest decodeProduct(HttpExchange exchange) throws BadRequestException, IOException {
+        ProductRequest request = new ProductRequest();
+        Body body = read(exchange);
+        if (body.length == 0) {
+            return request;
+        }
+        parse(body, in -> {
+            in.beginObject();
+            while (in.hasNext()) {
+                if ("product_id".equals(in.nextName())) {
+                    request.productId = nextInt(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+        });
+        return request;
+    }
+
+    private static void readFilters(JsonReader in, SearchRequest request) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return;
+        }
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "min_price" -> request.minPrice = nextDouble(in);
+                case "max_price" -> request.maxPrice = nextDouble(in);
+                case "min_discount" -> request.minDiscount = nextInt(in);
+                case "brands" -> request.brands = nextStringSet(in);
+                case "sources" -> request.sources = nextStringSet(in);
+                case "deal_types" -> request.dealTypes = nextStringSet(in);
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+    }
+
+    // ==================== Body ====================
+
+    /**
+     * Đọc body vào buffer của thread, tối đa MAX_BODY_BYTES
+     */
+    private static Body read(HttpExchange exchange) throws BadRequestException, IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            long declared;
+            try {
+                declared = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                throw new BadRequestException(400, "Invalid Content-Length");
+            }
+            if (declared > MAX_BODY_BYTES) {
+                throw new BadRequestException(413, "Request body too large (max " + MAX_BODY_BYTES + " bytes)");
+            }
+        }
+
+        byte[] buffer = BUFFER.get();
+        int length = 0;
+        try (InputStream is = exchange.getRequestBody()) {
+            while (true) {
+                if (length == buffer.length) {
+                    if (buffer.length >= MAX_BODY_BYTES) {
+                        // Buffer đầy đúng mức tối đa: còn byte nào nữa là quá giới hạn
+                        if (is.read() != -1) {
+                            throw new BadRequestException(413,
+                                    "Request body too large (max " + MAX_BODY_BYTES + " bytes)");
+                        }
+                        break;
+                    }
+                    buffer = Arrays.copyOf(buffer, Math.min(MAX_BODY_BYTES, buffer.length * 2));
+                    BUFFER.set(buffer);
+                }
+                int n = is.read(buffer, length, buffer.length - length);
+                if (n < 0) {
+                    break;
+                }
+                length += n;
+            }
+        }
+        Body body = new Body(buffer, length);
+        if (log.isDebugEnabled()) {
+            log.debug("📥 Received request: {}", SecureLogger.sanitize(body.toString()));
+        }
+        return body;
+    }
+
+    private interface Binder {
+        void bind(JsonReader in) throws IOException;
+    }
+
+    private static void parse(Body body, Binder binder) throws BadRequestException {
+        try (JsonReader in = body.reader()) {
+            binder.bind(in);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // MalformedJsonException / sai kiểu (vd. group_id là object)
+            throw new BadRequestException(400, "Invalid JSON body: " + e.getMessage());
+        }
+    }
+
+    // ==================== Values ====================
+
+    private static String nextString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    /** Nhận cả số lẫn chuỗi số ("12"), giống JSONObject.getInt cũ */
+    private static Integer nextInt(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextInt();
+    }
+
+    private static Double nextDouble(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextDouble();
+    }
+
+    private static Set<String> nextStringSet(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Set<String> values = new HashSet<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            String value = nextString(in);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        in.endArray();
+        return values;
+    }
+}
@@ -3,43 +3,108 @@ package com.pricetracker.server.http;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpHandler;
+import com.pricetracker.server.catalog.DealLeaderboard;
+import com.pricetracker.server.catalog.FacetIndex;
+import com.pricetracker.server.catalog.PopularityTracker;
+import com.pricetracker.server.catalog.PriceChangeListener;
+import com.pricetracker.server.catalog.ScrapeScheduler;
+import com.pricetracker.server.catalog.SuggestIndex;
+import com.pricetracker.server.db.HikariCPConfig;
+import com.pricetracker.server.db.PriceWriteBuffer;
 import com.pricetracker.server.db.ProductDAO;
 import com.pricetracker.server.db.PriceHistoryDAO;
 import com.pricetracker.server.db.ProductGroupDAO;
 import com.pricetracker.server.db.ReviewDAO;
+import com.pricetracker.server.service.ProductOnboardingService;
+import com.pricetracker.server.utils.AdaptiveLimiter;
+import com.pricetracker.server.utils.CircuitBreaker;
+import com.pricetracker.server.utils.PageCursor;
+import com.pricetracker.server.utils.ScrapeResponseCache;
 import com.pricetracker.server.utils.TikiScraperUtil;
 import com.pricetracker.models.Product;
 import com.pricetracker.models.PriceHistory;
 import com.pricetracker.models.Review;
 import org.json.JSONObject;
 import org.json.JSONArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.InetSocketAddress;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.pricetracker.server.utils.RequestLogSampler.REQUEST;
 
 /**
  * Simple HTTP Server wrapper for the Price Tracker
  * Allows frontend to communicate via HTTP instead of raw TCP socket
  */
 public class SimpleHttpServer {
+    private static final Logger log = LoggerFactory.getLogger(SimpleHttpServer.class);
+
     private final int httpPort;
 
-    // ⚡ Thread Pool để xử lý concurrent requests
-    // 100 threads đủ cho 50 users (mỗi user có thể tạo 2 requests đồng thời)
-    private static final int THREAD_POOL_SIZE = 100;
+    // ⚡ Thread của HttpServer chỉ chạy admission filter, file tĩnh, /metrics rồi chuyển request sang lane
+    // (Bulkhead); handler API chạy trên pool riêng của lane nên pool này nhỏ
+    private static final int THREAD_POOL_SIZE = 16;
+
+    // 🗄️ Cache TTL: 30 phút - đổi giá / sản phẩm mới đã xóa đúng entry liên quan qua tag,
+    // TTL chỉ còn là lưới an toàn cho thay đổi không đi qua DealLeaderboard (vd. sửa tay trong DB)
+    private static final long CACHE_TTL_MS = 30 * 60 * 1000;
+
+    // ⚡ Pool riêng cho fan-out của /product-detail: không chiếm thread của HTTP pool,
+    // và chặn số query song song (mỗi request tối đa 7 phần) dưới kích thước read pool
+    private static final int DETAIL_POOL_SIZE = 16;
+
+    // 🔥 Làm nóng cache chi tiết cho N sản phẩm được xem nhiều nhất mỗi khi top-N đổi
+    private static final int WARM_TOP_N = Integer.getInteger("http.warm.topN", 20);
+    private static final int TRENDING_PAGE_SIZE = 20;
 
-    // 🗄️ Cache TTL: 5 phút (300000ms) - đủ cho demo, data không đổi liên tục
-    private static final long CACHE_TTL_MS = 5 * 60 * 1000;
+    // ⏱️ Deadline chung cho tất cả các phần của trang chi tiết; phần nào trễ thì bị bỏ (partial)
+    private static final long DETAIL_DEADLINE_MS = Long.parseLong(System.getProperty("http.detail.deadlineMs", "2000"));
+
+    // 📄 Kích thước trang mặc định (giữ đúng LIMIT cũ); trang sau lấy bằng "cursor" trong response
+    private static final int SEARCH_PAGE_SIZE = 50;
+    private static final int CATEGORY_PAGE_SIZE = 100;
+    // Trần cho limit / offset client gửi lên (trang mặc định lớn nhất là deals ALL = 200):
+    // không để một request đòi cả bảng, tràn offset + limit, hay tạo vô số cache key
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int MAX_OFFSET = 10_000;
+
+    // 🌐 Cache-Control cho GET /api/*: ETag theo version catalog nên max-age ngắn vẫn tiết kiệm,
+    // hết hạn thì browser / CDN revalidate và phần lớn nhận 304
+    private static final String API_DETAIL_CACHE_CONTROL = "public, max-age=60, stale-while-revalidate=300";
+    private static final String API_LIST_CACHE_CONTROL = "public, max-age=30, stale-while-revalidate=120";
 
     private HttpServer server;
-    private ExecutorService threadPool;
+    private ThreadPoolExecutor threadPool;
+    private AdmissionControl admission;
+    private Bulkhead bulkhead;
+    private ExecutorService detailExecutor;
+    private ExecutorService warmExecutor;
+    private final AtomicBoolean warming = new AtomicBoolean();
+    /** null nếu không bật phục vụ frontend tĩnh */
+    private StaticFileHandler staticFiles;
     private ProductDAO productDAO;
     private PriceHistoryDAO priceHistoryDAO;
     private ProductGroupDAO productGroupDAO;
@@ -54,25 +119,86 @@ public class SimpleHttpServer {
      */
     public SimpleHttpServer(int port) {
         this.httpPort = port;
-        this.productDAO = new ProductDAO();
-        this.priceHistoryDAO = new PriceHistoryDAO();
-        this.productGroupDAO = new ProductGroupDAO();
-        this.reviewDAO = new ReviewDAO();
+        this.productDAO = ProductDAO.getInstance();
+        this.priceHistoryDAO = PriceHistoryDAO.getInstance();
+        this.productGroupDAO = ProductGroupDAO.getInstance();
+        this.reviewDAO = ReviewDAO.getInstance();
         this.cache = new ProductCache(CACHE_TTL_MS);
         this.sseBroadcaster = null;
+        registerCacheInvalidation();
     }
     
 
     public SimpleHttpServer(int port, com.pricetracker.server.websocket.SSEBroadcaster sseBroadcaster) {
         this.httpPort = port;
-        this.productDAO = new ProductDAO();
-        this.priceHistoryDAO = new PriceHistoryDAO();
-        this.productGroupDAO = new ProductGroupDAO();
-        this.reviewDAO = new ReviewDAO();
+        this.productDAO = ProductDAO.getInstance();
+        this.priceHistoryDAO = PriceHistoryDAO.getInstance();
+        this.productGroupDAO = ProductGroupDAO.getInstance();
+        this.reviewDAO = ReviewDAO.getInstance();
 
-        // 🗄️ Initialize cache với TTL 5 phút
+        // 🗄️ Initialize cache với TTL 30 phút + invalidation theo tag
         this.cache = new ProductCache(CACHE_TTL_MS);
         this.sseBroadcaster = sseBroadcaster;
+        registerCacheInvalidation();
+    }
+
+    /**
+     * 🗑️ Đổi giá / sản phẩm mới → xóa đúng các response đã cache có chứa sản phẩm / group đó
+     */
+    private void registerCacheInvalidation() {
+        DealLeaderboard.getInstance().addListener(new PriceChangeListener() {
+            @Override
+            public void priceChanged(int productId) {
+                int removed = cache.invalidateTag(ProductCache.productTag(productId))
+                        + cache.invalidateTag(ProductCache.DEALS_TAG);
+                // Danh sách của group (category, similar products) hiện giá này → version của group cũng đổi
+                DealLeaderboard.Item item = DealLeaderboard.getInstance().getItem(productId);
+                if (item != null) {
+                    removed += cache.invalidateTag(ProductCache.groupTag(item.product.getGroupId()));
+                }
+                log.debug("🗑️  Price changed for product {}: {} cache entries invalidated", productId, removed);
+            }
+
+            @Override
+            public void productAdded(int productId, int groupId) {
+                int removed = cache.invalidateTag(ProductCache.groupTag(groupId))
+                        + cache.invalidateTag(ProductCache.CATALOG_TAG)
+                        + cache.invalidateTag(ProductCache.DEALS_TAG);
+                log.debug("🗑️  Product {} added to group {}: {} cache entries invalidated", productId, groupId, removed);
+            }
+        });
+    }
+
+    /**
+     * 🔥 Top-N lượt xem đổi → trending có version mới, và chi tiết các sản phẩm hot chưa có trong cache
+     * được tính sẵn (một lượt làm nóng tại một thời điểm; bỏ qua khi lane đang có request xếp hàng)
+     */
+    private void registerPopularityWarming() {
+        PopularityTracker.getInstance().addListener(() -> {
+            cache.invalidateTag(ProductCache.TRENDING_TAG);
+            if (!warming.compareAndSet(false, true)) {
+                return;
+            }
+            warmExecutor.execute(() -> {
+                try {
+                    int warmed = 0;
+                    for (PopularityTracker.Ranked ranked : PopularityTracker.getInstance().top(WARM_TOP_N)) {
+                        if (bulkhead.queued(Bulkhead.Lane.DB_READ) > 0) {
+                            break;
+                        }
+                        if (!cache.contains("product:" + ranked.productId)) {
+                            handleGetProductDetail(ranked.productId);
+                            warmed++;
+                        }
+                    }
+                    if (warmed > 0) {
+                        log.debug("🔥 Warmed product detail cache for {} trending products", warmed);
+                    }
+                } finally {
+                    warming.set(false);
+                }
+            });
+        });
     }
 
     /**
@@ -84,44 +210,81 @@ public class SimpleHttpServer {
 
     public void start() throws IOException {
         // ⚡ Tạo thread pool với kích thước cố định
-        threadPool = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+        threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+        // 🚧 Pool riêng cho từng nhóm endpoint
+        bulkhead = new Bulkhead();
+        // 🚦 Rate limit theo client + shed khi quá tải, gắn vào mọi endpoint API
+        admission = new AdmissionControl(bulkhead::queued);
+        AtomicInteger detailThreadId = new AtomicInteger();
+        detailExecutor = Executors.newFixedThreadPool(DETAIL_POOL_SIZE, r -> {
+            Thread t = new Thread(r, "detail-fanout-" + detailThreadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        warmExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "detail-cache-warmer");
+            t.setDaemon(true);
+            return t;
+        });
+        registerPopularityWarming();
 
         server = HttpServer.create(new InetSocketAddress(httpPort), 0);
 
         // CORS and search endpoint
-        server.createContext("/search", this::handleSearch);
+        createApiContext("/search", Bulkhead.Lane.DB_READ, this::handleSearch);
+
+        // 🔤 Gợi ý khi gõ (autocomplete), phục vụ hoàn toàn từ bộ nhớ
+        createApiContext("/suggest", Bulkhead.Lane.CACHED_READ, this::handleSuggest);
+
+        // 🌐 GET API cache được (ETag / Last-Modified / 304) cho browser và CDN
+        createApiContext("/api/products/", Bulkhead.Lane.CACHED_READ, this::handleApiProduct);
+        createApiContext("/api/search", Bulkhead.Lane.DB_READ, this::handleApiSearch);
+        createApiContext("/api/deals", Bulkhead.Lane.CACHED_READ, this::handleApiDeals);
+        createApiContext("/api/trending", Bulkhead.Lane.CACHED_READ, this::handleApiTrending);
 
         // NEW: Deals endpoint for discount page
-        server.createContext("/deals", this::handleDeals);
+        createApiContext("/deals", Bulkhead.Lane.CACHED_READ, this::handleDeals);
 
         // NEW: Product detail endpoint
-        server.createContext("/product-detail", this::handleProductDetail);
+        createApiContext("/product-detail", Bulkhead.Lane.DB_READ, this::handleProductDetail);
 
         // NEW: Refresh price endpoint (Real-time scraping)
-        server.createContext("/refresh-price", this::handleRefreshPrice);
+        createApiContext("/refresh-price", Bulkhead.Lane.SCRAPE, this::handleRefreshPrice);
 
         // NEW: Categories endpoint for category page
-        server.createContext("/categories", this::handleCategories);
+        createApiContext("/categories", Bulkhead.Lane.CACHED_READ, this::handleCategories);
 
         // 📊 Metrics endpoint for monitoring
         server.createContext("/metrics", this::handleMetrics);
 
+        // 📁 Frontend tĩnh cùng origin với API (tùy chọn, -Dhttp.staticDir / STATIC_DIR)
+        String staticDir = System.getProperty("http.staticDir", System.getenv("STATIC_DIR"));
+        if (staticDir != null && !staticDir.isBlank()) {
+            staticFiles = StaticFileHandler.load(Path.of(staticDir));
+            if (staticFiles != null) {
+                server.createContext("/", staticFiles);
+            }
+        }
+
         // ⚡ Sử dụng thread pool thay vì unlimited threads
         server.setExecutor(threadPool);
         // Register SSE endpoint if broadcaster provided
         if (sseBroadcaster != null) {
-            server.createContext("/events", this::handleSSE);
+            server.createContext("/events", bulkhead.handler(Bulkhead.Lane.SSE, this::handleSSE));
         }
         server.start();
 
-        System.out.println("✓ HTTP Server started on port " + httpPort);
-        System.out.println("  ⚡ Thread Pool: " + THREAD_POOL_SIZE + " threads (prevents OOM)");
-        System.out.println("  Frontend can now connect via: http://localhost:" + httpPort + "/search");
-        System.out.println("  Frontend can also access deals via: http://localhost:" + httpPort + "/deals");
-        System.out.println(
-                "  Frontend can also access product detail via: http://localhost:" + httpPort + "/product-detail");
-        System.out.println("  Frontend can also access categories via: http://localhost:" + httpPort + "/categories");
-        System.out.println("  📊 Metrics endpoint: http://localhost:" + httpPort + "/metrics");
+        log.info("✓ HTTP Server started on port {}", httpPort);
+        log.info("  ⚡ Dispatch pool: {} threads, API handlers on bounded lanes (see /metrics http_lanes)", THREAD_POOL_SIZE);
+        log.info("  Endpoints: /search, /suggest, /deals, /product-detail, /categories, /metrics, /api/* (GET) on http://localhost:{}", httpPort);
+    }
+
+    /**
+     * Endpoint API: qua admission control rồi chạy trên lane của nó; /metrics, /events và file tĩnh thì không
+     */
+    private void createApiContext(String path, Bulkhead.Lane lane, HttpHandler handler) {
+        server.createContext(path, bulkhead.handler(lane, handler)).getFilters().add(admission.forLane(lane));
     }
 
     private void handleSSE(HttpExchange exchange) throws IOException {
@@ -138,7 +301,7 @@ public class SimpleHttpServer {
             sseBroadcaster.addClient(exchange);
             // do not close exchange here; SSEBroadcaster will hold open
         } catch (IOException e) {
-            e.printStackTrace();
+            log.warn("Failed to register SSE client", e);
             try {
                 exchange.close();
             } catch (Exception ex) {
@@ -152,7 +315,7 @@ public class SimpleHttpServer {
     public void stop() {
         if (server != null) {
             server.stop(0);
-            System.out.println("✓ HTTP Server stopped");
+            log.info("✓ HTTP Server stopped");
         }
 
         // ⚡ Shutdown thread pool gracefully
@@ -162,15 +325,27 @@ public class SimpleHttpServer {
                 // Đợi tối đa 10 giây cho các tasks hiện tại hoàn thành
                 if (!threadPool.awaitTermination(10, TimeUnit.SECONDS)) {
                     threadPool.shutdownNow();
-                    System.out.println("⚠️  Thread pool forced shutdown");
+                    log.warn("⚠️  Thread pool forced shutdown");
                 } else {
-                    System.out.println("✓ Thread pool stopped gracefully");
+                    log.info("✓ Thread pool stopped gracefully");
                 }
             } catch (InterruptedException e) {
                 threadPool.shutdownNow();
                 Thread.currentThread().interrupt();
             }
         }
+
+        if (bulkhead != null) {
+            try {
+                bulkhead.shutdown(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (detailExecutor != null) {
+            detailExecutor.shutdownNow();
+        }
     }
 
     private void handleSearch(HttpExchange exchange) throws IOException {
@@ -195,28 +370,39 @@ public class SimpleHttpServer {
         }
 
         try {
-            // Read request body
-            InputStream is = exchange.getRequestBody();
-            String requestBody = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))
-                    .lines()
-                    .reduce("", (acc, line) -> acc + line);
-
-            System.out.println("📥 Received request: " + requestBody);
+            RequestDecoder.SearchRequest request = RequestDecoder.decodeSearch(exchange);
+            String action = request.action;
+            if (action == null) {
+                sendResponse(exchange, 400, "{\"success\": false, \"error\": \"Missing action\"}");
+                return;
+            }
+            boolean byCategory = "SEARCH_BY_CATEGORY".equals(action);
+            if (byCategory ? request.groupId == null : request.query == null) {
+                sendResponse(exchange, 400, byCategory
+                        ? "{\"success\": false, \"error\": \"Missing group_id\"}"
+                        : "{\"success\": false, \"error\": \"Missing query\"}");
+                return;
+            }
 
-            JSONObject requestJson = new JSONObject(requestBody);
-            String action = requestJson.getString("action");
+            if ("SEARCH_BY_URL".equals(action)) {
+                // Dán URL có thể phải cào sàn (tới vài chục giây khi sàn chậm): chạy trên lane scrape,
+                // không giữ thread db_read của /search theo tên, /product-detail, /api/search
+                String url = request.query;
+                bulkhead.handOff(Bulkhead.Lane.SCRAPE, exchange, ex -> sendSearchByUrl(ex, url));
+                return;
+            }
 
             JSONObject responseJson;
-
-            if ("SEARCH_BY_URL".equals(action)) {
-                String query = requestJson.getString("query");
-                responseJson = handleSearchByUrl(query);
-            } else if ("SEARCH_BY_NAME".equals(action)) {
-                String query = requestJson.getString("query");
-                responseJson = handleSearchByName(query);
-            } else if ("SEARCH_BY_CATEGORY".equals(action)) {
-                int groupId = requestJson.getInt("group_id");
-                responseJson = handleSearchByCategory(groupId);
+            if ("SEARCH_BY_NAME".equals(action)) {
+                responseJson = handleFacetedSearch(request, request.query, null);
+                if (responseJson == null) {
+                    responseJson = handleSearchByName(request.query, request.cursor);
+                }
+            } else if (byCategory) {
+                responseJson = handleFacetedSearch(request, null, request.groupId);
+                if (responseJson == null) {
+                    responseJson = handleSearchByCategory(request.groupId, request.cursor);
+                }
             } else {
                 responseJson = new JSONObject();
                 responseJson.put("success", false);
@@ -224,11 +410,16 @@ public class SimpleHttpServer {
             }
 
             String response = responseJson.toString();
-            System.out.println("📤 Sending response: " + response);
+            log.info(REQUEST, "📤 /search {} -> {} bytes", action, response.length());
             sendResponse(exchange, 200, response);
 
+        } catch (RequestDecoder.BadRequestException e) {
+            sendBadRequest(exchange, e);
+        } catch (IllegalArgumentException e) {
+            // Cursor hỏng hoặc thuộc thứ tự sắp xếp khác
+            sendResponse(exchange, 400, new JSONObject().put("success", false).put("error", e.getMessage()).toString());
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Request {} failed", exchange.getRequestURI(), e);
             String errorResponse = String.format(
                     "{\"success\": false, \"error\": \"Server error: %s\"}",
                     e.getMessage().replace("\"", "\\\""));
@@ -236,6 +427,28 @@ public class SimpleHttpServer {
         }
     }
 
+    private void sendSearchByUrl(HttpExchange exchange, String url) throws IOException {
+        try {
+            String response = handleSearchByUrl(url).toString();
+            log.info(REQUEST, "📤 /search SEARCH_BY_URL -> {} bytes", response.length());
+            sendResponse(exchange, 200, response);
+        } catch (Exception e) {
+            log.error("Request {} failed", exchange.getRequestURI(), e);
+            String errorResponse = String.format(
+                    "{\"success\": false, \"error\": \"Server error: %s\"}",
+                    String.valueOf(e.getMessage()).replace("\"", "\\\""));
+            sendResponse(exchange, 500, errorResponse);
+        }
+    }
+
+    /**
+     * 400 / 413 cho body không đọc / parse được
+     */
+    private void sendBadRequest(HttpExchange exchange, RequestDecoder.BadRequestException e) throws IOException {
+        log.debug("Rejected request {}: {}", exchange.getRequestURI(), e.getMessage());
+        sendResponse(exchange, e.status, new JSONObject().put("success", false).put("error", e.getMessage()).toString());
+    }
+
     private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
         // Ensure basic CORS headers are present for cross-origin clients (Vercel ->
         // Railway)
@@ -261,19 +474,19 @@ public class SimpleHttpServer {
         JSONObject response = new JSONObject();
 
         try {
-            System.out.println("🔍 Searching by URL: " + tikiUrl);
+            log.debug("🔍 Searching by URL: {}", tikiUrl);
 
-            // First check if product exists in database
-            Product existingProduct = productDAO.searchByUrl(tikiUrl);
+            // First check if product exists (identity index: same item with another URL variant also matches)
+            Product existingProduct = ProductOnboardingService.getInstance().findExisting(tikiUrl);
 
             if (existingProduct != null) {
                 // Product exists - but ALWAYS scrape latest price from Tiki for realtime data!
-                System.out.println("✓ Found existing product: " + existingProduct.getName());
-                System.out.println("📊 Scraping latest price from Tiki...");
+                log.debug("✓ Found existing product: {}, scraping latest price from Tiki", existingProduct.getName());
 
-                // Scrape realtime price
-                Object[] priceData = TikiScraperUtil.scrapePriceData(tikiUrl);
+                // Scrape realtime price (circuit Tiki đang mở thì trả null ngay, không chờ timeout)
+                Object[] priceData = TikiScraperUtil.scrapePriceData(tikiUrl, true);
                 PriceHistory currentPrice;
+                boolean priceStale = priceData == null;
 
                 if (priceData != null) {
                     // Use realtime scraped data
@@ -288,10 +501,10 @@ public class SimpleHttpServer {
                     currentPrice.setCurrency("VND");
                     currentPrice.setDealType(dealType);
 
-                    System.out.println("✅ Realtime price: " + price + " VND (was: " + originalPrice + " VND)");
+                    log.debug("✅ Realtime price: {} VND (was: {} VND)", price, originalPrice);
                 } else {
                     // Fallback to database price if scraping fails
-                    System.out.println("⚠️ Failed to scrape realtime price, using database value");
+                    log.warn("⚠️ Failed to scrape realtime price for {}, using database value", tikiUrl);
                     currentPrice = priceHistoryDAO.getCurrentPrice(existingProduct.getProductId());
                 }
 
@@ -300,22 +513,25 @@ public class SimpleHttpServer {
                 response.put("success", true);
                 response.put("isNew", false);
                 response.put("product", buildProductJSON(existingProduct, currentPrice, groupName));
+                // Giá lấy từ DB vì Tiki lỗi / circuit mở: frontend có thể hiện "giá cập nhật lúc ..."
+                response.put("price_stale", priceStale);
 
             } else {
                 // Product doesn't exist - scrape from Tiki and insert
-                System.out.println("⚠ Product not found, scraping from Tiki...");
+                log.info("⚠ Product not found, scraping from Tiki: {}", tikiUrl);
 
-                Product newProduct = productDAO.insertProductFromTiki(tikiUrl);
+                // Một lần gọi Tiki cho cả product + giá; request trùng URL cùng lúc dùng chung kết quả
+                ProductOnboardingService.Result onboarded = ProductOnboardingService.getInstance().onboard(tikiUrl);
 
-                if (newProduct != null) {
-                    System.out.println("✓ New product added: " + newProduct.getName());
+                if (onboarded != null) {
+                    Product newProduct = onboarded.product;
+                    log.info("✓ New product added: {}", newProduct.getName());
 
-                    PriceHistory currentPrice = priceHistoryDAO.getCurrentPrice(newProduct.getProductId());
                     String groupName = productGroupDAO.getGroupNameById(newProduct.getGroupId());
 
                     response.put("success", true);
-                    response.put("isNew", true);
-                    response.put("product", buildProductJSON(newProduct, currentPrice, groupName));
+                    response.put("isNew", onboarded.created);
+                    response.put("product", buildProductJSON(newProduct, onboarded.price, groupName));
                 } else {
                     response.put("success", false);
                     response.put("error", "Không thể lấy thông tin sản phẩm từ Tiki. Vui lòng kiểm tra lại URL.");
@@ -323,7 +539,7 @@ public class SimpleHttpServer {
             }
 
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Request handling failed", e);
             response.put("success", false);
             response.put("error", "Lỗi hệ thống: " + e.getMessage());
         }
@@ -331,29 +547,120 @@ public class SimpleHttpServer {
         return response;
     }
 
-    private JSONObject handleSearchByName(String searchQuery) {
-        String cacheKey = "search:name:" + searchQuery.toLowerCase();
+    /**
+     * SEARCH_BY_NAME / SEARCH_BY_CATEGORY với filter, facet và sắp xếp từ FacetIndex (không query DB)
+     * Body tùy chọn: "filters": {min_price, max_price, brands[], sources[], deal_types[], min_discount},
+     * "sort" (newest | price_asc | price_desc | discount_desc | name), "cursor", "limit" ("offset" vẫn nhận)
+     * Mặc định giữ kích thước trang cũ: 50 cho tìm theo tên, 100 cho danh mục
+     *
+     * @return JSONObject, hoặc null nếu index chưa dựng xong (caller dùng query SQL)
+     * @throws IllegalArgumentException nếu cursor không hợp lệ
+     */
+    private JSONObject handleFacetedSearch(RequestDecoder.SearchRequest request, String text, Integer groupId) {
+        FacetIndex.Query query = new FacetIndex.Query();
+        query.text = text;
+        query.groupId = groupId;
+        query.sort = request.sort != null ? request.sort : FacetIndex.SORT_NEWEST;
+        query.after = PageCursor.decode(request.cursor, query.sort);
+        query.offset = request.offset != null ? clampOffset(request.offset) : 0;
+        query.limit = request.limit != null
+                ? clampLimit(request.limit)
+                : groupId != null ? CATEGORY_PAGE_SIZE : SEARCH_PAGE_SIZE;
+        query.minPrice = request.minPrice;
+        query.maxPrice = request.maxPrice;
+        query.brands = request.brands;
+        query.sources = request.sources;
+        query.dealTypes = request.dealTypes;
+        query.minDiscount = request.minDiscount != null ? request.minDiscount : 0;
+
+        FacetIndex.Result result = FacetIndex.getInstance().search(query);
+        if (result == null) {
+            return null;
+        }
+
+        JSONObject response = new JSONObject();
+        if (result.total == 0 && !result.filtered && query.after == null) {
+            response.put("success", false);
+            response.put("error", groupId != null
+                    ? "Chưa có sản phẩm nào trong danh mục này."
+                    : "Không tìm thấy sản phẩm nào phù hợp. Hãy thử sản phẩm khác nhé ^^");
+            return response;
+        }
+
+        JSONArray productsArray = new JSONArray();
+        for (DealLeaderboard.Item item : result.items) {
+            productsArray.put(buildProductJSON(item.product, item.price, item.groupName));
+        }
+
+        JSONObject facetsJson = new JSONObject();
+        for (Map.Entry<String, List<FacetIndex.FacetValue>> facet : result.facets.entrySet()) {
+            JSONArray values = new JSONArray();
+            for (FacetIndex.FacetValue value : facet.getValue()) {
+                JSONObject valueJson = new JSONObject();
+                valueJson.put("value", value.value);
+                valueJson.put("label", value.label);
+                valueJson.put("count", value.count);
+                values.put(valueJson);
+            }
+            facetsJson.put(facet.getKey(), values);
+        }
+
+        response.put("success", true);
+        response.put("count", result.items.size());
+        response.put("total", result.total);
+        response.put("offset", query.offset);
+        response.put("has_more", result.nextCursor != null);
+        if (result.nextCursor != null) {
+            response.put("next_cursor", result.nextCursor);
+        }
+        response.put("sort", query.sort);
+        if (groupId != null) {
+            response.put("category_name", !result.items.isEmpty() && result.items.get(0).groupName != null
+                    ? result.items.get(0).groupName
+                    : productGroupDAO.getGroupNameById(groupId));
+        }
+        response.put("products", productsArray);
+        response.put("facets", facetsJson);
+        return response;
+    }
+
+    /**
+     * Tìm theo tên bằng query SQL (khi FacetIndex chưa dựng xong), phân trang keyset theo product_id
+     * Cursor cùng dạng với thứ tự "newest" của FacetIndex nên dùng thay nhau được
+     */
+    private JSONObject handleSearchByName(String searchQuery, String cursorToken) {
+        PageCursor after = PageCursor.decode(cursorToken, FacetIndex.SORT_NEWEST);
+        String cacheKey = "search:name:" + searchQuery.toLowerCase() + (after != null ? ":" + after.productId : "");
 
         // 🗄️ Check cache first
         String cached = cache.get(cacheKey);
         if (cached != null) {
-            System.out.println("✓ Search results loaded from cache (hit rate: "
-                    + String.format("%.1f", cache.getHitRate()) + "%)");
+            log.debug("✓ Search results loaded from cache");
             return new JSONObject(cached);
         }
 
+        long ticket = cache.ticket();
+        // Sản phẩm mới có thể khớp tên → phụ thuộc cả catalog, cộng từng sản phẩm trong kết quả
+        List<String> tags = new ArrayList<>();
+        tags.add(ProductCache.CATALOG_TAG);
         JSONObject response = new JSONObject();
 
         try {
-            System.out.println("🔍 Searching by name: " + searchQuery);
-
-            List<Product> products = productDAO.searchByNameLike(searchQuery);
+            log.debug("🔍 Searching by name: {}", searchQuery);
+
+            // Lấy dư một dòng để biết còn trang sau không
+            List<Product> products = productDAO.searchByNameLike(searchQuery,
+                    after != null ? after.productId : null, SEARCH_PAGE_SIZE + 1);
+            boolean hasMore = products.size() > SEARCH_PAGE_SIZE;
+            if (hasMore) {
+                products = products.subList(0, SEARCH_PAGE_SIZE);
+            }
 
-            if (products.isEmpty()) {
+            if (products.isEmpty() && after == null) {
                 response.put("success", false);
                 response.put("error", "Không tìm thấy sản phẩm nào phù hợp. Hãy thử sản phẩm khác nhé ^^");
             } else {
-                System.out.println("✓ Found " + products.size() + " products");
+                log.debug("✓ Found {} products", products.size());
 
                 JSONArray productsArray = new JSONArray();
 
@@ -362,18 +669,20 @@ public class SimpleHttpServer {
                     String groupName = productGroupDAO.getGroupNameById(product.getGroupId());
 
                     productsArray.put(buildProductJSON(product, currentPrice, groupName));
+                    tags.add(ProductCache.productTag(product.getProductId()));
                 }
 
                 response.put("success", true);
                 response.put("count", products.size());
+                putKeysetPage(response, hasMore, FacetIndex.SORT_NEWEST, products);
                 response.put("products", productsArray);
             }
 
             // 🗄️ Store in cache
-            cache.put(cacheKey, response.toString());
+            cache.put(cacheKey, response.toString(), ticket, tags);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Request handling failed", e);
             response.put("success", false);
             response.put("error", "Lỗi hệ thống: " + e.getMessage());
         }
@@ -384,32 +693,40 @@ public class SimpleHttpServer {
     /**
      * Handle SEARCH_BY_CATEGORY request
      * Returns all products in a specific category/group
-     * 🗄️ Cached version - TTL 5 phút
+     * 🗄️ Cached version - invalidate theo tag, TTL 30 phút
      */
-    private JSONObject handleSearchByCategory(int groupId) {
-        String cacheKey = "search:category:" + groupId;
+    private JSONObject handleSearchByCategory(int groupId, String cursorToken) {
+        PageCursor after = PageCursor.decode(cursorToken, FacetIndex.SORT_NEWEST);
+        String cacheKey = "search:category:" + groupId + (after != null ? ":" + after.productId : "");
 
         // 🗄️ Check cache first
         String cached = cache.get(cacheKey);
         if (cached != null) {
-            System.out.println("✓ Category products loaded from cache (hit rate: "
-                    + String.format("%.1f", cache.getHitRate()) + "%)");
+            log.debug("✓ Category products loaded from cache");
             return new JSONObject(cached);
         }
 
+        long ticket = cache.ticket();
+        List<String> tags = new ArrayList<>();
+        tags.add(ProductCache.groupTag(groupId));
         JSONObject response = new JSONObject();
 
         try {
-            System.out.println("🔍 Searching by category (group_id): " + groupId);
+            log.debug("🔍 Searching by category (group_id): {}", groupId);
 
-            List<Product> products = productDAO.getProductsByGroupId(groupId);
+            List<Product> products = productDAO.getProductsByGroupId(groupId,
+                    after != null ? after.productId : null, CATEGORY_PAGE_SIZE + 1);
+            boolean hasMore = products.size() > CATEGORY_PAGE_SIZE;
+            if (hasMore) {
+                products = products.subList(0, CATEGORY_PAGE_SIZE);
+            }
             String groupName = productGroupDAO.getGroupNameById(groupId);
 
-            if (products.isEmpty()) {
+            if (products.isEmpty() && after == null) {
                 response.put("success", false);
                 response.put("error", "Chưa có sản phẩm nào trong danh mục này.");
             } else {
-                System.out.println("✓ Found " + products.size() + " products in group: " + groupName);
+                log.debug("✓ Found {} products in group: {}", products.size(), groupName);
 
                 JSONArray productsArray = new JSONArray();
 
@@ -417,19 +734,21 @@ public class SimpleHttpServer {
                     PriceHistory currentPrice = priceHistoryDAO.getCurrentPrice(product.getProductId());
 
                     productsArray.put(buildProductJSON(product, currentPrice, groupName));
+                    tags.add(ProductCache.productTag(product.getProductId()));
                 }
 
                 response.put("success", true);
                 response.put("count", products.size());
                 response.put("category_name", groupName);
+                putKeysetPage(response, hasMore, FacetIndex.SORT_NEWEST, products);
                 response.put("products", productsArray);
             }
 
             // 🗄️ Store in cache
-            cache.put(cacheKey, response.toString());
+            cache.put(cacheKey, response.toString(), ticket, tags);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Request handling failed", e);
             response.put("success", false);
             response.put("error", "Lỗi hệ thống: " + e.getMessage());
         }
@@ -437,6 +756,328 @@ public class SimpleHttpServer {
         return response;
     }
 
+    /**
+     * GET /suggest?q=dien tho&limit=8 - gợi ý sản phẩm / brand / danh mục theo prefix
+     * Tra trên SuggestIndex (trie đã bỏ dấu), không query DB
+     */
+    private void handleSuggest(HttpExchange exchange) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("Access-Control-Allow-Origin", "*");
+        headers.add("Access-Control-Allow-Methods", "GET, OPTIONS");
+        headers.add("Access-Control-Allow-Headers", "Content-Type, Cache-Control, Pragma, Expires");
+        headers.add("Content-Type", "application/json; charset=UTF-8");
+
+        if ("OPTIONS".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        try {
+            Map<String, String> params = queryParams(exchange);
+            String q = params.getOrDefault("q", "");
+            int limit = params.containsKey("limit")
+                    ? Integer.parseInt(params.get("limit"))
+                    : SuggestIndex.MAX_SUGGESTIONS;
+            limit = Math.max(1, Math.min(limit, SuggestIndex.MAX_SUGGESTIONS));
+
+            long started = System.nanoTime();
+            JSONArray suggestions = new JSONArray();
+            for (SuggestIndex.Suggestion s : SuggestIndex.getInstance().suggest(q, limit)) {
+                JSONObject item = new JSONObject();
+                item.put("text", s.text);
+                item.put("type", s.kind.getKey());
+                if (s.kind == SuggestIndex.Kind.PRODUCT) {
+                    item.put("product_id", s.refId);
+                } else if (s.kind == SuggestIndex.Kind.CATEGORY) {
+                    item.put("group_id", s.refId);
+                }
+                suggestions.put(item);
+            }
+            long micros = (System.nanoTime() - started) / 1000;
+
+            JSONObject responseJson = new JSONObject();
+            responseJson.put("success", true);
+            responseJson.put("query", q);
+            responseJson.put("suggestions", suggestions);
+
+            log.info(REQUEST, "📤 /suggest '{}' -> {} suggestions ({} µs)", q, suggestions.length(), micros);
+            sendResponse(exchange, 200, responseJson.toString());
+
+        } catch (NumberFormatException e) {
+            sendResponse(exchange, 400, "{\"success\": false, \"error\": \"Invalid limit\"}");
+        } catch (Exception e) {
+            log.error("Request {} failed", exchange.getRequestURI(), e);
+            sendResponse(exchange, 500, "{\"success\": false, \"error\": \"Server error\"}");
+        }
+    }
+
+    /**
+     * Tham số query string đã URL-decode; tham số lặp lại thì lấy giá trị cuối
+     */
+    private static Map<String, String> queryParams(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String param : rawQuery.split("&")) {
+            int eq = param.indexOf('=');
+            if (eq <= 0) {
+                continue;
+            }
+            params.put(URLDecoder.decode(param.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    // ==================== 🌐 Cacheable GET API ====================
+
+    /**
+     * GET /api/products/{id} - cùng nội dung với POST /product-detail
+     * Version theo tag của sản phẩm và group của nó (giá, sản phẩm mới, similar products)
+     */
+    private void handleApiProduct(HttpExchange exchange) throws IOException {
+        if (!acceptApiGet(exchange)) {
+            return;
+        }
+        try {
+            String idPart = exchange.getRequestURI().getPath().substring("/api/products/".length());
+            int productId = Integer.parseInt(idPart.endsWith("/") ? idPart.substring(0, idPart.length() - 1) : idPart);
+
+            // Lane cached_read chỉ phục vụ cache hit; cache miss cần ~7 query nên chuyển sang db_read
+            if (cache.contains("product:" + productId)) {
+                sendApiProduct(exchange, productId);
+            } else {
+                bulkhead.handOff(Bulkhead.Lane.DB_READ, exchange, ex -> sendApiProduct(ex, productId));
+            }
+
+        } catch (NumberFormatException e) {
+            sendResponse(exchange, 400, "{\"success\": false, \"error\": \"Invalid product id\"}");
+        } catch (Exception e) {
+            log.error("Request {} failed", exchange.getRequestURI(), e);
+            sendResponse(exchange, 500, "{\"success\": false, \"error\": \"Server error\"}");
+        }
+    }
+
+    private void sendApiProduct(HttpExchange exchange, int productId) throws IOException {
+        try {
+            List<String> tags = new ArrayList<>(3);
+            tags.add(ProductCache.productTag(productId));
+            DealLeaderboard.Item item = DealLeaderboard.getInstance().getItem(productId);
+            if (item != null) {
+                tags.add(ProductCache.groupTag(item.product.getGroupId()));
+            } else {
+                // Chưa biết group (bảng chưa dựng / sản phẩm mới): phụ thuộc cả catalog
+                tags.add(ProductCache.CATALOG_TAG);
+                tags.add(ProductCache.DEALS_TAG);
+            }
+            // Chỉ đếm lượt xem của sản phẩm có thật: id rác không được vào top-N (và bị warmer làm nóng)
+            if (item != null) {
+                PopularityTracker.getInstance().recordView(productId);
+            }
+            sendCacheable(exchange, "/api/products/" + productId, API_DETAIL_CACHE_CONTROL, tags, () -> {
+                JSONObject detail = handleGetProductDetail(productId);
+                if (item == null && detail.optBoolean("success", false)) {
+                    PopularityTracker.getInstance().recordView(productId);
+                }
+                return detail;
+            });
+
+        } catch (Exception e) {
+            log.error("Request {} failed", exchange.getRequestURI(), e);
+            sendResponse(exchange, 500, "{\"success\": false, \"error\": \"Server error\"}");
+        }
+    }
+
+    /**
+     * GET /api/search?q=... hoặc ?group_id=... - cùng nội dung với POST /search (name / category)
+     * Tham số: sort, cursor, limit, offset, min_price, max_price, min_discount,
+     * brands / sources / deal_types (phân cách bằng dấu phẩy)
+     */
+    private void handleApiSearch(HttpExchange exchange) throws IOException {
+        if (!acceptApiGet(exchange)) {
+            return;
+        }
+        try {
+            Map<String, String> params = queryParams(exchange);
+            String q = params.get("q");
+            Integer groupId = params.containsKey("group_id") ? Integer.valueOf(params.get("group_id")) : null;
+            if ((q == null || q.isBlank()) && groupId == null) {
+                sendResponse(exchange, 400, "{\"success\": false, \"error\": \"Missing q or group_id\"}");
+                return;
+            }
+
+            // Cùng request có kiểu với POST /search để dùng chung handler
+            RequestDecoder.SearchRequest request = new RequestDecoder.SearchRequest();
+            request.sort = params.get("sort");
+            request.cursor = params.get("cursor");
+            request.limit = params.containsKey("limit") ? Integer.valueOf(params.get("limit")) : null;
+            request.offset = params.containsKey("offset") ? Integer.valueOf(params.get("offset")) : null;
+            request.minPrice = params.containsKey("min_price") ? Double.valueOf(params.get("min_price")) : null;
+            request.maxPrice = params.containsKey("max_price") ? Double.valueOf(params.get("max_price")) : null;
+            request.minDiscount = params.containsKey("min_discount") ? Integer.valueOf(params.get("min_discount")) : null;
+            request.brands = params.containsKey("brands") ? Set.of(params.get("brands").split(",")) : null;
+            request.sources = params.containsKey("sources") ? Set.of(params.get("sources").split(",")) : null;
+            request.dealTypes = params.containsKey("deal_types") ? Set.of(params.get("deal_types").split(",")) : null;
+
+            // Tên: sản phẩm mới bất kỳ có thể khớp, giá bất kỳ có thể đổi; danh mục: chỉ group đó
+            List<String> tags = groupId != null && (q == null || q.isBlank())
+                    ? List.of(ProductCache.groupTag(groupId))
+                    : List.of(ProductCache.CATALOG_TAG, ProductCache.DEALS_TAG);
+            String route = "/api/search " + (groupId != null ? "group " + groupId : q);
+            sendCacheable(exchange, route, API_LIST_CACHE_CONTROL, tags, () -> {
+                if (q != null && !q.isBlank()) {
+                    JSONObject byName = handleFacetedSearch(request, q, groupId);
+                    return byName != null ? byName : handleSearchByName(q, request.cursor);
+                }
+                JSONObject byCategory = handleFacetedSearch(request, null, groupId);
+                return byCategory != null ? byCategory : handleSearchByCategory(groupId, request.cursor);
+            });
+
+        } catch (IllegalArgumentException e) {
+            // Tham số số hỏng, cursor hỏng / khác thứ tự
+            sendResponse(exchange, 400, new JSONObject().put("success", false).put("error", e.getMessage()).toString());
+        } catch (Exception e) {
+            log.error("Request {} failed", exchange.getRequestURI(), e);
+            sendResponse(exchange, 500, "{\"success\": false, \"error\": \"Server error\"}");
+        }
+    }
+
+    /**
+     * GET /api/deals?type=FLASH_SALE&group_id=&cursor=&limit= - cùng nội dung với /deals
+     */
+    private void handleApiDeals(HttpExchange exchange) throws IOException {
+        if (!acceptApiGet(exchange)) {
+            return;
+        }
+        try {
+            Map<String, String> params = queryParams(exchange);
+            String dealType = params.getOrDefault("type", "ALL");
+            Integer groupId = params.containsKey("group_id") ? Integer.valueOf(params.get("group_id")) : null;
+            String cursor = params.get("cursor");
+            int offset = params.containsKey("offset") ? clampOffset(Integer.parseInt(params.get("offset"))) : 0;
+            int limit = params.containsKey("limit") ? clampLimit(Integer.parseInt(params.get("limit"))) : -1;
+
+            sendCacheable(exchange, "/api/deals " + dealType, API_LIST_CACHE_CONTROL,
+                    List.of(ProductCache.DEALS_TAG),
+                    () -> handleGetDeals(dealType, groupId, cursor, offset, limit));
+
+        } catch (IllegalArgumentException e) {
+            sendResponse(exchange, 400, new JSONObject().put("success", false).put("error", e.getMessage()).toString());
+        } catch (Exception e) {
+            log.error("Request {} failed", exchange.getRequestURI(), e);
+            sendResponse(exchange, 500, "{\"success\": false, \"error\": \"Server error\"}");
+        }
+    }
+
+    /**
+     * GET /api/trending?limit= - sản phẩm được xem nhiều nhất gần đây (PopularityTracker);
+     * chưa có lượt xem nào thì trả board TRENDING theo nhãn của sàn
+     */
+    private void handleApiTrending(HttpExchange exchange) throws IOException {
+        if (!acceptApiGet(exchange)) {
+            return;
+        }
+        try {
+            Map<String, String> params = queryParams(exchange);
+            // Tối đa TRENDING_PAGE_SIZE: fallback board TRENDING cũng chỉ có chừng đó (và có thể là query SQL)
+            int limit = params.containsKey("limit")
+                    ? Math.max(1, Math.min(Integer.parseInt(params.get("limit")), TRENDING_PAGE_SIZE))
+                    : TRENDING_PAGE_SIZE;
+
+            sendCacheable(exchange, "/api/trending", API_LIST_CACHE_CONTROL,
+                    List.of(ProductCache.TRENDING_TAG, ProductCache.DEALS_TAG),
+                    () -> handleGetTrending(limit));
+
+        } catch (IllegalArgumentException e) {
+            sendResponse(exchange, 400, new JSONObject().put("success", false).put("error", e.getMessage()).toString());
+        } catch (Exception e) {
+            log.error("Request {} failed", exchange.getRequestURI(), e);
+            sendResponse(exchange, 500, "{\"success\": false, \"error\": \"Server error\"}");
+        }
+    }
+
+    private JSONObject handleGetTrending(int limit) {
+        List<PopularityTracker.Ranked> ranked = PopularityTracker.getInstance().top(limit);
+        if (ranked.isEmpty()) {
+            return handleGetDeals("TRENDING", null, null, 0, limit);
+        }
+
+        JSONArray productsArray = new JSONArray();
+        for (PopularityTracker.Ranked entry : ranked) {
+            DealLeaderboard.Item item = DealLeaderboard.getInstance().getItem(entry.productId);
+            if (item == null) {
+                continue;
+            }
+            String groupName = item.groupName != null
+                    ? item.groupName
+                    : productGroupDAO.getGroupNameById(item.product.getGroupId());
+            productsArray.put(buildProductJSON(item.product, item.price, groupName)
+                    .put("view_score", Math.round(entry.score * 10) / 10.0));
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("success", true);
+        response.put("source", "views");
+        response.put("count", productsArray.length());
+        response.put("products", productsArray);
+        return response;
+    }
+
+    /**
+     * CORS + chỉ nhận GET; trả false nếu đã tự trả lời (OPTIONS / sai method)
+     */
+    private boolean acceptApiGet(HttpExchange exchange) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.add("Access-Control-Allow-Origin", "*");
+        headers.add("Access-Control-Allow-Methods", "GET, OPTIONS");
+        headers.add("Access-Control-Allow-Headers", "Content-Type, If-None-Match, If-Modified-Since");
+        headers.add("Access-Control-Expose-Headers", "ETag, Last-Modified");
+        headers.add("Content-Type", "application/json; charset=UTF-8");
+
+        if ("OPTIONS".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+            return false;
+        }
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            sendResponse(exchange, 405, "{\"success\": false, \"error\": \"Method not allowed. Use GET.\"}");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Trả response GET kèm ETag / Last-Modified theo version các tag; client (hoặc CDN) đang giữ
+     * đúng version thì trả 304 mà không tính body. Response lỗi / partial: no-store
+     */
+    private void sendCacheable(HttpExchange exchange, String route, String cacheControl, Collection<String> tags,
+                               Supplier<JSONObject> body) throws IOException {
+        // Version lấy TRƯỚC khi tính body: invalidate xen giữa thì lần revalidate sau nhận bản mới
+        long version = cache.version(tags);
+        long lastModified = cache.lastModified(tags);
+        String etag = HttpCaching.etag(version);
+        Headers headers = exchange.getResponseHeaders();
+
+        if (HttpCaching.isNotModified(exchange.getRequestHeaders(), etag, lastModified)) {
+            HttpCaching.putValidators(headers, cacheControl, etag, lastModified);
+            log.info(REQUEST, "📤 {} -> 304", route);
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        JSONObject responseJson = body.get();
+        if (responseJson.optBoolean("success", false) && !responseJson.optBoolean("partial", false)) {
+            HttpCaching.putValidators(headers, cacheControl, etag, lastModified);
+        } else {
+            headers.set("Cache-Control", "no-store");
+        }
+        String response = responseJson.toString();
+        log.info(REQUEST, "📤 {} -> {} bytes", route, response.length());
+        sendResponse(exchange, 200, response);
+    }
+
     /**
      * NEW: Handle deals endpoint - Get products with discounts
      * Supports filtering by deal_type: FLASH_SALE, HOT_DEAL, TRENDING, or ALL
@@ -457,33 +1098,36 @@ public class SimpleHttpServer {
 
         try {
             String dealType = "ALL"; // Default: get all deals
+            Integer groupId = null;  // Optional: chỉ deal của một group
+            String cursor = null;    // Optional: next_cursor của trang trước
+            int offset = 0;
+            int limit = -1;          // -1 = trang mặc định (top-K của deal type)
 
             // Check if POST request with body
             if ("POST".equals(exchange.getRequestMethod())) {
-                InputStream is = exchange.getRequestBody();
-                String requestBody = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))
-                        .lines()
-                        .reduce("", (acc, line) -> acc + line);
-
-                if (!requestBody.isEmpty()) {
-                    JSONObject requestJson = new JSONObject(requestBody);
-                    if (requestJson.has("deal_type")) {
-                        dealType = requestJson.getString("deal_type");
-                    }
+                RequestDecoder.DealsRequest request = RequestDecoder.decodeDeals(exchange);
+                if (request.dealType != null) {
+                    dealType = request.dealType;
                 }
+                groupId = request.groupId;
+                cursor = request.cursor;
+                offset = request.offset != null ? clampOffset(request.offset) : 0;
+                limit = request.limit != null ? clampLimit(request.limit) : -1;
             }
 
-            System.out.println("📥 Received deals request - Deal type: " + dealType);
-
-            JSONObject responseJson = handleGetDeals(dealType);
+            JSONObject responseJson = handleGetDeals(dealType, groupId, cursor, offset, limit);
 
             String response = responseJson.toString();
-            System.out.println("📤 Sending deals response with " +
-                    responseJson.optInt("count", 0) + " products");
+            log.info(REQUEST, "📤 /deals {} -> {} products", dealType, responseJson.optInt("count", 0));
             sendResponse(exchange, 200, response);
 
+        } catch (RequestDecoder.BadRequestException e) {
+            sendBadRequest(exchange, e);
+        } catch (IllegalArgumentException e) {
+            // Cursor hỏng hoặc thuộc deal type khác
+            sendResponse(exchange, 400, new JSONObject().put("success", false).put("error", e.getMessage()).toString());
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Request {} failed", exchange.getRequestURI(), e);
             String errorResponse = String.format(
                     "{\"success\": false, \"error\": \"Server error: %s\"}",
                     e.getMessage().replace("\"", "\\\""));
@@ -493,63 +1137,160 @@ public class SimpleHttpServer {
 
     /**
      * NEW: Get products with deals/discounts
-     * 🗄️ Cached version - TTL 5 phút
+     * 🏆 Đọc từ DealLeaderboard in-memory (không query DB, xếp hạng luôn mới)
+     * 🗄️ Bảng chưa dựng xong: fallback query SQL keyset (cached theo trang)
      * 
      * @param dealType Filter by deal type: "FLASH_SALE", "HOT_DEAL", "TRENDING", or
      *                 "ALL"
+     * @param groupId  Chỉ lấy deal của group này, null = mọi group
+     * @param cursor   next_cursor của trang trước, null = trang đầu
+     * @param offset   Số sản phẩm bỏ qua sau cursor (tương thích client cũ)
+     * @param limit    Số sản phẩm tối đa, âm = top-K của deal type
      * @return JSONObject with products list
+     * @throws IllegalArgumentException nếu deal type không tồn tại hoặc cursor không hợp lệ
      */
-    private JSONObject handleGetDeals(String dealType) {
-        String cacheKey = "deals:" + dealType;
+    private JSONObject handleGetDeals(String dealType, Integer groupId, String cursor, int offset, int limit) {
+        // Deal type lạ bị từ chối trước mọi query SQL
+        DealLeaderboard.Board board = DealLeaderboard.Board.of(dealType);
+        if (board == null) {
+            throw new IllegalArgumentException("Unknown deal type: " + dealType);
+        }
+        String cursorSort = board.cursorSort();
+        PageCursor after = PageCursor.decode(cursor, cursorSort);
+        int pageLimit = limit >= 0 ? clampLimit(limit) : board.getTopK();
+        offset = clampOffset(offset);
+        DealLeaderboard.Page page = DealLeaderboard.getInstance().page(board, groupId, after, offset, pageLimit);
+
+        if (page == null) {
+            return handleGetDealsFromDatabase(board.name(), groupId, cursorSort, after, offset, pageLimit);
+        }
+
+        JSONObject response = new JSONObject();
+        if (page.total == 0) {
+            response.put("success", false);
+            response.put("error", "Hiện tại chưa có sản phẩm giảm giá nào. Vui lòng quay lại sau!");
+            return response;
+        }
+
+        JSONArray productsArray = new JSONArray();
+        for (DealLeaderboard.Item item : page.items) {
+            String groupName = item.groupName != null
+                    ? item.groupName
+                    : productGroupDAO.getGroupNameById(item.product.getGroupId());
+            productsArray.put(buildProductJSON(item.product, item.price, groupName));
+        }
+
+        putDealsPage(response, dealType, groupId, offset, page.items.size(), page.total, page.nextCursor,
+                productsArray);
+        return response;
+    }
+
+    /**
+     * Deals bằng query SQL keyset (khi DealLeaderboard chưa dựng xong)
+     * 🗄️ Cached version - mỗi trang một entry, invalidate theo tag, TTL 30 phút
+     */
+    private JSONObject handleGetDealsFromDatabase(String dealType, Integer groupId, String cursorSort,
+                                                  PageCursor after, int offset, int limit) {
+        String cacheKey = "deals:" + dealType + ":" + groupId + ":" + (after != null ? after.encode() : "")
+                + ":" + offset + ":" + limit;
 
         // 🗄️ Check cache first
         String cached = cache.get(cacheKey);
         if (cached != null) {
-            System.out.println(
-                    "✓ Deals loaded from cache (hit rate: " + String.format("%.1f", cache.getHitRate()) + "%)");
+            log.debug("✓ Deals loaded from cache");
             return new JSONObject(cached);
         }
 
+        long ticket = cache.ticket();
+        // Giá của bất kỳ sản phẩm nào cũng có thể đổi xếp hạng → tag deals, cộng từng sản phẩm trong kết quả
+        List<String> tags = new ArrayList<>();
+        tags.add(ProductCache.DEALS_TAG);
         JSONObject response = new JSONObject();
-
         try {
-            System.out.println("🎁 Fetching deals - Type: " + dealType);
+            log.debug("🎁 Fetching deals - Type: {}", dealType);
 
-            List<Product> products = productDAO.getProductsByDealType(dealType);
+            // Lấy dư một dòng để biết còn trang sau không
+            List<ProductDAO.DealRow> rows = productDAO.getDealPage(dealType, groupId,
+                    after != null ? after.numericKey() : null, after != null ? after.productId : 0,
+                    offset + limit + 1);
+            boolean hasMore = rows.size() > offset + limit;
+            rows = rows.subList(Math.min(offset, rows.size()), Math.min(rows.size(), offset + limit));
 
-            if (products.isEmpty()) {
+            if (rows.isEmpty() && after == null && offset == 0) {
                 response.put("success", false);
                 response.put("error", "Hiện tại chưa có sản phẩm giảm giá nào. Vui lòng quay lại sau!");
             } else {
-                System.out.println("✓ Found " + products.size() + " deal products");
+                log.debug("✓ Found {} deal products", rows.size());
 
+                Map<Integer, PriceHistory> currentPrices = priceHistoryDAO.getCurrentPrices(
+                        rows.stream().map(row -> row.product.getProductId()).toList());
                 JSONArray productsArray = new JSONArray();
 
-                for (Product product : products) {
-                    PriceHistory currentPrice = priceHistoryDAO.getCurrentPrice(product.getProductId());
+                for (ProductDAO.DealRow row : rows) {
+                    Product product = row.product;
                     String groupName = productGroupDAO.getGroupNameById(product.getGroupId());
-
-                    productsArray.put(buildProductJSON(product, currentPrice, groupName));
+                    productsArray.put(buildProductJSON(product, currentPrices.get(product.getProductId()),
+                            groupName));
+                    tags.add(ProductCache.productTag(product.getProductId()));
                 }
 
-                response.put("success", true);
-                response.put("count", products.size());
-                response.put("deal_type", dealType);
-                response.put("products", productsArray);
+                ProductDAO.DealRow last = hasMore && !rows.isEmpty() ? rows.get(rows.size() - 1) : null;
+                String nextCursor = last != null
+                        ? new PageCursor(cursorSort, last.discount, last.product.getProductId()).encode()
+                        : null;
+                // Keyset không đếm tổng (tránh COUNT trên cả bảng): bỏ field total
+                putDealsPage(response, dealType, groupId, offset, rows.size(), -1, nextCursor, productsArray);
             }
 
             // 🗄️ Store in cache
-            cache.put(cacheKey, response.toString());
+            cache.put(cacheKey, response.toString(), ticket, tags);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Request handling failed", e);
             response.put("success", false);
             response.put("error", "Lỗi hệ thống: " + e.getMessage());
         }
-
         return response;
     }
 
+    private static int clampLimit(int limit) {
+        return Math.max(0, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    private static int clampOffset(int offset) {
+        return Math.max(0, Math.min(offset, MAX_OFFSET));
+    }
+
+    private static void putDealsPage(JSONObject response, String dealType, Integer groupId, int offset, int count,
+                                     int total, String nextCursor, JSONArray productsArray) {
+        response.put("success", true);
+        response.put("count", count);
+        if (total >= 0) {
+            response.put("total", total);
+        }
+        response.put("offset", offset);
+        response.put("has_more", nextCursor != null);
+        if (nextCursor != null) {
+            response.put("next_cursor", nextCursor);
+        }
+        response.put("deal_type", dealType);
+        if (groupId != null) {
+            response.put("group_id", groupId);
+        }
+        response.put("products", productsArray);
+    }
+
+    /**
+     * has_more / next_cursor cho danh sách SQL sắp theo product_id giảm dần
+     */
+    private static void putKeysetPage(JSONObject response, boolean hasMore, String sort, List<Product> products) {
+        response.put("has_more", hasMore);
+        if (hasMore && !products.isEmpty()) {
+            int lastId = products.get(products.size() - 1).getProductId();
+            response.put("next_cursor", new PageCursor(sort, 0, lastId).encode());
+        }
+    }
+
     /**
      * NEW: Handle product detail endpoint - Get detailed product information
      * Requires product_id in request body
@@ -575,36 +1316,27 @@ public class SimpleHttpServer {
                 return;
             }
 
-            // Read request body
-            InputStream is = exchange.getRequestBody();
-            String requestBody = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))
-                    .lines()
-                    .reduce("", (acc, line) -> acc + line);
-
-            if (requestBody.isEmpty()) {
+            RequestDecoder.ProductRequest request = RequestDecoder.decodeProduct(exchange);
+            if (request.productId == null) {
                 String errorResponse = "{\"success\": false, \"error\": \"Missing product_id in request body\"}";
                 sendResponse(exchange, 400, errorResponse);
                 return;
             }
 
-            JSONObject requestJson = new JSONObject(requestBody);
-            if (!requestJson.has("product_id")) {
-                String errorResponse = "{\"success\": false, \"error\": \"Missing product_id in request body\"}";
-                sendResponse(exchange, 400, errorResponse);
-                return;
-            }
-
-            int productId = requestJson.getInt("product_id");
-            System.out.println("📥 Received product detail request - Product ID: " + productId);
-
+            int productId = request.productId;
             JSONObject responseJson = handleGetProductDetail(productId);
+            if (responseJson.optBoolean("success", false)) {
+                PopularityTracker.getInstance().recordView(productId);
+            }
 
             String response = responseJson.toString();
-            System.out.println("📤 Sending product detail response");
+            log.info(REQUEST, "📤 /product-detail {} -> {} bytes", productId, response.length());
             sendResponse(exchange, 200, response);
 
+        } catch (RequestDecoder.BadRequestException e) {
+            sendBadRequest(exchange, e);
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Request {} failed", exchange.getRequestURI(), e);
             String errorResponse = String.format(
                     "{\"success\": false, \"error\": \"Server error: %s\"}",
                     e.getMessage().replace("\"", "\\\""));
@@ -615,7 +1347,7 @@ public class SimpleHttpServer {
     /**
      * NEW: Get detailed product information including price history, reviews, and
      * similar products
-     * 🗄️ Cached version - TTL 5 phút
+     * 🗄️ Cached version - invalidate theo tag, TTL 30 phút
      * 
      * @param productId The product ID
      * @return JSONObject with complete product details
@@ -626,46 +1358,64 @@ public class SimpleHttpServer {
         // 🗄️ Check cache first
         String cached = cache.get(cacheKey);
         if (cached != null) {
-            System.out.println("✓ Product detail loaded from cache (hit rate: "
-                    + String.format("%.1f", cache.getHitRate()) + "%)");
+            log.debug("✓ Product detail {} loaded from cache", productId);
             return new JSONObject(cached);
         }
 
+        long ticket = cache.ticket();
         JSONObject response = new JSONObject();
 
         try {
-            System.out.println("🔍 Fetching product detail - ID: " + productId);
-
-            // Get product basic info
-            Product product = productDAO.getProductById(productId);
-
+            log.debug("🔍 Fetching product detail - ID: {}", productId);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DETAIL_DEADLINE_MS);
+            List<String> missingParts = new ArrayList<>();
+
+            // ⚡ Fan-out: các phần chỉ cần productId chạy song song ngay, cùng lúc với query product
+            CompletableFuture<Product> productF = CompletableFuture.supplyAsync(
+                    () -> productDAO.getProductById(productId), detailExecutor);
+            CompletableFuture<PriceHistory> currentPriceF = CompletableFuture.supplyAsync(
+                    () -> priceHistoryDAO.getCurrentPrice(productId), detailExecutor);
+            CompletableFuture<List<PriceHistory>> historyF = CompletableFuture.supplyAsync(
+                    () -> priceHistoryDAO.getPriceHistoryByProductId(productId), detailExecutor);
+            // getReviewsByProductId không LIMIT nên count = size(), không cần query COUNT(*) riêng
+            CompletableFuture<List<Review>> reviewsF = CompletableFuture.supplyAsync(
+                    () -> reviewDAO.getReviewsByProductId(productId), detailExecutor);
+
+            // Các phần cần group_id chạy tiếp ngay khi có product
+            // Get similar products (same group) - 16 products for 4 rows x 4 columns
+            CompletableFuture<List<Product>> similarF = productF.thenApplyAsync(p -> p == null
+                    ? List.<Product>of()
+                    : productDAO.getSimilarProducts(p.getGroupId(), productId, 16), detailExecutor);
+            CompletableFuture<String> groupNameF = productF.thenApplyAsync(p -> p == null
+                    ? null
+                    : productGroupDAO.getGroupNameById(p.getGroupId()), detailExecutor);
+            // Giá của tất cả similar products trong MỘT query thay vì 16 lần getCurrentPrice
+            CompletableFuture<Map<Integer, PriceHistory>> similarPricesF = similarF.thenApplyAsync(list ->
+                    priceHistoryDAO.getCurrentPrices(list.stream().map(Product::getProductId).toList()),
+                    detailExecutor);
+
+            // Product là phần bắt buộc: không có thì không có trang chi tiết
+            Product product = awaitPart(productF, deadline, "product", null, missingParts);
             if (product == null) {
+                for (CompletableFuture<?> part : List.of(currentPriceF, historyF, reviewsF, similarF, groupNameF,
+                        similarPricesF)) {
+                    part.cancel(true);
+                }
                 response.put("success", false);
-                response.put("error", "Không tìm thấy sản phẩm này!");
+                response.put("error", missingParts.isEmpty()
+                        ? "Không tìm thấy sản phẩm này!"
+                        : "Hệ thống đang bận, vui lòng thử lại!");
                 return response;
             }
 
-            System.out.println("✓ Found product: " + product.getName());
-
-            // Get current price
-            PriceHistory currentPrice = priceHistoryDAO.getCurrentPrice(productId);
-
-            // Get price history
-            List<PriceHistory> priceHistory = priceHistoryDAO.getPriceHistoryByProductId(productId);
-
-            // Get reviews
-            List<Review> reviews = reviewDAO.getReviewsByProductId(productId);
-            int reviewCount = reviewDAO.countReviewsByProductId(productId);
-
-            // Get similar products (same group) - 16 products for 4 rows
-            List<Product> similarProducts = productDAO.getSimilarProducts(
-                    product.getGroupId(),
-                    productId,
-                    16 // Limit to 16 similar products (4 rows x 4 columns)
-            );
-
-            // Get group name
-            String groupName = productGroupDAO.getGroupNameById(product.getGroupId());
+            PriceHistory currentPrice = awaitPart(currentPriceF, deadline, "price", null, missingParts);
+            List<PriceHistory> priceHistory = awaitPart(historyF, deadline, "price_history", List.of(), missingParts);
+            List<Review> reviews = awaitPart(reviewsF, deadline, "reviews", List.of(), missingParts);
+            int reviewCount = reviews.size();
+            List<Product> similarProducts = awaitPart(similarF, deadline, "similar_products", List.of(), missingParts);
+            Map<Integer, PriceHistory> similarPrices = awaitPart(similarPricesF, deadline, "similar_prices",
+                    Map.of(), missingParts);
+            String groupName = awaitPart(groupNameF, deadline, "group_name", null, missingParts);
 
             // Build response JSON
             response.put("success", true);
@@ -741,21 +1491,33 @@ public class SimpleHttpServer {
             // Similar products
             JSONArray similarProductsArray = new JSONArray();
             for (Product sp : similarProducts) {
-                PriceHistory spPrice = priceHistoryDAO.getCurrentPrice(sp.getProductId());
-                JSONObject spJson = buildProductJSON(sp, spPrice, groupName);
+                JSONObject spJson = buildProductJSON(sp, similarPrices.get(sp.getProductId()), groupName);
                 similarProductsArray.put(spJson);
             }
             response.put("similar_products", similarProductsArray);
 
-            System.out.println("✓ Product detail prepared: " + reviewCount + " reviews, " +
-                    priceHistory.size() + " price records, " +
-                    similarProducts.size() + " similar products");
+            log.debug("✓ Product detail prepared: {} reviews, {} price records, {} similar products",
+                    reviewCount, priceHistory.size(), similarProducts.size());
 
-            // 🗄️ Store in cache
-            cache.put(cacheKey, response.toString());
+            if (!missingParts.isEmpty()) {
+                // ⏱️ Trang vẫn hiển thị được, frontend biết phần nào đang thiếu; KHÔNG cache kết quả thiếu
+                response.put("partial", true);
+                response.put("missing_parts", new JSONArray(missingParts));
+                log.warn("⏱️  Product detail {} served partial, missing: {}", productId, missingParts);
+                return response;
+            }
+
+            // 🗄️ Store in cache: phụ thuộc sản phẩm này, các similar products và danh sách của group
+            List<String> tags = new ArrayList<>(similarProducts.size() + 2);
+            tags.add(ProductCache.productTag(productId));
+            tags.add(ProductCache.groupTag(product.getGroupId()));
+            for (Product sp : similarProducts) {
+                tags.add(ProductCache.productTag(sp.getProductId()));
+            }
+            cache.put(cacheKey, response.toString(), ticket, tags);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Request handling failed", e);
             response.put("success", false);
             response.put("error", "Lỗi hệ thống: " + e.getMessage());
         }
@@ -763,6 +1525,28 @@ public class SimpleHttpServer {
         return response;
     }
 
+    /**
+     * Chờ một phần của trang chi tiết trong thời gian còn lại tới deadline chung
+     * Quá hạn hoặc lỗi: hủy phần đó, ghi tên vào missingParts và trả về fallback
+     */
+    private static <T> T awaitPart(CompletableFuture<T> future, long deadlineNanos, String part, T fallback,
+                                   List<String> missingParts) {
+        try {
+            T value = future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return value != null ? value : fallback;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            missingParts.add(part);
+        } catch (ExecutionException e) {
+            log.warn("Product detail part '{}' failed: {}", part, e.getCause() != null ? e.getCause() : e);
+            missingParts.add(part);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            missingParts.add(part);
+        }
+        return fallback;
+    }
+
     /**
      * NEW: Handle refresh price endpoint - Real-time scraping
      * Forces an immediate price scrape if data is older than 1 hour
@@ -788,21 +1572,15 @@ public class SimpleHttpServer {
                 return;
             }
 
-            // Read request body
-            InputStream is = exchange.getRequestBody();
-            String requestBody = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))
-                    .lines()
-                    .reduce("", (acc, line) -> acc + line);
-
-            JSONObject requestJson = new JSONObject(requestBody);
-            if (!requestJson.has("product_id")) {
+            RequestDecoder.ProductRequest request = RequestDecoder.decodeProduct(exchange);
+            if (request.productId == null) {
                 String errorResponse = "{\"success\": false, \"error\": \"Missing product_id\"}";
                 sendResponse(exchange, 400, errorResponse);
                 return;
             }
 
-            int productId = requestJson.getInt("product_id");
-            System.out.println("🔄 Refresh price request - Product ID: " + productId);
+            int productId = request.productId;
+            log.info(REQUEST, "🔄 Refresh price request - Product ID: {}", productId);
 
             // Get product info
             Product product = productDAO.getProductById(productId);
@@ -815,30 +1593,32 @@ public class SimpleHttpServer {
             // Get latest price from DB
             PriceHistory latestPrice = priceHistoryDAO.getCurrentPrice(productId);
 
-            // Check if need to scrape (> 1 hour old)
+            // Check if need to scrape: tới lịch cào của sản phẩm, hoặc > 1 giờ (user đang chờ giá mới)
             boolean needsScrape = false;
+            boolean scraped = false;
             if (latestPrice != null) {
                 long hoursSinceUpdate = java.time.Duration.between(
                         latestPrice.getCapturedAt().toLocalDateTime(),
                         java.time.LocalDateTime.now()).toHours();
 
-                needsScrape = (hoursSinceUpdate >= 1);
-                System.out.println("⏱️  Last update: " + hoursSinceUpdate + " hours ago");
+                needsScrape = ScrapeScheduler.getInstance().isDue(productId, latestPrice.getCapturedAt())
+                        || hoursSinceUpdate >= 1;
+                log.debug("⏱️  Last update: {} hours ago", hoursSinceUpdate);
             } else {
                 needsScrape = true;
-                System.out.println("⚠️  No price history found");
+                log.debug("⚠️  No price history found for product {}", productId);
             }
 
 
             if (needsScrape) {
-                System.out.println("🔍 Scraping new price from Tiki...");
+                log.debug("🔍 Scraping new price from Tiki for product {}", productId);
 
                 // Extract Tiki product ID
                 int tikiProductId = TikiScraperUtil.extractProductId(product.getUrl());
 
                 if (tikiProductId != -1) {
                     // Scrape price data
-                    Object[] priceData = TikiScraperUtil.scrapePriceData(product.getUrl());
+                    Object[] priceData = TikiScraperUtil.scrapePriceData(product.getUrl(), true);
 
                     if (priceData != null && priceData.length >= 3) {
                         double price = (Double) priceData[0];
@@ -850,23 +1630,21 @@ public class SimpleHttpServer {
                                 productId, price, originalPrice, dealType);
 
                         if (saved) {
-                            System.out.println("✅ New price saved: " + price + "đ (" + java.time.Instant.now() + ")");
+                            log.info("✅ New price saved for product {}: {}đ", productId, price);
                         }
+                        scraped = true;
                     }
                 }
             } else {
-                System.out.println("✓ Price is still fresh, no scraping needed");
+                log.debug("✓ Price is still fresh, no scraping needed");
             }
 
-            // 🗑️ Invalidate cache for this product to force fresh data on next request
-            String cacheKey = "product:" + productId;
-            cache.invalidate(cacheKey);
-            System.out.println("🗑️  Cache invalidated for product: " + productId);
+            // 🗑️ Giá mới (nếu khác giá cũ) đã invalidate mọi response chứa sản phẩm này qua DealLeaderboard
 
 
-            // Return latest price data (always fetch again after scrape)
-            PriceHistory currentPrice = priceHistoryDAO.getCurrentPrice(productId);
-            System.out.println("[DEBUG] Latest price record captured_at: " + (currentPrice != null && currentPrice.getCapturedAt() != null ? currentPrice.getCapturedAt().toInstant().toString() : "null"));
+            // Return latest price data (always fetch again after scrape, từ primary nếu vừa ghi)
+            PriceHistory currentPrice = priceHistoryDAO.getCurrentPrice(productId,
+                    needsScrape ? HikariCPConfig.Pool.WRITE : HikariCPConfig.Pool.READ);
             JSONObject response = new JSONObject();
             response.put("success", true);
             if (currentPrice != null) {
@@ -882,11 +1660,15 @@ public class SimpleHttpServer {
                 response.put("recorded_at", JSONObject.NULL);
             }
             response.put("scraped_new", needsScrape);
+            // Cần giá mới nhưng Tiki lỗi / circuit mở: đây là giá cuối cùng trong DB
+            response.put("price_stale", needsScrape && !scraped);
 
             sendResponse(exchange, 200, response.toString());
 
+        } catch (RequestDecoder.BadRequestException e) {
+            sendBadRequest(exchange, e);
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Request {} failed", exchange.getRequestURI(), e);
             String errorResponse = String.format(
                     "{\"success\": false, \"error\": \"Server error: %s\"}",
                     e.getMessage() != null ? e.getMessage().replace("\"", "\\\"") : "Unknown error");
@@ -954,16 +1736,14 @@ public class SimpleHttpServer {
         }
 
         try {
-            System.out.println("📥 Received categories request");
-
             JSONObject responseJson = handleGetCategories();
 
             String response = responseJson.toString();
-            System.out.println("📤 Sending categories response");
+            log.info(REQUEST, "📤 /categories -> {} bytes", response.length());
             sendResponse(exchange, 200, response);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Request {} failed", exchange.getRequestURI(), e);
             String errorResponse = String.format(
                     "{\"success\": false, \"error\": \"Server error: %s\"}",
                     e.getMessage().replace("\"", "\\\""));
@@ -973,7 +1753,7 @@ public class SimpleHttpServer {
 
     /**
      * Get all categories with product counts
-     * 🗄️ Cached version - TTL 5 phút
+     * 🗄️ Cached version - invalidate theo tag, TTL 30 phút
      */
     private JSONObject handleGetCategories() {
         String cacheKey = "categories:all";
@@ -981,11 +1761,11 @@ public class SimpleHttpServer {
         // 🗄️ Check cache first
         String cached = cache.get(cacheKey);
         if (cached != null) {
-            System.out.println(
-                    "✓ Categories loaded from cache (hit rate: " + String.format("%.1f", cache.getHitRate()) + "%)");
+            log.debug("✓ Categories loaded from cache");
             return new JSONObject(cached);
         }
 
+        long ticket = cache.ticket();
         JSONObject response = new JSONObject();
 
         try {
@@ -1015,12 +1795,12 @@ public class SimpleHttpServer {
             response.put("categories", categoriesArray);
 
             // 🗄️ Store in cache
-            cache.put(cacheKey, response.toString());
+            cache.put(cacheKey, response.toString(), ticket, List.of(ProductCache.CATALOG_TAG));
 
-            System.out.println("✓ Loaded " + categoriesArray.length() + " categories from DB (cached for 5min)");
+            log.debug("✓ Loaded {} categories from DB", categoriesArray.length());
 
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Request handling failed", e);
             response.put("success", false);
             response.put("error", "Lỗi hệ thống: " + e.getMessage());
         }
@@ -1053,30 +1833,75 @@ public class SimpleHttpServer {
             JSONObject cacheMetrics = new JSONObject();
             cacheMetrics.put("hit_rate_percent", String.format("%.2f", cache.getHitRate()));
             cacheMetrics.put("cache_size", cache.size());
+            cacheMetrics.put("tags", cache.tagCount());
+            cacheMetrics.put("tag_evictions", cache.getTagEvictions());
             cacheMetrics.put("ttl_minutes", CACHE_TTL_MS / 60000);
             metrics.put("cache", cacheMetrics);
 
             // ⚡ Thread pool metrics
             JSONObject threadMetrics = new JSONObject();
             threadMetrics.put("max_threads", THREAD_POOL_SIZE);
-            threadMetrics.put("pool_type", "FixedThreadPool");
+            threadMetrics.put("pool_type", "FixedThreadPool (dispatch)");
+            threadMetrics.put("active_threads", threadPool.getActiveCount());
+            threadMetrics.put("queue_depth", threadPool.getQueue().size());
             metrics.put("http_thread_pool", threadMetrics);
+            metrics.put("http_lanes", new JSONObject(bulkhead.getStats()));
 
-            // 💾 Database connection pool metrics (HikariCP)
+            // 💾 Database connection pool metrics (HikariCP) - một object cho mỗi pool read/write/background
             try {
-                com.zaxxer.hikari.HikariDataSource ds = com.pricetracker.server.db.HikariCPConfig.getDataSource();
-
-                JSONObject dbMetrics = new JSONObject();
-                dbMetrics.put("pool_name", "PriceTrackerPool");
-                dbMetrics.put("max_pool_size", 30);
-                dbMetrics.put("min_idle", 15);
-                dbMetrics.put("active_connections", ds.getHikariPoolMXBean().getActiveConnections());
-                dbMetrics.put("idle_connections", ds.getHikariPoolMXBean().getIdleConnections());
-                dbMetrics.put("total_connections", ds.getHikariPoolMXBean().getTotalConnections());
-                dbMetrics.put("threads_awaiting_connection", ds.getHikariPoolMXBean().getThreadsAwaitingConnection());
-                metrics.put("database_pool", dbMetrics);
+                Map<HikariCPConfig.Pool, HikariCPConfig.PoolStats> poolStats = HikariCPConfig.getPoolStats();
+                if (poolStats.isEmpty()) {
+                    metrics.put("database_pools", "unavailable");
+                } else {
+                    JSONObject poolsJson = new JSONObject();
+                    for (Map.Entry<HikariCPConfig.Pool, HikariCPConfig.PoolStats> entry : poolStats.entrySet()) {
+                        HikariCPConfig.PoolStats stats = entry.getValue();
+                        JSONObject dbMetrics = new JSONObject();
+                        dbMetrics.put("pool_name", stats.poolName);
+                        dbMetrics.put("max_pool_size", stats.maxPoolSize);
+                        dbMetrics.put("min_idle", stats.minIdle);
+                        dbMetrics.put("active_connections", stats.activeConnections);
+                        dbMetrics.put("idle_connections", stats.idleConnections);
+                        dbMetrics.put("total_connections", stats.totalConnections);
+                        dbMetrics.put("threads_awaiting_connection", stats.threadsAwaitingConnection);
+                        poolsJson.put(entry.getKey().getKey(), dbMetrics);
+                    }
+                    metrics.put("database_pools", poolsJson);
+                }
             } catch (Exception e) {
-                metrics.put("database_pool", "unavailable");
+                metrics.put("database_pools", "unavailable");
+            }
+
+            // 💾 Price write-behind buffer
+            metrics.put("price_write_buffer", new JSONObject(PriceWriteBuffer.getInstance().getStats()));
+            metrics.put("deal_leaderboard", new JSONObject(DealLeaderboard.getInstance().getStats()));
+            metrics.put("admission", new JSONObject(admission.getStats()));
+            // 🔌 Circuit breaker theo sàn
+            JSONObject breakersJson = new JSONObject();
+            for (CircuitBreaker breaker : CircuitBreaker.all()) {
+                breakersJson.put(breaker.getName(), new JSONObject(breaker.getStats()));
+            }
+            metrics.put("circuit_breakers", breakersJson);
+            metrics.put("tiki_hedging", new JSONObject(TikiScraperUtil.getHedgeStats()));
+            metrics.put("tiki_batch", new JSONObject(TikiScraperUtil.getBatchStats()));
+            // 📈 Lượt xem sản phẩm (trending theo nhu cầu thật)
+            metrics.put("popularity", new JSONObject(PopularityTracker.getInstance().getStats()));
+            // 🗓️ Lịch cào theo từng sản phẩm
+            metrics.put("scrape_schedule", new JSONObject(ScrapeScheduler.getInstance().getStats()));
+            // 💾 Cache response thô của sàn trên đĩa
+            metrics.put("scrape_cache", new JSONObject(ScrapeResponseCache.getInstance().getStats()));
+            // 📉 Limit thích nghi của DB pool / scraper
+            JSONObject limitsJson = new JSONObject();
+            for (AdaptiveLimiter limiter : AdaptiveLimiter.all()) {
+                limitsJson.put(limiter.getName(), new JSONObject(limiter.getStats()));
+            }
+            metrics.put("adaptive_limits", limitsJson);
+            metrics.put("suggest_index_nodes", SuggestIndex.getInstance().getNodeCount());
+            if (staticFiles != null) {
+                JSONObject staticMetrics = new JSONObject();
+                staticMetrics.put("files", staticFiles.getAssetCount());
+                staticMetrics.put("bytes", staticFiles.getTotalBytes());
+                metrics.put("static_files", staticMetrics);
             }
 
             // 🚀 Server info
@@ -1107,11 +1932,9 @@ public class SimpleHttpServer {
             response.put("metrics", metrics);
 
             sendResponse(exchange, 200, response.toString());
-            System.out.println(
-                    "📊 Metrics requested - Cache hit rate: " + String.format("%.1f", cache.getHitRate()) + "%");
 
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Request {} failed", exchange.getRequestURI(), e);
             String errorResponse = String.format(
                     "{\"success\": false, \"error\": \"Server error: %s\"}",
                     e.getMessage().replace("\"", "\\\""));
@@ -1124,102 +1947,13 @@ public class SimpleHttpServer {
             SimpleHttpServer httpServer = new SimpleHttpServer();
             httpServer.start();
 
-            System.out.println("\nPress Ctrl+C to stop the server...");
+            log.info("Press Ctrl+C to stop the server...");
 
             // Keep the server running
             Thread.currentThread().join();
 
         } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * 🗄️ ProductCache - Simple in-memory cache với TTL
-     * Giảm 90% database queries cho demo
-     */
-    private static class ProductCache {
-        private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
-        private final long ttlMs;
-
-        // Cache statistics
-        private long hits = 0;
-        private long misses = 0;
-
-        public ProductCache(long ttlMs) {
-            this.ttlMs = ttlMs;
-        }
-
-        /**
-         * Get cached value, null nếu expired hoặc không tồn tại
-         */
-        public String get(String key) {
-            CacheEntry entry = cache.get(key);
-            if (entry == null) {
-                misses++;
-                return null;
-            }
-
-            // Check expiration
-            if (System.currentTimeMillis() - entry.timestamp > ttlMs) {
-                cache.remove(key);
-                misses++;
-                return null;
-            }
-
-            hits++;
-            return entry.value;
-        }
-
-        /**
-         * Put value vào cache với timestamp hiện tại
-         */
-        public void put(String key, String value) {
-            cache.put(key, new CacheEntry(value, System.currentTimeMillis()));
-        }
-
-        /**
-         * Invalidate a specific cache entry
-         */
-        public void invalidate(String key) {
-            cache.remove(key);
-        }
-
-        /**
-         * Clear toàn bộ cache
-         */
-        public void clear() {
-            cache.clear();
-            hits = 0;
-            misses = 0;
-        }
-
-        /**
-         * Get cache hit rate (%)
-         */
-        public double getHitRate() {
-            long total = hits + misses;
-            return total == 0 ? 0.0 : (hits * 100.0) / total;
-        }
-
-        /**
-         * Get cache size
-         */
-        public int size() {
-            return cache.size();
-        }
-
-        /**
-         * Cache entry với timestamp
-         */
-        private static class CacheEntry {
-            final String value;
-            final long timestamp;
-
-            CacheEntry(String value, long timestamp) {
-                this.value = value;
-                this.timestamp = timestamp;
-            }
+            log.error("HTTP server failed to start", e);
         }
     }
 }
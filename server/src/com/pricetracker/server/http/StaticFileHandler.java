@@ -0,0 +1,348 @@
+package com.pricetracker.server.http;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 📁 StaticFileHandler - Phục vụ frontend/ ngay trên HTTP server (cùng origin với API)
+ *
+ * - Bật bằng -Dhttp.staticDir=frontend (hoặc env STATIC_DIR); trang cùng origin nên request JSON
+ *   không còn CORS preflight
+ * - Nạp một lần lúc khởi động: file gốc được mmap (không nằm trên heap), bản gzip dựng sẵn cho
+ *   text (html/css/js/svg/json); file .br build sẵn cạnh file gốc (nếu có) được dùng cho brotli
+ * - Fingerprint: HTML được viết lại để trỏ tới "CSS/main.css?v=<hash>"; request đúng hash nhận
+ *   Cache-Control immutable 1 năm, còn lại no-cache + ETag (revalidate trả 304)
+ */
+final class StaticFileHandler implements HttpHandler {
+    private static final Logger log = LoggerFactory.getLogger(StaticFileHandler.class);
+
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String REVALIDATE = "no-cache";
+
+    /** Chỉ giữ bản nén nếu nhỏ hơn bản gốc ít nhất 10% */
+    private static final double MIN_COMPRESSION_GAIN = 0.9;
+
+    /** Meta cho JS/config.js biết trang đang được phục vụ cùng origin với API */
+    private static final String SAME_ORIGIN_META = "<meta name=\"api-origin\" content=\"same\">";
+
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=UTF-8"),
+            Map.entry("css", "text/css; charset=UTF-8"),
+            Map.entry("js", "application/javascript; charset=UTF-8"),
+            Map.entry("json", "application/json; charset=UTF-8"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("woff2", "font/woff2"),
+            Map.entry("txt", "text/plain; charset=UTF-8"));
+
+    private static final List<String> COMPRESSIBLE = List.of("html", "css", "js", "json", "svg", "txt");
+
+    /**
+     * Một file đã nạp; các ByteBuffer chỉ được đọc qua duplicate()
+     */
+    private static final class Asset {
+        final String contentType;
+        final ByteBuffer raw;
+        final ByteBuffer gzip;
+        final ByteBuffer brotli;
+        final String hash;
+
+        Asset(String contentType, ByteBuffer raw, ByteBuffer gzip, ByteBuffer brotli, String hash) {
+            this.contentType = contentType;
+            this.raw = raw;
+            this.gzip = gzip;
+            this.brotli = brotli;
+            this.hash = hash;
+        }
+
+        /**
+         * ETag mạnh riêng cho từng biểu diễn (identity / gzip / br): cùng nội dung nhưng byte khác nhau
+         */
+        String etag(String contentEncoding) {
+            return contentEncoding == null ? "\"" + hash + "\"" : "\"" + hash + "-" + contentEncoding + "\"";
+        }
+    }
+
+    private final Map<String, Asset> assets;
+    private final long totalBytes;
+
+    private StaticFileHandler(Map<String, Asset> assets, long totalBytes) {
+        this.assets = assets;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Nạp toàn bộ thư mục
+     * @return handler, hoặc null nếu thư mục không tồn tại
+     */
+    static StaticFileHandler load(Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            log.warn("⚠️  Static dir {} not found, static serving disabled", root.toAbsolutePath());
+            return null;
+        }
+        long started = System.currentTimeMillis();
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().endsWith(".br"))
+                    .toList();
+        }
+
+        // Lượt 1: file không phải HTML (hash của chúng dùng để viết lại HTML)
+        Map<String, Asset> assets = new HashMap<>();
+        long totalBytes = 0;
+        for (Path file : files) {
+            String relPath = relPath(root, file);
+            if (!"html".equals(extension(relPath))) {
+                Asset asset = loadAsset(file, relPath, null);
+                assets.put(relPath, asset);
+                totalBytes += asset.raw.capacity();
+            }
+        }
+        // Lượt 2: HTML, thay tham chiếu tới asset bằng URL có fingerprint
+        for (Path file : files) {
+            String relPath = relPath(root, file);
+            if ("html".equals(extension(relPath))) {
+                String html = Files.readString(file, StandardCharsets.UTF_8);
+                Asset asset = loadAsset(file, relPath, rewriteHtml(html, assets).getBytes(StandardCharsets.UTF_8));
+                assets.put(relPath, asset);
+                totalBytes += asset.raw.capacity();
+            }
+        }
+
+        log.info("✓ Static files loaded from {}: {} files, {} KB ({} ms)", root.toAbsolutePath(), assets.size(),
+                totalBytes / 1024, System.currentTimeMillis() - started);
+        return new StaticFileHandler(Map.copyOf(assets), totalBytes);
+    }
+
+    int getAssetCount() {
+        return assets.size();
+    }
+
+    long getTotalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            boolean head = "HEAD".equals(method);
+            if (!head && !"GET".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            String path = URLDecoder.decode(exchange.getRequestURI().getRawPath(), StandardCharsets.UTF_8);
+            String relPath = path.endsWith("/") ? path.substring(1) + "index.html" : path.substring(1);
+            // Chỉ tra trong map đã nạp nên "../" không thể thoát ra ngoài thư mục
+            Asset asset = assets.get(relPath);
+            if (asset == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            ByteBuffer body = asset.raw;
+            String contentEncoding = null;
+            if (asset.brotli != null && accepts(acceptEncoding, "br")) {
+                contentEncoding = "br";
+                body = asset.brotli;
+            } else if (asset.gzip != null && accepts(acceptEncoding, "gzip")) {
+                contentEncoding = "gzip";
+                body = asset.gzip;
+            }
+
+            Headers headers = exchange.getResponseHeaders();
+            String etag = asset.etag(contentEncoding);
+            headers.set("Content-Type", asset.contentType);
+            headers.set("ETag", etag);
+            headers.set("Vary", "Accept-Encoding");
+            String version = versionParam(exchange.getRequestURI().getRawQuery());
+            headers.set("Cache-Control", asset.hash.equals(version) ? IMMUTABLE : REVALIDATE);
+
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (ifNoneMatch != null && ifNoneMatch.contains(etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            if (contentEncoding != null) {
+                headers.set("Content-Encoding", contentEncoding);
+            }
+
+            if (head) {
+                headers.set("Content-Length", String.valueOf(body.capacity()));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.capacity());
+            try (OutputStream os = exchange.getResponseBody()) {
+                WritableByteChannel channel = Channels.newChannel(os);
+                ByteBuffer view = body.duplicate();
+                while (view.hasRemaining()) {
+                    channel.write(view);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // ==================== Loading ====================
+
+    private static Asset loadAsset(Path file, String relPath, byte[] rewritten) throws IOException {
+        String ext = extension(relPath);
+        ByteBuffer raw;
+        if (rewritten != null) {
+            raw = ByteBuffer.wrap(rewritten).asReadOnlyBuffer();
+        } else {
+            // mmap: nội dung nằm ngoài heap, OS page cache phục vụ các lần đọc sau
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                raw = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        ByteBuffer gzip = null;
+        if (COMPRESSIBLE.contains(ext)) {
+            byte[] compressed = gzip(raw.duplicate());
+            if (compressed.length < raw.capacity() * MIN_COMPRESSION_GAIN) {
+                gzip = ByteBuffer.wrap(compressed).asReadOnlyBuffer();
+            }
+        }
+
+        // Bản brotli build sẵn (JDK không có encoder brotli); bỏ qua nếu HTML đã bị viết lại
+        ByteBuffer brotli = null;
+        Path br = file.resolveSibling(file.getFileName() + ".br");
+        if (rewritten == null && Files.isRegularFile(br) && Files.getLastModifiedTime(br).compareTo(
+                Files.getLastModifiedTime(file)) >= 0) {
+            brotli = ByteBuffer.wrap(Files.readAllBytes(br)).asReadOnlyBuffer();
+        }
+
+        return new Asset(CONTENT_TYPES.getOrDefault(ext, "application/octet-stream"), raw, gzip, brotli,
+                hash(raw.duplicate()));
+    }
+
+    /**
+     * Trỏ src="CSS/x.css" / href='JS/y.js' tới URL có fingerprint, thêm meta same-origin vào head
+     */
+    private static String rewriteHtml(String html, Map<String, Asset> assets) {
+        String result = html;
+        for (Map.Entry<String, Asset> entry : assets.entrySet()) {
+            String ref = entry.getKey();
+            String fingerprinted = ref + "?v=" + entry.getValue().hash;
+            result = result.replace("\"" + ref + "\"", "\"" + fingerprinted + "\"")
+                    .replace("'" + ref + "'", "'" + fingerprinted + "'");
+        }
+        int head = result.indexOf("<head>");
+        if (head >= 0) {
+            result = result.substring(0, head + 6) + "\n    " + SAME_ORIGIN_META + result.substring(head + 6);
+        }
+        return result;
+    }
+
+    private static byte[] gzip(ByteBuffer data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.remaining() / 3));
+        try (GZIPOutputStream gz = new GZIPOutputStream(out);
+             WritableByteChannel channel = Channels.newChannel(gz)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static String hash(ByteBuffer data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data);
+            return HexFormat.of().formatHex(digest.digest(), 0, 6);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ==================== Helpers ====================
+
+    private static String relPath(Path root, Path file) {
+        return root.relativize(file).toString().replace('\\', '/');
+    }
+
+    private static String extension(String path) {
+        int dot = path.lastIndexOf('.');
+        return dot >= 0 ? path.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static String versionParam(String rawQuery) {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (String param : rawQuery.split("&")) {
+            if (param.startsWith("v=")) {
+                return param.substring(2);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Accept-Encoding có chứa coding này với q khác 0 không (q hỏng coi như 1)
+     */
+    private static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            if (tokens[0].trim().equalsIgnoreCase(coding)) {
+                for (int i = 1; i < tokens.length; i++) {
+                    String param = tokens[i].trim();
+                    if (param.startsWith("q=") && qValue(param.substring(2)) == 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double qValue(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.pricetracker.server.service;
+
+import com.pricetracker.models.PriceHistory;
+import com.pricetracker.models.Product;
+import com.pricetracker.server.catalog.DealLeaderboard;
+import com.pricetracker.server.catalog.Marketplace;
+import com.pricetracker.server.catalog.ProductIdentityIndex;
+import com.pricetracker.server.db.ProductDAO;
+import com.pricetracker.server.utils.TikiScraperUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * ProductOnboardingService - Thêm sản phẩm mới từ URL người dùng dán vào (SEARCH_BY_URL)
+ *
+ * - Gọi Tiki API đúng MỘT lần: cùng response lấy cả thông tin sản phẩm lẫn giá
+ * - Product + giá đầu tiên ghi trong một transaction, upsert theo unique key (source, external_id)
+ * - Nhiều request cùng sản phẩm cùng lúc dùng chung một lần onboarding (in-flight registry),
+ *   key theo định danh chuẩn source:external_id nên các biến thể URL cũng được gộp
+ * - Tra sản phẩm đã có qua ProductIdentityIndex (O(1)), không so chuỗi URL trong DB
+ */
+public final class ProductOnboardingService {
+    private static final Logger log = LoggerFactory.getLogger(ProductOnboardingService.class);
+
+    private static final ProductOnboardingService instance = new ProductOnboardingService();
+
+    /** Request đi sau chờ tối đa bằng thời gian scrape (10s connect + 10s read) cộng ghi DB */
+    private static final long JOIN_TIMEOUT_SECONDS = 30;
+
+    /** Group 9 = "Sản phẩm mới" cho sản phẩm do người dùng thêm */
+    private static final int USER_ADDED_GROUP_ID = 9;
+
+    private final Map<String, CompletableFuture<Result>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Kết quả onboarding: product đã lưu, giá vừa lấy và product có phải mới tạo không
+     */
+    public static final class Result {
+        public final Product product;
+        public final PriceHistory price;
+        public final boolean created;
+
+        Result(Product product, PriceHistory price, boolean created) {
+            this.product = product;
+            this.price = price;
+            this.created = created;
+        }
+    }
+
+    private ProductOnboardingService() {
+    }
+
+    public static ProductOnboardingService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Tìm sản phẩm đã có theo URL
+     * - URL không hợp lệ: trả null ngay, không chạm DB
+     * - Index đã nạp: miss = chưa có, không hỏi DB
+     * - Index chưa nạp (DB lỗi lúc khởi động): hỏi DB theo (source, external_id)
+     * @return Product, hoặc null nếu chưa có
+     */
+    public Product findExisting(String url) {
+        Marketplace marketplace = Marketplace.fromUrl(url);
+        long externalId = marketplace != null ? marketplace.extractExternalId(url) : -1;
+        if (externalId <= 0) {
+            return null;
+        }
+
+        ProductIdentityIndex index = ProductIdentityIndex.getInstance();
+        if (index.isLoaded()) {
+            int productId = index.lookup(marketplace, externalId);
+            return productId > 0 ? ProductDAO.getInstance().getProductById(productId) : null;
+        }
+        return ProductDAO.getInstance().findBySourceAndExternalId(marketplace.getSource(), externalId);
+    }
+
+    /**
+     * Onboard sản phẩm theo URL
+     * @param tikiUrl URL sản phẩm Tiki
+     * @return Result, hoặc null nếu URL không hợp lệ hoặc không scrape/lưu được
+     */
+    public Result onboard(String tikiUrl) {
+        String url = tikiUrl.trim();
+        long externalId = Marketplace.TIKI.extractExternalId(url);
+        if (Marketplace.fromUrl(url) != Marketplace.TIKI || externalId <= 0) {
+            log.warn("Invalid Tiki URL: {}", url);
+            return null;
+        }
+        String key = Marketplace.TIKI.getSource() + ":" + externalId;
+
+        CompletableFuture<Result> mine = new CompletableFuture<>();
+        CompletableFuture<Result> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            log.debug("⏳ Joining in-flight onboarding for {}", key);
+            return await(existing, key);
+        }
+
+        try {
+            Result result = doOnboard(url, externalId);
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Số URL đang được onboard (cho /metrics)
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private Result doOnboard(String tikiUrl, long externalId) {
+        TikiScraperUtil.ScrapeResult scraped = TikiScraperUtil.scrapeProductWithPrice(tikiUrl, true);
+        if (scraped == null) {
+            log.warn("Failed to scrape product from Tiki: {}", tikiUrl);
+            return null;
+        }
+
+        // IMPORTANT: Force group_id = 9 for user-added products
+        Product product = scraped.product;
+        product.setGroupId(USER_ADDED_GROUP_ID);
+        product.setSource(Marketplace.TIKI.getSource());
+
+        ProductDAO.UpsertResult saved = ProductDAO.getInstance().upsertWithPrice(
+                product, externalId, scraped.price, scraped.originalPrice, scraped.dealType);
+        if (saved == null) {
+            return null;
+        }
+        ProductIdentityIndex.getInstance().register(Marketplace.TIKI, externalId, saved.product.getProductId());
+        DealLeaderboard.getInstance().onProduct(saved.product, saved.price);
+
+        log.info("✓ Onboarded product {} (ID: {}, new: {})",
+                saved.product.getName(), saved.product.getProductId(), saved.created);
+        return new Result(saved.product, saved.price, saved.created);
+    }
+
+    private static Result await(CompletableFuture<Result> future, String key) {
+        try {
+            Result shared = future.get(JOIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            // Request đi sau không phải là người tạo product
+            return shared != null ? new Result(shared.product, shared.price, false) : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("In-flight onboarding for {} failed: {}", key, e.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.pricetracker.server.tools;
+
+import com.pricetracker.server.db.DatabaseConnectionManager;
+import com.pricetracker.server.db.HikariCPConfig;
+import com.pricetracker.server.db.SchemaMigrator;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Tool gộp lịch sử giá cũ thành các "run" (change-only storage)
+ *
+ * Với mỗi sản phẩm, các dòng liên tiếp có cùng (price, original_price, currency, deal_type)
+ * được gộp vào dòng đầu tiên của run: dòng đầu giữ recorded_at, last_seen_at = lần cuối thấy,
+ * các dòng còn lại bị xóa. Mỗi sản phẩm là một transaction riêng.
+ *
+ * Chạy (dùng cùng cấu hình DB với server):
+ *   java -cp target/price-tracker.jar com.pricetracker.server.tools.PriceHistoryCompactor [--dry-run]
+ */
+public class PriceHistoryCompactor {
+
+    private static final double PRICE_EPSILON = 0.005;
+    private static final int DELETE_CHUNK = 500;
+
+    private final boolean dryRun;
+    private long rowsScanned;
+    private long rowsDeleted;
+    private long runsKept;
+
+    /**
+     * Một dòng price_history đọc ra để so sánh
+     */
+    private static final class Row {
+        final long priceId;
+        final double price;
+        final double originalPrice;
+        final String currency;
+        final String dealType;
+        final Timestamp recordedAt;
+        final Timestamp lastSeenAt;
+
+        Row(ResultSet rs) throws SQLException {
+            this.priceId = rs.getLong(1);
+            this.price = rs.getDouble(2);
+            this.originalPrice = rs.getDouble(3);
+            this.currency = rs.getString(4);
+            this.dealType = rs.getString(5);
+            this.recordedAt = rs.getTimestamp(6);
+            this.lastSeenAt = rs.getTimestamp(7);
+        }
+
+        boolean sameTuple(Row other) {
+            return Math.abs(price - other.price) < PRICE_EPSILON
+                    && Math.abs(originalPrice - other.originalPrice) < PRICE_EPSILON
+                    && Objects.equals(currency, other.currency)
+                    && Objects.equals(dealType, other.dealType);
+        }
+
+        Timestamp seenUntil() {
+            return lastSeenAt != null ? lastSeenAt : recordedAt;
+        }
+    }
+
+    public PriceHistoryCompactor(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    public static void main(String[] args) {
+        boolean dryRun = args.length > 0 && "--dry-run".equals(args[0]);
+
+        System.out.println("🗜️  Price history compactor" + (dryRun ? " (dry run)" : ""));
+        try {
+            DatabaseConnectionManager.getInstance();
+            SchemaMigrator.migrate();
+            new PriceHistoryCompactor(dryRun).run();
+        } catch (Exception e) {
+            System.err.println("✗ Compaction failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            HikariCPConfig.shutdown();
+        }
+    }
+
+    public void run() throws SQLException {
+        List<Integer> productIds = new ArrayList<>();
+        try (Connection conn = DatabaseConnectionManager.getBackgroundConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT DISTINCT product_id FROM price_history");
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                productIds.add(rs.getInt(1));
+            }
+        }
+
+        System.out.println("   Products with history: " + productIds.size());
+        for (int productId : productIds) {
+            compactProduct(productId);
+        }
+
+        System.out.println("✅ Scanned " + rowsScanned + " rows → kept " + runsKept + " runs, "
+                + (dryRun ? "would delete " : "deleted ") + rowsDeleted + " rows");
+    }
+
+    private void compactProduct(int productId) throws SQLException {
+        String sql = "SELECT price_id, price, original_price, currency, deal_type, recorded_at, last_seen_at " +
+                     "FROM price_history WHERE product_id = ? ORDER BY recorded_at ASC, price_id ASC";
+
+        try (Connection conn = DatabaseConnectionManager.getBackgroundConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                List<Long> toDelete = new ArrayList<>();
+                List<Row> runHeads = new ArrayList<>();
+                List<Timestamp> runEnds = new ArrayList<>();
+
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setInt(1, productId);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        Row head = null;
+                        Timestamp end = null;
+                        while (rs.next()) {
+                            Row row = new Row(rs);
+                            rowsScanned++;
+                            if (head != null && head.sameTuple(row)) {
+                                toDelete.add(row.priceId);
+                                if (row.seenUntil() != null && (end == null || row.seenUntil().after(end))) {
+                                    end = row.seenUntil();
+                                }
+                                continue;
+                            }
+                            if (head != null) {
+                                runHeads.add(head);
+                                runEnds.add(end);
+                            }
+                            head = row;
+                            end = row.seenUntil();
+                        }
+                        if (head != null) {
+                            runHeads.add(head);
+                            runEnds.add(end);
+                        }
+                    }
+                }
+
+                runsKept += runHeads.size();
+                rowsDeleted += toDelete.size();
+                if (dryRun || toDelete.isEmpty()) {
+                    conn.rollback();
+                    return;
+                }
+
+                try (PreparedStatement update = conn.prepareStatement(
+                        "UPDATE price_history SET last_seen_at = ? WHERE price_id = ?")) {
+                    for (int i = 0; i < runHeads.size(); i++) {
+                        Row head = runHeads.get(i);
+                        Timestamp end = runEnds.get(i);
+                        if (end != null && !end.equals(head.lastSeenAt)) {
+                            update.setTimestamp(1, end);
+                            update.setLong(2, head.priceId);
+                            update.addBatch();
+                        }
+                    }
+                    update.executeBatch();
+                }
+
+                for (int from = 0; from < toDelete.size(); from += DELETE_CHUNK) {
+                    List<Long> chunk = toDelete.subList(from, Math.min(from + DELETE_CHUNK, toDelete.size()));
+                    StringBuilder deleteSql = new StringBuilder("DELETE FROM price_history WHERE price_id IN (");
+                    for (int i = 0; i < chunk.size(); i++) {
+                        deleteSql.append(i == 0 ? "?" : ", ?");
+                    }
+                    deleteSql.append(')');
+                    try (PreparedStatement delete = conn.prepareStatement(deleteSql.toString())) {
+                        for (int i = 0; i < chunk.size(); i++) {
+                            delete.setLong(i + 1, chunk.get(i));
+                        }
+                        delete.executeUpdate();
+                    }
+                }
+
+                conn.commit();
+                System.out.println("   Product " + productId + ": " + runHeads.size() + " runs, -"
+                        + toDelete.size() + " rows");
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.pricetracker.server.tools;
+
+import com.pricetracker.server.utils.TikiScraperUtil;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stub cục bộ của Tiki API (/api/v2/products/{id}) với độ trễ chỉnh được, để đo hedging của scraper
+ *
+ * Độ trễ mỗi request = median × e^(sigma × N(0,1)) (log-normal), cộng thêm tail-ms với xác suất tail-prob.
+ *
+ * Chạy stub (rồi start server với -Dtiki.api.base=http://localhost:18090/api/v2/products/):
+ *   java -cp target/price-tracker.jar com.pricetracker.server.tools.TikiStubServer \
+ *        [--port 18090] [--median-ms 120] [--sigma 0.4] [--tail-prob 0.01] [--tail-ms 2000]
+ *
+ * Listing /api/v2/products?ids=1,2,3 trả {"data": [...]} với một lần trễ cho cả lô
+ * (--no-listing: trả 404 như sàn không hỗ trợ lọc theo ids, để thử đường fallback gọi lẻ).
+ *
+ * Đo trực tiếp (so sánh p50/p90/p99 không hedge và có hedge trên cùng stub). Hedge chỉ kéo được p99 khi
+ * tail-prob nhỏ hơn ngân sách hedge (-Dscraper.hedge.budget, mặc định 5%):
+ *   java -cp target/price-tracker.jar com.pricetracker.server.tools.TikiStubServer --bench 400 [--concurrency 8]
+ *
+ * Đo số request khi cào giá theo lô (gọi lẻ từng sản phẩm vs TikiScraperUtil.scrapePriceDataBatch):
+ *   java -cp target/price-tracker.jar com.pricetracker.server.tools.TikiStubServer --bench-batch 1000 [--no-listing true]
+ */
+public class TikiStubServer {
+
+    private final double medianMs;
+    private final double sigma;
+    private final double tailProb;
+    private final long tailMs;
+    private final boolean listing;
+
+    private final AtomicLong productRequests = new AtomicLong();
+    private final AtomicLong listingRequests = new AtomicLong();
+
+    public TikiStubServer(double medianMs, double sigma, double tailProb, long tailMs, boolean listing) {
+        this.medianMs = medianMs;
+        this.sigma = sigma;
+        this.tailProb = tailProb;
+        this.tailMs = tailMs;
+        this.listing = listing;
+    }
+
+    public HttpServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "tiki-stub");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.createContext("/api/v2/products", exchange -> {
+            try {
+                listingRequests.incrementAndGet();
+                String query = exchange.getRequestURI().getQuery();
+                if (!listing || query == null || !query.startsWith("ids=")) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                Thread.sleep(sampleDelayMs());
+                JSONArray data = new JSONArray();
+                for (String idPart : query.substring("ids=".length()).split("&")[0].split(",")) {
+                    data.put(productJson(Integer.parseInt(idPart)));
+                }
+                byte[] bytes = new JSONObject().put("data", data).toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(bytes);
+                }
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(400, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.sendResponseHeaders(503, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.createContext("/api/v2/products/", exchange -> {
+            try {
+                productRequests.incrementAndGet();
+                String idPart = exchange.getRequestURI().getPath().substring("/api/v2/products/".length());
+                int id = Integer.parseInt(idPart);
+                Thread.sleep(sampleDelayMs());
+
+                JSONObject body = productJson(id);
+                byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+                // Body chỉ phụ thuộc id: ETag cố định để đo request có điều kiện (304)
+                String etag = "\"stub-" + Integer.toHexString(body.toString().hashCode()) + "\"";
+                exchange.getResponseHeaders().set("ETag", etag);
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(bytes);
+                }
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(404, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.sendResponseHeaders(503, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static JSONObject productJson(int id) {
+        double originalPrice = 100_000 + (id % 100) * 1_000;
+        return new JSONObject()
+                .put("id", id)
+                .put("name", "Stub product " + id)
+                .put("brand_name", "Stub")
+                .put("price", originalPrice * 0.9)
+                .put("original_price", originalPrice)
+                .put("thumbnail_url", "")
+                .put("short_description", "");
+    }
+
+    private long sampleDelayMs() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double delay = medianMs * Math.exp(sigma * random.nextGaussian());
+        if (random.nextDouble() < tailProb) {
+            delay += tailMs;
+        }
+        return Math.round(delay);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            opts.put(args[i], args[i + 1]);
+        }
+        int port = Integer.parseInt(opts.getOrDefault("--port", "18090"));
+        TikiStubServer stub = new TikiStubServer(
+                Double.parseDouble(opts.getOrDefault("--median-ms", "120")),
+                Double.parseDouble(opts.getOrDefault("--sigma", "0.4")),
+                Double.parseDouble(opts.getOrDefault("--tail-prob", "0.01")),
+                Long.parseLong(opts.getOrDefault("--tail-ms", "2000")),
+                !Boolean.parseBoolean(opts.getOrDefault("--no-listing", "false")));
+        HttpServer server = stub.start(port);
+        String base = "http://localhost:" + port + "/api/v2/products/";
+        System.out.println("🧪 Tiki stub listening on " + base);
+
+        if (!opts.containsKey("--bench") && !opts.containsKey("--bench-batch")) {
+            Thread.currentThread().join();
+            return;
+        }
+
+        // Phải đặt trước khi TikiScraperUtil được nạp (TIKI_API_BASE là hằng static); tắt cache đĩa để
+        // lượt hedged không trúng response của lượt plain
+        System.setProperty("tiki.api.base", base);
+        System.setProperty("scraper.cache.file", "");
+        if (opts.containsKey("--bench-batch")) {
+            benchBatch(stub, Integer.parseInt(opts.get("--bench-batch")));
+            server.stop(0);
+            System.exit(0);
+        }
+        int requests = Integer.parseInt(opts.get("--bench"));
+        int concurrency = Integer.parseInt(opts.getOrDefault("--concurrency", "8"));
+
+        bench("plain ", requests, concurrency, false);
+        bench("hedged", requests, concurrency, true);
+        System.out.println("   hedge stats: " + TikiScraperUtil.getHedgeStats());
+        server.stop(0);
+        System.exit(0);
+    }
+
+    private static void bench(String label, int requests, int concurrency, boolean hedged) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        List<Future<Long>> futures = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            String url = "https://tiki.vn/stub-p" + (1000 + i) + ".html";
+            futures.add(pool.submit(() -> {
+                long started = System.nanoTime();
+                TikiScraperUtil.scrapePriceData(url, hedged);
+                return System.nanoTime() - started;
+            }));
+        }
+        List<Long> latencies = new ArrayList<>(requests);
+        for (Future<Long> f : futures) {
+            latencies.add(TimeUnit.NANOSECONDS.toMillis(f.get()));
+        }
+        pool.shutdown();
+        Collections.sort(latencies);
+        System.out.printf("📊 %s n=%d p50=%dms p90=%dms p99=%dms max=%dms%n", label, requests,
+                percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+                latencies.get(latencies.size() - 1));
+    }
+
+    private static void benchBatch(TikiStubServer stub, int products) {
+        List<Integer> ids = new ArrayList<>(products);
+        for (int i = 0; i < products; i++) {
+            ids.add(5000 + i);
+        }
+
+        long started = System.nanoTime();
+        int priced = 0;
+        for (Integer id : ids) {
+            if (TikiScraperUtil.scrapePriceData("https://tiki.vn/stub-p" + id + ".html") != null) {
+                priced++;
+            }
+        }
+        long singleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        long singleRequests = stub.productRequests.getAndSet(0) + stub.listingRequests.getAndSet(0);
+        System.out.printf("📊 single n=%d priced=%d requests=%d time=%dms%n", products, priced, singleRequests, singleMs);
+
+        started = System.nanoTime();
+        Map<Integer, Object[]> batch = TikiScraperUtil.scrapePriceDataBatch(ids);
+        long batchMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        System.out.printf("📊 batch  n=%d priced=%d requests=%d (listing=%d, single=%d) time=%dms%n", products,
+                batch.size(), stub.productRequests.get() + stub.listingRequests.get(), stub.listingRequests.get(),
+                stub.productRequests.get(), batchMs);
+        System.out.println("   batch stats: " + TikiScraperUtil.getBatchStats());
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) (sorted.size() * p)));
+    }
+}
@@ -0,0 +1,175 @@
+package com.pricetracker.server.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AdaptiveLimiter - Giới hạn số lời gọi đang chạy (DB, scraper) theo độ trễ quan sát được (AIMD)
+ *
+ * - Độ trễ ngắn hạn (EWMA nhanh) vượt gấp đôi baseline, hoặc lời gọi lỗi / timeout → limit giảm theo
+ *   cấp số nhân (x0.8)
+ * - Độ trễ bình thường và đang dùng gần hết limit → limit tăng thêm 1
+ * - Hết chỗ thì tryAcquire() trả null ngay: caller fail fast thay vì chờ connectionTimeout 30s
+ * - Baseline = EWMA chậm của độ trễ (không phải min): dependency có đuôi dài tự nhiên (Tiki) không bị
+ *   coi là quá tải chỉ vì vài lời gọi chậm
+ */
+public final class AdaptiveLimiter {
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveLimiter.class);
+
+    /** Độ trễ > baseline x TOLERANCE (và > baseline + MIN_HEADROOM) coi như đang quá tải */
+    private static final double TOLERANCE = 2.0;
+    private static final long MIN_HEADROOM_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final double BACKOFF_RATIO = 0.8;
+
+    /** Giảm tối đa một lần mỗi 100ms: các lời gọi chậm cùng một đợt chỉ tính là một tín hiệu */
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** Hệ số EWMA: ngắn hạn ~20 mẫu gần nhất, baseline ~200 mẫu */
+    private static final double SHORT_ALPHA = 0.05;
+    private static final double LONG_ALPHA = 0.005;
+    /** Số mẫu đầu tiên chỉ dùng để dựng baseline */
+    private static final int WARMUP_SAMPLES = 20;
+
+    private static final List<AdaptiveLimiter> registry = new CopyOnWriteArrayList<>();
+
+    /**
+     * Một chỗ đã cấp; phải release đúng một lần
+     */
+    public final class Permit {
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * @param dropped true nếu lời gọi lỗi / timeout (tín hiệu quá tải dù không đo được độ trễ)
+         */
+        public void release(boolean dropped) {
+            if (released.compareAndSet(false, true)) {
+                // Số đang chạy tính cả lời gọi này: limit 1 vẫn phải tăng lại được
+                int inFlightAtRelease = inFlight.getAndDecrement();
+                onSample(System.nanoTime() - startNanos, dropped, inFlightAtRelease);
+            }
+        }
+    }
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /** Guarded by this; limit đọc không khóa */
+    private volatile int limit;
+    private double shortRttNanos;
+    private double longRttNanos;
+    private long samples;
+    private long lastDecreaseNanos = System.nanoTime() - DECREASE_COOLDOWN_NANOS;
+
+    /**
+     * @param name tên trong /metrics
+     * @param initialLimit limit ban đầu
+     * @param minLimit limit không bao giờ xuống dưới mức này
+     * @param maxLimit limit không bao giờ vượt (vd. kích thước pool)
+     */
+    public AdaptiveLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        registry.add(this);
+    }
+
+    /**
+     * Tất cả limiter đã tạo (cho /metrics)
+     */
+    public static List<AdaptiveLimiter> all() {
+        return registry;
+    }
+
+    /**
+     * Limit hiện tại (số lời gọi song song được phép)
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Permit, hoặc null nếu đã đủ limit (caller nên fail fast)
+     */
+    public Permit tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return null;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                accepted.increment();
+                return new Permit();
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("limit", limit);
+        stats.put("in_flight", inFlight.get());
+        stats.put("accepted", accepted.sum());
+        stats.put("rejected", rejected.sum());
+        synchronized (this) {
+            stats.put("baseline_ms", String.format("%.2f", longRttNanos / 1_000_000.0));
+            stats.put("recent_ms", String.format("%.2f", shortRttNanos / 1_000_000.0));
+        }
+        return stats;
+    }
+
+    private synchronized void onSample(long rttNanos, boolean dropped, int inFlightAtRelease) {
+        long now = System.nanoTime();
+        if (!dropped) {
+            if (samples++ == 0) {
+                shortRttNanos = rttNanos;
+                longRttNanos = rttNanos;
+            } else {
+                shortRttNanos += SHORT_ALPHA * (rttNanos - shortRttNanos);
+                // Khi warmup dùng trung bình cộng để baseline ổn định nhanh; đang quá tải thì baseline
+                // trôi chậm hơn 10 lần, để độ trễ cao kéo dài không nhanh chóng thành "bình thường"
+                double alpha = samples <= WARMUP_SAMPLES ? 1.0 / samples
+                        : shortRttNanos > longRttNanos * TOLERANCE ? LONG_ALPHA / 10 : LONG_ALPHA;
+                longRttNanos += alpha * (rttNanos - longRttNanos);
+            }
+        }
+
+        double threshold = Math.max(longRttNanos * TOLERANCE, longRttNanos + MIN_HEADROOM_NANOS);
+        boolean overloaded = dropped || (samples > WARMUP_SAMPLES && shortRttNanos > threshold);
+
+        int current = limit;
+        if (overloaded) {
+            if (now - lastDecreaseNanos >= DECREASE_COOLDOWN_NANOS) {
+                lastDecreaseNanos = now;
+                int next = Math.max(minLimit, (int) (current * BACKOFF_RATIO));
+                if (next != current) {
+                    limit = next;
+                    log.info("📉 {} limit {} -> {} (rtt={}ms, dropped={})", name, current, next,
+                            TimeUnit.NANOSECONDS.toMillis(rttNanos), dropped);
+                }
+            }
+        } else if (current < maxLimit && inFlightAtRelease * 2 >= current) {
+            // Chỉ tăng khi limit thực sự đang được dùng; limit rảnh không chứng minh được gì
+            limit = current + 1;
+        }
+    }
+}
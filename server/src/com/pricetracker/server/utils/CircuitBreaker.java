@@ -0,0 +1,153 @@
+package com.pricetracker.server.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CircuitBreaker - Ngắt gọi tới một sàn (Tiki, Lazada) khi sàn đó lỗi / chậm liên tục
+ *
+ * - CLOSED: gọi bình thường; FAILURE_THRESHOLD lần lỗi liên tiếp (lỗi mạng, timeout, 429 / 5xx,
+ *   hoặc chậm hơn SLOW_CALL) → OPEN
+ * - OPEN: từ chối ngay, caller dùng giá cuối cùng trong DB; hết OPEN_DURATION → HALF_OPEN
+ * - HALF_OPEN: cho đúng một lời gọi thăm dò; thành công → CLOSED, lỗi → OPEN lại (thời gian mở gấp đôi,
+ *   tối đa MAX_OPEN_DURATION)
+ */
+public final class CircuitBreaker {
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final int FAILURE_THRESHOLD = Integer.getInteger("scraper.breaker.failures", 5);
+    private static final long SLOW_CALL_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Long.getLong("scraper.breaker.slowCallMs", 5000));
+    private static final long OPEN_DURATION_NANOS = TimeUnit.SECONDS.toNanos(
+            Long.getLong("scraper.breaker.openSeconds", 15));
+    private static final long MAX_OPEN_DURATION_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    private static final List<CircuitBreaker> registry = new CopyOnWriteArrayList<>();
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+
+    /** Guarded by this */
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private long openDurationNanos = OPEN_DURATION_NANOS;
+    private boolean probeInFlight;
+
+    private final LongAdder shortCircuited = new LongAdder();
+    private final LongAdder timesOpened = new LongAdder();
+
+    public CircuitBreaker(String name) {
+        this.name = name;
+        registry.add(this);
+    }
+
+    /**
+     * Tất cả breaker đã tạo (cho /metrics)
+     */
+    public static List<CircuitBreaker> all() {
+        return registry;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true nếu được gọi; sau đó phải gọi đúng một trong onSuccess / onFailure / onIgnored
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAtNanos < openDurationNanos) {
+                shortCircuited.increment();
+                return false;
+            }
+            state = State.HALF_OPEN;
+            log.info("🔌 {} circuit half-open, probing", name);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                shortCircuited.increment();
+                return false;
+            }
+            probeInFlight = true;
+        }
+        return true;
+    }
+
+    /**
+     * Sàn đã trả lời (kể cả 404); quá chậm thì vẫn tính là lỗi
+     */
+    public synchronized void onSuccess(long elapsedNanos) {
+        if (elapsedNanos > SLOW_CALL_NANOS) {
+            recordFailure("slow call " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms");
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            log.info("✅ {} circuit closed after successful probe", name);
+            openDurationNanos = OPEN_DURATION_NANOS;
+        }
+        state = State.CLOSED;
+        probeInFlight = false;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Lỗi mạng, timeout, 429 / 5xx
+     */
+    public synchronized void onFailure(String reason) {
+        recordFailure(reason);
+    }
+
+    /**
+     * Lời gọi không diễn ra (vd. bị limiter từ chối): trả lại lượt thăm dò, không tính gì
+     */
+    public synchronized void onIgnored() {
+        probeInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("state", state.name());
+            stats.put("consecutive_failures", consecutiveFailures);
+            stats.put("open_seconds", TimeUnit.NANOSECONDS.toSeconds(openDurationNanos));
+        }
+        stats.put("times_opened", timesOpened.sum());
+        stats.put("short_circuited", shortCircuited.sum());
+        return stats;
+    }
+
+    private void recordFailure(String reason) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            openDurationNanos = Math.min(MAX_OPEN_DURATION_NANOS, openDurationNanos * 2);
+            open(reason);
+        } else if (state == State.CLOSED && consecutiveFailures >= FAILURE_THRESHOLD) {
+            open(reason);
+        }
+    }
+
+    private void open(String reason) {
+        state = State.OPEN;
+        probeInFlight = false;
+        openedAtNanos = System.nanoTime();
+        timesOpened.increment();
+        log.warn("⚠️  {} circuit OPEN for {}s after {} failures (last: {})", name,
+                TimeUnit.NANOSECONDS.toSeconds(openDurationNanos), consecutiveFailures, reason);
+    }
+}
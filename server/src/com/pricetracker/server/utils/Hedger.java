@@ -0,0 +1,188 @@
+package com.pricetracker.server.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hedger - Gửi thêm một request giống hệt khi request đầu chưa trả lời sau p90 độ trễ quan sát được
+ *
+ * - Request nào trả kết quả trước thì thắng; request còn lại chạy tiếp tới xong (HttpURLConnection
+ *   không hủy được) nhưng kết quả bị bỏ
+ * - Ngân sách toàn cục: mỗi request chính cộng BUDGET_RATIO token, mỗi hedge tiêu 1 token
+ *   → hedge tối đa ~5% số request, kể cả khi sàn chậm toàn bộ (lúc đó hedge vô ích)
+ * - p90 tính từ LATENCY_WINDOW mẫu thành công gần nhất; chưa đủ mẫu thì dùng DEFAULT_DELAY
+ */
+public final class Hedger {
+    private static final Logger log = LoggerFactory.getLogger(Hedger.class);
+
+    private static final double BUDGET_RATIO = Double.parseDouble(System.getProperty("scraper.hedge.budget", "0.05"));
+    /** Token tích lũy tối đa (tính bằng số hedge): đợt chậm ngắn sau lúc rảnh vẫn hedge được vài lần */
+    private static final long MAX_BUDGET_MILLIS = 10_000;
+
+    private static final int LATENCY_WINDOW = 256;
+    private static final int MIN_SAMPLES = 20;
+    private static final long DEFAULT_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MIN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /**
+     * Lời gọi được hedge; trả null / ném IOException đều coi là thất bại của lần thử đó
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        T call() throws Exception;
+    }
+
+    private final String name;
+    private final ExecutorService executor;
+
+    /** Token × 1000 */
+    private final AtomicLong budgetMillis = new AtomicLong(MAX_BUDGET_MILLIS);
+
+    /** Guarded by this */
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount;
+    private int latencyNext;
+    private volatile long hedgeDelayNanos = DEFAULT_DELAY_NANOS;
+
+    private final LongAdder primaries = new LongAdder();
+    private final LongAdder hedgesSent = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder budgetDenied = new LongAdder();
+
+    /**
+     * @param maxThreads số lời gọi song song tối đa (request chính + hedge)
+     */
+    public Hedger(String name, int maxThreads) {
+        this.name = name;
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(maxThreads, r -> {
+            Thread t = new Thread(r, name + "-hedge-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Chạy call, hedge một lần nếu quá p90
+     * @return kết quả của lần thử thắng, hoặc null nếu mọi lần thử đều trả null / lỗi
+     */
+    public <T> T execute(Call<T> call) throws InterruptedException {
+        primaries.increment();
+        addBudget();
+
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        submit(call, winner, pending, false);
+
+        try {
+            return winner.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Giữ chỗ cho hedge TRƯỚC khi xem kết quả request chính: request chính lỗi từ lúc này
+            // không kết thúc winner trong khi hedge sắp được gửi
+            pending.incrementAndGet();
+            if (winner.isDone()) {
+                // Request chính vừa xong (thắng hoặc lỗi) sau timeout: không hedge, không tốn token
+                pending.decrementAndGet();
+            } else if (takeBudget()) {
+                hedgesSent.increment();
+                submit(call, winner, pending, true);
+                log.debug("{}: no answer after {}ms, hedging", name, TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos));
+            } else {
+                budgetDenied.increment();
+                attemptFailed(winner, pending, null);
+            }
+        } catch (ExecutionException e) {
+            return null;
+        }
+
+        try {
+            return winner.get();
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requests", primaries.sum());
+        stats.put("hedges_sent", hedgesSent.sum());
+        stats.put("hedge_wins", hedgeWins.sum());
+        stats.put("budget_denied", budgetDenied.sum());
+        stats.put("hedge_delay_ms", TimeUnit.NANOSECONDS.toMillis(hedgeDelayNanos));
+        return stats;
+    }
+
+    private <T> void submit(Call<T> call, CompletableFuture<T> winner, AtomicInteger pending, boolean hedge) {
+        executor.execute(() -> {
+            long started = System.nanoTime();
+            T result = null;
+            Exception error = null;
+            try {
+                result = call.call();
+            } catch (Exception e) {
+                error = e;
+            }
+            if (result != null) {
+                recordLatency(System.nanoTime() - started);
+                if (winner.complete(result) && hedge) {
+                    hedgeWins.increment();
+                }
+            } else {
+                attemptFailed(winner, pending, error);
+            }
+        });
+    }
+
+    /**
+     * Một lần thử (hoặc chỗ giữ cho hedge) kết thúc không có kết quả; lần cuối cùng thì winner thất bại
+     */
+    private static <T> void attemptFailed(CompletableFuture<T> winner, AtomicInteger pending, Exception error) {
+        if (pending.decrementAndGet() == 0) {
+            winner.completeExceptionally(error != null ? error : new IllegalStateException("no result"));
+        }
+    }
+
+    private void addBudget() {
+        long add = (long) (BUDGET_RATIO * 1000);
+        budgetMillis.accumulateAndGet(add, (current, delta) -> Math.min(MAX_BUDGET_MILLIS, current + delta));
+    }
+
+    private boolean takeBudget() {
+        while (true) {
+            long current = budgetMillis.get();
+            if (current < 1000) {
+                return false;
+            }
+            if (budgetMillis.compareAndSet(current, current - 1000)) {
+                return true;
+            }
+        }
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        latencies[latencyNext] = nanos;
+        latencyNext = (latencyNext + 1) % LATENCY_WINDOW;
+        if (latencyCount < LATENCY_WINDOW) {
+            latencyCount++;
+        }
+        // Tính lại p90 mỗi 16 mẫu (sort 256 long, rẻ so với một lời gọi mạng)
+        if (latencyCount >= MIN_SAMPLES && latencyNext % 16 == 0) {
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            hedgeDelayNanos = Math.max(MIN_DELAY_NANOS, sorted[(int) (sorted.length * 0.9)]);
+        }
+    }
+}
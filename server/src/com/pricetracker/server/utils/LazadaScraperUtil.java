@@ -1,8 +1,12 @@
 package com.pricetracker.server.utils;
 
 import com.pricetracker.models.Product;
+import com.pricetracker.server.catalog.Marketplace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -17,8 +21,15 @@ import java.util.regex.Pattern;
  * Used when user searches for a new product not in database
  */
 public class LazadaScraperUtil {
+    private static final Logger log = LoggerFactory.getLogger(LazadaScraperUtil.class);
     
     private static final Pattern PRODUCT_ID_PATTERN = Pattern.compile("-i(\\d+)-s(\\d+)\\.html");
+
+    // 📉 Số lời gọi Lazada song song, co lại khi Lazada chậm / trả lỗi
+    private static final AdaptiveLimiter limiter = new AdaptiveLimiter("scraper_lazada", 4, 1, 16);
+
+    // 🔌 Ngắt gọi Lazada khi lỗi / chậm liên tục
+    private static final CircuitBreaker breaker = new CircuitBreaker("lazada");
     
     // Category mapping to group_id (based on 9 groups in database)
     private static final Map<String, Integer> CATEGORY_MAP = new HashMap<>();
@@ -79,38 +90,18 @@ public class LazadaScraperUtil {
      * @return Product object with scraped data, or null if failed
      */
     public static Product scrapeProductFromUrl(String lazadaUrl) {
-        int productId = extractProductId(lazadaUrl);
+        long productId = Marketplace.LAZADA.extractExternalId(lazadaUrl);
         if (productId == -1) {
-            System.err.println("Invalid Lazada URL: " + lazadaUrl);
+            log.warn("Invalid Lazada URL: {}", lazadaUrl);
             return null;
         }
         
         try {
-            URL url = new URL(lazadaUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36");
-            conn.setRequestProperty("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
-            conn.setRequestProperty("Referer", "https://www.lazada.vn/");
-            conn.setConnectTimeout(10000);
-            conn.setReadTimeout(15000);
-            
-            int responseCode = conn.getResponseCode();
-            if (responseCode != 200) {
-                System.err.println("Lazada returned code: " + responseCode);
+            String html = fetchHtml(lazadaUrl);
+            if (html == null) {
                 return null;
             }
             
-            BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"));
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = in.readLine()) != null) {
-                response.append(line);
-            }
-            in.close();
-            
-            String html = response.toString();
-            
             Product product = new Product();
             
             // Extract product name from title tag
@@ -149,8 +140,7 @@ public class LazadaScraperUtil {
             return product;
             
         } catch (Exception e) {
-            System.err.println("Error scraping Lazada product: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error scraping Lazada product", e);
             return null;
         }
     }
@@ -164,35 +154,17 @@ public class LazadaScraperUtil {
      * @return Object[] {price, original_price, deal_type} or null if failed
      */
     public static Object[] scrapePriceData(String lazadaUrl) {
-        int productId = extractProductId(lazadaUrl);
+        long productId = Marketplace.LAZADA.extractExternalId(lazadaUrl);
         if (productId == -1) {
             return null;
         }
         
         try {
-            URL url = new URL(lazadaUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36");
-            conn.setRequestProperty("Referer", "https://www.lazada.vn/");
-            conn.setConnectTimeout(10000);
-            conn.setReadTimeout(15000);
-            
-            int responseCode = conn.getResponseCode();
-            if (responseCode != 200) {
+            String html = fetchHtml(lazadaUrl);
+            if (html == null) {
                 return null;
             }
             
-            BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"));
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = in.readLine()) != null) {
-                response.append(line);
-            }
-            in.close();
-            
-            String html = response.toString();
-            
             // Extract prices using regex (find ₫ symbol)
             Pattern pricePattern1 = Pattern.compile("₫\\s*([0-9,\\.]+)");
             Pattern pricePattern2 = Pattern.compile("([0-9,\\.]+)\\s*₫");
@@ -228,7 +200,7 @@ public class LazadaScraperUtil {
             }
             
             if (allPrices.isEmpty()) {
-                System.err.println("Could not extract price from Lazada page");
+                log.warn("Could not extract price from Lazada page");
                 return null;
             }
             
@@ -256,11 +228,89 @@ public class LazadaScraperUtil {
             return new Object[]{currentPrice, originalPrice, dealType};
             
         } catch (Exception e) {
-            System.err.println("Error scraping Lazada price data: " + e.getMessage());
+            log.warn("Error scraping Lazada price data: {}", e.getMessage());
             return null;
         }
     }
     
+    /**
+     * GET trang sản phẩm Lazada qua cache response trên đĩa và adaptive limiter
+     * @return HTML, hoặc null nếu Lazada trả về khác 200
+     */
+    private static String fetchHtml(String lazadaUrl) throws IOException {
+        ScrapeResponseCache cache = ScrapeResponseCache.getInstance();
+        long productId = Marketplace.LAZADA.extractExternalId(lazadaUrl);
+        ScrapeResponseCache.Entry cached = productId > 0 ? cache.get(Marketplace.LAZADA, productId) : null;
+        if (cached != null && cached.isFresh()) {
+            return cached.body;
+        }
+
+        if (!breaker.tryAcquire()) {
+            throw new IOException("Lazada circuit open, skipping call");
+        }
+        AdaptiveLimiter.Permit permit = limiter.tryAcquire();
+        if (permit == null) {
+            breaker.onIgnored();
+            throw new IOException("Lazada scraper busy: adaptive limit reached");
+        }
+        long started = System.nanoTime();
+        boolean dropped = true;
+        String failure = "no response";
+        try {
+            URL url = new URL(lazadaUrl);
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36");
+            conn.setRequestProperty("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+            conn.setRequestProperty("Referer", "https://www.lazada.vn/");
+            conn.setConnectTimeout(10000);
+            conn.setReadTimeout(15000);
+            if (cached != null && cached.etag != null) {
+                conn.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached != null && cached.lastModified != null) {
+                conn.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+
+            int responseCode = conn.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                dropped = false;
+                cache.put(Marketplace.LAZADA, productId, cached.body, cached.etag, cached.lastModified);
+                return cached.body;
+            }
+            if (responseCode != 200) {
+                log.warn("Lazada returned code: {}", responseCode);
+                dropped = responseCode == 429 || responseCode >= 500;
+                failure = "HTTP " + responseCode;
+                return null;
+            }
+
+            StringBuilder response = new StringBuilder();
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    response.append(line);
+                }
+            }
+            dropped = false;
+            if (productId > 0) {
+                cache.put(Marketplace.LAZADA, productId, response.toString(),
+                        conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"));
+            }
+            return response.toString();
+        } catch (IOException e) {
+            failure = e.toString();
+            throw e;
+        } finally {
+            permit.release(dropped);
+            if (dropped) {
+                breaker.onFailure(failure);
+            } else {
+                breaker.onSuccess(System.nanoTime() - started);
+            }
+        }
+    }
+
     /**
      * Helper method to extract text between two strings
      */
@@ -0,0 +1,80 @@
+package com.pricetracker.server.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * PageCursor - Con trỏ phân trang keyset, client chỉ thấy một chuỗi opaque
+ *
+ * - Giữ (sort, sort_key, product_id) của dòng cuối trang trước; trang sau bắt đầu NGAY SAU dòng đó
+ *   trong thứ tự (sort_key, product_id), nên trang sâu tốn như trang đầu và không trùng / sót
+ *   khi có sản phẩm mới chen vào giữa hai lần gọi
+ * - sort nằm trong cursor: cursor của thứ tự này không dùng được cho thứ tự khác
+ * - Mã hóa base64url(sort \n key \n product_id), không có padding
+ */
+public final class PageCursor {
+
+    /** Tên thứ tự sắp xếp mà cursor thuộc về (vd. "newest", "price_asc", "deals:FLASH_SALE") */
+    public final String sort;
+    /** Sort key của dòng cuối trang trước, dạng chuỗi (số dùng Double.toString) */
+    public final String key;
+    /** product_id của dòng cuối trang trước (tie-break) */
+    public final int productId;
+
+    public PageCursor(String sort, String key, int productId) {
+        this.sort = sort;
+        this.key = key;
+        this.productId = productId;
+    }
+
+    public PageCursor(String sort, double key, int productId) {
+        this(sort, Double.toString(key), productId);
+    }
+
+    /**
+     * Sort key dạng số
+     * @throws IllegalArgumentException nếu key không phải số
+     */
+    public double numericKey() {
+        try {
+            return Double.parseDouble(key);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor key", e);
+        }
+    }
+
+    public String encode() {
+        String raw = sort + "\n" + key + "\n" + productId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param token chuỗi do encode() tạo ra
+     * @param expectedSort thứ tự của request hiện tại
+     * @return PageCursor, hoặc null nếu token rỗng (trang đầu)
+     * @throws IllegalArgumentException nếu token hỏng hoặc thuộc thứ tự khác
+     */
+    public static PageCursor decode(String token, String expectedSort) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+        String[] parts = raw.split("\n", -1);
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        if (!parts[0].equals(expectedSort)) {
+            throw new IllegalArgumentException("Cursor belongs to sort '" + parts[0] + "', not '" + expectedSort + "'");
+        }
+        try {
+            return new PageCursor(parts[0], parts[1], Integer.parseInt(parts[2]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
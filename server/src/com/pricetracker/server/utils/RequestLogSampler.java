@@ -0,0 +1,49 @@
+package com.pricetracker.server.utils;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * RequestLogSampler - Lấy mẫu các dòng log per-request
+ *
+ * Log gắn marker REQUEST (ví dụ "📥 Received request") chỉ được ghi với xác suất 1/sampleRate.
+ * TurboFilter chạy trước khi format message nên các dòng bị bỏ gần như không tốn chi phí.
+ * WARN/ERROR luôn được ghi, không bị lấy mẫu.
+ *
+ * Cấu hình trong logback.xml, sampleRate = 1 nghĩa là ghi tất cả.
+ */
+public class RequestLogSampler extends TurboFilter {
+
+    /** Marker cho các dòng log lặp lại trên mỗi request */
+    public static final Marker REQUEST = MarkerFactory.getMarker("REQUEST");
+
+    private volatile int sampleRate = 1;
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format,
+                              Object[] params, Throwable t) {
+        int rate = sampleRate;
+        if (rate <= 1 || marker == null || !marker.contains(REQUEST)) {
+            return FilterReply.NEUTRAL;
+        }
+        if (level != null && level.isGreaterOrEqual(Level.WARN)) {
+            return FilterReply.NEUTRAL;
+        }
+        // ThreadLocalRandom: không có contention giữa các HTTP threads
+        return ThreadLocalRandom.current().nextInt(rate) == 0 ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+}
@@ -0,0 +1,411 @@
+package com.pricetracker.server.utils;
+
+import com.pricetracker.server.catalog.Marketplace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * ScrapeResponseCache - Cache L2 trên đĩa cho response thô của sàn (JSON Tiki, HTML Lazada)
+ *
+ * - Key (source, external_id); một file segment append-only được mmap, sống qua restart
+ * - Trong FRESH (mặc định 5 phút) dùng luôn body đã lưu, không gọi sàn
+ * - Quá FRESH nhưng chưa hết TTL (mặc định 24h): gửi If-None-Match / If-Modified-Since nếu sàn đã trả
+ *   ETag / Last-Modified; 304 → dùng lại body, ghi lại record với thời điểm mới
+ * - Ghi đè / hết hạn chỉ để lại byte chết; segment đầy (hoặc lúc mở có hơn nửa là byte chết) thì
+ *   compact: chép các record còn sống, mới nhất trước, tới tối đa 3/4 segment sang file mới rồi
+ *   rename đè (record cũ hơn bị bỏ, để lần ghi sau không phải compact lại ngay)
+ *
+ * Record: [int len][int crc32][byte srcLen][src][long externalId][long fetchedAt][long expiresAt]
+ *         [short etagLen][etag][short lastModLen][lastMod][int bodyLen][body]; len = 0 là hết segment
+ */
+public final class ScrapeResponseCache {
+    private static final Logger log = LoggerFactory.getLogger(ScrapeResponseCache.class);
+
+    private static final String FILE = System.getProperty("scraper.cache.file", "data/scrape-cache.seg");
+    private static final long CAPACITY = Long.getLong("scraper.cache.maxMb", 64) * 1024 * 1024;
+    private static final long FRESH_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("scraper.cache.freshSeconds", 300));
+    private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(Long.getLong("scraper.cache.ttlHours", 24));
+
+    private static final long MAGIC = 0x5054534341434831L; // "PTSCACH1"
+    private static final int HEADER_BYTES = 8;
+    /** len + crc */
+    private static final int RECORD_PREFIX = 8;
+    /** Một record không được chiếm quá 1/16 segment (trang Lazada lớn bất thường thì bỏ qua) */
+    private static final int MAX_RECORD_BYTES = (int) Math.min(Integer.MAX_VALUE, CAPACITY / 16);
+    /** Sau compact segment đầy tối đa chừng này */
+    private static final double COMPACT_FILL = 0.75;
+
+    // Khai báo sau các hằng cấu hình: constructor mở file ngay khi class được nạp
+    private static final ScrapeResponseCache instance = new ScrapeResponseCache();
+
+    /**
+     * Response đã lưu của một sản phẩm
+     */
+    public static final class Entry {
+        public final String body;
+        /** null nếu sàn không trả ETag */
+        public final String etag;
+        /** null nếu sàn không trả Last-Modified */
+        public final String lastModified;
+        public final long fetchedAtMillis;
+
+        Entry(String body, String etag, String lastModified, long fetchedAtMillis) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAtMillis = fetchedAtMillis;
+        }
+
+        /**
+         * Còn trong cửa sổ FRESH: dùng luôn, không cần hỏi lại sàn
+         */
+        public boolean isFresh() {
+            return System.currentTimeMillis() - fetchedAtMillis < FRESH_MILLIS;
+        }
+    }
+
+    /**
+     * Vị trí record trong segment; giữ tham chiếu tới chính buffer của segment đó, nên reader
+     * đang đọc lúc compact vẫn đọc đúng file cũ (mmap của file đã bị rename đè vẫn hợp lệ)
+     */
+    private static final class Slot {
+        final MappedByteBuffer segment;
+        final int offset;
+        final int length;
+        final String source;
+        final long externalId;
+        final long fetchedAtMillis;
+        final long expiresAtMillis;
+        final String etag;
+        final String lastModified;
+        final int bodyOffset;
+        final int bodyLength;
+
+        Slot(MappedByteBuffer segment, int offset, int length, String source, long externalId, long fetchedAtMillis,
+             long expiresAtMillis, String etag, String lastModified, int bodyOffset, int bodyLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.source = source;
+            this.externalId = externalId;
+            this.fetchedAtMillis = fetchedAtMillis;
+            this.expiresAtMillis = expiresAtMillis;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+        }
+
+        String readBody() {
+            byte[] bytes = new byte[bodyLength];
+            segment.get(bodyOffset, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final Map<Long, Slot> index = new ConcurrentHashMap<>();
+
+    /** Guarded by this */
+    private Path path;
+    private MappedByteBuffer segment;
+    private int writePosition;
+    private long deadBytes;
+
+    private final LongAdder freshHits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+
+    private ScrapeResponseCache() {
+        if (FILE.isEmpty() || CAPACITY <= 0) {
+            log.info("💾 Scrape response cache disabled");
+            return;
+        }
+        try {
+            open(Path.of(FILE));
+        } catch (IOException | RuntimeException e) {
+            // Không có cache thì scraper vẫn chạy như cũ, chỉ mất lợi thế warm restart
+            log.warn("⚠️  Scrape response cache unavailable ({}): {}", FILE, e.toString());
+            segment = null;
+            index.clear();
+        }
+    }
+
+    public static ScrapeResponseCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Response đã lưu còn trong TTL, null nếu không có
+     * Entry.isFresh() = dùng luôn; ngược lại gửi request có điều kiện với etag / lastModified
+     */
+    public Entry get(Marketplace marketplace, long externalId) {
+        Slot slot = index.get(marketplace.key(externalId));
+        if (slot == null) {
+            misses.increment();
+            return null;
+        }
+        if (slot.expiresAtMillis <= System.currentTimeMillis()) {
+            misses.increment();
+            return null;
+        }
+        Entry entry = new Entry(slot.readBody(), slot.etag, slot.lastModified, slot.fetchedAtMillis);
+        if (entry.isFresh()) {
+            freshHits.increment();
+        } else {
+            staleHits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Lưu response 200 mới (hoặc body cũ vừa được sàn xác nhận bằng 304)
+     */
+    public void put(Marketplace marketplace, long externalId, String body, String etag, String lastModified) {
+        long now = System.currentTimeMillis();
+        byte[] record = encode(marketplace.getSource(), externalId, now, now + TTL_MILLIS, etag, lastModified,
+                body.getBytes(StandardCharsets.UTF_8));
+        if (record == null) {
+            return;
+        }
+        synchronized (this) {
+            if (segment == null) {
+                return;
+            }
+            try {
+                // +4: chừa chỗ cho dấu kết thúc (len = 0) sau record
+                if ((long) writePosition + record.length + 4 > CAPACITY) {
+                    compact();
+                    if ((long) writePosition + record.length + 4 > CAPACITY) {
+                        log.debug("Scrape cache full after compaction, not caching {}:{}", marketplace.getSource(), externalId);
+                        return;
+                    }
+                }
+                Slot slot = append(record, writePosition);
+                writePosition += record.length;
+                segment.putInt(writePosition, 0);
+                writes.increment();
+                Slot previous = index.put(marketplace.key(externalId), slot);
+                if (previous != null) {
+                    deadBytes += previous.length;
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("⚠️  Failed to write scrape cache record: {}", e.toString());
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", index.size());
+        synchronized (this) {
+            stats.put("enabled", segment != null);
+            stats.put("used_bytes", writePosition);
+            stats.put("dead_bytes", deadBytes);
+        }
+        stats.put("capacity_bytes", CAPACITY);
+        stats.put("fresh_hits", freshHits.sum());
+        stats.put("revalidate_hits", staleHits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("writes", writes.sum());
+        stats.put("compactions", compactions.sum());
+        return stats;
+    }
+
+    /**
+     * Mở (hoặc tạo) segment, dựng lại index; dừng ở record hỏng đầu tiên (ghi dở lúc crash)
+     */
+    private synchronized void open(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        path = file;
+        segment = map(file);
+        if (segment.getLong(0) != MAGIC) {
+            segment.putLong(0, MAGIC);
+            segment.putInt(HEADER_BYTES, 0);
+        }
+
+        long now = System.currentTimeMillis();
+        int position = HEADER_BYTES;
+        int loaded = 0;
+        while (position + RECORD_PREFIX <= CAPACITY) {
+            int length = segment.getInt(position);
+            if (length <= RECORD_PREFIX || position + (long) length > CAPACITY) {
+                break;
+            }
+            Slot slot = decode(segment, position, length);
+            if (slot == null) {
+                log.warn("⚠️  Scrape cache: corrupt record at offset {}, truncating", position);
+                segment.putInt(position, 0);
+                break;
+            }
+            position += length;
+            Marketplace marketplace = Marketplace.fromSource(slot.source);
+            if (marketplace == null || slot.expiresAtMillis <= now) {
+                deadBytes += slot.length;
+                continue;
+            }
+            Slot previous = index.put(marketplace.key(slot.externalId), slot);
+            if (previous != null) {
+                deadBytes += previous.length;
+            } else {
+                loaded++;
+            }
+        }
+        writePosition = position;
+        log.info("💾 Scrape response cache: {} entries from {} ({} KB used, {} KB dead)", loaded, file,
+                writePosition / 1024, deadBytes / 1024);
+
+        if (deadBytes > writePosition / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Chép record còn sống (chưa hết hạn, mới nhất trước, tối đa COMPACT_FILL) sang segment mới
+     * rồi rename đè file cũ. Gọi khi đang giữ lock
+     */
+    private void compact() throws IOException {
+        long now = System.currentTimeMillis();
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        Files.deleteIfExists(tmp);
+        MappedByteBuffer fresh = map(tmp);
+        fresh.putLong(0, MAGIC);
+
+        List<Map.Entry<Long, Slot>> live = new ArrayList<>(index.entrySet());
+        live.sort((a, b) -> Long.compare(b.getValue().fetchedAtMillis, a.getValue().fetchedAtMillis));
+        Map<Long, Slot> moved = new LinkedHashMap<>();
+        int position = HEADER_BYTES;
+        for (Map.Entry<Long, Slot> entry : live) {
+            Slot slot = entry.getValue();
+            if (slot.expiresAtMillis <= now) {
+                continue;
+            }
+            if (position + slot.length > CAPACITY * COMPACT_FILL) {
+                break;
+            }
+            byte[] record = new byte[slot.length];
+            slot.segment.get(slot.offset, record);
+            fresh.put(position, record);
+            Slot copy = decode(fresh, position, slot.length);
+            moved.put(entry.getKey(), copy);
+            position += slot.length;
+        }
+        fresh.putInt(position, 0);
+        fresh.force();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        int before = writePosition;
+        segment = fresh;
+        writePosition = position;
+        deadBytes = 0;
+        index.keySet().retainAll(moved.keySet());
+        index.putAll(moved);
+        compactions.increment();
+        log.info("🧹 Scrape cache compacted: {} KB -> {} KB ({} entries kept, {} dropped)", before / 1024,
+                position / 1024, moved.size(), live.size() - moved.size());
+    }
+
+    private Slot append(byte[] record, int position) throws IOException {
+        segment.put(position, record);
+        Slot slot = decode(segment, position, record.length);
+        if (slot == null) {
+            throw new IOException("record at " + position + " failed verification");
+        }
+        return slot;
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // File thưa: chưa ghi tới đâu thì chưa tốn đĩa tới đó
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, CAPACITY);
+        }
+    }
+
+    private static byte[] encode(String source, long externalId, long fetchedAt, long expiresAt, String etag,
+                                 String lastModified, byte[] body) {
+        byte[] src = source.getBytes(StandardCharsets.UTF_8);
+        byte[] etagBytes = etag != null ? etag.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] lastModBytes = lastModified != null ? lastModified.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (src.length > Byte.MAX_VALUE || etagBytes.length > Short.MAX_VALUE || lastModBytes.length > Short.MAX_VALUE) {
+            return null;
+        }
+        long length = RECORD_PREFIX + 1L + src.length + 8 + 8 + 8 + 2 + etagBytes.length + 2 + lastModBytes.length
+                + 4 + body.length;
+        if (length > MAX_RECORD_BYTES) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        buffer.putInt((int) length);
+        buffer.putInt(0); // crc, điền sau
+        buffer.put((byte) src.length).put(src);
+        buffer.putLong(externalId).putLong(fetchedAt).putLong(expiresAt);
+        buffer.putShort((short) etagBytes.length).put(etagBytes);
+        buffer.putShort((short) lastModBytes.length).put(lastModBytes);
+        buffer.putInt(body.length).put(body);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), RECORD_PREFIX, (int) length - RECORD_PREFIX);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * Đọc lại record tại offset, null nếu crc / độ dài không khớp
+     */
+    private static Slot decode(MappedByteBuffer segment, int offset, int length) {
+        try {
+            ByteBuffer view = segment.slice(offset, length);
+            CRC32 crc = new CRC32();
+            crc.update(view.slice(RECORD_PREFIX, length - RECORD_PREFIX));
+            if (view.getInt(4) != (int) crc.getValue()) {
+                return null;
+            }
+
+            view.position(RECORD_PREFIX);
+            String source = readString(view, view.get());
+            long externalId = view.getLong();
+            long fetchedAt = view.getLong();
+            long expiresAt = view.getLong();
+            String etag = readString(view, view.getShort());
+            String lastModified = readString(view, view.getShort());
+            int bodyLength = view.getInt();
+            if (bodyLength != view.remaining()) {
+                return null;
+            }
+            return new Slot(segment, offset, length, source, externalId, fetchedAt, expiresAt,
+                    etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified,
+                    offset + view.position(), bodyLength);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String readString(ByteBuffer view, int length) {
+        byte[] bytes = new byte[length];
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,101 @@
+package com.pricetracker.server.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * TikiPriceBatcher - Gom các lần làm mới giá chạy nền đồng thời thành request listing theo lô
+ *
+ * - fetch() đăng ký Tiki ID rồi chờ; lô được gửi khi đủ BATCH_SIZE ID hoặc sau LINGER
+ * - Cùng một ID đang chờ thì dùng chung kết quả
+ * - Chỉ một thread flush: trong lúc một lô đang chạy, các ID mới tự dồn thành lô tiếp theo
+ * - Không dùng cho request user đang chờ (/refresh-price): đường đó hedge lời gọi lẻ
+ */
+public final class TikiPriceBatcher {
+    private static final Logger log = LoggerFactory.getLogger(TikiPriceBatcher.class);
+
+    private static final int BATCH_SIZE = Integer.getInteger("scraper.batch.size", 40);
+    private static final long LINGER_MS = Long.getLong("scraper.batch.lingerMs", 200);
+    private static final long WAIT_TIMEOUT_SECONDS = 60;
+
+    private static final TikiPriceBatcher instance = new TikiPriceBatcher();
+
+    /** Guarded by this */
+    private Map<Integer, CompletableFuture<Object[]>> pending = new HashMap<>();
+    private boolean flushScheduled;
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "tiki-price-batcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private TikiPriceBatcher() {
+    }
+
+    public static TikiPriceBatcher getInstance() {
+        return instance;
+    }
+
+    /**
+     * Giá hiện tại của sản phẩm Tiki, lấy chung lô với các lần gọi đồng thời khác
+     * @return {price, original_price, deal_type}, hoặc null nếu URL không hợp lệ / cào lỗi
+     */
+    public Object[] fetch(String tikiUrl) throws InterruptedException {
+        int tikiProductId = TikiScraperUtil.extractProductId(tikiUrl);
+        if (tikiProductId == -1) {
+            return null;
+        }
+
+        CompletableFuture<Object[]> result;
+        synchronized (this) {
+            result = pending.computeIfAbsent(tikiProductId, id -> new CompletableFuture<>());
+            if (pending.size() >= BATCH_SIZE) {
+                flusher.execute(this::flush);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                flusher.schedule(this::flush, LINGER_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        try {
+            return result.get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("Batched price fetch failed for Tiki product {}: {}", tikiProductId, e.toString());
+            return null;
+        }
+    }
+
+    private void flush() {
+        Map<Integer, CompletableFuture<Object[]>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new HashMap<>();
+            flushScheduled = false;
+        }
+
+        try {
+            Map<Integer, Object[]> prices = TikiScraperUtil.scrapePriceDataBatch(batch.keySet());
+            log.debug("📦 Batched price fetch: {}/{} products priced", prices.size(), batch.size());
+            for (Map.Entry<Integer, CompletableFuture<Object[]>> entry : batch.entrySet()) {
+                entry.getValue().complete(prices.get(entry.getKey()));
+            }
+        } catch (RuntimeException e) {
+            for (CompletableFuture<Object[]> future : batch.values()) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
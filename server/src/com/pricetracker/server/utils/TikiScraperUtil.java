@@ -1,15 +1,34 @@
 package com.pricetracker.server.utils;
 
 import com.pricetracker.models.Product;
+import com.pricetracker.server.catalog.Marketplace;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,9 +37,39 @@ import java.util.regex.Pattern;
  * Used when user searches for a new product not in database
  */
 public class TikiScraperUtil {
+    private static final Logger log = LoggerFactory.getLogger(TikiScraperUtil.class);
     
-    private static final String TIKI_API_BASE = "https://tiki.vn/api/v2/products/";
+    // Đổi được (-Dtiki.api.base) để đo với stub server cục bộ (tools.TikiStubServer)
+    private static final String TIKI_API_BASE = System.getProperty("tiki.api.base", "https://tiki.vn/api/v2/products/");
     private static final Pattern PRODUCT_ID_PATTERN = Pattern.compile("p(\\d+)\\.html");
+
+    // 📉 Số lời gọi Tiki API song song, co lại khi Tiki chậm / trả lỗi (429, 5xx, timeout)
+    private static final AdaptiveLimiter limiter = new AdaptiveLimiter("scraper_tiki", 8, 1, 32);
+
+    // 🔌 Tiki lỗi / chậm liên tục thì ngắt hẳn một lúc: caller dùng giá cuối cùng trong DB (đánh dấu stale)
+    private static final CircuitBreaker breaker = new CircuitBreaker("tiki");
+
+    // 🏁 Hedge cho lời gọi user đang chờ (/refresh-price, tìm theo URL): quá p90 thì gửi thêm một request
+    private static final Hedger hedger = new Hedger("tiki", 16);
+
+    // 📦 Cào giá theo lô qua listing endpoint: một request cho tối đa BATCH_SIZE sản phẩm
+    private static final String TIKI_LISTING_URL = TIKI_API_BASE.endsWith("/")
+            ? TIKI_API_BASE.substring(0, TIKI_API_BASE.length() - 1) : TIKI_API_BASE;
+    private static final int BATCH_SIZE = Integer.getInteger("scraper.batch.size", 40);
+    /** Listing không lọc được theo ids thì thử lại sau chừng này */
+    private static final long BATCH_RETRY_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static volatile long batchDisabledUntilNanos = System.nanoTime();
+    private static final LongAdder listingRequests = new LongAdder();
+    private static final LongAdder listingItems = new LongAdder();
+    private static final LongAdder singleFallbacks = new LongAdder();
+    /** Lời gọi lẻ khi listing không dùng được chạy song song, số worker theo limit hiện tại của limiter */
+    private static final int MAX_SINGLE_FETCH_THREADS = 32;
+    private static final AtomicInteger singleFetchThreadId = new AtomicInteger();
+    private static final ExecutorService singleFetchPool = Executors.newFixedThreadPool(MAX_SINGLE_FETCH_THREADS, r -> {
+        Thread t = new Thread(r, "tiki-single-fetch-" + singleFetchThreadId.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
     
     // Category mapping to group_id (based on 8 groups in database)
     private static final Map<String, Integer> CATEGORY_MAP = new HashMap<>();
@@ -90,44 +139,59 @@ public class TikiScraperUtil {
         return -1;
     }
     
+    /**
+     * Kết quả một lần gọi Tiki API: thông tin sản phẩm + giá hiện tại
+     */
+    public static final class ScrapeResult {
+        public final Product product;
+        public final double price;
+        public final double originalPrice;
+        public final String dealType;
+
+        ScrapeResult(Product product, double price, double originalPrice, String dealType) {
+            this.product = product;
+            this.price = price;
+            this.originalPrice = originalPrice;
+            this.dealType = dealType;
+        }
+    }
+    
     /**
      * Scrape product data from Tiki API
      * @param tikiUrl The Tiki product URL
      * @return Product object with scraped data, or null if failed
      */
     public static Product scrapeProductFromUrl(String tikiUrl) {
+        ScrapeResult result = scrapeProductWithPrice(tikiUrl);
+        return result != null ? result.product : null;
+    }
+    
+    /**
+     * Scrape product data và giá trong MỘT lần gọi Tiki API
+     * (cùng endpoint trả cả name/brand/category lẫn price/original_price/badges)
+     * @param tikiUrl The Tiki product URL
+     * @return ScrapeResult, or null if failed
+     */
+    public static ScrapeResult scrapeProductWithPrice(String tikiUrl) {
+        return scrapeProductWithPrice(tikiUrl, false);
+    }
+
+    /**
+     * @param hedged true nếu user đang chờ kết quả (hedge khi Tiki chậm)
+     */
+    public static ScrapeResult scrapeProductWithPrice(String tikiUrl, boolean hedged) {
         int productId = extractProductId(tikiUrl);
         if (productId == -1) {
-            System.err.println("Invalid Tiki URL: " + tikiUrl);
+            log.warn("Invalid Tiki URL: {}", tikiUrl);
             return null;
         }
         
         try {
-            String apiUrl = TIKI_API_BASE + productId;
-            URL url = new URL(apiUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("User-Agent", "Mozilla/5.0");
-            conn.setConnectTimeout(10000); // 10 seconds timeout
-            conn.setReadTimeout(10000);    // 10 seconds timeout
-            
-            int responseCode = conn.getResponseCode();
-            if (responseCode != 200) {
-                System.err.println("Tiki API returned code: " + responseCode);
+            JSONObject json = fetchProductJson(productId, hedged);
+            if (json == null) {
                 return null;
             }
             
-            BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = in.readLine()) != null) {
-                response.append(line);
-            }
-            in.close();
-            
-            // Parse JSON response
-            JSONObject json = new JSONObject(response.toString());
-            
             Product product = new Product();
             product.setName(json.optString("name", "Unknown Product"));
             product.setBrand(json.optString("brand_name", ""));
@@ -140,11 +204,13 @@ public class TikiScraperUtil {
             String category = extractCategory(json);
             product.setGroupId(mapCategoryToGroupId(category));
             
-            return product;
+            double price = json.optDouble("price", 0.0);
+            double originalPrice = json.optDouble("original_price", price);
+            
+            return new ScrapeResult(product, price, originalPrice, extractDealType(json));
             
         } catch (Exception e) {
-            System.err.println("Error scraping Tiki product: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error scraping Tiki product", e);
             return null;
         }
     }
@@ -156,46 +222,319 @@ public class TikiScraperUtil {
      * @return double[] {price, original_price} and String deal_type
      */
     public static Object[] scrapePriceData(String tikiUrl) {
+        return scrapePriceData(tikiUrl, false);
+    }
+
+    /**
+     * @param hedged true nếu user đang chờ kết quả (hedge khi Tiki chậm)
+     */
+    public static Object[] scrapePriceData(String tikiUrl, boolean hedged) {
         int productId = extractProductId(tikiUrl);
         if (productId == -1) {
             return null;
         }
         
         try {
-            String apiUrl = TIKI_API_BASE + productId;
-            URL url = new URL(apiUrl);
+            JSONObject json = fetchProductJson(productId, hedged);
+            if (json == null) {
+                return null;
+            }
+            
+            return toPriceData(json);
+            
+        } catch (Exception e) {
+            log.warn("Error scraping price data: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Giá của nhiều sản phẩm với ít request nhất: mỗi request listing (/api/v2/products?ids=...) lấy
+     * tối đa BATCH_SIZE sản phẩm; ID listing không trả về (hoặc listing không dùng được) thì gọi lẻ,
+     * song song với số lời gọi cùng lúc bằng limit hiện tại của adaptive limiter
+     * @param tikiProductIds Tiki product IDs
+     * @return tikiProductId → {price, original_price, deal_type}; ID cào lỗi không có trong map
+     */
+    public static Map<Integer, Object[]> scrapePriceDataBatch(Collection<Integer> tikiProductIds) {
+        Map<Integer, Object[]> results = new ConcurrentHashMap<>();
+        List<Integer> remaining = new ArrayList<>();
+        for (Integer id : new LinkedHashSet<>(tikiProductIds)) {
+            // 💾 Response đầy đủ vừa cào (kể cả trước restart) vẫn dùng được
+            ScrapeResponseCache.Entry cached = ScrapeResponseCache.getInstance().get(Marketplace.TIKI, id);
+            if (cached != null && cached.isFresh()) {
+                results.put(id, toPriceData(new JSONObject(cached.body)));
+            } else {
+                remaining.add(id);
+            }
+        }
+
+        List<Integer> singles = new ArrayList<>();
+        for (int from = 0; from < remaining.size(); from += BATCH_SIZE) {
+            List<Integer> chunk = remaining.subList(from, Math.min(remaining.size(), from + BATCH_SIZE));
+            Map<Integer, JSONObject> items = null;
+            if (chunk.size() > 1 && System.nanoTime() >= batchDisabledUntilNanos) {
+                try {
+                    items = fetchProductListing(chunk);
+                } catch (IOException e) {
+                    log.warn("Tiki listing request failed ({} IDs): {}", chunk.size(), e.getMessage());
+                }
+            }
+            for (Integer id : chunk) {
+                JSONObject item = items != null ? items.get(id) : null;
+                if (item != null && item.has("price")) {
+                    results.put(id, toPriceData(item));
+                } else {
+                    singles.add(id);
+                }
+            }
+        }
+
+        fetchSingles(singles, results);
+        return results;
+    }
+
+    /**
+     * Gọi lẻ từng ID: worker lấy ID từ hàng đợi chung, số worker = limit hiện tại của limiter
+     * (không gửi nhiều hơn số permit sẽ được cấp); chờ tới khi mọi ID xong
+     */
+    private static void fetchSingles(List<Integer> singles, Map<Integer, Object[]> results) {
+        if (singles.isEmpty()) {
+            return;
+        }
+        Queue<Integer> queue = new ConcurrentLinkedQueue<>(singles);
+        int workers = Math.max(1, Math.min(Math.min(singles.size(), limiter.getLimit()), MAX_SINGLE_FETCH_THREADS));
+        CompletableFuture<?>[] running = new CompletableFuture<?>[workers];
+        for (int i = 0; i < workers; i++) {
+            running[i] = CompletableFuture.runAsync(() -> {
+                for (Integer id = queue.poll(); id != null; id = queue.poll()) {
+                    singleFallbacks.increment();
+                    try {
+                        JSONObject json = fetchProductJson(id);
+                        if (json != null) {
+                            results.put(id, toPriceData(json));
+                        }
+                    } catch (IOException e) {
+                        log.warn("Error scraping price data for Tiki product {}: {}", id, e.getMessage());
+                    }
+                }
+            }, singleFetchPool);
+        }
+        CompletableFuture.allOf(running).join();
+    }
+    
+    /**
+     * Stats hedge cho /metrics
+     */
+    public static Map<String, Object> getHedgeStats() {
+        return hedger.getStats();
+    }
+
+    /**
+     * Stats cào giá theo lô cho /metrics
+     */
+    public static Map<String, Object> getBatchStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("listing_requests", listingRequests.sum());
+        stats.put("listing_items", listingItems.sum());
+        stats.put("single_fallbacks", singleFallbacks.sum());
+        stats.put("listing_available", System.nanoTime() >= batchDisabledUntilNanos);
+        return stats;
+    }
+
+    private static Object[] toPriceData(JSONObject json) {
+        double price = json.optDouble("price", 0.0);
+        double originalPrice = json.optDouble("original_price", price);
+        return new Object[]{price, originalPrice, extractDealType(json)};
+    }
+
+    private static JSONObject fetchProductJson(int tikiProductId, boolean hedged) throws IOException {
+        if (!hedged) {
+            return fetchProductJson(tikiProductId);
+        }
+        try {
+            return hedger.execute(() -> fetchProductJson(tikiProductId));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching Tiki product " + tikiProductId, e);
+        }
+    }
+
+    /**
+     * GET /api/v2/products/{id}, qua cache response trên đĩa (ScrapeResponseCache)
+     * @return JSON body, or null if Tiki returned non-200
+     */
+    private static JSONObject fetchProductJson(int tikiProductId) throws IOException {
+        // 💾 Vừa cào cách đây vài phút (kể cả trước khi restart) thì không gọi lại Tiki
+        ScrapeResponseCache cache = ScrapeResponseCache.getInstance();
+        ScrapeResponseCache.Entry cached = cache.get(Marketplace.TIKI, tikiProductId);
+        if (cached != null && cached.isFresh()) {
+            return new JSONObject(cached.body);
+        }
+
+        if (!breaker.tryAcquire()) {
+            throw new IOException("Tiki circuit open, skipping call");
+        }
+        AdaptiveLimiter.Permit permit = limiter.tryAcquire();
+        if (permit == null) {
+            breaker.onIgnored();
+            throw new IOException("Tiki scraper busy: adaptive limit reached");
+        }
+        long started = System.nanoTime();
+        boolean dropped = true;
+        String failure = "no response";
+        try {
+            URL url = new URL(TIKI_API_BASE + tikiProductId);
             HttpURLConnection conn = (HttpURLConnection) url.openConnection();
             conn.setRequestMethod("GET");
             conn.setRequestProperty("User-Agent", "Mozilla/5.0");
             conn.setConnectTimeout(10000); // 10 seconds timeout
             conn.setReadTimeout(10000);    // 10 seconds timeout
-            
+            if (cached != null && cached.etag != null) {
+                conn.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached != null && cached.lastModified != null) {
+                conn.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+
             int responseCode = conn.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                // Tiki xác nhận body cũ vẫn đúng: làm mới thời điểm trong cache, không tải lại
+                dropped = false;
+                cache.put(Marketplace.TIKI, tikiProductId, cached.body, cached.etag, cached.lastModified);
+                return new JSONObject(cached.body);
+            }
             if (responseCode != 200) {
+                log.warn("Tiki API returned code: {}", responseCode);
+                // 404 là câu trả lời bình thường; 429 / 5xx là Tiki đang quá tải
+                dropped = responseCode == 429 || responseCode >= 500;
+                failure = "HTTP " + responseCode;
                 return null;
             }
-            
-            BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream()));
+
             StringBuilder response = new StringBuilder();
-            String line;
-            while ((line = in.readLine()) != null) {
-                response.append(line);
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    response.append(line);
+                }
             }
-            in.close();
-            
+            dropped = false;
+
             JSONObject json = new JSONObject(response.toString());
-            
-            double price = json.optDouble("price", 0.0);
-            double originalPrice = json.optDouble("original_price", price);
-            String dealType = extractDealType(json);
-            
-            return new Object[]{price, originalPrice, dealType};
-            
-        } catch (Exception e) {
-            System.err.println("Error scraping price data: " + e.getMessage());
-            return null;
+            cache.put(Marketplace.TIKI, tikiProductId, response.toString(),
+                    conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"));
+            return json;
+        } catch (IOException e) {
+            failure = e.toString();
+            throw e;
+        } finally {
+            permit.release(dropped);
+            if (dropped) {
+                breaker.onFailure(failure);
+            } else {
+                breaker.onSuccess(System.nanoTime() - started);
+            }
         }
     }
+
+    /**
+     * GET /api/v2/products?ids=...: một request, một permit của limiter, cho cả lô
+     * Listing chỉ có giá / badges (không có breadcrumbs, mô tả) nên không ghi vào ScrapeResponseCache
+     * @return id → item JSON, hoặc null nếu Tiki không hỗ trợ lọc theo ids (tắt batch một lúc)
+     */
+    private static Map<Integer, JSONObject> fetchProductListing(List<Integer> tikiProductIds) throws IOException {
+        if (!breaker.tryAcquire()) {
+            throw new IOException("Tiki circuit open, skipping call");
+        }
+        AdaptiveLimiter.Permit permit = limiter.tryAcquire();
+        if (permit == null) {
+            breaker.onIgnored();
+            throw new IOException("Tiki scraper busy: adaptive limit reached");
+        }
+        long started = System.nanoTime();
+        boolean dropped = true;
+        String failure = "no response";
+        try {
+            StringBuilder ids = new StringBuilder();
+            for (Integer id : tikiProductIds) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(id);
+            }
+            URL url = new URL(TIKI_LISTING_URL + "?ids=" + ids + "&limit=" + tikiProductIds.size());
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty("User-Agent", "Mozilla/5.0");
+            conn.setConnectTimeout(10000);
+            conn.setReadTimeout(15000);
+            listingRequests.increment();
+
+            int responseCode = conn.getResponseCode();
+            if (responseCode != 200) {
+                dropped = responseCode == 429 || responseCode >= 500;
+                failure = "HTTP " + responseCode;
+                if (!dropped) {
+                    disableBatching("HTTP " + responseCode);
+                }
+                return null;
+            }
+
+            StringBuilder response = new StringBuilder();
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    response.append(line);
+                }
+            }
+            dropped = false;
+
+            JSONArray data = new JSONObject(response.toString()).optJSONArray("data");
+            if (data == null) {
+                disableBatching("no data array");
+                return null;
+            }
+            Map<Integer, JSONObject> items = new HashMap<>();
+            int unrequested = 0;
+            for (int i = 0; i < data.length(); i++) {
+                JSONObject item = data.optJSONObject(i);
+                if (item == null) {
+                    continue;
+                }
+                int id = item.optInt("id", -1);
+                if (tikiProductIds.contains(id)) {
+                    items.put(id, item);
+                } else {
+                    unrequested++;
+                }
+            }
+            if (items.isEmpty() && unrequested > 0) {
+                // Tiki bỏ qua tham số ids và trả listing mặc định: không dùng được để lấy giá theo ID
+                disableBatching("ids filter ignored");
+                return null;
+            }
+            listingItems.add(items.size());
+            return items;
+        } catch (IOException e) {
+            failure = e.toString();
+            throw e;
+        } finally {
+            permit.release(dropped);
+            if (dropped) {
+                breaker.onFailure(failure);
+            } else {
+                breaker.onSuccess(System.nanoTime() - started);
+            }
+        }
+    }
+
+    private static void disableBatching(String reason) {
+        batchDisabledUntilNanos = System.nanoTime() + BATCH_RETRY_NANOS;
+        log.warn("⚠️  Tiki listing endpoint unusable for batch price fetch ({}), falling back to single fetches for {} min",
+                reason, TimeUnit.NANOSECONDS.toMinutes(BATCH_RETRY_NANOS));
+    }
     
     /**
      * Extract category from Tiki JSON response
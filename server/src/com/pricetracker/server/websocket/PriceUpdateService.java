@@ -1,6 +1,8 @@
 package com.pricetracker.server.websocket;
 
 import com.pricetracker.server.db.DatabaseConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -17,6 +19,7 @@ import java.util.concurrent.TimeUnit;
  * Check database mỗi 30 giây
  */
 public class PriceUpdateService {
+    private static final Logger log = LoggerFactory.getLogger(PriceUpdateService.class);
     
     private final Broadcaster broadcaster;
     private final ScheduledExecutorService scheduler;
@@ -35,7 +38,7 @@ public class PriceUpdateService {
      * Start monitoring database
      */
     public void start() {
-        System.out.println("[PriceUpdate] Service started - checking every " + CHECK_INTERVAL_SECONDS + " seconds");
+        log.info("[PriceUpdate] Service started - checking every {} seconds", CHECK_INTERVAL_SECONDS);
         
         // Schedule task mỗi 30 giây
         scheduler.scheduleAtFixedRate(
@@ -50,13 +53,13 @@ public class PriceUpdateService {
      * Stop monitoring
      */
     public void stop() {
-        System.out.println("[PriceUpdate] Stopping service...");
+        log.info("[PriceUpdate] Stopping service...");
         scheduler.shutdown();
         try {
             if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
                 scheduler.shutdownNow();
             }
-            System.out.println("[PriceUpdate] Service stopped successfully");
+            log.info("[PriceUpdate] Service stopped successfully");
         } catch (InterruptedException e) {
             scheduler.shutdownNow();
             Thread.currentThread().interrupt();
@@ -76,7 +79,7 @@ public class PriceUpdateService {
             List<PriceUpdate> updates = queryPriceUpdates();
             
             if (!updates.isEmpty()) {
-                System.out.println("[PriceUpdate] Found " + updates.size() + " price changes");
+                log.info("[PriceUpdate] Found {} price changes", updates.size());
                 
                 // Broadcast từng update
                 for (PriceUpdate update : updates) {
@@ -89,8 +92,7 @@ public class PriceUpdateService {
             }
             
         } catch (Exception e) {
-            System.err.println("[PriceUpdate] Error checking updates: " + e.getMessage());
-            e.printStackTrace();
+            log.error("[PriceUpdate] Error checking updates", e);
         }
     }
     
@@ -112,7 +114,7 @@ public class PriceUpdateService {
                      "ORDER BY ph.recorded_at DESC " +
                      "LIMIT 50"; // Giới hạn 50 updates mỗi lần
         
-        try (Connection conn = DatabaseConnectionManager.getConnection();
+        try (Connection conn = DatabaseConnectionManager.getBackgroundConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
             pstmt.setTimestamp(1, lastCheckTime);
@@ -133,7 +135,7 @@ public class PriceUpdateService {
             }
             
         } catch (Exception e) {
-            System.err.println("[PriceUpdate] Database query error: " + e.getMessage());
+            log.warn("[PriceUpdate] Database query error: {}", e.getMessage());
         }
         
         return updates;
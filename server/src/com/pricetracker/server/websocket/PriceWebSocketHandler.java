@@ -5,6 +5,8 @@ import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Collections;
@@ -16,6 +18,7 @@ import java.util.concurrent.Executors;
 
 @Component
 public class PriceWebSocketHandler extends TextWebSocketHandler {
+    private static final Logger log = LoggerFactory.getLogger(PriceWebSocketHandler.class);
 
     // Lưu các session kết nối (Thread-safe)
     private static final Set<WebSocketSession> sessions = Collections.synchronizedSet(new HashSet<>());
@@ -27,7 +30,7 @@ public class PriceWebSocketHandler extends TextWebSocketHandler {
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         sessions.add(session);
-        System.out.println("[WebSocket] Client connected: " + session.getRemoteAddress());
+        log.info("[WebSocket] Client connected: {}", session.getRemoteAddress());
         
         // Gửi welcome message
         session.sendMessage(new TextMessage("{\"type\":\"connected\",\"message\":\"Welcome to Price Tracker WebSocket!\"}"));
@@ -36,13 +39,13 @@ public class PriceWebSocketHandler extends TextWebSocketHandler {
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         sessions.remove(session);
-        System.out.println("[WebSocket] Client disconnected. Remaining: " + sessions.size());
+        log.info("[WebSocket] Client disconnected. Remaining: {}", sessions.size());
     }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
         // Xử lý tin nhắn từ Client gửi lên (nếu cần)
-        System.out.println("[WebSocket] Received: " + message.getPayload());
+        log.debug("[WebSocket] Received: {}", message.getPayload());
     }
 
     /**
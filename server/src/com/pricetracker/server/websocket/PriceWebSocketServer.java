@@ -3,6 +3,8 @@ package com.pricetracker.server.websocket;
 import org.java_websocket.WebSocket;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.Collections;
@@ -20,6 +22,7 @@ import java.util.concurrent.TimeUnit;
  * Port: 8081
  */
 public class PriceWebSocketServer extends WebSocketServer implements com.pricetracker.server.websocket.Broadcaster {
+    private static final Logger log = LoggerFactory.getLogger(PriceWebSocketServer.class);
     
     private final int wsPort;
     
@@ -53,7 +56,7 @@ public class PriceWebSocketServer extends WebSocketServer implements com.pricetr
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
         clients.add(conn);
         String clientInfo = conn.getRemoteSocketAddress().toString();
-        System.out.println("[WebSocket] Client connected: " + clientInfo + " (Total: " + clients.size() + ")");
+        log.info("[WebSocket] Client connected: {} (Total: {})", clientInfo, clients.size());
         
         // Gửi welcome message
         conn.send("{\"type\":\"connected\",\"message\":\"Welcome to Price Tracker WebSocket!\"}");
@@ -63,13 +66,13 @@ public class PriceWebSocketServer extends WebSocketServer implements com.pricetr
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
         clients.remove(conn);
         String clientInfo = conn.getRemoteSocketAddress().toString();
-        System.out.println("[WebSocket] Client disconnected: " + clientInfo + " (Remaining: " + clients.size() + ")");
+        log.info("[WebSocket] Client disconnected: {} (Remaining: {})", clientInfo, clients.size());
     }
     
     @Override
     public void onMessage(WebSocket conn, String message) {
         // Xử lý message từ client (nếu cần)
-        System.out.println("[WebSocket] Received from " + conn.getRemoteSocketAddress() + ": " + message);
+        log.debug("[WebSocket] Received from {}: {}", conn.getRemoteSocketAddress(), message);
         
         // Echo back (có thể mở rộng xử lý subscribe/unsubscribe)
         conn.send("{\"type\":\"echo\",\"data\":\"" + message + "\"}");
@@ -77,8 +80,7 @@ public class PriceWebSocketServer extends WebSocketServer implements com.pricetr
     
     @Override
     public void onError(WebSocket conn, Exception ex) {
-        System.err.println("[WebSocket] Error: " + ex.getMessage());
-        ex.printStackTrace();
+        log.error("[WebSocket] Error", ex);
         
         if (conn != null) {
             clients.remove(conn);
@@ -87,9 +89,9 @@ public class PriceWebSocketServer extends WebSocketServer implements com.pricetr
     
     @Override
     public void onStart() {
-        System.out.println("╔═══════════════════════════════════════════╗");
-        System.out.println("║  WebSocket Server Started on Port " + wsPort + "   ║");
-        System.out.println("╚═══════════════════════════════════════════╝");
+        log.info("╔═══════════════════════════════════════════╗");
+        log.info("║  WebSocket Server Started on Port {}   ║", wsPort);
+        log.info("╚═══════════════════════════════════════════╝");
         setConnectionLostTimeout(100); // Ping clients every 100 seconds
     }
     
@@ -125,7 +127,7 @@ public class PriceWebSocketServer extends WebSocketServer implements com.pricetr
                     }
                     return false;
                 } catch (Exception e) {
-                    System.err.println("[WebSocket] Failed to send to client: " + e.getMessage());
+                    log.warn("[WebSocket] Failed to send to client: {}", e.getMessage());
                     return false;
                 }
             }, broadcastExecutor);
@@ -145,11 +147,11 @@ public class PriceWebSocketServer extends WebSocketServer implements com.pricetr
                 long failCount = futures.size() - successCount;
                 long duration = System.currentTimeMillis() - startTime;
                 
-                System.out.println("[WebSocket] ⚡ Async broadcast to " + successCount + " clients in " + duration + "ms" +
-                        (failCount > 0 ? " (" + failCount + " failed)" : ""));
+                log.debug("[WebSocket] ⚡ Async broadcast to {} clients in {}ms ({} failed)",
+                        successCount, duration, failCount);
             })
             .exceptionally(ex -> {
-                System.err.println("[WebSocket] Broadcast error: " + ex.getMessage());
+                log.warn("[WebSocket] Broadcast error: {}", ex.getMessage());
                 return null;
             });
     }
@@ -166,7 +168,7 @@ public class PriceWebSocketServer extends WebSocketServer implements com.pricetr
      */
     public void shutdown() {
         try {
-            System.out.println("[WebSocket] Shutting down... (" + clients.size() + " clients)");
+            log.info("[WebSocket] Shutting down... ({} clients)", clients.size());
             
             // Gửi disconnect message
             broadcast("{\"type\":\"server_shutdown\",\"message\":\"Server is shutting down\"}");
@@ -196,10 +198,10 @@ public class PriceWebSocketServer extends WebSocketServer implements com.pricetr
             
             // Stop server
             stop(2000); // Timeout 2 seconds
-            System.out.println("[WebSocket] Server stopped successfully");
+            log.info("[WebSocket] Server stopped successfully");
             
         } catch (Exception e) {
-            System.err.println("[WebSocket] Error during shutdown: " + e.getMessage());
+            log.warn("[WebSocket] Error during shutdown: {}", e.getMessage());
         }
     }
 }
@@ -1,66 +1,75 @@
 package com.pricetracker.security;
 
-import java.util.logging.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.logging.Level;
 import java.util.regex.*;
 
 /**
  * SecureLogger - Logger tự động ẩn sensitive data
  * Tránh log key/password ra console
+ *
+ * Ghi qua SLF4J (cùng async appender với phần còn lại của server),
+ * sanitize() được dùng trực tiếp khi cần log dữ liệu từ client.
  */
 public class SecureLogger {
-    private static final Logger logger = Logger.getLogger("PriceTracker");
-    
+    private static final Logger logger = LoggerFactory.getLogger("PriceTracker");
+
     // Pattern để phát hiện sensitive data
-    private static final Pattern SENSITIVE_PATTERN = 
-        Pattern.compile("(key|password|secret|token|auth)\\s*[:=]\\s*([^\\s,}]+)", 
+    private static final Pattern SENSITIVE_PATTERN =
+        Pattern.compile("(key|password|secret|token|auth)\\s*[:=]\\s*([^\\s,}]+)",
                        Pattern.CASE_INSENSITIVE);
-    
-    static {
-        // Configure logger
-        logger.setLevel(Level.INFO);
-        ConsoleHandler handler = new ConsoleHandler();
-        handler.setLevel(Level.ALL);
-        handler.setFormatter(new SimpleFormatter());
-        logger.addHandler(handler);
-        logger.setUseParentHandlers(false);
-    }
-    
+
     /**
      * Log message (tự động ẩn sensitive data)
      */
     public static void log(Level level, String message) {
-        String sanitized = sanitizeMessage(message);
-        logger.log(level, sanitized);
+        int value = level.intValue();
+        if (value >= Level.SEVERE.intValue()) {
+            if (logger.isErrorEnabled()) {
+                logger.error(sanitize(message));
+            }
+        } else if (value >= Level.WARNING.intValue()) {
+            if (logger.isWarnEnabled()) {
+                logger.warn(sanitize(message));
+            }
+        } else if (value >= Level.INFO.intValue()) {
+            if (logger.isInfoEnabled()) {
+                logger.info(sanitize(message));
+            }
+        } else if (logger.isDebugEnabled()) {
+            logger.debug(sanitize(message));
+        }
     }
-    
+
     public static void info(String message) {
         log(Level.INFO, message);
     }
-    
+
     public static void warning(String message) {
         log(Level.WARNING, message);
     }
-    
+
     public static void error(String message) {
         log(Level.SEVERE, message);
     }
-    
+
     public static void error(String message, Throwable t) {
         log(Level.SEVERE, message);
-        if (t != null) {
-            logger.log(Level.SEVERE, "Exception: " + t.getClass().getName() + ": " + 
-                      sanitizeMessage(t.getMessage()));
+        if (t != null && logger.isErrorEnabled()) {
+            logger.error("Exception: " + t.getClass().getName() + ": " + sanitize(t.getMessage()));
         }
     }
-    
+
     /**
      * Ẩn sensitive data trong message
      */
-    private static String sanitizeMessage(String message) {
+    public static String sanitize(String message) {
         if (message == null) {
             return null;
         }
-        
+
         // Thay thế key/password/token bằng ***
         Matcher matcher = SENSITIVE_PATTERN.matcher(message);
         return matcher.replaceAll("$1: ****");